@@ -0,0 +1,167 @@
+package net.projectmonkey.spring.acl.enhancement.afterinvocation;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import net.projectmonkey.spring.acl.enhancement.identity.strategy.ExtendedObjectIdentityRetrievalStrategy;
+import net.projectmonkey.spring.acl.enhancement.service.AclFilterService;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.access.AfterInvocationProvider;
+import org.springframework.security.access.AuthorizationServiceException;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.SidRetrievalStrategy;
+import org.springframework.security.core.Authentication;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Replacement for Spring's
+ * {@link org.springframework.security.acls.afterinvocation.AclEntryAfterInvocationCollectionFilteringProvider}
+ * which removes the elements of a returned collection or array on which the
+ * principal lacks the required permissions, reading the acls of every element
+ * at once through an {@link AclFilterService} rather than one per element.
+ *
+ * Elements without an acl are removed. The acls of the remaining elements are
+ * still read together, in a single call if the acl service is a
+ * {@link net.projectmonkey.spring.acl.service.LenientAclService} and otherwise by
+ * splitting the read until the elements without an acl are isolated.
+ *
+ * As with the {@link net.projectmonkey.spring.acl.enhancement.voter.AclEntryVoter}
+ * the elements need not be the secured objects themselves, when a secured class
+ * and / or internal method is configured each element is taken to be, or to
+ * contain, the identifier of an instance of the secured class.
+ *
+ * Collections are filtered in place and returned, arrays are replaced by a new
+ * array of the same type.
+ *
+ * @author Andy Moody
+ */
+public class AclCollectionFilteringProvider implements AfterInvocationProvider {
+
+	private static final Log logger = LogFactory.getLog(AclCollectionFilteringProvider.class);
+
+	private final AclFilterService filterService;
+	private final String processConfigAttribute;
+	private final List<Permission> requirePermission;
+	private Class<?> securedClass;
+	private String internalMethod;
+
+	public AclCollectionFilteringProvider(final AclService aclService, final String processConfigAttribute,
+			final List<Permission> requirePermission) {
+		Assert.notNull(processConfigAttribute, "A processConfigAttribute is mandatory");
+		Assert.isTrue(requirePermission != null && !requirePermission.isEmpty(),
+				"One or more requirePermission entries is mandatory");
+		this.filterService = new AclFilterService(aclService);
+		this.processConfigAttribute = processConfigAttribute;
+		this.requirePermission = requirePermission;
+	}
+
+	@Override
+	public Object decide(final Authentication authentication, final Object object,
+			final Collection<ConfigAttribute> config, final Object returnedObject) throws AccessDeniedException {
+		if (returnedObject == null)
+		{
+			if (logger.isDebugEnabled())
+			{
+				logger.debug("Return object is null, skipping");
+			}
+			return null;
+		}
+
+		for (ConfigAttribute attr : config)
+		{
+			if (!supports(attr))
+			{
+				continue;
+			}
+
+			if (returnedObject instanceof Collection)
+			{
+				@SuppressWarnings("unchecked")
+				Collection<Object> collection = (Collection<Object>) returnedObject;
+				List<Object> permitted = filterService.filter(collection, securedClass, internalMethod, authentication,
+						requirePermission);
+				if (permitted.size() != collection.size())
+				{
+					collection.clear();
+					collection.addAll(permitted);
+				}
+				return collection;
+			}
+			if (returnedObject.getClass().isArray())
+			{
+				Object[] array = (Object[]) returnedObject;
+				List<Object> permitted = filterService.filter(Arrays.asList(array), securedClass, internalMethod,
+						authentication, requirePermission);
+				if (permitted.size() == array.length)
+				{
+					return array;
+				}
+				Object[] filtered = (Object[]) Array.newInstance(array.getClass().getComponentType(), permitted.size());
+				return permitted.toArray(filtered);
+			}
+			throw new AuthorizationServiceException(
+					"A Collection or an array (or null) was required as the returnedObject, but the returnedObject was: "
+							+ returnedObject);
+		}
+
+		return returnedObject;
+	}
+
+	@Override
+	public boolean supports(final ConfigAttribute attribute) {
+		return (attribute.getAttribute() != null) && attribute.getAttribute().equals(processConfigAttribute);
+	}
+
+	@Override
+	public boolean supports(final Class<?> clazz) {
+		return true;
+	}
+
+	/**
+	 * Set the class secured by the returned elements, by default the class of each element.
+	 * @param securedClass
+	 */
+	public void setSecuredClass(final Class<?> securedClass) {
+		this.securedClass = securedClass;
+	}
+
+	/**
+	 * Set the method returning the identifier from each returned element, by default none.
+	 * @param internalMethod
+	 */
+	public void setInternalMethod(final String internalMethod) {
+		this.internalMethod = internalMethod;
+	}
+
+	public void setObjectIdentityRetrievalStrategy(final ExtendedObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy) {
+		filterService.setObjectIdentityRetrievalStrategy(objectIdentityRetrievalStrategy);
+	}
+
+	public void setSidRetrievalStrategy(final SidRetrievalStrategy sidRetrievalStrategy) {
+		filterService.setSidRetrievalStrategy(sidRetrievalStrategy);
+	}
+
+}
@@ -2,6 +2,8 @@ package net.projectmonkey.spring.acl.enhancement.identity.strategy.method;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.projectmonkey.spring.acl.enhancement.annotation.SecuredAgainst;
 import net.projectmonkey.spring.acl.enhancement.annotation.SecuredId;
@@ -60,6 +62,9 @@ import org.springframework.util.StringUtils;
  * internalMethod configured on the annotation it will take precedence over any configured in this
  * class.
  * 
+ * The parameter to use is worked out once for each method and remembered, so
+ * later invocations of the method only pick out the argument.
+ * 
  * throws AuthorizationServiceException 
  * if 
  * no class is provided either in a {@link SecuredAgainst} annotation or the processDomainObjectClass field. 
@@ -75,6 +80,8 @@ public class DefaultMethodInvocationObjectIdRetrievalStrategy implements MethodI
 	private ExtendedObjectIdentityRetrievalStrategy mappedIdentityRetrievalStrategy = new DefaultObjectIdentityRetrievalStrategy();
 	private Class<?> processDomainObjectClass;
 	private String internalMethod;
+	// the parameter scan only depends on the method and the configuration, so is done once per method
+	private final ConcurrentMap<Method, InvocationPlan> plans = new ConcurrentHashMap<Method, InvocationPlan>();
 	
 	public DefaultMethodInvocationObjectIdRetrievalStrategy(){}
 
@@ -102,54 +109,54 @@ public class DefaultMethodInvocationObjectIdRetrievalStrategy implements MethodI
 	 * @return
 	 */
 	protected SecureObjectMapping locateSecureObjectMapping(final MethodInvocation invocation) {
-		SecureObjectMapping matchingSecuredIdParamValue = null;
-		SecureObjectMapping matchingAssignable = null;
+		InvocationPlan plan = resolvePlan(invocation.getMethod());
+		return plan.map(invocation.getArguments());
+	}
+
+	private InvocationPlan resolvePlan(final Method method) {
+		InvocationPlan plan = plans.get(method);
+		if (plan == null)
+		{
+			plan = compilePlan(method);
+			plans.putIfAbsent(method, plan);
+		}
+		return plan;
+	}
 
-		Method method = invocation.getMethod();
+	private InvocationPlan compilePlan(final Method method) {
 		Class<?> securedClass = resolveSecuredClass(method);
 
 		Class<?>[] parameterTypes = method.getParameterTypes();
-		Object[] arguments = invocation.getArguments();
 		Annotation[][] parameterAnnotations = method.getParameterAnnotations();
 		
-		if(arguments.length == 1) 
+		if(parameterTypes.length == 1) 
 		{
-			Object argument = arguments[0];
-			Annotation[] annotations = parameterAnnotations[0];
-			SecuredId parameterAnnotation = locateAnnotation(annotations);
+			SecuredId parameterAnnotation = locateAnnotation(parameterAnnotations[0]);
 			String internalMethod = this.internalMethod;
 			if (parameterAnnotation != null)
 			{
 				internalMethod = resolveInternalMethod(parameterAnnotation);
 			}
-			matchingSecuredIdParamValue = new SecureObjectMappingWithInternalMethod(argument, securedClass, internalMethod);
+			return new InvocationPlan(0, securedClass, internalMethod);
 		}
-		else
+
+		InvocationPlan matchingAssignable = InvocationPlan.NONE;
+		for (int i = 0; i < parameterTypes.length; i++)
 		{
-			for (int i = 0; i < arguments.length && matchingSecuredIdParamValue == null; i++)
+			SecuredId parameterAnnotation = locateAnnotation(parameterAnnotations[i]);
+			if (parameterAnnotation != null)
 			{
-				Object argument = arguments[i];
-				
-				Annotation[] annotations = parameterAnnotations[i];
-				SecuredId parameterAnnotation = locateAnnotation(annotations);
-				if (parameterAnnotation != null)
-				{
-					String internalMethod = resolveInternalMethod(parameterAnnotation);
-					matchingSecuredIdParamValue = new SecureObjectMappingWithInternalMethod(argument, securedClass, internalMethod);
-					break; // we've found a parameter which specifies it provides the id, so break;
-				}
-				
-				Class<?> parameterType = parameterTypes[i];
-				
-				if (matchingAssignable == null && securedClass.isAssignableFrom(parameterType))
-				{
-					//here we use the actual argument type as the secured class since we are an instance of the required type.
-					matchingAssignable = new SecureObjectMappingWithInternalMethod(argument, internalMethod);
-				}
+				// we've found a parameter which specifies it provides the id
+				return new InvocationPlan(i, securedClass, resolveInternalMethod(parameterAnnotation));
 			}
 			
+			if (matchingAssignable == InvocationPlan.NONE && securedClass.isAssignableFrom(parameterTypes[i]))
+			{
+				//here we use the actual argument type as the secured class since we are an instance of the required type.
+				matchingAssignable = new InvocationPlan(i, null, internalMethod);
+			}
 		}
-		return firstNonNull(matchingSecuredIdParamValue, matchingAssignable);
+		return matchingAssignable;
 	}
 	
 	/**
@@ -171,16 +178,6 @@ public class DefaultMethodInvocationObjectIdRetrievalStrategy implements MethodI
 		return classToFind;
 	}
 
-	private SecureObjectMapping firstNonNull(final SecureObjectMapping... values) {
-		for (SecureObjectMapping value : values)
-		{
-			if(value != null){
-				return value;
-			}
-		}
-		return null;
-	}
-
 	private String resolveInternalMethod(final SecuredId annotation) {
 		String internalMethod = annotation.internalMethod();
 		if (!StringUtils.hasText(internalMethod))
@@ -208,6 +205,7 @@ public class DefaultMethodInvocationObjectIdRetrievalStrategy implements MethodI
 	
 	public void setProcessDomainObjectClass(final Class<?> processDomainObjectClass) {
 		this.processDomainObjectClass = processDomainObjectClass;
+		plans.clear();
 	}
 	
 	/**
@@ -225,6 +223,40 @@ public class DefaultMethodInvocationObjectIdRetrievalStrategy implements MethodI
 	 */
 	public void setInternalMethod(final String internalMethod) {
 		this.internalMethod = internalMethod;
+		plans.clear();
+	}
+
+	/**
+	 * The parameter of a method providing the secured object, along with the
+	 * secured class and internal method to use for it.
+	 */
+	private static final class InvocationPlan {
+
+		private static final InvocationPlan NONE = new InvocationPlan(-1, null, null);
+
+		private final int argumentIndex;
+		// null to use the class of the argument
+		private final Class<?> securedClass;
+		private final String internalMethod;
+
+		InvocationPlan(final int argumentIndex, final Class<?> securedClass, final String internalMethod) {
+			this.argumentIndex = argumentIndex;
+			this.securedClass = securedClass;
+			this.internalMethod = internalMethod;
+		}
+
+		SecureObjectMapping map(final Object[] arguments) {
+			if (argumentIndex < 0 || argumentIndex >= arguments.length)
+			{
+				return null;
+			}
+			Object argument = arguments[argumentIndex];
+			if (securedClass == null)
+			{
+				return new SecureObjectMappingWithInternalMethod(argument, internalMethod);
+			}
+			return new SecureObjectMappingWithInternalMethod(argument, securedClass, internalMethod);
+		}
 	}
 
 }
@@ -0,0 +1,196 @@
+package net.projectmonkey.spring.acl.enhancement.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import net.projectmonkey.spring.acl.enhancement.identity.mapping.SecureObjectMappingWithInternalMethod;
+import net.projectmonkey.spring.acl.enhancement.identity.strategy.DefaultObjectIdentityRetrievalStrategy;
+import net.projectmonkey.spring.acl.enhancement.identity.strategy.ExtendedObjectIdentityRetrievalStrategy;
+
+import org.springframework.security.acls.domain.SidRetrievalStrategyImpl;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.SidRetrievalStrategy;
+import org.springframework.security.core.Authentication;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Filters collections of domain objects down to those on which a principal
+ * holds the required permissions, reading the acls of every object together
+ * rather than an acl per object.
+ *
+ * Objects without an identity or an acl, and those whose acl neither grants nor
+ * denies the permissions, are filtered out.
+ *
+ * A {@link net.projectmonkey.spring.acl.service.LenientAclService} is read in a
+ * single call. Other services fail the whole read when some of the objects have
+ * no acl, in which case the batch is split until the objects without an acl are
+ * isolated, see {@link AclServiceUtil}.
+ *
+ * @author Andy Moody
+ */
+public class AclFilterService {
+
+	private final AclService aclService;
+	private ExtendedObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy = new DefaultObjectIdentityRetrievalStrategy();
+	private SidRetrievalStrategy sidRetrievalStrategy = new SidRetrievalStrategyImpl();
+
+	public AclFilterService(final AclService aclService) {
+		Assert.notNull(aclService, "An AclService is mandatory");
+		this.aclService = aclService;
+	}
+
+	/**
+	 * @param domainObjects
+	 * @param authentication
+	 * @param permissions the permissions of which any one must be granted
+	 * @return the permitted domain objects in their original order
+	 */
+	public <T> List<T> filter(final Collection<T> domainObjects, final Authentication authentication,
+			final List<Permission> permissions) {
+		return filter(domainObjects, sidRetrievalStrategy.getSids(authentication), permissions);
+	}
+
+	/**
+	 * @param domainObjects
+	 * @param sids the sids of the principal
+	 * @param permissions the permissions of which any one must be granted
+	 * @return the permitted domain objects in their original order
+	 */
+	public <T> List<T> filter(final Collection<T> domainObjects, final List<Sid> sids, final List<Permission> permissions) {
+		return filter(domainObjects, null, null, sids, permissions);
+	}
+
+	/**
+	 * @param domainObjects
+	 * @param securedClass the class secured by the domain objects, if null the class of each domain object
+	 * @param internalMethod the method returning the identifier from a domain object, may be null
+	 * @param authentication
+	 * @param permissions the permissions of which any one must be granted
+	 * @return the permitted domain objects in their original order
+	 * @see #filter(Collection, Class, String, List, List)
+	 */
+	public <T> List<T> filter(final Collection<T> domainObjects, final Class<?> securedClass, final String internalMethod,
+			final Authentication authentication, final List<Permission> permissions) {
+		return filter(domainObjects, securedClass, internalMethod, sidRetrievalStrategy.getSids(authentication),
+				permissions);
+	}
+
+	/**
+	 * Filters domain objects which identify, or contain the identifier of, instances of another class.
+	 *
+	 * @param domainObjects
+	 * @param securedClass the class secured by the domain objects, if null the class of each domain object
+	 * @param internalMethod the method returning the identifier from a domain object, may be null
+	 * @param sids the sids of the principal
+	 * @param permissions the permissions of which any one must be granted
+	 * @return the permitted domain objects in their original order
+	 * @see SecureObjectMappingWithInternalMethod
+	 */
+	public <T> List<T> filter(final Collection<T> domainObjects, final Class<?> securedClass, final String internalMethod,
+			final List<Sid> sids, final List<Permission> permissions) {
+		Assert.notNull(domainObjects, "domainObjects must not be null");
+		Assert.notEmpty(permissions, "One or more permissions is mandatory");
+
+		List<ObjectIdentity> identities = new ArrayList<ObjectIdentity>(domainObjects.size());
+		LinkedHashSet<ObjectIdentity> distinct = new LinkedHashSet<ObjectIdentity>();
+		for (T domainObject : domainObjects)
+		{
+			ObjectIdentity identity = getObjectIdentity(domainObject, securedClass, internalMethod);
+			identities.add(identity);
+			if (identity != null)
+			{
+				distinct.add(identity);
+			}
+		}
+
+		Map<ObjectIdentity, Boolean> decisions = decide(new ArrayList<ObjectIdentity>(distinct), sids, permissions);
+		List<T> toReturn = new ArrayList<T>();
+		int i = 0;
+		for (T domainObject : domainObjects)
+		{
+			ObjectIdentity identity = identities.get(i++);
+			if (identity != null && Boolean.TRUE.equals(decisions.get(identity)))
+			{
+				toReturn.add(domainObject);
+			}
+		}
+		return toReturn;
+	}
+
+	public void setObjectIdentityRetrievalStrategy(final ExtendedObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy) {
+		Assert.notNull(objectIdentityRetrievalStrategy, "objectIdentityRetrievalStrategy required");
+		this.objectIdentityRetrievalStrategy = objectIdentityRetrievalStrategy;
+	}
+
+	public void setSidRetrievalStrategy(final SidRetrievalStrategy sidRetrievalStrategy) {
+		Assert.notNull(sidRetrievalStrategy, "SidRetrievalStrategy required");
+		this.sidRetrievalStrategy = sidRetrievalStrategy;
+	}
+
+	private ObjectIdentity getObjectIdentity(final Object domainObject, final Class<?> securedClass,
+			final String internalMethod) {
+		if (domainObject == null)
+		{
+			return null;
+		}
+		if (securedClass == null && internalMethod == null)
+		{
+			return objectIdentityRetrievalStrategy.getObjectIdentity(domainObject);
+		}
+		return objectIdentityRetrievalStrategy.getObjectIdentity(new SecureObjectMappingWithInternalMethod(domainObject,
+				securedClass == null ? domainObject.getClass() : securedClass, internalMethod));
+	}
+
+	private Map<ObjectIdentity, Boolean> decide(final List<ObjectIdentity> identities, final List<Sid> sids,
+			final List<Permission> permissions) {
+		Map<ObjectIdentity, Boolean> decisions = new HashMap<ObjectIdentity, Boolean>();
+		if (identities.isEmpty())
+		{
+			return decisions;
+		}
+		Map<ObjectIdentity, Acl> acls = AclServiceUtil.readExistingAcls(aclService, identities, sids);
+		for (ObjectIdentity identity : identities)
+		{
+			Acl acl = acls.get(identity);
+			decisions.put(identity, acl != null && isGranted(acl, sids, permissions));
+		}
+		return decisions;
+	}
+
+	private boolean isGranted(final Acl acl, final List<Sid> sids, final List<Permission> permissions) {
+		try
+		{
+			return acl.isGranted(permissions, sids, false);
+		}
+		catch (NotFoundException e)
+		{
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+package net.projectmonkey.spring.acl.enhancement.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.projectmonkey.spring.acl.service.LenientAclService;
+
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Reads the acls of a batch of objects of which only some may have an acl.
+ *
+ * A {@link LenientAclService} is read in a single call. Any other service fails
+ * the whole read if an object has no acl, so the batch is split in half and each
+ * half read again until the objects without an acl are isolated, which takes a
+ * few calls per missing acl rather than a call per object. A failed batch of at
+ * most {@value #SINGLE_READ_SIZE} objects is not split further but read an object
+ * at a time, so that when every object lacks an acl a batch of n objects takes at
+ * most n + n / 2 calls rather than the 2n - 1 of splitting down to single objects.
+ *
+ * @author Andy Moody
+ */
+public class AclServiceUtil {
+
+	static final int SINGLE_READ_SIZE = 8;
+
+	/**
+	 * @param aclService
+	 * @param identities
+	 * @param sids
+	 * @return map of the identities with an acl against their acl
+	 */
+	public static Map<ObjectIdentity, Acl> readExistingAcls(final AclService aclService,
+			final List<ObjectIdentity> identities, final List<Sid> sids) {
+		if (aclService instanceof LenientAclService)
+		{
+			return ((LenientAclService) aclService).readExistingAclsById(identities, sids);
+		}
+		Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+		readSplitting(aclService, identities, sids, acls);
+		return acls;
+	}
+
+	private static void readSplitting(final AclService aclService, final List<ObjectIdentity> identities,
+			final List<Sid> sids, final Map<ObjectIdentity, Acl> acls) {
+		try
+		{
+			acls.putAll(aclService.readAclsById(identities, sids));
+		}
+		catch (NotFoundException e)
+		{
+			if (identities.size() > SINGLE_READ_SIZE)
+			{
+				int middle = identities.size() / 2;
+				readSplitting(aclService, new ArrayList<ObjectIdentity>(identities.subList(0, middle)), sids, acls);
+				readSplitting(aclService, new ArrayList<ObjectIdentity>(identities.subList(middle, identities.size())),
+						sids, acls);
+			}
+			else if (identities.size() > 1)
+			{
+				readEach(aclService, identities, sids, acls);
+			}
+		}
+	}
+
+	private static void readEach(final AclService aclService, final List<ObjectIdentity> identities,
+			final List<Sid> sids, final Map<ObjectIdentity, Acl> acls) {
+		for (ObjectIdentity identity : identities)
+		{
+			try
+			{
+				acls.put(identity, aclService.readAclById(identity, sids));
+			}
+			catch (NotFoundException e)
+			{
+				// the object has no acl
+			}
+		}
+	}
+
+}
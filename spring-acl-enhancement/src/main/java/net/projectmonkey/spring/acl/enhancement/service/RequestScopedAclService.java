@@ -0,0 +1,305 @@
+package net.projectmonkey.spring.acl.enhancement.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.projectmonkey.spring.acl.enhancement.voter.AclEntryVoter;
+import net.projectmonkey.spring.acl.service.LenientAclService;
+
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * {@link AclService} decorator which remembers the acls read by the current
+ * thread, keyed by identity and requested sids, so that repeated reads of the same
+ * acl within a request, e.g. by an {@link AclEntryVoter} securing several methods
+ * called with the same domain object, only reach the delegate once.
+ *
+ * Acls are only remembered between calls to {@link #begin()} and {@link #end()}
+ * which would typically be made by a servlet filter or interceptor at the start
+ * and end of each request, outside of this scope every call is passed straight
+ * to the delegate. Identities without an acl are remembered as well.
+ *
+ * Only reads made for a list of sids, as made by voters and other authorization
+ * checks, are remembered. Reads made without sids are typically made to edit the
+ * acl, so they are always passed to the delegate and each caller gets its own acl
+ * rather than one shared with, and changed by, other callers in the request.
+ *
+ * Changes made to acls during the scope are not seen by later reads within it.
+ *
+ * @author Andy Moody
+ */
+public class RequestScopedAclService implements LenientAclService {
+
+	private final AclService delegate;
+	private final ThreadLocal<Scope> scopes = new ThreadLocal<Scope>();
+
+	public RequestScopedAclService(final AclService delegate) {
+		Assert.notNull(delegate, "delegate must not be null");
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Starts remembering the acls read by the current thread, discarding any
+	 * remembered by an earlier scope which was not ended.
+	 */
+	public void begin() {
+		scopes.set(new Scope());
+	}
+
+	/**
+	 * Forgets the acls read by the current thread and stops remembering them.
+	 */
+	public void end() {
+		scopes.remove();
+	}
+
+	@Override
+	public List<ObjectIdentity> findChildren(final ObjectIdentity parentIdentity) {
+		return delegate.findChildren(parentIdentity);
+	}
+
+	@Override
+	public Acl readAclById(final ObjectIdentity identity) throws NotFoundException {
+		return readAclById(identity, null);
+	}
+
+	@Override
+	public Acl readAclById(final ObjectIdentity identity, final List<Sid> sids) throws NotFoundException {
+		Scope scope = scopes.get();
+		if (scope == null || sids == null)
+		{
+			return delegate.readAclById(identity, sids);
+		}
+		Remembered remembered = scope.forSids(sids);
+		if (remembered.contains(identity))
+		{
+			return remembered.get(identity);
+		}
+		Acl acl;
+		try
+		{
+			acl = delegate.readAclById(identity, sids);
+		}
+		catch (NotFoundException e)
+		{
+			remembered.missing.add(identity);
+			throw e;
+		}
+		remembered.acls.put(identity, acl);
+		return acl;
+	}
+
+	@Override
+	public Map<ObjectIdentity, Acl> readAclsById(final List<ObjectIdentity> objects) throws NotFoundException {
+		return readAclsById(objects, null);
+	}
+
+	/**
+	 * Reads the acls not already remembered from the delegate in a single call.
+	 */
+	@Override
+	public Map<ObjectIdentity, Acl> readAclsById(final List<ObjectIdentity> objects, final List<Sid> sids)
+			throws NotFoundException {
+		Scope scope = scopes.get();
+		if (scope == null || sids == null)
+		{
+			return delegate.readAclsById(objects, sids);
+		}
+		Remembered remembered = scope.forSids(sids);
+		Map<ObjectIdentity, Acl> toReturn = new HashMap<ObjectIdentity, Acl>();
+		LinkedHashSet<ObjectIdentity> unread = new LinkedHashSet<ObjectIdentity>();
+		for (ObjectIdentity identity : objects)
+		{
+			if (remembered.contains(identity))
+			{
+				toReturn.put(identity, remembered.get(identity));
+			}
+			else
+			{
+				unread.add(identity);
+			}
+		}
+		if (!unread.isEmpty())
+		{
+			Map<ObjectIdentity, Acl> read = delegate.readAclsById(new ArrayList<ObjectIdentity>(unread), sids);
+			remembered.acls.putAll(read);
+			toReturn.putAll(read);
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Reads the acls not already remembered from the delegate together, see
+	 * {@link AclServiceUtil}, remembering the identities found to have no acl.
+	 */
+	@Override
+	public Map<ObjectIdentity, Acl> readExistingAclsById(final List<ObjectIdentity> objects, final List<Sid> sids) {
+		Scope scope = scopes.get();
+		if (scope == null || sids == null)
+		{
+			return AclServiceUtil.readExistingAcls(delegate, objects, sids);
+		}
+		Remembered remembered = scope.forSids(sids);
+		Map<ObjectIdentity, Acl> toReturn = new HashMap<ObjectIdentity, Acl>();
+		LinkedHashSet<ObjectIdentity> unread = new LinkedHashSet<ObjectIdentity>();
+		for (ObjectIdentity identity : objects)
+		{
+			Acl acl = remembered.acls.get(identity);
+			if (acl != null)
+			{
+				toReturn.put(identity, acl);
+			}
+			else if (!remembered.missing.contains(identity))
+			{
+				unread.add(identity);
+			}
+		}
+		if (!unread.isEmpty())
+		{
+			Map<ObjectIdentity, Acl> read = AclServiceUtil.readExistingAcls(delegate, new ArrayList<ObjectIdentity>(unread),
+					sids);
+			for (ObjectIdentity identity : unread)
+			{
+				if (!read.containsKey(identity))
+				{
+					remembered.missing.add(identity);
+				}
+			}
+			remembered.acls.putAll(read);
+			toReturn.putAll(read);
+		}
+		return toReturn;
+	}
+
+	/**
+	 * The acls read within the current scope of a thread, grouped by the sids
+	 * they were read for so that each list of sids is only hashed once per call
+	 * rather than once per identity.
+	 */
+	private static final class Scope {
+
+		private final Map<SidList, Remembered> bySids = new HashMap<SidList, Remembered>();
+		private SidList lastSids;
+		private Remembered lastRemembered;
+
+		/**
+		 * @return the acls remembered for the sids, the same sids are typically
+		 *         requested throughout a scope so the last list used is checked
+		 *         first without hashing it
+		 */
+		Remembered forSids(final List<Sid> sids) {
+			if (lastSids != null && lastSids.hasSameElements(sids))
+			{
+				return lastRemembered;
+			}
+			SidList key = new SidList(sids);
+			Remembered remembered = bySids.get(key);
+			if (remembered == null)
+			{
+				remembered = new Remembered();
+				bySids.put(key, remembered);
+			}
+			lastSids = key;
+			lastRemembered = remembered;
+			return remembered;
+		}
+	}
+
+	/**
+	 * The acls read, and identities found to have no acl, for a list of sids.
+	 */
+	private static final class Remembered {
+
+		private final Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+		private final Set<ObjectIdentity> missing = new HashSet<ObjectIdentity>();
+
+		boolean contains(final ObjectIdentity identity) {
+			return acls.containsKey(identity) || missing.contains(identity);
+		}
+
+		Acl get(final ObjectIdentity identity) {
+			if (missing.contains(identity))
+			{
+				throw new NotFoundException("Unable to find ACL information for object identity '" + identity + "'");
+			}
+			return acls.get(identity);
+		}
+	}
+
+	/**
+	 * Copy of a list of requested sids, which may be null, hashed once. The sids
+	 * are compared as a list as they are always retrieved in the same order for
+	 * an authentication.
+	 */
+	private static final class SidList {
+
+		private final Sid[] sids;
+		private final int hash;
+
+		SidList(final List<Sid> sids) {
+			this.sids = sids == null ? null : sids.toArray(new Sid[sids.size()]);
+			this.hash = Arrays.hashCode(this.sids);
+		}
+
+		/**
+		 * @return true if the list holds the same sid instances, in the same order
+		 */
+		boolean hasSameElements(final List<Sid> other) {
+			if (sids == null || other == null)
+			{
+				return sids == null && other == null;
+			}
+			if (sids.length != other.size())
+			{
+				return false;
+			}
+			int i = 0;
+			for (Sid sid : other)
+			{
+				if (sids[i++] != sid)
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof SidList && Arrays.equals(sids, ((SidList) obj).sids);
+		}
+	}
+
+}
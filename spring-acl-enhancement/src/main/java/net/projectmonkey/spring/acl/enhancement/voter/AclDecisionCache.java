@@ -0,0 +1,413 @@
+package net.projectmonkey.spring.acl.enhancement.voter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.projectmonkey.spring.acl.cache.BatchAclCache;
+
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Bounded cache of the decisions made by an {@link AclEntryVoter}, keyed by the
+ * identifier of the secured object, the sids of the principal and the masks of
+ * the required permissions, so that repeated votes do not need to evaluate the
+ * entries of the acl.
+ *
+ * Decisions are discarded whenever the acl of the identity changes. To achieve
+ * this the {@link AclCache} supplied to the repository should be wrapped using
+ * {@link #invalidating(AclCache)}, every repository evicts an acl from its cache
+ * when the acl is updated or deleted and the decisions for the acl are then
+ * discarded along with it. Decisions are only cached for identities with an acl
+ * so creating an acl requires no invalidation. The decisions for an acl are also
+ * discarded when it is put in the cache, as it may have been reloaded with changes
+ * made elsewhere once the previous copy expired from the cache.
+ *
+ * When the supplied cache is a {@link BatchAclCache} the wrapper is one too, so
+ * that the repositories keep reading and writing the cache in batches.
+ *
+ * Changes made on other nodes only reach this node's cache once they are
+ * evicted from it, e.g. by an HBaseAclChangeTailer, or the acl expires from it.
+ * Decisions therefore also expire once their time to live has passed, which
+ * bounds how long a decision made from an acl changed elsewhere is used for.
+ *
+ * Once the maximum number of identities is reached the decisions for the least
+ * recently used identities are discarded first.
+ *
+ * @author Andy Moody
+ */
+public class AclDecisionCache {
+
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private final Segment[] segments;
+	private final int segmentMask;
+	private final long timeToLiveNanos;
+
+	/**
+	 * @param maximumIdentities the maximum number of identities to hold decisions for
+	 * @param timeToLiveSeconds the time after which a decision is made again
+	 */
+	public AclDecisionCache(final int maximumIdentities, final long timeToLiveSeconds) {
+		this(maximumIdentities, timeToLiveSeconds, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * @param maximumIdentities the maximum number of identities to hold decisions for
+	 * @param timeToLiveSeconds the time after which a decision is made again
+	 * @param concurrencyLevel the number of independently locked segments, rounded up to a power of two
+	 */
+	public AclDecisionCache(final int maximumIdentities, final long timeToLiveSeconds, final int concurrencyLevel) {
+		Assert.isTrue(maximumIdentities > 0, "maximumIdentities must be greater than zero");
+		Assert.isTrue(timeToLiveSeconds > 0, "timeToLiveSeconds must be greater than zero");
+		Assert.isTrue(concurrencyLevel > 0, "concurrencyLevel must be greater than zero");
+		int segmentCount = 1;
+		while (segmentCount < concurrencyLevel)
+		{
+			segmentCount <<= 1;
+		}
+		this.segmentMask = segmentCount - 1;
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+		{
+			segments[i] = new Segment(Math.max(1, maximumIdentities / segmentCount));
+		}
+		this.timeToLiveNanos = TimeUnit.SECONDS.toNanos(timeToLiveSeconds);
+	}
+
+	/**
+	 * @param identity
+	 * @param sids
+	 * @param permissions
+	 * @return the cached decision, or null if there is none or it has expired
+	 */
+	public Boolean getDecision(final ObjectIdentity identity, final List<Sid> sids, final List<Permission> permissions) {
+		Serializable identifier = identity.getIdentifier();
+		// the sids are only copied when a decision is cached
+		return segmentFor(identifier).get(identifier, new DecisionKey(sids, permissions), currentTime());
+	}
+
+	/**
+	 * Returns a stamp which must be obtained before reading the acl a decision is
+	 * made from and supplied when caching the decision, so that a decision made
+	 * from an acl which changed in the meantime is not cached.
+	 *
+	 * @param identity
+	 * @return the stamp
+	 */
+	public long getStamp(final ObjectIdentity identity) {
+		return segmentFor(identity.getIdentifier()).getStamp();
+	}
+
+	/**
+	 * Caches the decision unless the acl of the identity may have changed since the stamp was obtained.
+	 *
+	 * @param identity
+	 * @param sids
+	 * @param permissions
+	 * @param granted
+	 * @param stamp as returned by {@link #getStamp(ObjectIdentity)} before the acl was read
+	 */
+	public void putDecision(final ObjectIdentity identity, final List<Sid> sids, final List<Permission> permissions,
+			final boolean granted, final long stamp) {
+		Serializable identifier = identity.getIdentifier();
+		segmentFor(identifier).put(identifier, new DecisionKey(new ArrayList<Sid>(sids), permissions),
+				new Decision(granted, currentTime() + timeToLiveNanos), stamp);
+	}
+
+	/**
+	 * Discards every decision for the identifier.
+	 * @param identifier
+	 */
+	public void invalidate(final Serializable identifier) {
+		segmentFor(identifier).invalidate(identifier);
+	}
+
+	public void invalidate(final ObjectIdentity identity) {
+		invalidate(identity.getIdentifier());
+	}
+
+	public void clear() {
+		for (Segment segment : segments)
+		{
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @param aclCache
+	 * @return an {@link AclCache} delegating to the supplied cache which also
+	 *         discards the decisions for any acl evicted from or put in it, a
+	 *         {@link BatchAclCache} if the supplied cache is one
+	 */
+	public AclCache invalidating(final AclCache aclCache) {
+		Assert.notNull(aclCache, "aclCache must not be null");
+		if (aclCache instanceof BatchAclCache)
+		{
+			return new InvalidatingBatchAclCache((BatchAclCache) aclCache);
+		}
+		return new InvalidatingAclCache(aclCache);
+	}
+
+	/**
+	 * @return the current time in nanoseconds, used to expire decisions
+	 */
+	protected long currentTime() {
+		return System.nanoTime();
+	}
+
+	private Segment segmentFor(final Serializable identifier) {
+		int hash = identifier.hashCode();
+		return segments[(hash ^ (hash >>> 16)) & segmentMask];
+	}
+
+	private static class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Map<Serializable, Map<DecisionKey, Decision>> decisions;
+		private long invalidations;
+
+		@SuppressWarnings("serial")
+		Segment(final int maximumIdentities) {
+			this.decisions = new LinkedHashMap<Serializable, Map<DecisionKey, Decision>>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<Serializable, Map<DecisionKey, Decision>> eldest) {
+					return size() > maximumIdentities;
+				}
+			};
+		}
+
+		Boolean get(final Serializable identifier, final DecisionKey key, final long now) {
+			lock.lock();
+			try
+			{
+				Map<DecisionKey, Decision> forIdentifier = decisions.get(identifier);
+				Decision decision = forIdentifier == null ? null : forIdentifier.get(key);
+				if (decision == null)
+				{
+					return null;
+				}
+				if (decision.expiresAt - now <= 0)
+				{
+					forIdentifier.remove(key);
+					return null;
+				}
+				return decision.granted;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		long getStamp() {
+			lock.lock();
+			try
+			{
+				return invalidations;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void put(final Serializable identifier, final DecisionKey key, final Decision decision, final long stamp) {
+			lock.lock();
+			try
+			{
+				if (stamp == invalidations)
+				{
+					Map<DecisionKey, Decision> forIdentifier = decisions.get(identifier);
+					if (forIdentifier == null)
+					{
+						forIdentifier = new HashMap<DecisionKey, Decision>(4);
+						decisions.put(identifier, forIdentifier);
+					}
+					forIdentifier.put(key, decision);
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void invalidate(final Serializable identifier) {
+			lock.lock();
+			try
+			{
+				decisions.remove(identifier);
+				invalidations++;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			lock.lock();
+			try
+			{
+				decisions.clear();
+				invalidations++;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+
+	private static final class Decision {
+
+		private final boolean granted;
+		private final long expiresAt;
+
+		Decision(final boolean granted, final long expiresAt) {
+			this.granted = granted;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * The sids and required permission masks of a decision. The hash of the sids
+	 * is calculated once but the sids themselves are still compared so that
+	 * principals with colliding hashes never share a decision. Keys used for a
+	 * lookup hold the caller's list of sids, keys which are cached hold a copy.
+	 */
+	private static final class DecisionKey {
+
+		private final List<Sid> sids;
+		private final int[] masks;
+		private final int hash;
+
+		DecisionKey(final List<Sid> sids, final List<Permission> permissions) {
+			this.sids = sids;
+			this.masks = new int[permissions.size()];
+			for (int i = 0; i < masks.length; i++)
+			{
+				masks[i] = permissions.get(i).getMask();
+			}
+			this.hash = 31 * this.sids.hashCode() + Arrays.hashCode(masks);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof DecisionKey))
+			{
+				return false;
+			}
+			DecisionKey other = (DecisionKey) obj;
+			return hash == other.hash && Arrays.equals(masks, other.masks) && sids.equals(other.sids);
+		}
+	}
+
+	/**
+	 * Discards the decisions for every acl evicted from or put in the delegate.
+	 */
+	private class InvalidatingAclCache implements AclCache {
+
+		private final AclCache delegate;
+
+		InvalidatingAclCache(final AclCache delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void evictFromCache(final Serializable pk) {
+			delegate.evictFromCache(pk);
+			invalidate(pk);
+		}
+
+		@Override
+		public void evictFromCache(final ObjectIdentity objectIdentity) {
+			delegate.evictFromCache(objectIdentity);
+			invalidate(objectIdentity);
+		}
+
+		@Override
+		public MutableAcl getFromCache(final ObjectIdentity objectIdentity) {
+			return delegate.getFromCache(objectIdentity);
+		}
+
+		@Override
+		public MutableAcl getFromCache(final Serializable pk) {
+			return delegate.getFromCache(pk);
+		}
+
+		@Override
+		public void putInCache(final MutableAcl acl) {
+			delegate.putInCache(acl);
+			invalidate(acl.getObjectIdentity());
+		}
+
+		@Override
+		public void clearCache() {
+			delegate.clearCache();
+			clear();
+		}
+	}
+
+	/**
+	 * {@link InvalidatingAclCache} passing batches to the delegate.
+	 */
+	private class InvalidatingBatchAclCache extends InvalidatingAclCache implements BatchAclCache {
+
+		private final BatchAclCache delegate;
+
+		InvalidatingBatchAclCache(final BatchAclCache delegate) {
+			super(delegate);
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Map<ObjectIdentity, MutableAcl> getAllFromCache(final Collection<ObjectIdentity> identities) {
+			return delegate.getAllFromCache(identities);
+		}
+
+		@Override
+		public void putAllInCache(final Collection<? extends MutableAcl> acls) {
+			delegate.putAllInCache(acls);
+			for (MutableAcl acl : acls)
+			{
+				invalidate(acl.getObjectIdentity());
+			}
+		}
+	}
+
+}
@@ -6,6 +6,7 @@ import java.util.List;
 import net.projectmonkey.spring.acl.enhancement.identity.strategy.ConfigurableObjectIdentityRetrievalStrategy;
 import net.projectmonkey.spring.acl.enhancement.identity.strategy.method.DefaultMethodInvocationObjectIdRetrievalStrategy;
 import net.projectmonkey.spring.acl.enhancement.identity.strategy.method.MethodInvocationObjectIdRetrievalStrategy;
+import net.projectmonkey.spring.acl.entity.AuditAwareAcl;
 
 import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.logging.Log;
@@ -13,8 +14,10 @@ import org.apache.commons.logging.LogFactory;
 import org.springframework.security.access.AccessDecisionVoter;
 import org.springframework.security.access.ConfigAttribute;
 import org.springframework.security.acls.domain.SidRetrievalStrategyImpl;
+import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
 import org.springframework.security.acls.model.NotFoundException;
 import org.springframework.security.acls.model.ObjectIdentity;
 import org.springframework.security.acls.model.ObjectIdentityRetrievalStrategy;
@@ -59,6 +62,12 @@ import org.springframework.util.Assert;
  * with a {@link ConfigurableObjectIdentityRetrievalStrategy} specifying no constructor args to disable 
  * the call altogether or a constructor arg with the method name you'd like to use as an alternative.
  * 
+ * An {@link AclDecisionCache} can optionally be set to remember decisions so that repeated votes
+ * on the same object by the same principal do not need to read and evaluate the acl. A decision
+ * is not cached if an entry with the required permissions is auditable, as the audit logger of
+ * the acl's {@link org.springframework.security.acls.model.PermissionGrantingStrategy} is only
+ * invoked when the acl is evaluated. Cached decisions expire after the time to live of the cache.
+ * 
  * @author Andy Moody
  */
 public class AclEntryVoter implements AccessDecisionVoter<MethodInvocation> {
@@ -73,6 +82,7 @@ public class AclEntryVoter implements AccessDecisionVoter<MethodInvocation> {
 	private final List<Permission> requirePermission;
 	private MethodInvocationObjectIdRetrievalStrategy objectIdentityRetrievalStrategy;
 	private SidRetrievalStrategy sidRetrievalStrategy;
+	private AclDecisionCache decisionCache;
 
 	public AclEntryVoter(final AclService aclService, final String processConfigAttribute,
 			final List<Permission> requirePermission) {
@@ -137,6 +147,21 @@ public class AclEntryVoter implements AccessDecisionVoter<MethodInvocation> {
 			// Obtain the SIDs applicable to the principal
 			List<Sid> sids = sidRetrievalStrategy.getSids(authentication);
 
+			long stamp = 0;
+			if (decisionCache != null)
+			{
+				Boolean decision = decisionCache.getDecision(secureObjectIdentity, sids, requirePermission);
+				if (decision != null)
+				{
+					if (logger.isDebugEnabled())
+					{
+						logger.debug("Voting using the cached decision");
+					}
+					return decision ? ACCESS_GRANTED : ACCESS_DENIED;
+				}
+				stamp = decisionCache.getStamp(secureObjectIdentity);
+			}
+
 			Acl acl;
 
 			try
@@ -154,7 +179,7 @@ public class AclEntryVoter implements AccessDecisionVoter<MethodInvocation> {
 				return ACCESS_DENIED;
 			}
 
-			return checkGranted(sids, acl);
+			return checkGranted(secureObjectIdentity, sids, acl, stamp);
 		}
 
 		// No configuration attribute matched, so abstain
@@ -175,10 +200,23 @@ public class AclEntryVoter implements AccessDecisionVoter<MethodInvocation> {
 		this.sidRetrievalStrategy = sidRetrievalStrategy;
 	}
 
-	private int checkGranted(final List<Sid> sids, final Acl acl) {
+	/**
+	 * Set the cache used to remember decisions, by default decisions are not cached.
+	 * @param decisionCache
+	 */
+	public void setDecisionCache(final AclDecisionCache decisionCache) {
+		this.decisionCache = decisionCache;
+	}
+
+	private int checkGranted(final ObjectIdentity identity, final List<Sid> sids, final Acl acl, final long stamp) {
 		try
 		{
-			if (acl.isGranted(requirePermission, sids, false))
+			boolean granted = acl.isGranted(requirePermission, sids, false);
+			if (decisionCache != null && !isAudited(acl))
+			{
+				decisionCache.putDecision(identity, sids, requirePermission, granted, stamp);
+			}
+			if (granted)
 			{
 				if (logger.isDebugEnabled())
 				{
@@ -208,6 +246,48 @@ public class AclEntryVoter implements AccessDecisionVoter<MethodInvocation> {
 		}
 	}
 
+	/**
+	 * @return true if any entry which could decide the vote is audited, in
+	 *         which case every vote must evaluate the acl so that it is logged
+	 */
+	private boolean isAudited(final Acl acl) {
+		if (acl instanceof AuditAwareAcl)
+		{
+			// avoids creating the entries of acls which hold them in another form
+			for (Permission required : requirePermission)
+			{
+				if (((AuditAwareAcl) acl).isAudited(required.getMask()))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		for (AccessControlEntry ace : acl.getEntries())
+		{
+			if (ace instanceof AuditableAccessControlEntry)
+			{
+				AuditableAccessControlEntry auditable = (AuditableAccessControlEntry) ace;
+				if ((auditable.isAuditSuccess() || auditable.isAuditFailure()) && isRequired(ace.getPermission()))
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean isRequired(final Permission permission) {
+		for (Permission required : requirePermission)
+		{
+			if (required.getMask() == permission.getMask())
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public boolean supports(final Class<?> clazz) {
 		return MethodInvocation.class.isAssignableFrom(clazz);
@@ -0,0 +1,158 @@
+package net.projectmonkey.spring.acl.enhancement.afterinvocation;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.projectmonkey.spring.acl.enhancement.identity.strategy.ConfigurableObjectIdentityRetrievalStrategy;
+import net.projectmonkey.spring.acl.service.LenientAclService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.security.access.AuthorizationServiceException;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.access.SecurityConfig;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.SidRetrievalStrategy;
+import org.springframework.security.core.Authentication;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class AclCollectionFilteringProviderTest {
+
+	private static final String ATTRIBUTE = "AFTER_ACL_COLLECTION_READ";
+
+	private final List<Permission> permissions = asList(BasePermission.READ);
+	private final Collection<ConfigAttribute> config = SecurityConfig.createList(ATTRIBUTE);
+	private final ObjectIdentity identity1 = new ObjectIdentityImpl(String.class, 1L);
+	private final ObjectIdentity identity2 = new ObjectIdentityImpl(String.class, 2L);
+
+	@Mock
+	private AclService aclService;
+	@Mock
+	private SidRetrievalStrategy sidRetrievalStrategy;
+	@Mock
+	private Authentication authentication;
+	@Mock
+	private Sid sid;
+	@Mock
+	private Acl granted;
+	@Mock
+	private Acl denied;
+
+	private AclCollectionFilteringProvider underTest;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		List<Sid> sids = asList(sid);
+		when(sidRetrievalStrategy.getSids(authentication)).thenReturn(sids);
+		when(granted.isGranted(permissions, sids, false)).thenReturn(true);
+		when(denied.isGranted(permissions, sids, false)).thenReturn(false);
+		Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+		acls.put(identity1, denied);
+		acls.put(identity2, granted);
+		when(aclService.readAclsById(asList(identity1, identity2), sids)).thenReturn(acls);
+
+		underTest = new AclCollectionFilteringProvider(aclService, ATTRIBUTE, permissions);
+		underTest.setSidRetrievalStrategy(sidRetrievalStrategy);
+		underTest.setObjectIdentityRetrievalStrategy(new ConfigurableObjectIdentityRetrievalStrategy());
+		underTest.setSecuredClass(String.class);
+	}
+
+	@Test
+	public void collectionsAreFilteredInPlaceFromASingleRead() {
+		List<Long> returned = new ArrayList<Long>(asList(1L, 2L, 1L));
+
+		Object filtered = underTest.decide(authentication, null, config, returned);
+
+		assertSame(returned, filtered);
+		assertEquals(asList(2L), returned);
+		verify(aclService, never()).readAclById(identity1, asList(sid));
+	}
+
+	@Test
+	public void elementsWithoutAnAclAreFilteredWithoutReadingEachAcl() {
+		LenientAclService lenientService = mock(LenientAclService.class);
+		List<Sid> sids = asList(sid);
+		ObjectIdentity identity3 = new ObjectIdentityImpl(String.class, 3L);
+		Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+		acls.put(identity2, granted);
+		when(lenientService.readExistingAclsById(asList(identity1, identity2, identity3), sids)).thenReturn(acls);
+		underTest = new AclCollectionFilteringProvider(lenientService, ATTRIBUTE, permissions);
+		underTest.setSidRetrievalStrategy(sidRetrievalStrategy);
+		underTest.setObjectIdentityRetrievalStrategy(new ConfigurableObjectIdentityRetrievalStrategy());
+		underTest.setSecuredClass(String.class);
+		List<Long> returned = new ArrayList<Long>(asList(1L, 2L, 3L));
+
+		underTest.decide(authentication, null, config, returned);
+
+		assertEquals(asList(2L), returned);
+		verify(lenientService, never()).readAclsById(anyListOf(ObjectIdentity.class), anyListOf(Sid.class));
+		verify(lenientService, never()).readAclById(identity1, sids);
+		verify(lenientService, never()).readAclById(identity3, sids);
+	}
+
+	@Test
+	public void arraysAreReplacedByAFilteredArrayOfTheSameType() {
+		Object filtered = underTest.decide(authentication, null, config, new Long[] { 1L, 2L });
+
+		assertArrayEquals(new Long[] { 2L }, (Long[]) filtered);
+	}
+
+	@Test
+	public void returnedObjectsAreUntouchedWithoutAMatchingAttribute() {
+		List<Long> returned = new ArrayList<Long>(asList(1L, 2L));
+
+		underTest.decide(authentication, null, SecurityConfig.createList("OTHER"), returned);
+
+		assertEquals(asList(1L, 2L), returned);
+		verify(aclService, never()).readAclsById(anyListOf(ObjectIdentity.class), anyListOf(Sid.class));
+	}
+
+	@Test
+	public void nullIsReturnedForANullReturnedObject() {
+		assertNull(underTest.decide(authentication, null, config, null));
+	}
+
+	@Test(expected = AuthorizationServiceException.class)
+	public void otherReturnedObjectsAreRejected() {
+		underTest.decide(authentication, null, config, mock(Acl.class));
+	}
+
+}
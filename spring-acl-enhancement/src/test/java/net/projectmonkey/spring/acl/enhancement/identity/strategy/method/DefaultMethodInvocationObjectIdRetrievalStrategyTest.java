@@ -200,6 +200,33 @@ public class DefaultMethodInvocationObjectIdRetrievalStrategyTest {
 		assertEquals(identity, returned);
 	}
 
+	@Test
+	public void argumentsOfLaterInvocationsAreMappedUsingTheSameMethod() throws SecurityException, NoSuchMethodException{
+		TestClass2 arg1 = new TestClass2();
+		TestClass2 arg2 = new TestClass2();
+		stubMethodInvocation("methodWithMultipleAssignables", new Class<?>[]{TestClass.class, TestClass.class}, arg1, arg2);
+		underTest.getObjectIdentity(invocation);
+		
+		TestClass2 laterArg = new TestClass2();
+		when(invocation.getArguments()).thenReturn(new Object[]{laterArg, arg2});
+		when(mappedIdentityRetrievalStrategy.getObjectIdentity(Mockito.isA(SecureObjectMappingWithInternalMethod.class))).thenAnswer(assertMappingAndReturnIdentity(laterArg, TestClass2.class));
+		ObjectIdentity returned = underTest.getObjectIdentity(invocation);
+		assertEquals(identity, returned);
+	}
+	
+	@Test
+	public void configurationChangesApplyToMethodsAlreadyInvoked() throws SecurityException, NoSuchMethodException{
+		TestClass2 arg = new TestClass2();
+		stubMethodInvocation("methodWithNoSecuredAgainstAndParamsWhichMatchBecauseOfAssignable", new Class<?>[]{Object.class, TestClass.class}, new Object(), arg);
+		underTest.setProcessDomainObjectClass(TestClass.class);
+		underTest.getObjectIdentity(invocation);
+		
+		underTest.setInternalMethod("someOtherMethod");
+		when(mappedIdentityRetrievalStrategy.getObjectIdentity(Mockito.isA(SecureObjectMappingWithInternalMethod.class))).thenAnswer(assertMappingAndReturnIdentity(arg, TestClass2.class, "someOtherMethod"));
+		ObjectIdentity returned = underTest.getObjectIdentity(invocation);
+		assertEquals(identity, returned);
+	}
+
 	private void stubMethodInvocation(final String methodName, final Class<?>[] parameterTypes, final Object...arguments) throws SecurityException, NoSuchMethodException{
 		Method method = TestClass.class.getMethod(methodName, parameterTypes);
 		when(invocation.getMethod()).thenReturn(method);
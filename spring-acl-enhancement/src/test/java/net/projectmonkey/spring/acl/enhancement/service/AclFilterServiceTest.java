@@ -0,0 +1,137 @@
+package net.projectmonkey.spring.acl.enhancement.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.projectmonkey.spring.acl.enhancement.identity.strategy.ExtendedObjectIdentityRetrievalStrategy;
+import net.projectmonkey.spring.acl.service.LenientAclService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class AclFilterServiceTest {
+
+	private final List<Permission> permissions = asList(BasePermission.READ);
+
+	@Mock
+	private AclService aclService;
+	@Mock
+	private ExtendedObjectIdentityRetrievalStrategy identityStrategy;
+	@Mock
+	private ObjectIdentity identity1;
+	@Mock
+	private ObjectIdentity identity2;
+	@Mock
+	private ObjectIdentity identity3;
+	@Mock
+	private Sid sid;
+	@Mock
+	private Acl granted;
+	@Mock
+	private Acl denied;
+
+	private List<Sid> sids;
+	private AclFilterService underTest;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		sids = asList(sid);
+		when(identityStrategy.getObjectIdentity("one")).thenReturn(identity1);
+		when(identityStrategy.getObjectIdentity("two")).thenReturn(identity2);
+		when(identityStrategy.getObjectIdentity("three")).thenReturn(identity3);
+		when(granted.isGranted(permissions, sids, false)).thenReturn(true);
+		when(denied.isGranted(permissions, sids, false)).thenReturn(false);
+		underTest = new AclFilterService(aclService);
+		underTest.setObjectIdentityRetrievalStrategy(identityStrategy);
+	}
+
+	@Test
+	public void permittedObjectsAreReturnedInOrderFromASingleRead() {
+		Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+		acls.put(identity1, granted);
+		acls.put(identity2, denied);
+		acls.put(identity3, granted);
+		when(aclService.readAclsById(asList(identity3, identity2, identity1), sids)).thenReturn(acls);
+
+		List<String> filtered = underTest.filter(asList("three", "two", "one", "three", "unknown"), sids, permissions);
+
+		assertEquals(asList("three", "one", "three"), filtered);
+		verify(aclService, never()).readAclById(identity1, sids);
+	}
+
+	@Test
+	public void smallBatchesAreReadOneAtATimeWhenSomeAclsDoNotExist() {
+		when(aclService.readAclsById(asList(identity1, identity2, identity3), sids)).thenThrow(new NotFoundException("missing"));
+		when(aclService.readAclById(identity1, sids)).thenThrow(new NotFoundException("missing"));
+		when(aclService.readAclById(identity2, sids)).thenReturn(granted);
+		when(aclService.readAclById(identity3, sids)).thenReturn(granted);
+
+		assertEquals(asList("two", "three"), underTest.filter(asList("one", "two", "three"), sids, permissions));
+	}
+
+	@Test
+	public void lenientServicesAreReadOnceWhenSomeAclsDoNotExist() {
+		LenientAclService lenientService = mock(LenientAclService.class);
+		Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+		acls.put(identity2, granted);
+		when(lenientService.readExistingAclsById(asList(identity1, identity2), sids)).thenReturn(acls);
+		underTest = new AclFilterService(lenientService);
+		underTest.setObjectIdentityRetrievalStrategy(identityStrategy);
+
+		assertEquals(asList("two"), underTest.filter(asList("one", "two"), sids, permissions));
+		verify(lenientService, never()).readAclsById(anyListOf(ObjectIdentity.class), anyListOf(Sid.class));
+	}
+
+	@Test
+	public void objectsWhoseAclsDoNotApplyAreFilteredOut() {
+		Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+		acls.put(identity1, denied);
+		when(denied.isGranted(permissions, sids, false)).thenThrow(new NotFoundException("no matching ace"));
+		when(aclService.readAclsById(asList(identity1), sids)).thenReturn(acls);
+
+		assertEquals(0, underTest.filter(asList("one"), sids, permissions).size());
+	}
+
+	@Test
+	public void nothingIsReadForAnEmptyCollection() {
+		assertEquals(0, underTest.filter(asList(new String[0]), sids, permissions).size());
+
+		verify(aclService, never()).readAclsById(anyListOf(ObjectIdentity.class), anyListOf(Sid.class));
+	}
+
+}
@@ -0,0 +1,106 @@
+package net.projectmonkey.spring.acl.enhancement.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+
+public class AclServiceUtilTest {
+
+	private final AclService aclService = mock(AclService.class);
+	private final Acl acl = mock(Acl.class);
+	private final Set<ObjectIdentity> missing = new HashSet<ObjectIdentity>();
+	private final List<Sid> sids = Arrays.asList(mock(Sid.class));
+	private int calls;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		when(aclService.readAclsById(anyListOf(ObjectIdentity.class), anyListOf(Sid.class))).thenAnswer(
+				new Answer<Map<ObjectIdentity, Acl>>() {
+					@Override
+					public Map<ObjectIdentity, Acl> answer(final InvocationOnMock invocation) {
+						calls++;
+						Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+						for (ObjectIdentity identity : (List<ObjectIdentity>) invocation.getArguments()[0])
+						{
+							if (missing.contains(identity))
+							{
+								throw new NotFoundException("missing");
+							}
+							acls.put(identity, acl);
+						}
+						return acls;
+					}
+				});
+		when(aclService.readAclById(any(ObjectIdentity.class), anyListOf(Sid.class))).thenAnswer(new Answer<Acl>() {
+			@Override
+			public Acl answer(final InvocationOnMock invocation) {
+				calls++;
+				if (missing.contains(invocation.getArguments()[0]))
+				{
+					throw new NotFoundException("missing");
+				}
+				return acl;
+			}
+		});
+	}
+
+	@Test
+	public void largeBatchesAreSplitUntilTheMissingAclsAreInBatchesSmallEnoughToReadOneAtATime() {
+		List<ObjectIdentity> identities = identities(4 * AclServiceUtil.SINGLE_READ_SIZE);
+		missing.add(identities.get(0));
+
+		Map<ObjectIdentity, Acl> acls = AclServiceUtil.readExistingAcls(aclService, identities, sids);
+
+		assertEquals(identities.size() - 1, acls.size());
+		// the batch of 32, both halves of 16 and both quarters of 8
+		verify(aclService, times(5)).readAclsById(anyListOf(ObjectIdentity.class), anyListOf(Sid.class));
+		verify(aclService, times(AclServiceUtil.SINGLE_READ_SIZE)).readAclById(any(ObjectIdentity.class),
+				anyListOf(Sid.class));
+	}
+
+	@Test
+	public void aBatchWithoutAnyAclsTakesAtMostHalfAsManyCallsAgainAsThereAreObjects() {
+		List<ObjectIdentity> identities = identities(1000);
+		missing.addAll(identities);
+
+		Map<ObjectIdentity, Acl> acls = AclServiceUtil.readExistingAcls(aclService, identities, sids);
+
+		assertTrue(acls.isEmpty());
+		assertTrue(calls + " calls", calls <= identities.size() + identities.size() / 2);
+	}
+
+	private List<ObjectIdentity> identities(final int count) {
+		List<ObjectIdentity> identities = new ArrayList<ObjectIdentity>(count);
+		for (long i = 0; i < count; i++)
+		{
+			identities.add(new ObjectIdentityImpl(AclServiceUtilTest.class, i));
+		}
+		return identities;
+	}
+
+}
@@ -0,0 +1,224 @@
+package net.projectmonkey.spring.acl.enhancement.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.projectmonkey.spring.acl.service.LenientAclService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class RequestScopedAclServiceTest {
+
+	@Mock
+	private AclService delegate;
+	@Mock
+	private ObjectIdentity identity1;
+	@Mock
+	private ObjectIdentity identity2;
+	@Mock
+	private Sid sid1;
+	@Mock
+	private Sid sid2;
+	@Mock
+	private Acl acl1;
+	@Mock
+	private Acl acl2;
+
+	private RequestScopedAclService underTest;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		underTest = new RequestScopedAclService(delegate);
+	}
+
+	@After
+	public void tearDown() {
+		underTest.end();
+	}
+
+	@Test
+	public void aclsAreReadOnceWithinAScopeForTheSameSids() {
+		List<Sid> sids = asList(sid1);
+		when(delegate.readAclById(identity1, sids)).thenReturn(acl1);
+		underTest.begin();
+
+		assertSame(acl1, underTest.readAclById(identity1, sids));
+		assertSame(acl1, underTest.readAclById(identity1, asList(sid1)));
+
+		verify(delegate, times(1)).readAclById(identity1, sids);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void changingTheRequestedSidsAfterAReadDoesNotAffectTheRememberedAcls() {
+		List<Sid> sids = new ArrayList<Sid>(asList(sid1));
+		when(delegate.readAclById(identity1, asList(sid1))).thenReturn(acl1);
+		underTest.begin();
+
+		assertSame(acl1, underTest.readAclById(identity1, sids));
+		sids.add(sid2);
+		assertSame(acl1, underTest.readAclById(identity1, asList(sid1)));
+
+		verify(delegate, times(1)).readAclById(Mockito.eq(identity1), Mockito.any(List.class));
+	}
+
+	@Test
+	public void aclsAreReadAgainForDifferentSids() {
+		when(delegate.readAclById(identity1, asList(sid1))).thenReturn(acl1);
+		when(delegate.readAclById(identity1, asList(sid2))).thenReturn(acl2);
+		underTest.begin();
+
+		assertSame(acl1, underTest.readAclById(identity1, asList(sid1)));
+		assertSame(acl2, underTest.readAclById(identity1, asList(sid2)));
+	}
+
+	@Test
+	public void aclsAreReadEveryTimeOutsideOfAScope() {
+		when(delegate.readAclById(identity1, null)).thenReturn(acl1);
+
+		underTest.readAclById(identity1);
+		underTest.readAclById(identity1);
+
+		verify(delegate, times(2)).readAclById(identity1, null);
+	}
+
+	@Test
+	public void aclsAreForgottenWhenTheScopeEnds() {
+		List<Sid> sids = asList(sid1);
+		when(delegate.readAclById(identity1, sids)).thenReturn(acl1);
+		underTest.begin();
+		underTest.readAclById(identity1, sids);
+		underTest.end();
+
+		underTest.begin();
+		underTest.readAclById(identity1, sids);
+
+		verify(delegate, times(2)).readAclById(identity1, sids);
+	}
+
+	@Test
+	public void aclsReadWithoutSidsAreNotSharedBetweenCallersEditingThem() {
+		MutableAcl firstCopy = Mockito.mock(MutableAcl.class);
+		MutableAcl secondCopy = Mockito.mock(MutableAcl.class);
+		when(delegate.readAclById(identity1, null)).thenReturn(firstCopy, secondCopy);
+		underTest.begin();
+
+		MutableAcl first = (MutableAcl) underTest.readAclById(identity1);
+		first.insertAce(0, BasePermission.READ, sid1, true);
+		MutableAcl second = (MutableAcl) underTest.readAclById(identity1);
+		second.setOwner(sid2);
+
+		assertSame(firstCopy, first);
+		assertSame(secondCopy, second);
+		verify(firstCopy, Mockito.never()).setOwner(sid2);
+		verify(secondCopy, Mockito.never()).insertAce(0, BasePermission.READ, sid1, true);
+		verify(delegate, times(2)).readAclById(identity1, null);
+	}
+
+	@Test
+	public void identitiesWithoutAnAclAreRemembered() {
+		List<Sid> sids = asList(sid1);
+		when(delegate.readAclById(identity1, sids)).thenThrow(new NotFoundException("not found"));
+		underTest.begin();
+
+		for (int i = 0; i < 2; i++)
+		{
+			try
+			{
+				underTest.readAclById(identity1, sids);
+				fail("NotFoundException expected");
+			}
+			catch (NotFoundException expected)
+			{
+				// expected
+			}
+		}
+
+		verify(delegate, times(1)).readAclById(identity1, sids);
+	}
+
+	@Test
+	public void onlyAclsNotAlreadyReadAreRequestedInBulk() {
+		List<Sid> sids = asList(sid1);
+		when(delegate.readAclById(identity1, sids)).thenReturn(acl1);
+		Map<ObjectIdentity, Acl> read = new HashMap<ObjectIdentity, Acl>();
+		read.put(identity2, acl2);
+		when(delegate.readAclsById(asList(identity2), sids)).thenReturn(read);
+		underTest.begin();
+		underTest.readAclById(identity1, sids);
+
+		Map<ObjectIdentity, Acl> returned = underTest.readAclsById(asList(identity1, identity2), sids);
+
+		assertEquals(2, returned.size());
+		assertSame(acl1, returned.get(identity1));
+		assertSame(acl2, returned.get(identity2));
+		assertEquals(Collections.singletonMap(identity2, acl2), underTest.readAclsById(asList(identity2), sids));
+		verify(delegate, times(1)).readAclsById(asList(identity2), sids);
+	}
+
+	@Test
+	public void existingAclsAreReadFromALenientDelegateAndMissingOnesRemembered() {
+		LenientAclService lenientDelegate = Mockito.mock(LenientAclService.class);
+		underTest = new RequestScopedAclService(lenientDelegate);
+		List<Sid> sids = asList(sid1);
+		when(lenientDelegate.readExistingAclsById(asList(identity1, identity2), sids)).thenReturn(
+				Collections.singletonMap(identity2, acl2));
+		underTest.begin();
+
+		assertEquals(Collections.singletonMap(identity2, acl2), underTest.readExistingAclsById(asList(identity1, identity2), sids));
+		assertEquals(Collections.singletonMap(identity2, acl2), underTest.readExistingAclsById(asList(identity1, identity2), sids));
+		try
+		{
+			underTest.readAclById(identity1, sids);
+			fail("expected NotFoundException");
+		}
+		catch (NotFoundException e)
+		{
+			// expected
+		}
+
+		verify(lenientDelegate, times(1)).readExistingAclsById(asList(identity1, identity2), sids);
+		Mockito.verifyNoMoreInteractions(lenientDelegate);
+	}
+
+}
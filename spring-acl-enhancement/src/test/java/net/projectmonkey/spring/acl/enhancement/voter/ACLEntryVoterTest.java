@@ -2,6 +2,10 @@ package net.projectmonkey.spring.acl.enhancement.voter;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.springframework.security.access.AccessDecisionVoter.ACCESS_ABSTAIN;
@@ -13,14 +17,18 @@ import java.util.List;
 
 import net.projectmonkey.spring.acl.enhancement.identity.strategy.method.MethodInvocationObjectIdRetrievalStrategy;
 import net.projectmonkey.spring.acl.enhancement.voter.AclEntryVoter;
+import net.projectmonkey.spring.acl.entity.AuditAwareAcl;
 
 import org.aopalliance.intercept.MethodInvocation;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
 import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
 import org.springframework.security.acls.model.NotFoundException;
 import org.springframework.security.acls.model.ObjectIdentity;
 import org.springframework.security.acls.model.Permission;
@@ -131,5 +139,67 @@ public class ACLEntryVoterTest {
 		int returned = underTest.vote(authentication, invocation, attributes);
 		assertEquals(ACCESS_GRANTED, returned);
 	}
+	
+	@Test
+	public void cachedDecisionsAreUsedUntilTheAclIsEvicted(){
+		AclDecisionCache decisionCache = new AclDecisionCache(10, 60);
+		AclCache aclCache = decisionCache.invalidating(mock(AclCache.class));
+		underTest.setDecisionCache(decisionCache);
+		when(attribute.getAttribute()).thenReturn(PROCESS_CONFIG_ATTRIBUTE);
+		when(objectIdentityRetrievalStrategy.getObjectIdentity(invocation)).thenReturn(identity);
+		when(identity.getIdentifier()).thenReturn(1L);
+		when(sidRetrievalStrategy.getSids(authentication)).thenReturn(sids);
+		when(aclService.readAclById(identity, sids)).thenReturn(acl);
+		when(acl.isGranted(permissions, sids, false)).thenReturn(true);
+		assertEquals(ACCESS_GRANTED, underTest.vote(authentication, invocation, attributes));
+		
+		when(acl.isGranted(permissions, sids, false)).thenReturn(false);
+		assertEquals(ACCESS_GRANTED, underTest.vote(authentication, invocation, attributes));
+		verify(aclService, times(1)).readAclById(identity, sids);
+		
+		aclCache.evictFromCache(identity);
+		assertEquals(ACCESS_DENIED, underTest.vote(authentication, invocation, attributes));
+	}
+
+	@Test
+	public void decisionsAreNotCachedIfARequiredPermissionIsAudited(){
+		AuditableAccessControlEntry ace = mock(AuditableAccessControlEntry.class);
+		when(ace.getPermission()).thenReturn(permission2);
+		when(ace.isAuditSuccess()).thenReturn(true);
+		when(permission2.getMask()).thenReturn(2);
+		underTest.setDecisionCache(new AclDecisionCache(10, 60));
+		when(attribute.getAttribute()).thenReturn(PROCESS_CONFIG_ATTRIBUTE);
+		when(objectIdentityRetrievalStrategy.getObjectIdentity(invocation)).thenReturn(identity);
+		when(identity.getIdentifier()).thenReturn(1L);
+		when(sidRetrievalStrategy.getSids(authentication)).thenReturn(sids);
+		when(aclService.readAclById(identity, sids)).thenReturn(acl);
+		when(acl.getEntries()).thenReturn(asList((AccessControlEntry) ace));
+		when(acl.isGranted(permissions, sids, false)).thenReturn(true);
+
+		assertEquals(ACCESS_GRANTED, underTest.vote(authentication, invocation, attributes));
+		assertEquals(ACCESS_GRANTED, underTest.vote(authentication, invocation, attributes));
+
+		verify(acl, times(2)).isGranted(permissions, sids, false);
+	}
+
+	@Test
+	public void auditingIsCheckedWithoutReadingTheEntriesOfAnAuditAwareAcl(){
+		AuditAwareAcl auditAwareAcl = mock(AuditAwareAcl.class);
+		when(permission2.getMask()).thenReturn(2);
+		when(auditAwareAcl.isAudited(2)).thenReturn(true);
+		underTest.setDecisionCache(new AclDecisionCache(10, 60));
+		when(attribute.getAttribute()).thenReturn(PROCESS_CONFIG_ATTRIBUTE);
+		when(objectIdentityRetrievalStrategy.getObjectIdentity(invocation)).thenReturn(identity);
+		when(identity.getIdentifier()).thenReturn(1L);
+		when(sidRetrievalStrategy.getSids(authentication)).thenReturn(sids);
+		when(aclService.readAclById(identity, sids)).thenReturn(auditAwareAcl);
+		when(auditAwareAcl.isGranted(permissions, sids, false)).thenReturn(true);
+
+		assertEquals(ACCESS_GRANTED, underTest.vote(authentication, invocation, attributes));
+		assertEquals(ACCESS_GRANTED, underTest.vote(authentication, invocation, attributes));
+
+		verify(auditAwareAcl, times(2)).isGranted(permissions, sids, false);
+		verify(auditAwareAcl, never()).getEntries();
+	}
 
 }
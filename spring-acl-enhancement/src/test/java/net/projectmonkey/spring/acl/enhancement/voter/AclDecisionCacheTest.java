@@ -0,0 +1,168 @@
+package net.projectmonkey.spring.acl.enhancement.voter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.projectmonkey.spring.acl.cache.BatchAclCache;
+
+import org.junit.Test;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class AclDecisionCacheTest {
+
+	private static final ObjectIdentity IDENTITY_1 = new ObjectIdentityImpl(AclDecisionCacheTest.class, 1L);
+	private static final ObjectIdentity IDENTITY_2 = new ObjectIdentityImpl(AclDecisionCacheTest.class, 2L);
+	private static final List<Sid> SIDS = asList(new PrincipalSid("principal"), new GrantedAuthoritySid("authority"));
+	private static final List<Permission> READ = asList(BasePermission.READ);
+	private static final List<Permission> WRITE = asList(BasePermission.WRITE);
+
+	private long time;
+	private final AclDecisionCache underTest = new AclDecisionCache(2, 10, 1) {
+		@Override
+		protected long currentTime() {
+			return time;
+		}
+	};
+
+	@Test
+	public void decisionsAreKeyedByIdentitySidsAndPermissions() {
+		underTest.putDecision(IDENTITY_1, SIDS, READ, true, underTest.getStamp(IDENTITY_1));
+
+		assertEquals(Boolean.TRUE, underTest.getDecision(IDENTITY_1, asList(SIDS.get(0), SIDS.get(1)), READ));
+		assertNull(underTest.getDecision(IDENTITY_1, SIDS, WRITE));
+		assertNull(underTest.getDecision(IDENTITY_1, SIDS.subList(0, 1), READ));
+		assertNull(underTest.getDecision(IDENTITY_2, SIDS, READ));
+	}
+
+	@Test
+	public void invalidatingAnIdentityDiscardsAllOfItsDecisions() {
+		underTest.putDecision(IDENTITY_1, SIDS, READ, true, underTest.getStamp(IDENTITY_1));
+		underTest.putDecision(IDENTITY_1, SIDS, WRITE, false, underTest.getStamp(IDENTITY_1));
+
+		underTest.invalidate(IDENTITY_1);
+
+		assertNull(underTest.getDecision(IDENTITY_1, SIDS, READ));
+		assertNull(underTest.getDecision(IDENTITY_1, SIDS, WRITE));
+	}
+
+	@Test
+	public void decisionsMadeBeforeAnInvalidationAreNotCached() {
+		long stamp = underTest.getStamp(IDENTITY_1);
+		underTest.invalidate(IDENTITY_1);
+
+		underTest.putDecision(IDENTITY_1, SIDS, READ, true, stamp);
+
+		assertNull(underTest.getDecision(IDENTITY_1, SIDS, READ));
+	}
+
+	@Test
+	public void decisionsExpireAfterTheTimeToLive() {
+		underTest.putDecision(IDENTITY_1, SIDS, READ, true, underTest.getStamp(IDENTITY_1));
+
+		time += TimeUnit.SECONDS.toNanos(9);
+		assertEquals(Boolean.TRUE, underTest.getDecision(IDENTITY_1, SIDS, READ));
+
+		time += TimeUnit.SECONDS.toNanos(1);
+		assertNull(underTest.getDecision(IDENTITY_1, SIDS, READ));
+	}
+
+	@Test
+	public void theLeastRecentlyUsedIdentitiesAreDiscardedOnceTheMaximumIsReached() {
+		ObjectIdentity identity3 = new ObjectIdentityImpl(AclDecisionCacheTest.class, 3L);
+		underTest.putDecision(IDENTITY_1, SIDS, READ, true, underTest.getStamp(IDENTITY_1));
+		underTest.putDecision(IDENTITY_2, SIDS, READ, true, underTest.getStamp(IDENTITY_2));
+		underTest.getDecision(IDENTITY_1, SIDS, READ);
+
+		underTest.putDecision(identity3, SIDS, READ, true, underTest.getStamp(identity3));
+
+		assertEquals(Boolean.TRUE, underTest.getDecision(IDENTITY_1, SIDS, READ));
+		assertNull(underTest.getDecision(IDENTITY_2, SIDS, READ));
+	}
+
+	@Test
+	public void evictionsFromTheWrappedAclCacheDiscardDecisions() {
+		AclCache aclCache = mock(AclCache.class);
+		AclCache invalidating = underTest.invalidating(aclCache);
+		underTest.putDecision(IDENTITY_1, SIDS, READ, true, underTest.getStamp(IDENTITY_1));
+		underTest.putDecision(IDENTITY_2, SIDS, READ, true, underTest.getStamp(IDENTITY_2));
+
+		invalidating.evictFromCache(1L);
+		assertNull(underTest.getDecision(IDENTITY_1, SIDS, READ));
+		assertEquals(Boolean.TRUE, underTest.getDecision(IDENTITY_2, SIDS, READ));
+
+		invalidating.clearCache();
+		assertNull(underTest.getDecision(IDENTITY_2, SIDS, READ));
+		verify(aclCache).evictFromCache(1L);
+		verify(aclCache).clearCache();
+	}
+
+	@Test
+	public void batchesArePassedToAWrappedBatchAclCache() {
+		BatchAclCache aclCache = mock(BatchAclCache.class);
+		MutableAcl acl = mock(MutableAcl.class);
+		when(acl.getObjectIdentity()).thenReturn(IDENTITY_1);
+		Map<ObjectIdentity, MutableAcl> cached = Collections.singletonMap(IDENTITY_1, acl);
+		when(aclCache.getAllFromCache(asList(IDENTITY_1))).thenReturn(cached);
+		AclCache invalidating = underTest.invalidating(aclCache);
+		assertTrue(invalidating instanceof BatchAclCache);
+		BatchAclCache batches = (BatchAclCache) invalidating;
+		underTest.putDecision(IDENTITY_1, SIDS, READ, true, underTest.getStamp(IDENTITY_1));
+		underTest.putDecision(IDENTITY_2, SIDS, READ, true, underTest.getStamp(IDENTITY_2));
+
+		assertEquals(cached, batches.getAllFromCache(asList(IDENTITY_1)));
+		batches.putAllInCache(asList(acl));
+
+		assertNull(underTest.getDecision(IDENTITY_1, SIDS, READ));
+		assertEquals(Boolean.TRUE, underTest.getDecision(IDENTITY_2, SIDS, READ));
+		verify(aclCache).putAllInCache(asList(acl));
+	}
+
+	@Test
+	public void puttingAnAclInTheWrappedAclCacheDiscardsItsDecisions() {
+		AclCache aclCache = mock(AclCache.class);
+		MutableAcl acl = mock(MutableAcl.class);
+		when(acl.getObjectIdentity()).thenReturn(IDENTITY_1);
+		AclCache invalidating = underTest.invalidating(aclCache);
+		underTest.putDecision(IDENTITY_1, SIDS, READ, true, underTest.getStamp(IDENTITY_1));
+
+		invalidating.putInCache(acl);
+
+		assertNull(underTest.getDecision(IDENTITY_1, SIDS, READ));
+		verify(aclCache).putInCache(acl);
+	}
+
+}
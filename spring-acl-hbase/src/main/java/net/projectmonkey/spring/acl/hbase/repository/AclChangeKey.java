@@ -0,0 +1,67 @@
+package net.projectmonkey.spring.acl.hbase.repository;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Class representing the key of a row in the acl change log.
+ * The key is the time of the change in milliseconds as a big endian long
+ * followed by the key of the changed acl row, so rows are ordered by the
+ * time of the change and can be read incrementally with a scan.
+ *
+ * @author Andy Moody
+ */
+public class AclChangeKey {
+
+	private final byte[] key;
+	private final long timestamp;
+	private final byte[] aclKey;
+
+	public AclChangeKey(final long timestamp, final byte[] aclKey) {
+		this.timestamp = timestamp;
+		this.aclKey = aclKey;
+		this.key = Bytes.add(Bytes.toBytes(timestamp), aclKey);
+	}
+
+	public AclChangeKey(final byte[] key) {
+		this.key = key;
+		this.timestamp = Bytes.toLong(key, 0);
+		this.aclKey = Bytes.tail(key, key.length - Bytes.SIZEOF_LONG);
+	}
+
+	/**
+	 * @param timestamp
+	 * @return the first possible key for changes made at or after the timestamp
+	 */
+	public static byte[] startingAt(final long timestamp) {
+		return Bytes.toBytes(timestamp);
+	}
+
+	public byte[] getKey() {
+		return key;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public byte[] getAclKey() {
+		return aclKey;
+	}
+
+}
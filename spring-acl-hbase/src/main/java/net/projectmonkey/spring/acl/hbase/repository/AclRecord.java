@@ -93,7 +93,8 @@ public class AclRecord {
 	 * Constructor used to reconstruct the record object when retrieving the acl from the HBase table.
 	 * The key is a byte array representing the byte[] version of the {@link Serializable} identifier.
 	 * The aclValuesByQualifier map is the family map for the 'acl' family as returned by Hbase
-	 * and contains other vital information as described above.
+	 * and contains other vital information as described above, the owner may be omitted
+	 * when only the identity is required.
 	 * 
 	 * The converter is required for all key types except byte[] although several key types are already
 	 * catered for via the default converters in {@link HBaseACLRepository}
@@ -113,7 +114,7 @@ public class AclRecord {
 		Serializable identifier = createId(key, idTypeBytes, converter);
 		String type = new String(typeBytes);
 		this.key = key;
-		this.owner = createOwner(ownerBytes);
+		this.owner = ownerBytes != null ? createOwner(ownerBytes) : null;
 		this.identity = new ObjectIdentityImpl(type, identifier);
 	}
 
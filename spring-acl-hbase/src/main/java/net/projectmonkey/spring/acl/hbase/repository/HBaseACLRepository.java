@@ -4,13 +4,18 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.UUID;
 
+import net.projectmonkey.spring.acl.cache.AclLoadCoalescer;
+import net.projectmonkey.spring.acl.cache.BatchAclCache;
+import net.projectmonkey.spring.acl.cache.NegativeAclCache;
 import net.projectmonkey.spring.acl.entity.SimpleMutableAcl;
 import net.projectmonkey.spring.acl.hbase.identifier.converter.AclIdentifierConverter;
 import net.projectmonkey.spring.acl.hbase.identifier.converter.IntegerAclIdentifierConverter;
@@ -18,6 +23,8 @@ import net.projectmonkey.spring.acl.hbase.identifier.converter.LongAclIdentifier
 import net.projectmonkey.spring.acl.hbase.identifier.converter.StringAclIdentifierConverter;
 import net.projectmonkey.spring.acl.repository.ACLUpdateRepository;
 import net.projectmonkey.spring.acl.util.ACLUtil;
+import net.projectmonkey.spring.acl.util.AclCacheUtil;
+import net.projectmonkey.spring.acl.util.CachingPermissionFactory;
 import net.projectmonkey.spring.acl.util.generics.GenericTypeResolver;
 
 import org.apache.hadoop.hbase.client.Delete;
@@ -30,12 +37,13 @@ import org.springframework.security.access.AuthorizationServiceException;
 import org.springframework.security.acls.domain.AccessControlEntryImpl;
 import org.springframework.security.acls.domain.AclAuthorizationStrategy;
 import org.springframework.security.acls.domain.AuditLogger;
+import org.springframework.security.acls.domain.CompiledPermissionGrantingStrategy;
 import org.springframework.security.acls.domain.ConsoleAuditLogger;
 import org.springframework.security.acls.domain.DefaultPermissionFactory;
-import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
 import org.springframework.security.acls.domain.PermissionFactory;
 import org.springframework.security.acls.domain.PrincipalSid;
 import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.domain.SimpleAclSnapshot;
 import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.AclCache;
@@ -81,6 +89,11 @@ import com.google.common.primitives.Primitives;
  * 
  * The command to create the required HBase table is:  create "acls", "acl", "aces"
  * 
+ * Changes can optionally be recorded in a time ordered change log table so that
+ * other nodes can evict stale acls from their caches using an {@link HBaseAclChangeTailer}.
+ * The command to create the change log table, expiring changes after a day, is:
+ * create "acl_changes", {NAME => "change", TTL => 86400}
+ * 
  * @author Andy Moody
  * 
  */
@@ -94,12 +107,17 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 	static final byte[] ACL_OWNER_QUALIFIER = "owner".getBytes();
 	static final byte[] ACE_PERMISSION_QUALIFIER = "granting".getBytes();
 	static final byte[] ACE_SID_QUALIFIER = "sid".getBytes();
+	static final byte[] CHANGE_TABLE = "acl_changes".getBytes();
+	static final byte[] CHANGE_FAMILY = "change".getBytes();
 
 	private final HTablePool tablePool;
 	private final AclCache aclCache;
 	private final ACLUtil util;
 
-	private PermissionFactory permissionFactory = new DefaultPermissionFactory();
+	private PermissionFactory permissionFactory = new CachingPermissionFactory(new DefaultPermissionFactory());
+	private NegativeAclCache negativeCache;
+	private AclLoadCoalescer loadCoalescer;
+	private boolean recordChanges;
 
 	@SuppressWarnings("rawtypes")
 	private final Map<Class, AclIdentifierConverter> aclIdentifierConverters;
@@ -125,7 +143,7 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 	 */
 	public HBaseACLRepository(final HTablePool tablePool, final AuditLogger auditLogger,
 			final AclAuthorizationStrategy authorizationStrategy, final AclCache aclCache) {
-		this(tablePool, authorizationStrategy, new DefaultPermissionGrantingStrategy(auditLogger), aclCache);
+		this(tablePool, authorizationStrategy, new CompiledPermissionGrantingStrategy(auditLogger), aclCache);
 	}
 
 	/**
@@ -161,7 +179,10 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 			PrincipalSid owner = new PrincipalSid(auth);
 
 			SimpleAcl acl = new SimpleAcl(identity, owner, new ArrayList<AccessControlEntry>(), null, util);
-			save(acl, table, new AclRecord(identity, owner, resolveConverter(identity)));
+			AclRecord aclRecord = new AclRecord(identity, owner, resolveConverter(identity));
+			save(acl, table, aclRecord);
+			evictMissing(identity);
+			recordChange(aclRecord);
 			return acl;
 		}
 		catch (IOException e)
@@ -186,7 +207,17 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 		HTableInterface table = getTable();
 		try
 		{
-			deleteInternal(identity, table);
+			AclRecord aclRecord = new AclRecord(identity, resolveConverter(identity));
+			try
+			{
+				deleteInternal(aclRecord, table);
+			}
+			finally
+			{
+				// evicted once deleted so that a concurrent read cannot cache the previous acl again
+				aclCache.evictFromCache(identity);
+			}
+			recordChange(aclRecord);
 		}
 		catch (IOException e)
 		{
@@ -215,8 +246,19 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 		{
 			ObjectIdentity identity = acl.getObjectIdentity();
 			AclRecord aclRecord = new AclRecord(identity, acl.getOwner(), resolveConverter(identity));
-			deleteInternal(aclRecord, table);
-			save(acl, table, aclRecord);
+			try
+			{
+				deleteInternal(aclRecord, table);
+				save(acl, table, aclRecord);
+			}
+			finally
+			{
+				// evicted once written so that a concurrent read cannot cache the previous acl again,
+				// also if the write failed part way as the row may no longer match the cached acl
+				aclCache.evictFromCache(identity);
+				evictMissing(identity);
+			}
+			recordChange(aclRecord);
 		}
 		catch (IOException e)
 		{
@@ -248,6 +290,21 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 	 * ObjectIdentities.identifier objects are required to implement one of the
 	 * configured keyRetrievalMethods.
 	 * 
+	 * Each row holds every entry of its acl so the returned and cached acls are
+	 * always complete regardless of the sids requested, a cached acl which was
+	 * only partially loaded is retrieved again.
+	 * 
+	 * The cache is read and written in batches if it is a {@link BatchAclCache}.
+	 * 
+	 * When a load coalescer is configured, identities already being retrieved by
+	 * a concurrent request are not retrieved again, the acls retrieved by that
+	 * request are returned instead.
+	 * 
+	 * The returned acls are immutable {@link SimpleAclSnapshot}s shared with the
+	 * cache, use {@link SimpleAclSnapshot#mutableCopy()} to obtain an editable acl
+	 * or read it through a
+	 * {@link net.projectmonkey.spring.acl.service.SimpleACLService} without sids.
+	 * 
 	 * @param objectIdentities which must not be null
 	 * @param sids which may be null
 	 * @return map of ObjectIdentities against the corresponding ACL objects.
@@ -266,36 +323,46 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 		Map<ObjectIdentity, Acl> toReturn = new HashMap<ObjectIdentity, Acl>();
 		try
 		{
-			Map<Long, ObjectIdentity> identitiesByByteId = new HashMap<Long, ObjectIdentity>();
-			List<Get> gets = new ArrayList<Get>();
+			Map<ObjectIdentity, MutableAcl> cached = AclCacheUtil.getAll(aclCache, new LinkedHashSet<ObjectIdentity>(objectIdentities));
+			List<ObjectIdentity> misses = new ArrayList<ObjectIdentity>();
 			for (ObjectIdentity identity : objectIdentities)
 			{
 				if (!toReturn.containsKey(identity))
 				{
-					MutableAcl acl = aclCache.getFromCache(identity);
-					if (acl != null)
+					MutableAcl acl = cached.get(identity);
+					if (acl != null && acl.isSidLoaded(sids))
 					{
 						toReturn.put(identity, acl);
 					}
-					else
+					else if (!isKnownToBeMissing(identity))
 					{
-						AclRecord aclKey = new AclRecord(identity, resolveConverter(identity));
-						byte[] key = aclKey.getKey();
-						Long rowId = createRowId(key);
-						if (!identitiesByByteId.containsKey(rowId))
-						{
-							gets.add(new Get(key));
-							identitiesByByteId.put(rowId, identity);
-						}
+						misses.add(identity);
 					}
 				}
 			}
 
-			if (!gets.isEmpty())
+			if (!misses.isEmpty())
 			{
-				Result[] results = table.get(gets);
-				Map<ObjectIdentity, Acl> resultsFromDB = mapResults(sids, identitiesByByteId, results);
-				toReturn.putAll(resultsFromDB);
+				if (loadCoalescer == null)
+				{
+					toReturn.putAll(load(misses, table));
+				}
+				else
+				{
+					AclLoadCoalescer.Claim claim = loadCoalescer.claim(misses);
+					try
+					{
+						Map<ObjectIdentity, Acl> loaded = load(claim.getOwned(), table);
+						claim.complete(loaded);
+						toReturn.putAll(loaded);
+					}
+					finally
+					{
+						claim.abandon();
+					}
+					List<ObjectIdentity> unresolved = claim.awaitOthers(toReturn);
+					toReturn.putAll(load(unresolved, table));
+				}
 			}
 			return toReturn;
 		}
@@ -333,9 +400,70 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 		return tablePool.getTable(ACL_TABLE);
 	}
 
-	private Map<ObjectIdentity, Acl> mapResults(final List<Sid> sids, final Map<Long, ObjectIdentity> identitiesByByteId,
-			final Result[] results) {
+	protected HTableInterface getChangeTable() {
+		return tablePool.getTable(CHANGE_TABLE);
+	}
+
+	/**
+	 * Recreates the identity of an acl from its row key and the stored type and id type.
+	 * 
+	 * @param aclKey the key of the acl row
+	 * @param valuesByQualifier the stored type and id type
+	 * @return the identity
+	 */
+	ObjectIdentity resolveIdentity(final byte[] aclKey, final Map<byte[], byte[]> valuesByQualifier) {
+		String idType = new String(valuesByQualifier.get(ACL_ID_TYPE_QUALIFIER));
+		return new AclRecord(aclKey, valuesByQualifier, resolveConverter(idType)).getIdentity();
+	}
+
+	/**
+	 * Reconstructs the acl held in the supplied row, the identity is recreated
+	 * from the stored type and identifier rather than from a requested identity.
+	 * The acl is not placed in the cache.
+	 * 
+	 * @param result a non empty row from the acl table
+	 * @return the acl
+	 */
+	MutableAcl mapResult(final Result result) {
+		NavigableMap<byte[], byte[]> aclFamilyMap = result.getFamilyMap(ACL_FAMILY);
+		String idType = new String(aclFamilyMap.get(ACL_ID_TYPE_QUALIFIER));
+		AclRecord aclRecord = new AclRecord(result.getRow(), aclFamilyMap, resolveConverter(idType));
+		return createAcl(aclRecord.getIdentity(), aclRecord, result, null);
+	}
+
+	/**
+	 * Retrieves the acls of the supplied identities in a single batch, caching
+	 * those found and recording those missing in the negative cache.
+	 */
+	private Map<ObjectIdentity, Acl> load(final List<ObjectIdentity> identities, final HTableInterface table) throws IOException {
+		if (identities.isEmpty())
+		{
+			return new HashMap<ObjectIdentity, Acl>();
+		}
+		Map<Long, ObjectIdentity> identitiesByByteId = new HashMap<Long, ObjectIdentity>();
+		List<Get> gets = new ArrayList<Get>();
+		for (ObjectIdentity identity : identities)
+		{
+			AclRecord aclKey = new AclRecord(identity, resolveConverter(identity));
+			byte[] key = aclKey.getKey();
+			Long rowId = createRowId(key);
+			if (!identitiesByByteId.containsKey(rowId))
+			{
+				gets.add(new Get(key));
+				identitiesByByteId.put(rowId, identity);
+			}
+		}
+		// taken before the read so that an acl created while reading is not recorded as missing
+		long missingStamp = negativeCache == null ? 0 : negativeCache.stamp();
+		Result[] results = table.get(gets);
+		Map<ObjectIdentity, Acl> resultsFromDB = mapResults(identitiesByByteId, results);
+		recordMissing(identitiesByByteId.values(), resultsFromDB, missingStamp);
+		return resultsFromDB;
+	}
+
+	private Map<ObjectIdentity, Acl> mapResults(final Map<Long, ObjectIdentity> identitiesByByteId, final Result[] results) {
 		Map<ObjectIdentity, Acl> toReturn = new HashMap<ObjectIdentity, Acl>();
+		List<MutableAcl> toCache = new ArrayList<MutableAcl>(results.length);
 		for (Result result : results)
 		{
 			if (!result.isEmpty())
@@ -348,23 +476,32 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 				NavigableMap<byte[], byte[]> aclFamilyMap = result.getFamilyMap(ACL_FAMILY);
 
 				AclRecord aclRecord = new AclRecord(rowKey, aclFamilyMap, resolveConverter(identity));
+				// the whole row has been read so the acl is complete for every sid
+				MutableAcl acl = createAcl(identity, aclRecord, result, null).snapshot();
+				toReturn.put(identity, acl);
+				toCache.add(acl);
+			}
+		}
+		AclCacheUtil.putAll(aclCache, toCache);
+		return toReturn;
+	}
 
-				List<AccessControlEntry> entries = new ArrayList<AccessControlEntry>();
-				MutableAcl acl = new SimpleAcl(identity, aclRecord.getOwner(), entries, sids, util);
-
-				NavigableMap<byte[], byte[]> aceMap = result.getFamilyMap(ACE_FAMILY);
+	private SimpleAcl createAcl(final ObjectIdentity identity, final AclRecord aclRecord, final Result result, final List<Sid> sids) {
+		final NavigableMap<byte[], byte[]> aceMap = result.getFamilyMap(ACE_FAMILY);
+		SimpleAcl.EntryBuilder entryBuilder = new SimpleAcl.EntryBuilder() {
+			@Override
+			public List<AccessControlEntry> build(final SimpleAcl acl) {
+				List<AccessControlEntry> entries = new ArrayList<AccessControlEntry>(aceMap.size());
 				for (Entry<byte[], byte[]> keyValue : aceMap.entrySet())
 				{
 					AccessControlEntryValue value = new AccessControlEntryValue(keyValue.getValue(), permissionFactory);
-					AccessControlEntry ace = new AccessControlEntryImpl(value.getId(), acl, value.getSid(),
-							value.getPermission(), value.isGranting(), false, false);
-					entries.add(ace);
+					entries.add(new AccessControlEntryImpl(value.getId(), acl, value.getSid(),
+							value.getPermission(), value.isGranting(), false, false));
 				}
-				toReturn.put(identity, acl);
-				aclCache.putInCache(acl);
+				return entries;
 			}
-		}
-		return toReturn;
+		};
+		return new SimpleAcl(identity, aclRecord.getOwner(), entryBuilder, sids, util);
 	}
 
 	/**
@@ -384,6 +521,56 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 		}
 	}
 
+	private boolean isKnownToBeMissing(final ObjectIdentity identity) {
+		return negativeCache != null && negativeCache.isMissing(identity.getIdentifier());
+	}
+
+	private void recordMissing(final Collection<ObjectIdentity> requested, final Map<ObjectIdentity, Acl> found,
+			final long stamp) {
+		if (negativeCache != null)
+		{
+			for (ObjectIdentity identity : requested)
+			{
+				if (!found.containsKey(identity))
+				{
+					negativeCache.putMissing(identity.getIdentifier(), stamp);
+				}
+			}
+		}
+	}
+
+	private void evictMissing(final ObjectIdentity identity) {
+		if (negativeCache != null)
+		{
+			negativeCache.evict(identity.getIdentifier());
+		}
+	}
+
+	/**
+	 * Appends the change to the change log table if changes are being recorded.
+	 * 
+	 * @param record
+	 * @throws IOException
+	 */
+	private void recordChange(final AclRecord record) throws IOException {
+		if (recordChanges)
+		{
+			AclChangeKey changeKey = new AclChangeKey(System.currentTimeMillis(), record.getKey());
+			Put put = new Put(changeKey.getKey());
+			put.add(CHANGE_FAMILY, ACL_ID_TYPE_QUALIFIER, record.getIdTypeBytes());
+			put.add(CHANGE_FAMILY, ACL_TYPE_QUALIFIER, record.getTypeBytes());
+			HTableInterface changeTable = getChangeTable();
+			try
+			{
+				changeTable.put(put);
+			}
+			finally
+			{
+				close(changeTable);
+			}
+		}
+	}
+
 	private AccessControlEntryValue createAceValue(final AccessControlEntry ace) {
 		Serializable aceId = ace.getId();
 		// we require the ACE ids to be uuids for ease of serialization /
@@ -418,13 +605,8 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 		return rowId;
 	}
 
-	private void deleteInternal(final ObjectIdentity identity, final HTableInterface table) throws IOException {
-		AclRecord record = new AclRecord(identity, resolveConverter(identity));
-		deleteInternal(record, table);
-	}
-
 	/**
-	 * Deletes the acl from the database and evicts it from the cache
+	 * Deletes the acl from the database, the caller must evict it from the cache afterwards
 	 * 
 	 * @param record
 	 * @param table
@@ -432,7 +614,6 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 	 */
 	private void deleteInternal(final AclRecord record, final HTableInterface table) throws IOException {
 		byte[] rowKey = record.getKey();
-		aclCache.evictFromCache(record.getIdentity());
 		table.delete(new Delete(rowKey));
 	}
 
@@ -467,6 +648,18 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 		return aclIdentifierConverters.get(identifierClass);
 	}
 
+	@SuppressWarnings("rawtypes")
+	private AclIdentifierConverter<?> resolveConverter(final String identifierClassName) {
+		for (Entry<Class, AclIdentifierConverter> converter : aclIdentifierConverters.entrySet())
+		{
+			if (converter.getKey().getName().equals(identifierClassName))
+			{
+				return converter.getValue();
+			}
+		}
+		return null;
+	}
+
 	
 	/* Optional configuration methods */
 	/**
@@ -479,11 +672,43 @@ public class HBaseACLRepository implements ACLUpdateRepository {
 	}
 	
 	/**
-	 * Set the permission factory to use when recreating {@link AccessControlEntry}s
+	 * Set the permission factory to use when recreating {@link AccessControlEntry}s,
+	 * the permissions it builds are cached by mask, see {@link CachingPermissionFactory}
 	 * @param permissionFactory
 	 */
 	public void setPermissionFactory(final PermissionFactory permissionFactory) {
-		this.permissionFactory = permissionFactory;
+		this.permissionFactory = CachingPermissionFactory.wrap(permissionFactory);
+	}
+
+	/**
+	 * Set a cache of identities known to have no acl. When set, identities found
+	 * to have no acl are not looked up again until they expire from the cache
+	 * or an acl is created for them through this repository.
+	 * @param negativeCache
+	 */
+	public void setNegativeCache(final NegativeAclCache negativeCache) {
+		this.negativeCache = negativeCache;
+	}
+
+	/**
+	 * Set a coalescer so that concurrent requests missing the cache for the same
+	 * identity share a single lookup rather than each retrieving the acl. Callers
+	 * wait for a lookup made by another request for at most the coalescer's
+	 * timeout before retrieving the acl themselves.
+	 * @param loadCoalescer
+	 */
+	public void setLoadCoalescer(final AclLoadCoalescer loadCoalescer) {
+		this.loadCoalescer = loadCoalescer;
+	}
+
+	/**
+	 * Set whether every create, update and delete is also recorded in the change log
+	 * table, defaults to false. This must be enabled on every node writing acls for
+	 * an {@link HBaseAclChangeTailer} to see all changes.
+	 * @param recordChanges
+	 */
+	public void setRecordChanges(final boolean recordChanges) {
+		this.recordChanges = recordChanges;
 	}
 	
 }
@@ -0,0 +1,247 @@
+package net.projectmonkey.spring.acl.hbase.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.projectmonkey.spring.acl.cache.NegativeAclCache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.springframework.security.access.AuthorizationServiceException;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Follows the change log table written by {@link HBaseACLRepository}s with
+ * {@link HBaseACLRepository#setRecordChanges(boolean)} enabled and evicts every
+ * changed acl from the local cache, so that acls changed by other nodes are
+ * not served from the cache until they expire.
+ *
+ * Each poll is a small scan starting shortly before the newest change already
+ * seen. The overlap allows for clock differences between the writing nodes and
+ * for changes which become visible after later ones, changes already seen
+ * within the overlap are not evicted again. The overlap should therefore exceed
+ * the greatest expected clock difference between nodes.
+ *
+ * Polling happens in the background once {@link #start()} is called, or can be
+ * driven directly through {@link #poll()}.
+ *
+ * @author Andy Moody
+ */
+public class HBaseAclChangeTailer {
+
+	private static final Log logger = LogFactory.getLog(HBaseAclChangeTailer.class);
+
+	private final HBaseACLRepository repository;
+	private final AclCache aclCache;
+	private final Map<ByteBuffer, Long> seenChanges = new HashMap<ByteBuffer, Long>();
+	private final ScheduledExecutorService poller;
+
+	private NegativeAclCache negativeCache;
+	private long position;
+	private long overlapMillis = 10000;
+	private long pollIntervalMillis = 1000;
+	private int scanCaching = 100;
+
+	/**
+	 * @param repository used to read the change log and recreate the changed identities
+	 * @param aclCache the cache to evict changed acls from
+	 */
+	public HBaseAclChangeTailer(final HBaseACLRepository repository, final AclCache aclCache) {
+		Assert.notNull(repository, "repository must not be null");
+		Assert.notNull(aclCache, "aclCache must not be null");
+		this.repository = repository;
+		this.aclCache = aclCache;
+		this.position = System.currentTimeMillis();
+		this.poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				Thread thread = new Thread(runnable, "acl-change-tailer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts polling the change log in the background.
+	 */
+	public void start() {
+		poller.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try
+				{
+					poll();
+				}
+				catch (RuntimeException e)
+				{
+					logger.error("Polling the acl change log failed", e);
+				}
+			}
+		}, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops polling the change log.
+	 */
+	public void close() {
+		poller.shutdownNow();
+		try
+		{
+			poller.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads the changes made since the previous poll and evicts the changed acls.
+	 *
+	 * @return the number of new changes read
+	 * @throws AuthorizationServiceException if an unexpected exception occurred
+	 */
+	public synchronized int poll() {
+		int changes = 0;
+		HTableInterface table = repository.getChangeTable();
+		try
+		{
+			Scan scan = new Scan(AclChangeKey.startingAt(Math.max(0, position - overlapMillis)));
+			scan.addFamily(HBaseACLRepository.CHANGE_FAMILY);
+			scan.setCaching(scanCaching);
+			ResultScanner scanner = table.getScanner(scan);
+			try
+			{
+				for (Result result : scanner)
+				{
+					if (!result.isEmpty() && isNew(result.getRow()))
+					{
+						AclChangeKey changeKey = new AclChangeKey(result.getRow());
+						ObjectIdentity identity = repository.resolveIdentity(changeKey.getAclKey(),
+								result.getFamilyMap(HBaseACLRepository.CHANGE_FAMILY));
+						evict(identity);
+						position = Math.max(position, changeKey.getTimestamp());
+						changes++;
+					}
+				}
+			}
+			finally
+			{
+				scanner.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new AuthorizationServiceException("An unexpected exception occurred", e);
+		}
+		finally
+		{
+			close(table);
+		}
+		forgetChangesBefore(position - overlapMillis);
+		return changes;
+	}
+
+	private boolean isNew(final byte[] changeKey) {
+		return seenChanges.put(ByteBuffer.wrap(changeKey), new AclChangeKey(changeKey).getTimestamp()) == null;
+	}
+
+	private void forgetChangesBefore(final long timestamp) {
+		Iterator<Long> timestamps = seenChanges.values().iterator();
+		while (timestamps.hasNext())
+		{
+			if (timestamps.next() < timestamp)
+			{
+				timestamps.remove();
+			}
+		}
+	}
+
+	private void evict(final ObjectIdentity identity) {
+		aclCache.evictFromCache(identity);
+		if (negativeCache != null)
+		{
+			negativeCache.evict(identity.getIdentifier());
+		}
+	}
+
+	private void close(final HTableInterface table) {
+		try
+		{
+			table.close();
+		}
+		catch (IOException e)
+		{
+			throw new AuthorizationServiceException("Unable to close table " + HBaseACLRepository.CHANGE_TABLE, e);
+		}
+	}
+
+	/* Optional configuration methods */
+	/**
+	 * Set the negative cache used by the local repository, identities with newly
+	 * created acls are evicted from it.
+	 * @param negativeCache
+	 */
+	public void setNegativeCache(final NegativeAclCache negativeCache) {
+		this.negativeCache = negativeCache;
+	}
+
+	/**
+	 * Set how far before the newest change already seen each poll starts reading, defaults to 10 seconds.
+	 * @param overlapMillis
+	 */
+	public synchronized void setOverlapMillis(final long overlapMillis) {
+		Assert.isTrue(overlapMillis >= 0, "overlapMillis must not be negative");
+		this.overlapMillis = overlapMillis;
+	}
+
+	/**
+	 * Set the delay between background polls, defaults to 1 second.
+	 * Must be set before {@link #start()} is called.
+	 * @param pollIntervalMillis
+	 */
+	public void setPollIntervalMillis(final long pollIntervalMillis) {
+		Assert.isTrue(pollIntervalMillis > 0, "pollIntervalMillis must be greater than zero");
+		this.pollIntervalMillis = pollIntervalMillis;
+	}
+
+	/**
+	 * Set the number of rows fetched per round trip while scanning the change log, defaults to 100.
+	 * @param scanCaching
+	 */
+	public synchronized void setScanCaching(final int scanCaching) {
+		Assert.isTrue(scanCaching > 0, "scanCaching must be greater than zero");
+		this.scanCaching = scanCaching;
+	}
+
+}
@@ -0,0 +1,126 @@
+package net.projectmonkey.spring.acl.hbase.repository;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.projectmonkey.spring.acl.repository.snapshot.AclSnapshotWriter;
+import net.projectmonkey.spring.acl.repository.snapshot.MappedSnapshotACLRepository;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.springframework.security.access.AuthorizationServiceException;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Export job producing a snapshot of the complete acl table for use with the
+ * {@link MappedSnapshotACLRepository}.
+ * 
+ * The table is read using a single scan through the supplied repository, so the
+ * repository should be configured with the same converters used to write the acls.
+ * Acls are streamed to the {@link AclSnapshotWriter} as they are scanned, so only
+ * the identifier of each acl is held on the heap while the export runs.
+ * 
+ * @author Andy Moody
+ */
+public class HBaseAclSnapshotExporter {
+
+	private final HBaseACLRepository repository;
+	private int scanCaching = 500;
+
+	public HBaseAclSnapshotExporter(final HBaseACLRepository repository) {
+		Assert.notNull(repository, "repository must not be null");
+		this.repository = repository;
+	}
+
+	/**
+	 * Exports every acl in the table to the target file, replacing any existing snapshot.
+	 * 
+	 * @param target
+	 * @return the number of acls exported
+	 * @throws AuthorizationServiceException if an unexpected exception occurred
+	 */
+	public int export(final File target) {
+		Assert.notNull(target, "target must not be null");
+		AclSnapshotWriter writer = new AclSnapshotWriter();
+		HTableInterface table = repository.getTable();
+		try
+		{
+			Scan scan = new Scan();
+			scan.addFamily(HBaseACLRepository.ACL_FAMILY);
+			scan.addFamily(HBaseACLRepository.ACE_FAMILY);
+			scan.setCaching(scanCaching);
+			ResultScanner scanner = table.getScanner(scan);
+			try
+			{
+				for (Result result : scanner)
+				{
+					if (!result.isEmpty())
+					{
+						writer.add(repository.mapResult(result));
+					}
+				}
+			}
+			finally
+			{
+				scanner.close();
+			}
+		}
+		catch (IOException e)
+		{
+			writer.close();
+			throw new AuthorizationServiceException("An unexpected exception occurred", e);
+		}
+		catch (RuntimeException e)
+		{
+			writer.close();
+			throw e;
+		}
+		finally
+		{
+			close(table);
+		}
+		int count = writer.size();
+		writer.writeTo(target);
+		return count;
+	}
+
+	private void close(final HTableInterface table) {
+		try
+		{
+			table.close();
+		}
+		catch (IOException e)
+		{
+			throw new AuthorizationServiceException("Unable to close table " + HBaseACLRepository.ACL_TABLE, e);
+		}
+	}
+
+	/* Optional configuration methods */
+	/**
+	 * Set the number of rows fetched per round trip while scanning the table, defaults to 500.
+	 * @param scanCaching
+	 */
+	public void setScanCaching(final int scanCaching) {
+		Assert.isTrue(scanCaching > 0, "scanCaching must be greater than zero");
+		this.scanCaching = scanCaching;
+	}
+
+}
@@ -0,0 +1,46 @@
+package net.projectmonkey.spring.acl.hbase.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class AclChangeKeyTest {
+
+	private static final byte[] ACL_KEY = "id1".getBytes();
+
+	@Test
+	public void keyIsReconstructedFromBytesCorrectly() {
+		AclChangeKey underTest = new AclChangeKey(new AclChangeKey(1234L, ACL_KEY).getKey());
+		assertEquals(1234L, underTest.getTimestamp());
+		assertTrue(ArrayUtils.isEquals(ACL_KEY, underTest.getAclKey()));
+	}
+
+	@Test
+	public void keysAreOrderedByTimestamp() {
+		byte[] earlier = new AclChangeKey(255L, "z".getBytes()).getKey();
+		byte[] later = new AclChangeKey(256L, "a".getBytes()).getKey();
+		assertTrue(Bytes.compareTo(earlier, later) < 0);
+		assertTrue(Bytes.compareTo(AclChangeKey.startingAt(256L), later) < 0);
+		assertTrue(Bytes.compareTo(AclChangeKey.startingAt(256L), earlier) > 0);
+	}
+
+}
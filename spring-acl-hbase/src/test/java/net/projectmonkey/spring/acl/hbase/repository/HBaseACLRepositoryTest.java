@@ -4,15 +4,18 @@ import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import net.projectmonkey.spring.acl.cache.NegativeAclCache;
 import net.projectmonkey.spring.acl.hbase.repository.HBaseACLRepository;
 
 import org.apache.hadoop.hbase.client.HTableInterface;
@@ -62,6 +65,7 @@ public class HBaseACLRepositoryTest extends AbstractHBaseRepositoryTest {
 	private static final String SOME_PRINCIPAL = "some principal";
 	private static final String SOME_AUTHORITY = "Some Authority";
 	protected static final String TEST_TABLE_NAME = "test_acls";
+	protected static final String TEST_CHANGE_TABLE_NAME = "test_acl_changes";
 	private final AclAuthorizationStrategy authorizationStrategy = new AclAuthorizationStrategyImpl(
 			new SimpleGrantedAuthority(SOME_AUTHORITY));
 	private final AuditLogger auditLogger = new ConsoleAuditLogger();
@@ -87,6 +91,11 @@ public class HBaseACLRepositoryTest extends AbstractHBaseRepositoryTest {
 			protected HTableInterface getTable() {
 				return pool.getTable(TEST_TABLE_NAME);
 			}
+			
+			@Override
+			protected HTableInterface getChangeTable() {
+				return pool.getTable(TEST_CHANGE_TABLE_NAME);
+			}
 		};
 	}
 
@@ -133,11 +142,11 @@ public class HBaseACLRepositoryTest extends AbstractHBaseRepositoryTest {
 		assertEquals(2, returned.size());
 
 		Acl returnedAcl1 = returned.get(oid1);
-		SimpleAcl expectedAcl1 = new SimpleAcl(acl1.getObjectIdentity(), owner, acl1.getEntries(), sids, null);
+		SimpleAcl expectedAcl1 = new SimpleAcl(acl1.getObjectIdentity(), owner, acl1.getEntries(), null, null);
 		assertEquals(expectedAcl1, returnedAcl1);
 
 		Acl returnedAcl3 = returned.get(oid3);
-		SimpleAcl expectedAcl3 = new SimpleAcl(acl3.getObjectIdentity(), owner, acl3.getEntries(), sids, null);
+		SimpleAcl expectedAcl3 = new SimpleAcl(acl3.getObjectIdentity(), owner, acl3.getEntries(), null, null);
 		assertEquals(expectedAcl3, returnedAcl3);
 	}
 	
@@ -199,6 +208,88 @@ public class HBaseACLRepositoryTest extends AbstractHBaseRepositoryTest {
 		assertEquals(1, entries.size());
 	}
 	
+	@Test
+	public void theCacheIsEvictedOnceTheUpdateHasBeenWritten(){
+		final HTablePool pool = getPool();
+		final HBaseACLRepository reader = new HBaseACLRepository(pool, auditLogger, authorizationStrategy, new TestingInMemoryCache()){
+			@Override
+			protected HTableInterface getTable() {
+				return pool.getTable(TEST_TABLE_NAME);
+			}
+		};
+		final List<Integer> entriesReadOnEviction = new ArrayList<Integer>();
+		HBaseACLRepository writer = new HBaseACLRepository(pool, auditLogger, authorizationStrategy, new TestingInMemoryCache(){
+			@Override
+			public void evictFromCache(final ObjectIdentity objectIdentity) {
+				super.evictFromCache(objectIdentity);
+				// a read racing with the update must not see the previous acl once it has been evicted
+				entriesReadOnEviction.add(reader.getAclById(objectIdentity).getEntries().size());
+			}
+		}){
+			@Override
+			protected HTableInterface getTable() {
+				return pool.getTable(TEST_TABLE_NAME);
+			}
+		};
+		ObjectIdentityImpl id = new ObjectIdentityImpl(HBaseACLRepository.class, "id1");
+		MutableAcl acl = writer.create(id);
+		acl.insertAce(0, BasePermission.CREATE, new PrincipalSid(SOME_PRINCIPAL), true);
+		
+		writer.update(acl);
+		
+		assertEquals(asList(1), entriesReadOnEviction);
+	}
+	
+	@Test
+	public void identitiesWithoutAnAclAreNotLookedUpAgainUntilCreated(){
+		underTest.setNegativeCache(new NegativeAclCache(100, 60));
+		ObjectIdentityImpl id = new ObjectIdentityImpl(HBaseACLRepository.class, "id1");
+		assertNull(underTest.getAclById(id));
+		
+		final HTablePool pool = getPool();
+		HBaseACLRepository otherNode = new HBaseACLRepository(pool, auditLogger, authorizationStrategy, new TestingInMemoryCache()){
+			@Override
+			protected HTableInterface getTable() {
+				return pool.getTable(TEST_TABLE_NAME);
+			}
+		};
+		otherNode.create(id);
+		assertNull(underTest.getAclById(id));
+		
+		underTest.create(id);
+		assertNotNull(underTest.getAclById(id));
+	}
+	
+	@Test
+	public void changesMadeByOtherNodesAreEvictedByTheTailer(){
+		SimpleAcl acl = createAcl("id1");
+		ObjectIdentity id = acl.getObjectIdentity();
+		assertNotNull(underTest.getAclById(id));
+		assertNotNull(cache.getFromCache(id));
+		HBaseAclChangeTailer tailer = new HBaseAclChangeTailer(underTest, cache);
+		
+		final HTablePool pool = getPool();
+		HBaseACLRepository otherNode = new HBaseACLRepository(pool, auditLogger, authorizationStrategy, new TestingInMemoryCache()){
+			@Override
+			protected HTableInterface getTable() {
+				return pool.getTable(TEST_TABLE_NAME);
+			}
+			
+			@Override
+			protected HTableInterface getChangeTable() {
+				return pool.getTable(TEST_CHANGE_TABLE_NAME);
+			}
+		};
+		otherNode.setRecordChanges(true);
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.READ, new GrantedAuthoritySid("another authority"), true);
+		otherNode.update(acl);
+		
+		assertEquals(1, tailer.poll());
+		assertNull(cache.getFromCache(id));
+		assertEquals(2, underTest.getAclById(id).getEntries().size());
+		assertEquals(0, tailer.poll());
+	}
+	
 	private SimpleAcl createAcl(final String id) {
 		ObjectIdentityImpl objectIdentity = new ObjectIdentityImpl(HBaseACLRepository.class, id);
 		SimpleAcl acl = (SimpleAcl) underTest.create(objectIdentity);
@@ -215,6 +306,7 @@ public class HBaseACLRepositoryTest extends AbstractHBaseRepositoryTest {
 	private static Map<String, List<String>> getTables() {
 		Map<String, List<String>> tables = new HashMap<String, List<String>>();
 		tables.put(TEST_TABLE_NAME, asList(string(HBaseACLRepository.ACE_FAMILY), string(HBaseACLRepository.ACL_FAMILY)));
+		tables.put(TEST_CHANGE_TABLE_NAME, asList(string(HBaseACLRepository.CHANGE_FAMILY)));
 		return tables;
 	}
 	
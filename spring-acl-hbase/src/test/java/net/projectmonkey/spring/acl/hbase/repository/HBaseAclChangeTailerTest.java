@@ -0,0 +1,177 @@
+package net.projectmonkey.spring.acl.hbase.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.projectmonkey.spring.acl.cache.NegativeAclCache;
+import net.projectmonkey.spring.acl.hbase.identifier.converter.AclIdentifierConverter;
+import net.projectmonkey.spring.acl.hbase.identifier.converter.IntegerAclIdentifierConverter;
+import net.projectmonkey.spring.acl.hbase.identifier.converter.LongAclIdentifierConverter;
+import net.projectmonkey.spring.acl.hbase.identifier.converter.StringAclIdentifierConverter;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.ObjectIdentity;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class HBaseAclChangeTailerTest {
+
+	@Mock
+	private HTableInterface changeTable;
+	@Mock
+	private ResultScanner scanner;
+
+	private final List<Result> changes = new ArrayList<Result>();
+	private final AclCache cache = new TestingInMemoryCache();
+	private HBaseAclChangeTailer underTest;
+
+	@Before
+	public void setUp() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		Mockito.when(changeTable.getScanner(Mockito.any(Scan.class))).thenReturn(scanner);
+		Mockito.when(scanner.iterator()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) {
+				return new ArrayList<Result>(changes).iterator();
+			}
+		});
+		HBaseACLRepository repository = new HBaseACLRepository(null, null, null) {
+			@Override
+			protected HTableInterface getChangeTable() {
+				return changeTable;
+			}
+		};
+		underTest = new HBaseAclChangeTailer(repository, cache);
+	}
+
+	@Test
+	public void changedAclsAreEvictedFromTheCache() {
+		ObjectIdentity changed = cacheAcl("id1");
+		ObjectIdentity unchanged = cacheAcl(2L);
+		changes.add(change(System.currentTimeMillis(), changed));
+
+		assertEquals(1, underTest.poll());
+
+		assertNull(cache.getFromCache(changed));
+		assertNotNull(cache.getFromCache(unchanged));
+	}
+
+	@Test
+	public void changesWithinTheOverlapAreOnlyReadOnce() {
+		ObjectIdentity identity = cacheAcl("id1");
+		changes.add(change(System.currentTimeMillis(), identity));
+		assertEquals(1, underTest.poll());
+
+		cache.putInCache(createAcl(identity));
+		assertEquals(0, underTest.poll());
+
+		assertNotNull(cache.getFromCache(identity));
+	}
+
+	@Test
+	public void createdAclsAreNoLongerConsideredMissing() {
+		NegativeAclCache negativeCache = new NegativeAclCache(10, 60);
+		underTest.setNegativeCache(negativeCache);
+		negativeCache.putMissing(3);
+		changes.add(change(System.currentTimeMillis(), new ObjectIdentityImpl(HBaseAclChangeTailerTest.class, 3)));
+
+		underTest.poll();
+
+		assertFalse(negativeCache.isMissing(3));
+	}
+
+	@Test
+	public void theTableAndScannerAreClosedAfterEachPoll() throws Exception {
+		underTest.poll();
+
+		Mockito.verify(scanner).close();
+		Mockito.verify(changeTable).close();
+	}
+
+	@Test
+	public void eachPollStartsWithinTheOverlapOfTheNewestChangeSeen() throws Exception {
+		long timestamp = System.currentTimeMillis() + 60000;
+		underTest.setOverlapMillis(1000);
+		changes.add(change(timestamp, cacheAcl("id1")));
+		underTest.poll();
+
+		underTest.poll();
+
+		ArgumentCaptor<Scan> scan = ArgumentCaptor.forClass(Scan.class);
+		Mockito.verify(changeTable, Mockito.times(2)).getScanner(scan.capture());
+		assertTrue(Arrays.equals(AclChangeKey.startingAt(timestamp - 1000), scan.getValue().getStartRow()));
+	}
+
+	private ObjectIdentity cacheAcl(final Serializable identifier) {
+		ObjectIdentity identity = new ObjectIdentityImpl(HBaseAclChangeTailerTest.class, identifier);
+		cache.putInCache(createAcl(identity));
+		return identity;
+	}
+
+	private SimpleAcl createAcl(final ObjectIdentity identity) {
+		return new SimpleAcl(identity, new PrincipalSid("owner"), new ArrayList<AccessControlEntry>(), null, null);
+	}
+
+	private Result change(final long timestamp, final ObjectIdentity identity) {
+		AclRecord record = new AclRecord(identity, converterFor(identity));
+		byte[] row = new AclChangeKey(timestamp, record.getKey()).getKey();
+		return new Result(new KeyValue[] {
+				new KeyValue(row, HBaseACLRepository.CHANGE_FAMILY, HBaseACLRepository.ACL_ID_TYPE_QUALIFIER,
+						identity.getIdentifier().getClass().getName().getBytes()),
+				new KeyValue(row, HBaseACLRepository.CHANGE_FAMILY, HBaseACLRepository.ACL_TYPE_QUALIFIER,
+						identity.getType().getBytes()) });
+	}
+
+	private AclIdentifierConverter<?> converterFor(final ObjectIdentity identity) {
+		Object identifier = identity.getIdentifier();
+		if (identifier instanceof String)
+		{
+			return new StringAclIdentifierConverter();
+		}
+		if (identifier instanceof Integer)
+		{
+			return new IntegerAclIdentifierConverter();
+		}
+		return new LongAclIdentifierConverter();
+	}
+
+}
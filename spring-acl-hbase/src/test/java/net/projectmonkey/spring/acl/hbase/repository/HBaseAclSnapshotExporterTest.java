@@ -0,0 +1,126 @@
+package net.projectmonkey.spring.acl.hbase.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import net.projectmonkey.spring.acl.repository.snapshot.MappedSnapshotACLRepository;
+import net.projectmonkey.spring.acl.util.ACLUtil;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+
+public class HBaseAclSnapshotExporterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	@Mock
+	private HTableInterface table;
+	@Mock
+	private ResultScanner scanner;
+
+	private final List<Result> rows = new ArrayList<Result>();
+	private final Map<Result, MutableAcl> aclsByRow = new HashMap<Result, MutableAcl>();
+	private HBaseAclSnapshotExporter underTest;
+
+	@Before
+	public void setUp() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		Mockito.when(table.getScanner(Mockito.any(Scan.class))).thenReturn(scanner);
+		Mockito.when(scanner.iterator()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) {
+				return rows.iterator();
+			}
+		});
+		HBaseACLRepository repository = new HBaseACLRepository(null, null, null) {
+			@Override
+			protected HTableInterface getTable() {
+				return table;
+			}
+
+			@Override
+			MutableAcl mapResult(final Result result) {
+				return aclsByRow.get(result);
+			}
+		};
+		underTest = new HBaseAclSnapshotExporter(repository);
+	}
+
+	@Test
+	public void everyScannedAclIsExported() throws IOException {
+		SimpleAcl acl1 = addRow("id1");
+		SimpleAcl acl2 = addRow(2L);
+		File target = new File(folder.getRoot(), "acls.snapshot");
+
+		assertEquals(2, underTest.export(target));
+
+		MappedSnapshotACLRepository snapshot = new MappedSnapshotACLRepository(target,
+				Mockito.mock(AclAuthorizationStrategy.class));
+		assertEquals(acl1.getEntries(), snapshot.getAclById(acl1.getObjectIdentity()).getEntries());
+		assertEquals(acl2.getEntries(), snapshot.getAclById(acl2.getObjectIdentity()).getEntries());
+		assertNull(snapshot.getAclById(new ObjectIdentityImpl(HBaseAclSnapshotExporterTest.class, "id3")));
+		Mockito.verify(table).close();
+		Mockito.verify(scanner).close();
+	}
+
+	@Test
+	public void noSnapshotIsWrittenIfTheScanFails() throws IOException {
+		addRow("id1");
+		Mockito.when(scanner.iterator()).thenThrow(new IllegalStateException("scan failed"));
+		File target = new File(folder.getRoot(), "acls.snapshot");
+
+		try
+		{
+			underTest.export(target);
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+
+		assertFalse(target.exists());
+		Mockito.verify(table).close();
+	}
+
+	private SimpleAcl addRow(final Serializable id) {
+		ObjectIdentity identity = new ObjectIdentityImpl(HBaseAclSnapshotExporterTest.class, id);
+		SimpleAcl acl = new SimpleAcl(identity, new PrincipalSid("owner"), new ArrayList<AccessControlEntry>(), null,
+				Mockito.mock(ACLUtil.class));
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.READ, new GrantedAuthoritySid(id + "Authority"), true);
+		Result row = Mockito.mock(Result.class);
+		rows.add(row);
+		aclsByRow.put(row, acl);
+		return acl;
+	}
+
+}
@@ -0,0 +1,522 @@
+package net.projectmonkey.spring.acl.jdbc.repository;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import net.projectmonkey.spring.acl.cache.BatchAclCache;
+import net.projectmonkey.spring.acl.entity.SimpleMutableAcl;
+import net.projectmonkey.spring.acl.repository.ACLUpdateRepository;
+import net.projectmonkey.spring.acl.util.ACLUtil;
+import net.projectmonkey.spring.acl.util.AclCacheUtil;
+import net.projectmonkey.spring.acl.util.CachingPermissionFactory;
+import net.projectmonkey.spring.acl.util.SidUtil;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.security.access.AuthorizationServiceException;
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AuditLogger;
+import org.springframework.security.acls.domain.CompiledPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.domain.SimpleAclSnapshot;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * JDBC repository for {@link Acl} and {@link AccessControlEntry} objects
+ * using the same flat (non inheriting) model as the HBase repository.
+ *
+ * N.B. As with the HBase repository this class assumes that the serializable
+ * identifier contained within the ObjectIdentity for an Acl is Globally unique.
+ * Identifiers are stored using their String representation so two identifiers
+ * with the same String form (e.g. the Long 1 and the String "1") will clash.
+ *
+ * Acls are retrieved using chunked IN (...) queries so that a request for many
+ * identities costs one round trip per chunk rather than one per identity. The
+ * chunk size can be configured using setBatchSize. Entries are written using
+ * JDBC batch statements within a transaction.
+ *
+ * The script to create the required tables is acl-jdbc-schema.sql on the classpath.
+ *
+ * @author Andy Moody
+ */
+public class JdbcACLRepository implements ACLUpdateRepository {
+
+	private static final int DEFAULT_BATCH_SIZE = 50;
+
+	private static final String SELECT_ACLS = "select o.identifier, o.owner_authority, o.owner_principal, "
+			+ "e.ace_id, e.authority, e.principal, e.mask, e.granting "
+			+ "from acl_object o left outer join acl_entry e on e.identifier = o.identifier "
+			+ "where o.identifier in (";
+	private static final String SELECT_ACLS_ORDERING = ") order by o.identifier, e.ace_order";
+	private static final String INSERT_ACL = "insert into acl_object "
+			+ "(identifier, id_type, object_type, owner_authority, owner_principal) values (?, ?, ?, ?, ?)";
+	private static final String UPDATE_ACL = "update acl_object set owner_authority = ?, owner_principal = ? where identifier = ?";
+	private static final String INSERT_ACE = "insert into acl_entry "
+			+ "(identifier, ace_order, ace_id, authority, principal, mask, granting) values (?, ?, ?, ?, ?, ?, ?)";
+	private static final String DELETE_ACES = "delete from acl_entry where identifier = ?";
+	private static final String DELETE_ACL = "delete from acl_object where identifier = ?";
+	private static final String COUNT_ACL = "select count(*) from acl_object where identifier = ?";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final AclCache aclCache;
+	private final ACLUtil util;
+
+	private PermissionFactory permissionFactory = new CachingPermissionFactory(new DefaultPermissionFactory());
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private String fullBatchQuery = createSelectQuery(DEFAULT_BATCH_SIZE);
+
+	/**
+	 * Simplified constructor utilising the defaultPermissionGrantingStrategy
+	 * and the ConsoleAuditLogger
+	 * @param dataSource
+	 * @param authorizationStrategy
+	 * @param aclCache
+	 */
+	public JdbcACLRepository(final DataSource dataSource, final AclAuthorizationStrategy authorizationStrategy,
+			final AclCache aclCache) {
+		this(dataSource, new ConsoleAuditLogger(), authorizationStrategy, aclCache);
+	}
+
+	/**
+	 * Simplified constructor utilising the defaultPermissionGrantingStrategy
+	 * with the provided AuditLogger
+	 * @param dataSource
+	 * @param auditLogger
+	 * @param authorizationStrategy
+	 * @param aclCache
+	 */
+	public JdbcACLRepository(final DataSource dataSource, final AuditLogger auditLogger,
+			final AclAuthorizationStrategy authorizationStrategy, final AclCache aclCache) {
+		this(dataSource, authorizationStrategy, new CompiledPermissionGrantingStrategy(auditLogger), aclCache);
+	}
+
+	/**
+	 * Constructor allowing full customization.
+	 * @param dataSource
+	 * @param authorizationStrategy
+	 * @param permissionGrantingStrategy
+	 * @param aclCache
+	 */
+	public JdbcACLRepository(final DataSource dataSource, final AclAuthorizationStrategy authorizationStrategy,
+			final PermissionGrantingStrategy permissionGrantingStrategy, final AclCache aclCache) {
+		Assert.notNull(dataSource, "dataSource must not be null");
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		this.aclCache = aclCache;
+		this.util = new ACLUtil(permissionGrantingStrategy, authorizationStrategy);
+	}
+
+	/**
+	 * Creates an acl.
+	 *
+	 * @param identity which must not be null.
+	 * @throws AuthorizationServiceException if an unexpected exception occurred
+	 */
+	@Override
+	public SimpleMutableAcl create(final ObjectIdentity identity) {
+		Assert.notNull(identity, "identity must not be null");
+		try
+		{
+			// Need to retrieve the current principal, in order to know who
+			// "owns" this ACL (can be changed later on)
+			Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+			PrincipalSid owner = new PrincipalSid(auth);
+
+			SimpleAcl acl = new SimpleAcl(identity, owner, new ArrayList<AccessControlEntry>(), null, util);
+			Serializable identifier = identity.getIdentifier();
+			jdbcTemplate.update(INSERT_ACL, createKey(identity), identifier.getClass().getName(), identity.getType(),
+					SidUtil.resolveAuthority(owner), SidUtil.isPrincipal(owner));
+			return acl;
+		}
+		catch (DataAccessException e)
+		{
+			throw new AuthorizationServiceException("An unexpected exception occurred", e);
+		}
+	}
+
+	/**
+	 * Deletes an acl and evicts it from the cache once the delete has been committed.
+	 *
+	 * @param identity which must not be null.
+	 * @throws AuthorizationServiceException if an unexpected exception occurred
+	 */
+	@Override
+	public void delete(final ObjectIdentity identity) {
+		Assert.notNull(identity, "identity must not be null");
+		final String key = createKey(identity);
+		try
+		{
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(final TransactionStatus status) {
+					jdbcTemplate.update(DELETE_ACES, key);
+					jdbcTemplate.update(DELETE_ACL, key);
+				}
+			});
+			// evicted once committed so that a concurrent read cannot cache the previous rows again
+			aclCache.evictFromCache(identity);
+		}
+		catch (DataAccessException e)
+		{
+			throw new AuthorizationServiceException("An unexpected exception occurred", e);
+		}
+	}
+
+	/**
+	 * Updates an existing acl. This replaces the owner and all of the
+	 * existing entries with those of the supplied acl in a single
+	 * transaction, inserting the entries as one JDBC batch. The acl is
+	 * evicted from the cache once the transaction has been committed.
+	 *
+	 * @param acl which must not be null.
+	 * @throws AuthorizationServiceException if some mandatory aspect of
+	 *         the supplied acl is null or if an unexpected exception
+	 *         occurred
+	 */
+	@Override
+	public void update(final MutableAcl acl) {
+		Assert.notNull(acl, "acl must not be null");
+		ObjectIdentity identity = acl.getObjectIdentity();
+		final String key = createKey(identity);
+		final Sid owner = acl.getOwner();
+		final List<AccessControlEntry> entries = acl.getEntries();
+		try
+		{
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(final TransactionStatus status) {
+					jdbcTemplate.update(UPDATE_ACL, SidUtil.resolveAuthority(owner), SidUtil.isPrincipal(owner), key);
+					jdbcTemplate.update(DELETE_ACES, key);
+					if (!entries.isEmpty())
+					{
+						jdbcTemplate.batchUpdate(INSERT_ACE, new AceBatchSetter(key, entries));
+					}
+				}
+			});
+			aclCache.evictFromCache(identity);
+		}
+		catch (DataAccessException e)
+		{
+			throw new AuthorizationServiceException("An unexpected exception occurred", e);
+		}
+	}
+
+	/**
+	 * Retrieves a single Acl from the given object Identity.
+	 *
+	 * @param identity
+	 * @return null if the corresponding acl is not found, the acl otherwise.
+	 * @throws AuthorizationServiceException if an unexpected exception occurred.
+	 */
+	public Acl getAclById(final ObjectIdentity identity) {
+		Assert.notNull(identity, "Object Identity required");
+		return getAclsById(Arrays.asList(identity), null).get(identity);
+	}
+
+	/**
+	 * Returns the corresponding ACL's mapped by the relevant ObjectIdentity.
+	 * Identities which are not cached are retrieved using one IN (...) query
+	 * per batchSize identities. The cache is read and written in batches if it
+	 * is a {@link BatchAclCache}.
+	 *
+	 * Every entry of a requested acl is selected so the returned and cached acls
+	 * are always complete regardless of the sids requested, a cached acl which
+	 * was only partially loaded is retrieved again.
+	 *
+	 * The returned acls are immutable {@link SimpleAclSnapshot}s shared with the
+	 * cache, use {@link SimpleAclSnapshot#mutableCopy()} to obtain an editable acl
+	 * or read it through a
+	 * {@link net.projectmonkey.spring.acl.service.SimpleACLService} without sids.
+	 *
+	 * @param objectIdentities which must not be null
+	 * @param sids which may be null
+	 * @return map of ObjectIdentities against the corresponding ACL objects.
+	 * @throws AuthorizationServiceException if an unexpected exception occurred.
+	 */
+	@Override
+	public Map<ObjectIdentity, Acl> getAclsById(final List<ObjectIdentity> objectIdentities, final List<Sid> sids) {
+		Assert.notNull(objectIdentities, "At least one Object Identity required");
+		Assert.isTrue(objectIdentities.size() > 0, "At least one Object Identity required");
+		Assert.noNullElements(objectIdentities.toArray(new ObjectIdentity[0]), "Null object identities are not permitted");
+		Map<ObjectIdentity, Acl> toReturn = new HashMap<ObjectIdentity, Acl>();
+		Map<String, ObjectIdentity> identitiesByKey = new LinkedHashMap<String, ObjectIdentity>();
+		Map<ObjectIdentity, MutableAcl> cached = AclCacheUtil.getAll(aclCache, new LinkedHashSet<ObjectIdentity>(objectIdentities));
+		for (ObjectIdentity identity : objectIdentities)
+		{
+			if (!toReturn.containsKey(identity))
+			{
+				MutableAcl acl = cached.get(identity);
+				if (acl != null && acl.isSidLoaded(sids))
+				{
+					toReturn.put(identity, acl);
+				}
+				else
+				{
+					String key = createKey(identity);
+					if (!identitiesByKey.containsKey(key))
+					{
+						identitiesByKey.put(key, identity);
+					}
+				}
+			}
+		}
+
+		if (!identitiesByKey.isEmpty())
+		{
+			try
+			{
+				List<String> keys = new ArrayList<String>(identitiesByKey.keySet());
+				for (int start = 0; start < keys.size(); start += batchSize)
+				{
+					List<String> chunk = keys.subList(start, Math.min(start + batchSize, keys.size()));
+					toReturn.putAll(retrieveChunk(chunk, identitiesByKey));
+				}
+			}
+			catch (DataAccessException e)
+			{
+				throw new AuthorizationServiceException("An unexpected exception occurred", e);
+			}
+		}
+		return toReturn;
+	}
+
+	@Override
+	public boolean isThereAnAclFor(final ObjectIdentity identity) {
+		Assert.notNull(identity, "Object Identity required");
+		try
+		{
+			return jdbcTemplate.queryForInt(COUNT_ACL, createKey(identity)) > 0;
+		}
+		catch (DataAccessException e)
+		{
+			throw new AuthorizationServiceException("An unexpected exception occurred", e);
+		}
+	}
+
+	private Map<ObjectIdentity, Acl> retrieveChunk(final List<String> keys, final Map<String, ObjectIdentity> identitiesByKey) {
+		String query = keys.size() == batchSize ? fullBatchQuery : createSelectQuery(keys.size());
+		AclRowCallbackHandler handler = new AclRowCallbackHandler(identitiesByKey);
+		jdbcTemplate.query(query, keys.toArray(), handler);
+		Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+		List<SimpleAclSnapshot> snapshots = new ArrayList<SimpleAclSnapshot>(handler.getAcls().size());
+		for (SimpleAcl acl : handler.getAcls())
+		{
+			SimpleAclSnapshot snapshot = acl.snapshot();
+			acls.put(snapshot.getObjectIdentity(), snapshot);
+			snapshots.add(snapshot);
+		}
+		AclCacheUtil.putAll(aclCache, snapshots);
+		return acls;
+	}
+
+	private String createKey(final ObjectIdentity identity) {
+		Serializable identifier = identity.getIdentifier();
+		Assert.notNull(identifier, "Identifier must not be null");
+		return identifier.toString();
+	}
+
+	private static String createSelectQuery(final int size) {
+		StringBuilder builder = new StringBuilder(SELECT_ACLS);
+		for (int i = 0; i < size; i++)
+		{
+			if (i > 0)
+			{
+				builder.append(", ");
+			}
+			builder.append("?");
+		}
+		builder.append(SELECT_ACLS_ORDERING);
+		return builder.toString();
+	}
+
+	/**
+	 * Builds the acls from the joined acl_object / acl_entry rows of a chunk.
+	 * Rows are ordered by identifier and then by the position of the entry so
+	 * each acl is completed before the next one begins, its entry rows are held
+	 * until then so the acl is constructed with its entries. As every entry is
+	 * selected the acls are built as loaded for all sids.
+	 */
+	private class AclRowCallbackHandler implements RowCallbackHandler {
+
+		private final Map<String, ObjectIdentity> identitiesByKey;
+		private final List<SimpleAcl> acls = new ArrayList<SimpleAcl>();
+		private String currentKey;
+		private ObjectIdentity currentIdentity;
+		private Sid currentOwner;
+		private AceRows currentRows;
+
+		public AclRowCallbackHandler(final Map<String, ObjectIdentity> identitiesByKey) {
+			this.identitiesByKey = identitiesByKey;
+		}
+
+		@Override
+		public void processRow(final ResultSet rs) throws SQLException {
+			String key = rs.getString("identifier");
+			if (!key.equals(currentKey))
+			{
+				completeCurrentAcl();
+				currentKey = key;
+				currentIdentity = identitiesByKey.get(key);
+				currentOwner = SidUtil.createSid(rs.getString("owner_authority"), rs.getBoolean("owner_principal"));
+				currentRows = new AceRows();
+			}
+			String aceId = rs.getString("ace_id");
+			if (aceId != null)
+			{
+				Sid sid = SidUtil.createSid(rs.getString("authority"), rs.getBoolean("principal"));
+				currentRows.add(UUID.fromString(aceId), sid, permissionFactory.buildFromMask(rs.getInt("mask")),
+						rs.getBoolean("granting"));
+			}
+		}
+
+		public List<SimpleAcl> getAcls() {
+			completeCurrentAcl();
+			return acls;
+		}
+
+		private void completeCurrentAcl() {
+			if (currentRows != null)
+			{
+				acls.add(new SimpleAcl(currentIdentity, currentOwner, currentRows, null, util));
+				currentRows = null;
+			}
+		}
+	}
+
+	/**
+	 * The entry rows of a single acl, from which its entries are built.
+	 */
+	private static class AceRows implements SimpleAcl.EntryBuilder {
+
+		private final List<UUID> ids = new ArrayList<UUID>();
+		private final List<Sid> sids = new ArrayList<Sid>();
+		private final List<Permission> permissions = new ArrayList<Permission>();
+		private final List<Boolean> granting = new ArrayList<Boolean>();
+
+		public void add(final UUID id, final Sid sid, final Permission permission, final boolean isGranting) {
+			ids.add(id);
+			sids.add(sid);
+			permissions.add(permission);
+			granting.add(isGranting);
+		}
+
+		@Override
+		public List<AccessControlEntry> build(final SimpleAcl acl) {
+			List<AccessControlEntry> entries = new ArrayList<AccessControlEntry>(ids.size());
+			for (int i = 0; i < ids.size(); i++)
+			{
+				entries.add(new AccessControlEntryImpl(ids.get(i), acl, sids.get(i), permissions.get(i),
+						granting.get(i), false, false));
+			}
+			return entries;
+		}
+	}
+
+	/**
+	 * Sets the values for a batch of acl_entry inserts, preserving
+	 * the position of each entry within the acl.
+	 */
+	private static class AceBatchSetter implements BatchPreparedStatementSetter {
+
+		private final String key;
+		private final List<AccessControlEntry> entries;
+
+		public AceBatchSetter(final String key, final List<AccessControlEntry> entries) {
+			this.key = key;
+			this.entries = entries;
+		}
+
+		@Override
+		public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+			AccessControlEntry ace = entries.get(i);
+			Serializable aceId = ace.getId();
+			// we require the ACE ids to be uuids for consistency with the hbase repository
+			UUID id = aceId instanceof UUID ? (UUID) aceId : UUID.randomUUID();
+			Sid sid = ace.getSid();
+			ps.setString(1, key);
+			ps.setInt(2, i);
+			ps.setString(3, id.toString());
+			ps.setString(4, SidUtil.resolveAuthority(sid));
+			ps.setBoolean(5, SidUtil.isPrincipal(sid));
+			ps.setInt(6, ace.getPermission().getMask());
+			ps.setBoolean(7, ace.isGranting());
+		}
+
+		@Override
+		public int getBatchSize() {
+			return entries.size();
+		}
+	}
+
+	/* Optional configuration methods */
+	/**
+	 * Set the permission factory to use when recreating {@link AccessControlEntry}s,
+	 * the permissions it builds are cached by mask, see {@link CachingPermissionFactory}
+	 * @param permissionFactory
+	 */
+	public void setPermissionFactory(final PermissionFactory permissionFactory) {
+		this.permissionFactory = CachingPermissionFactory.wrap(permissionFactory);
+	}
+
+	/**
+	 * Set the maximum number of identities retrieved by a single IN (...) query.
+	 * Defaults to 50.
+	 * @param batchSize
+	 */
+	public void setBatchSize(final int batchSize) {
+		Assert.isTrue(batchSize > 0, "batchSize must be greater than zero");
+		this.batchSize = batchSize;
+		this.fullBatchQuery = createSelectQuery(batchSize);
+	}
+
+}
@@ -0,0 +1,20 @@
+create table acl_object (
+	identifier varchar(255) not null,
+	id_type varchar(255) not null,
+	object_type varchar(255) not null,
+	owner_authority varchar(255) not null,
+	owner_principal boolean not null,
+	constraint pk_acl_object primary key (identifier)
+);
+
+create table acl_entry (
+	identifier varchar(255) not null,
+	ace_order integer not null,
+	ace_id char(36) not null,
+	authority varchar(255) not null,
+	principal boolean not null,
+	mask integer not null,
+	granting boolean not null,
+	constraint pk_acl_entry primary key (identifier, ace_order),
+	constraint fk_acl_entry_object foreign key (identifier) references acl_object (identifier)
+);
@@ -0,0 +1,302 @@
+package net.projectmonkey.spring.acl.jdbc.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import net.projectmonkey.spring.acl.cache.BoundedAclCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.AuditLogger;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.domain.SimpleAclSnapshot;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class JdbcACLRepositoryTest {
+
+	private static final String SOME_PRINCIPAL = "some principal";
+	private static final String SOME_AUTHORITY = "Some Authority";
+	private final AclAuthorizationStrategy authorizationStrategy = new AclAuthorizationStrategyImpl(
+			new SimpleGrantedAuthority(SOME_AUTHORITY));
+	private final AuditLogger auditLogger = new ConsoleAuditLogger();
+	private final AclCache cache = new TestingInMemoryCache();
+	private EmbeddedDatabase database;
+	private JdbcACLRepository underTest;
+
+	@Before
+	public void setUp() {
+		setUpAuthorisedUser();
+		database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.HSQL).addScript("acl-jdbc-schema.sql").build();
+		underTest = new JdbcACLRepository(database, auditLogger, authorizationStrategy, cache);
+	}
+
+	@After
+	public void tearDown() {
+		SecurityContextHolder.clearContext();
+		database.shutdown();
+	}
+
+	@Test
+	public void retrievingACLValuesWithNoSidsSpecified() {
+		Acl acl1 = createAcl("id1");
+		createAcl("id2");
+		Acl acl3 = createAcl("id3");
+
+		ObjectIdentity oid1 = acl1.getObjectIdentity();
+		ObjectIdentity oid3 = acl3.getObjectIdentity();
+
+		Map<ObjectIdentity, Acl> returned = underTest.getAclsById(Arrays.asList(oid1, oid3), null);
+
+		assertEquals(2, returned.size());
+		assertEquals(acl1, returned.get(oid1));
+		assertEquals(acl3, returned.get(oid3));
+	}
+
+	@Test
+	public void retrievingACLValuesWithSomeSidsSpecifiedLoadsAllRelevantAclsRegardlessOfWhetherACEsExistForTheSids() {
+		Acl acl1 = createAcl("id1");
+		createAcl("id2");
+		Acl acl3 = createAcl("id3");
+
+		ObjectIdentity oid1 = acl1.getObjectIdentity();
+		ObjectIdentity oid3 = acl3.getObjectIdentity();
+
+		PrincipalSid owner = new PrincipalSid(SOME_PRINCIPAL); // the owner is taken from the currently logged in user
+
+		List<Sid> sids = Arrays.<Sid> asList(new PrincipalSid(SOME_PRINCIPAL));
+		Map<ObjectIdentity, Acl> returned = underTest.getAclsById(Arrays.asList(oid1, oid3), sids);
+
+		assertEquals(2, returned.size());
+
+		SimpleAcl expectedAcl1 = new SimpleAcl(acl1.getObjectIdentity(), owner, acl1.getEntries(), null, null);
+		assertEquals(expectedAcl1, returned.get(oid1));
+
+		SimpleAcl expectedAcl3 = new SimpleAcl(acl3.getObjectIdentity(), owner, acl3.getEntries(), null, null);
+		assertEquals(expectedAcl3, returned.get(oid3));
+	}
+
+	@Test
+	public void cachedAclsLoadedForOtherSidsAreRetrievedAgain() {
+		Acl acl = createAcl("id1");
+		ObjectIdentity oid = acl.getObjectIdentity();
+		List<Sid> loadedSids = Arrays.<Sid> asList(new PrincipalSid("someone else"));
+		cache.putInCache(new SimpleAcl(oid, new PrincipalSid(SOME_PRINCIPAL), new ArrayList<AccessControlEntry>(), loadedSids, null));
+
+		List<Sid> sids = Arrays.<Sid> asList(new PrincipalSid(SOME_PRINCIPAL));
+		Acl returned = underTest.getAclsById(Arrays.asList(oid), sids).get(oid);
+
+		assertTrue(returned.isSidLoaded(sids));
+		assertEquals(acl.getEntries(), returned.getEntries());
+		assertEquals(returned, cache.getFromCache(oid));
+	}
+
+	@Test
+	public void retrievingMoreAclsThanTheBatchSizeSpansSeveralQueries() {
+		underTest.setBatchSize(2);
+		List<ObjectIdentity> identities = new ArrayList<ObjectIdentity>();
+		for (int i = 0; i < 5; i++)
+		{
+			identities.add(createAcl("id" + i).getObjectIdentity());
+		}
+		identities.add(new ObjectIdentityImpl(JdbcACLRepository.class, "missing"));
+
+		Map<ObjectIdentity, Acl> returned = underTest.getAclsById(identities, null);
+
+		assertEquals(5, returned.size());
+		for (ObjectIdentity identity : identities.subList(0, 5))
+		{
+			assertEquals(1, returned.get(identity).getEntries().size());
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void batchCachesAreReadAndWrittenOncePerRequest() {
+		BoundedAclCache batchCache = spy(new BoundedAclCache(100000));
+		underTest = new JdbcACLRepository(database, auditLogger, authorizationStrategy, batchCache);
+		ObjectIdentity oid1 = createAcl("id1").getObjectIdentity();
+		ObjectIdentity oid2 = createAcl("id2").getObjectIdentity();
+
+		underTest.getAclsById(Arrays.asList(oid1, oid2), null);
+		Map<ObjectIdentity, Acl> returned = underTest.getAclsById(Arrays.asList(oid1, oid2), null);
+
+		assertEquals(2, returned.size());
+		verify(batchCache, times(2)).getAllFromCache(any(Collection.class));
+		verify(batchCache, times(1)).putAllInCache(any(Collection.class));
+		verify(batchCache, never()).getFromCache(any(ObjectIdentity.class));
+		verify(batchCache, never()).putInCache(any(MutableAcl.class));
+	}
+
+	@Test
+	public void aclsWithoutEntriesAreReturned() {
+		ObjectIdentityImpl id = new ObjectIdentityImpl(JdbcACLRepository.class, "id1");
+		underTest.create(id);
+
+		Acl returned = underTest.getAclById(id);
+
+		assertNotNull(returned);
+		assertTrue(returned.getEntries().isEmpty());
+		assertEquals(new PrincipalSid(SOME_PRINCIPAL), returned.getOwner());
+	}
+
+	@Test
+	public void acesAreReturnedInTheOrderTheyWerePriorToPersistence() {
+		SimpleAcl acl = createAcl("id1");
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.WRITE, new GrantedAuthoritySid("another authority"), true);
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.READ, new PrincipalSid("another principal"), false);
+
+		assertEquals(3, acl.getEntries().size());
+
+		underTest.update(acl);
+		cache.clearCache();
+
+		ObjectIdentity oid1 = acl.getObjectIdentity();
+
+		PrincipalSid owner = new PrincipalSid(SOME_PRINCIPAL); // the owner is taken from the currently logged in user
+
+		Acl returned = underTest.getAclById(oid1);
+
+		SimpleAcl expectedAcl = new SimpleAcl(acl.getObjectIdentity(), owner, acl.getEntries(), null, null);
+		assertEquals(expectedAcl, returned);
+		assertEquals(acl.getEntries().get(0), returned.getEntries().get(0));
+		assertEquals(acl.getEntries().get(1), returned.getEntries().get(1));
+		assertEquals(acl.getEntries().get(2), returned.getEntries().get(2));
+	}
+
+	@Test
+	public void create() {
+		ObjectIdentityImpl id = new ObjectIdentityImpl(JdbcACLRepository.class, "id1");
+		MutableAcl acl1 = underTest.create(id);
+		assertNotNull(acl1);
+		assertTrue(underTest.isThereAnAclFor(id));
+	}
+
+	@Test
+	public void delete() {
+		ObjectIdentityImpl id = new ObjectIdentityImpl(JdbcACLRepository.class, "id1");
+		createAcl("id1");
+		assertTrue(underTest.isThereAnAclFor(id));
+
+		underTest.delete(id);
+
+		assertFalse(underTest.isThereAnAclFor(id));
+		assertNull(underTest.getAclById(id));
+	}
+
+	@Test
+	public void update() {
+		ObjectIdentityImpl id = new ObjectIdentityImpl(JdbcACLRepository.class, "id1");
+		MutableAcl acl1 = underTest.create(id);
+		assertNotNull(acl1);
+		assertTrue(underTest.isThereAnAclFor(id));
+
+		acl1.insertAce(0, BasePermission.CREATE, new PrincipalSid(SOME_PRINCIPAL), true);
+		acl1.setOwner(new GrantedAuthoritySid(SOME_AUTHORITY));
+		underTest.update(acl1);
+
+		Acl returned = underTest.getAclById(id);
+
+		List<AccessControlEntry> entries = returned.getEntries();
+		assertEquals(1, entries.size());
+		assertEquals(new GrantedAuthoritySid(SOME_AUTHORITY), returned.getOwner());
+	}
+
+	@Test
+	public void retrievedAclsAreImmutableSnapshotsWhichCanBeEditedThroughAMutableCopy() {
+		ObjectIdentity id = createAcl("id1").getObjectIdentity();
+		Acl returned = underTest.getAclById(id);
+		assertTrue(returned instanceof SimpleAclSnapshot);
+
+		SimpleAcl copy = ((SimpleAclSnapshot) returned).mutableCopy();
+		copy.insertAce(1, BasePermission.READ, new PrincipalSid(SOME_PRINCIPAL), true);
+		assertEquals(1, returned.getEntries().size());
+		underTest.update(copy);
+
+		assertEquals(2, underTest.getAclById(id).getEntries().size());
+	}
+
+	@Test
+	public void aclsAreEvictedOnceTheUpdateHasBeenCommitted() {
+		final List<Integer> entriesReadOnEviction = new ArrayList<Integer>();
+		underTest = new JdbcACLRepository(database, auditLogger, authorizationStrategy, new TestingInMemoryCache() {
+			@Override
+			public void evictFromCache(final ObjectIdentity objectIdentity) {
+				super.evictFromCache(objectIdentity);
+				// a read racing with the update reloads the acl here
+				entriesReadOnEviction.add(underTest.getAclById(objectIdentity).getEntries().size());
+			}
+		});
+		SimpleAcl acl = createAcl("id1");
+		entriesReadOnEviction.clear();
+
+		acl.insertAce(1, BasePermission.READ, new PrincipalSid(SOME_PRINCIPAL), true);
+		underTest.update(acl);
+
+		assertEquals(Arrays.asList(2), entriesReadOnEviction);
+		assertEquals(2, underTest.getAclById(acl.getObjectIdentity()).getEntries().size());
+	}
+
+	private SimpleAcl createAcl(final String id) {
+		ObjectIdentityImpl objectIdentity = new ObjectIdentityImpl(JdbcACLRepository.class, id);
+		SimpleAcl acl = (SimpleAcl) underTest.create(objectIdentity);
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.CREATE, new GrantedAuthoritySid(id + "Authority"), true);
+		underTest.update(acl);
+		return acl;
+	}
+
+	private void setUpAuthorisedUser() {
+		TestingAuthenticationToken authentication = new TestingAuthenticationToken(SOME_PRINCIPAL, "credentials", SOME_AUTHORITY);
+		SecurityContextHolder.getContext().setAuthentication(authentication);
+	}
+
+}
@@ -0,0 +1,362 @@
+package net.projectmonkey.spring.acl.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.acls.domain.AuditLogger;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * {@link AuditLogger} writing the same events as the {@link ConsoleAuditLogger}
+ * to a file on a background thread, so that auditing a decision only queues the
+ * event and never waits on the file or on other threads.
+ *
+ * Events are queued in a bounded ring buffer, events logged while the buffer is
+ * full are dropped and counted, see {@link #getDroppedCount()}. The writer
+ * appends the queued events in batches and rolls the file once it exceeds the
+ * maximum size, keeping a number of older files suffixed .1, .2 etc, newest first.
+ *
+ * {@link #close()} writes any queued events and stops the writer.
+ *
+ * @author Andy Moody
+ */
+public class AsyncFileAuditLogger implements AuditLogger {
+
+	private static final Log logger = LogFactory.getLog(AsyncFileAuditLogger.class);
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int BATCH_SIZE = 512;
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	private final File file;
+	private final long maxFileSize;
+	private final int maxBackups;
+	private final Ring events;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	// only used by the writer
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+	private final StringBuilder batch = new StringBuilder();
+	private FileChannel channel;
+
+	/**
+	 * Creates a logger queuing up to 8192 events and rolling the file at 10MB, keeping 5 older files.
+	 * @param file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public AsyncFileAuditLogger(final File file) throws IOException {
+		this(file, 8192, 10 * 1024 * 1024, 5);
+	}
+
+	/**
+	 * @param file
+	 * @param capacity the number of events which can be queued, rounded up to a power of two
+	 * @param maxFileSize the size in bytes after which the file is rolled
+	 * @param maxBackups the number of rolled files to keep
+	 * @throws IOException if the file cannot be opened
+	 */
+	public AsyncFileAuditLogger(final File file, final int capacity, final long maxFileSize, final int maxBackups)
+			throws IOException {
+		Assert.notNull(file, "file must not be null");
+		Assert.isTrue(capacity > 0, "capacity must be positive");
+		Assert.isTrue(maxFileSize > 0, "maxFileSize must be positive");
+		Assert.isTrue(maxBackups >= 0, "maxBackups must not be negative");
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		this.maxBackups = maxBackups;
+		this.events = new Ring(capacity);
+		this.channel = open(file);
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "acl-audit-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void logIfNeeded(final boolean granted, final AccessControlEntry ace) {
+		Assert.notNull(ace, "AccessControlEntry required");
+		if (ace instanceof AuditableAccessControlEntry)
+		{
+			AuditableAccessControlEntry auditableAce = (AuditableAccessControlEntry) ace;
+			if (granted ? auditableAce.isAuditSuccess() : auditableAce.isAuditFailure())
+			{
+				if (!running || !events.offer(new Event(System.currentTimeMillis(), granted, ace)))
+				{
+					dropped.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of events dropped as the queue was full, or could not be written
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of events written
+	 */
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	/**
+	 * Writes the queued events, then stops the writer and closes the file.
+	 */
+	public void close() {
+		running = false;
+		LockSupport.unpark(writer);
+		try
+		{
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write() {
+		try
+		{
+			while (true)
+			{
+				// read before draining so that events queued before close are always written
+				boolean stopping = !running;
+				int count = drain();
+				if (count > 0)
+				{
+					flush(count);
+				}
+				else if (stopping)
+				{
+					return;
+				}
+				else
+				{
+					LockSupport.parkNanos(this, IDLE_NANOS);
+				}
+			}
+		}
+		finally
+		{
+			try
+			{
+				channel.close();
+			}
+			catch (IOException e)
+			{
+				logger.warn("Unable to close audit file " + file, e);
+			}
+		}
+	}
+
+	private int drain() {
+		batch.setLength(0);
+		int count = 0;
+		Event event;
+		while (count < BATCH_SIZE && (event = events.poll()) != null)
+		{
+			int start = batch.length();
+			try
+			{
+				batch.append(dateFormat.format(new Date(event.time))).append(' ')
+						.append(event.granted ? "GRANTED" : "DENIED").append(" due to ACE: ").append(event.ace).append('\n');
+				count++;
+			}
+			catch (RuntimeException e)
+			{
+				// an entry which cannot be formatted must not stop the writer
+				batch.setLength(start);
+				dropped.incrementAndGet();
+				logger.error("Unable to format audit event for " + file, e);
+			}
+		}
+		return count;
+	}
+
+	private void flush(final int count) {
+		ByteBuffer bytes = UTF_8.encode(batch.toString());
+		try
+		{
+			if (!channel.isOpen())
+			{
+				// the file could not be reopened after a previous roll
+				channel = open(file);
+			}
+			if (channel.size() > 0 && channel.size() + bytes.remaining() > maxFileSize)
+			{
+				roll();
+			}
+			while (bytes.hasRemaining())
+			{
+				channel.write(bytes);
+			}
+			written.addAndGet(count);
+		}
+		catch (IOException e)
+		{
+			dropped.addAndGet(count);
+			logger.error("Unable to write " + count + " audit events to " + file, e);
+		}
+	}
+
+	private void roll() throws IOException {
+		channel.close();
+		try
+		{
+			if (maxBackups == 0)
+			{
+				delete(file);
+			}
+			else
+			{
+				delete(backup(maxBackups));
+				for (int i = maxBackups - 1; i > 0; i--)
+				{
+					rename(backup(i), backup(i + 1));
+				}
+				rename(file, backup(1));
+			}
+		}
+		finally
+		{
+			// reopened even if the roll failed so that later events are still written
+			channel = open(file);
+		}
+	}
+
+	private File backup(final int number) {
+		return new File(file.getPath() + "." + number);
+	}
+
+	private static FileChannel open(final File file) throws IOException {
+		FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+		channel.position(channel.size());
+		return channel;
+	}
+
+	private static void delete(final File file) throws IOException {
+		if (file.exists() && !file.delete())
+		{
+			throw new IOException("Unable to delete " + file);
+		}
+	}
+
+	private static void rename(final File from, final File to) throws IOException {
+		if (from.exists() && !from.renameTo(to))
+		{
+			throw new IOException("Unable to rename " + from + " to " + to);
+		}
+	}
+
+	private static final class Event {
+
+		private final long time;
+		private final boolean granted;
+		private final AccessControlEntry ace;
+
+		Event(final long time, final boolean granted, final AccessControlEntry ace) {
+			this.time = time;
+			this.granted = granted;
+			this.ace = ace;
+		}
+	}
+
+	/**
+	 * Bounded queue for any number of producers and a single consumer. Producers
+	 * claim a slot by advancing the tail and then publish the event into it, the
+	 * consumer takes events in order, waiting for a claimed slot to be published.
+	 */
+	private static final class Ring {
+
+		private final AtomicReferenceArray<Event> slots;
+		private final int mask;
+		private final AtomicLong tail = new AtomicLong();
+		// only written by the consumer
+		private volatile long head;
+
+		Ring(final int capacity) {
+			int size = Integer.highestOneBit(capacity);
+			if (size < capacity)
+			{
+				size <<= 1;
+			}
+			this.slots = new AtomicReferenceArray<Event>(size);
+			this.mask = size - 1;
+		}
+
+		boolean offer(final Event event) {
+			long claimed;
+			do
+			{
+				claimed = tail.get();
+				if (claimed - head >= slots.length())
+				{
+					return false;
+				}
+			}
+			while (!tail.compareAndSet(claimed, claimed + 1));
+			slots.set((int) claimed & mask, event);
+			return true;
+		}
+
+		Event poll() {
+			long current = head;
+			if (current == tail.get())
+			{
+				return null;
+			}
+			int index = (int) current & mask;
+			Event event;
+			// the slot has been claimed, wait for the producer to publish it
+			while ((event = slots.get(index)) == null)
+			{
+				Thread.yield();
+			}
+			slots.lazySet(index, null);
+			head = current + 1;
+			return event;
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package net.projectmonkey.spring.acl.cache;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Point in time snapshot of the statistics for an acl cache.
+ *
+ * @author Andy Moody
+ */
+public class AclCacheStatistics {
+
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+	private final long expirationCount;
+	private final long rejectionCount;
+	private final long size;
+	private final long weight;
+
+	public AclCacheStatistics(final long hitCount, final long missCount, final long evictionCount, final long expirationCount,
+			final long rejectionCount, final long size, final long weight) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.expirationCount = expirationCount;
+		this.rejectionCount = rejectionCount;
+		this.size = size;
+		this.weight = weight;
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the proportion of lookups which were hits, 1 if there have been no lookups
+	 */
+	public double getHitRate() {
+		long requests = hitCount + missCount;
+		return requests == 0 ? 1.0 : (double) hitCount / requests;
+	}
+
+	/**
+	 * @return the number of acls evicted to make room for others
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return the number of acls removed because their time to live had passed
+	 */
+	public long getExpirationCount() {
+		return expirationCount;
+	}
+
+	/**
+	 * @return the number of acls which were not cached because they were accessed
+	 *         less frequently than the acls they would have replaced
+	 */
+	public long getRejectionCount() {
+		return rejectionCount;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the estimated retained size of the cached acls
+	 */
+	public long getWeight() {
+		return weight;
+	}
+
+	@Override
+	public String toString() {
+		return "AclCacheStatistics [hitCount=" + hitCount + ", missCount=" + missCount + ", evictionCount=" + evictionCount
+				+ ", expirationCount=" + expirationCount + ", rejectionCount=" + rejectionCount + ", size=" + size
+				+ ", weight=" + weight + "]";
+	}
+
+}
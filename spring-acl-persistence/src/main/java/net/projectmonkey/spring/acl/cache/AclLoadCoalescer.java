@@ -0,0 +1,213 @@
+package net.projectmonkey.spring.acl.cache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Coordinates concurrent loads of the same acls so that only one caller
+ * retrieves an acl from storage while others requesting it at the same time
+ * wait for the result, preventing a stampede of identical lookups when a
+ * popular acl is missing from the cache.
+ *
+ * Loads are keyed by the identifier of the ObjectIdentity, consistent with the
+ * repositories in this project. The loaded acls must be complete, i.e. loaded for
+ * all sids, as they are shared with callers which may have requested other sids.
+ *
+ * A caller {@link #claim(Collection)}s the identities it is missing, loads the
+ * identities it owns, publishes them with {@link Claim#complete(Map)} (or
+ * {@link Claim#abandon()} if the load failed) and finally collects the acls
+ * loaded by other callers with {@link Claim#awaitOthers(Map)}. Identities whose
+ * load failed or did not complete within the timeout are returned to the caller
+ * to load itself.
+ *
+ * @author Andy Moody
+ */
+public class AclLoadCoalescer {
+
+	private final ConcurrentMap<Serializable, Load> inFlight = new ConcurrentHashMap<Serializable, Load>();
+	private final long timeoutNanos;
+
+	/**
+	 * @param timeoutMillis the maximum time to wait for a load made by another caller
+	 */
+	public AclLoadCoalescer(final long timeoutMillis) {
+		Assert.isTrue(timeoutMillis >= 0, "timeoutMillis must not be negative");
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+
+	/**
+	 * Claims the load of each identity not already being loaded by another caller.
+	 *
+	 * @param identities the identities missing from the cache
+	 * @return the claim, which must always be completed or abandoned
+	 */
+	public Claim claim(final Collection<ObjectIdentity> identities) {
+		Map<ObjectIdentity, Load> owned = new LinkedHashMap<ObjectIdentity, Load>();
+		Map<ObjectIdentity, Load> awaited = new LinkedHashMap<ObjectIdentity, Load>();
+		Set<Serializable> claimed = new HashSet<Serializable>();
+		for (ObjectIdentity identity : identities)
+		{
+			if (claimed.add(identity.getIdentifier()))
+			{
+				Load load = new Load();
+				Load existing = inFlight.putIfAbsent(identity.getIdentifier(), load);
+				if (existing == null)
+				{
+					owned.put(identity, load);
+				}
+				else
+				{
+					awaited.put(identity, existing);
+				}
+			}
+		}
+		return new Claim(owned, awaited);
+	}
+
+	/**
+	 * @return the number of identities currently being loaded
+	 */
+	int inFlightCount() {
+		return inFlight.size();
+	}
+
+	/**
+	 * The identities a caller must load itself and those it is waiting on other callers for.
+	 */
+	public class Claim {
+
+		private final Map<ObjectIdentity, Load> owned;
+		private final Map<ObjectIdentity, Load> awaited;
+
+		Claim(final Map<ObjectIdentity, Load> owned, final Map<ObjectIdentity, Load> awaited) {
+			this.owned = owned;
+			this.awaited = awaited;
+		}
+
+		/**
+		 * @return the identities this caller must load
+		 */
+		public List<ObjectIdentity> getOwned() {
+			return new ArrayList<ObjectIdentity>(owned.keySet());
+		}
+
+		/**
+		 * Publishes the loaded acls to any waiting callers, owned identities
+		 * missing from the map are published as having no acl. The acls should
+		 * already have been cached so that later callers find them there.
+		 *
+		 * @param loaded
+		 */
+		public void complete(final Map<ObjectIdentity, Acl> loaded) {
+			for (Map.Entry<ObjectIdentity, Load> entry : owned.entrySet())
+			{
+				finish(entry.getKey(), entry.getValue(), loaded.get(entry.getKey()), false);
+			}
+		}
+
+		/**
+		 * Releases the owned identities after a failed load, waiting callers will
+		 * load them themselves. Has no effect once the claim has been completed so
+		 * may safely be called from a finally block.
+		 */
+		public void abandon() {
+			for (Map.Entry<ObjectIdentity, Load> entry : owned.entrySet())
+			{
+				finish(entry.getKey(), entry.getValue(), null, true);
+			}
+		}
+
+		/**
+		 * Waits for the identities being loaded by other callers.
+		 *
+		 * @param acls the map to add the acls loaded by other callers to
+		 * @return the identities which must be loaded by this caller as the load by
+		 *         another caller failed or did not complete in time
+		 */
+		public List<ObjectIdentity> awaitOthers(final Map<ObjectIdentity, Acl> acls) {
+			if (awaited.isEmpty())
+			{
+				return Collections.emptyList();
+			}
+			List<ObjectIdentity> unresolved = new ArrayList<ObjectIdentity>();
+			long deadline = System.nanoTime() + timeoutNanos;
+			for (Map.Entry<ObjectIdentity, Load> entry : awaited.entrySet())
+			{
+				Load load = entry.getValue();
+				if (load.await(deadline - System.nanoTime()) && !load.failed)
+				{
+					if (load.acl != null)
+					{
+						acls.put(entry.getKey(), load.acl);
+					}
+				}
+				else
+				{
+					unresolved.add(entry.getKey());
+				}
+			}
+			return unresolved;
+		}
+
+		private void finish(final ObjectIdentity identity, final Load load, final Acl acl, final boolean failed) {
+			if (load.latch.getCount() > 0)
+			{
+				load.acl = acl;
+				load.failed = failed;
+				inFlight.remove(identity.getIdentifier(), load);
+				load.latch.countDown();
+			}
+		}
+	}
+
+	private static class Load {
+
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile Acl acl;
+		private volatile boolean failed;
+
+		boolean await(final long nanos) {
+			try
+			{
+				return latch.await(Math.max(0, nanos), TimeUnit.NANOSECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+}
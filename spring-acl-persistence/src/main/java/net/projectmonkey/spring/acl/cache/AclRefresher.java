@@ -0,0 +1,183 @@
+package net.projectmonkey.spring.acl.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.projectmonkey.spring.acl.repository.ACLUpdateRepository;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.acls.model.ObjectIdentity;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Reloads acls through a repository on a background thread, batching the
+ * identities queued since the previous load. The repository caches the
+ * reloaded acls, replacing those currently cached.
+ *
+ * While a batch is being loaded the cache must report a miss for every lookup
+ * made on the refreshing thread, see {@link #isRefreshing()}, so that the
+ * repository reads the acls from storage rather than returning the cached ones.
+ *
+ * Once a batch has been loaded, or has failed to load, its identities are
+ * released by the cache so that they may be queued again. Closing the refresher
+ * lets a batch already being loaded complete rather than interrupting the
+ * repository, and any identities still queued are released without loading.
+ *
+ * @author Andy Moody
+ */
+class AclRefresher {
+
+	private static final Log logger = LogFactory.getLog(AclRefresher.class);
+	private static final int BATCH_SIZE = 100;
+
+	private final ACLUpdateRepository repository;
+	private final BoundedAclCache cache;
+	private final Queue<ObjectIdentity> pending = new ConcurrentLinkedQueue<ObjectIdentity>();
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private final ThreadLocal<Boolean> refreshing = new ThreadLocal<Boolean>();
+	private final ExecutorService executor;
+	private volatile boolean closed;
+
+	AclRefresher(final ACLUpdateRepository repository, final BoundedAclCache cache) {
+		this.repository = repository;
+		this.cache = cache;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				Thread thread = new Thread(runnable, "acl-cache-refresher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queues the identity to be reloaded.
+	 * @param identity
+	 */
+	void refresh(final ObjectIdentity identity) {
+		pending.offer(identity);
+		if (draining.compareAndSet(false, true))
+		{
+			try
+			{
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						drain();
+					}
+				});
+			}
+			catch (RejectedExecutionException e)
+			{
+				// closed concurrently, the acl is simply left to expire
+				draining.set(false);
+				releasePending();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the current thread is reloading acls
+	 */
+	boolean isRefreshing() {
+		return refreshing.get() != null;
+	}
+
+	void close() {
+		closed = true;
+		executor.shutdown();
+		try
+		{
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drain() {
+		while (true)
+		{
+			if (closed)
+			{
+				draining.set(false);
+				releasePending();
+				return;
+			}
+			List<ObjectIdentity> batch = new ArrayList<ObjectIdentity>(BATCH_SIZE);
+			ObjectIdentity identity;
+			while (batch.size() < BATCH_SIZE && (identity = pending.poll()) != null)
+			{
+				batch.add(identity);
+			}
+			if (batch.isEmpty())
+			{
+				draining.set(false);
+				// an identity queued after the final poll must not be left behind
+				if (pending.isEmpty() || !draining.compareAndSet(false, true))
+				{
+					return;
+				}
+			}
+			else
+			{
+				load(batch);
+			}
+		}
+	}
+
+	private void load(final List<ObjectIdentity> batch) {
+		refreshing.set(Boolean.TRUE);
+		try
+		{
+			repository.getAclsById(batch, null);
+		}
+		catch (RuntimeException e)
+		{
+			logger.error("Refreshing " + batch.size() + " cached acls failed", e);
+		}
+		finally
+		{
+			refreshing.remove();
+			for (ObjectIdentity identity : batch)
+			{
+				cache.refreshFinished(identity);
+			}
+		}
+	}
+
+	private void releasePending() {
+		ObjectIdentity identity;
+		while ((identity = pending.poll()) != null)
+		{
+			cache.refreshFinished(identity);
+		}
+	}
+
+}
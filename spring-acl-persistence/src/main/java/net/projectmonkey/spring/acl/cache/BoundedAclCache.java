@@ -0,0 +1,656 @@
+package net.projectmonkey.spring.acl.cache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.projectmonkey.spring.acl.repository.ACLUpdateRepository;
+
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.domain.SimpleAclSnapshot;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Concurrent, bounded {@link BatchAclCache} keyed by the identifier of the ObjectIdentity,
+ * consistent with the repositories in this project.
+ *
+ * The cache is bounded by the estimated retained size of the acls it holds
+ * rather than by the number of acls, each acl is weighed as a fixed cost plus
+ * a cost per access control entry. Both costs can be configured as properties.
+ *
+ * The cache is split into independently locked segments, each holding its
+ * entries in least recently used order. When a segment is full a new acl is
+ * only admitted if it has been requested at least as often recently as the acls
+ * it would replace, so a burst of one off lookups cannot flush frequently used acls.
+ *
+ * Entries can optionally expire a fixed time after they were cached and
+ * statistics are available via {@link #getStatistics()}.
+ *
+ * Frequently requested acls can optionally be refreshed ahead of their expiry.
+ * When a refresh repository is set, a hit on an acl due to expire within the
+ * refresh ahead time which has been requested at least the minimum number of
+ * times recently queues the acl to be reloaded in the background. Reloads are
+ * batched and made through the repository, which replaces the cached acl, while
+ * the current acl continues to be returned so frequently used acls are not
+ * missed on expiry. Call {@link #close()} to stop the background reloads.
+ *
+ * @author Andy Moody
+ */
+public class BoundedAclCache implements BatchAclCache {
+
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+	private static final int DEFAULT_ACL_WEIGHT = 256;
+	private static final int DEFAULT_ACE_WEIGHT = 128;
+	private static final int DEFAULT_REFRESH_MINIMUM_FREQUENCY = 3;
+
+	private final Segment[] segments;
+	private final int segmentMask;
+
+	private volatile long timeToLiveNanos;
+	private volatile int aclWeight = DEFAULT_ACL_WEIGHT;
+	private volatile int aceWeight = DEFAULT_ACE_WEIGHT;
+	private volatile AclRefresher refresher;
+	private volatile long refreshAheadNanos;
+	private volatile int refreshMinimumFrequency = DEFAULT_REFRESH_MINIMUM_FREQUENCY;
+
+	/**
+	 * @param maximumWeight the maximum combined weight of the cached acls
+	 */
+	public BoundedAclCache(final long maximumWeight) {
+		this(maximumWeight, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * @param maximumWeight the maximum combined weight of the cached acls
+	 * @param concurrencyLevel the number of independently locked segments, rounded up to a power of two
+	 */
+	public BoundedAclCache(final long maximumWeight, final int concurrencyLevel) {
+		Assert.isTrue(maximumWeight > 0, "maximumWeight must be greater than zero");
+		Assert.isTrue(concurrencyLevel > 0, "concurrencyLevel must be greater than zero");
+		int segmentCount = 1;
+		while (segmentCount < concurrencyLevel)
+		{
+			segmentCount <<= 1;
+		}
+		long segmentWeight = Math.max(1, maximumWeight / segmentCount);
+		// the sketches are allocated up front so their combined size is capped rather than that of each one
+		int expectedEntries = (int) Math.min(FrequencySketch.MAXIMUM_WIDTH / segmentCount,
+				segmentWeight / (DEFAULT_ACL_WEIGHT + DEFAULT_ACE_WEIGHT));
+		this.segmentMask = segmentCount - 1;
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+		{
+			segments[i] = new Segment(segmentWeight, expectedEntries);
+		}
+	}
+
+	@Override
+	public MutableAcl getFromCache(final ObjectIdentity objectIdentity) {
+		return getFromCache(objectIdentity.getIdentifier());
+	}
+
+	@Override
+	public MutableAcl getFromCache(final Serializable pk) {
+		AclRefresher currentRefresher = refresher;
+		if (currentRefresher != null && currentRefresher.isRefreshing())
+		{
+			// reloading, the repository must read the acl from storage
+			return null;
+		}
+		long now = currentTime();
+		Segment segment = segmentFor(pk);
+		CacheEntry entry = segment.get(pk, now);
+		if (entry == null)
+		{
+			return null;
+		}
+		refreshIfDue(segment, pk, entry, now, currentRefresher);
+		return entry.acl;
+	}
+
+	/**
+	 * Looks up the acls of each segment while holding its lock once.
+	 */
+	@Override
+	public Map<ObjectIdentity, MutableAcl> getAllFromCache(final Collection<ObjectIdentity> identities) {
+		Map<ObjectIdentity, MutableAcl> toReturn = new HashMap<ObjectIdentity, MutableAcl>();
+		AclRefresher currentRefresher = refresher;
+		if (currentRefresher != null && currentRefresher.isRefreshing())
+		{
+			return toReturn;
+		}
+		long now = currentTime();
+		List<List<ObjectIdentity>> bySegment = new ArrayList<List<ObjectIdentity>>(segments.length);
+		for (int i = 0; i < segments.length; i++)
+		{
+			bySegment.add(new ArrayList<ObjectIdentity>());
+		}
+		for (ObjectIdentity identity : identities)
+		{
+			bySegment.get(segmentIndex(identity.getIdentifier())).add(identity);
+		}
+		for (int i = 0; i < segments.length; i++)
+		{
+			List<ObjectIdentity> forSegment = bySegment.get(i);
+			if (!forSegment.isEmpty())
+			{
+				CacheEntry[] entries = segments[i].getAll(forSegment, now);
+				for (int j = 0; j < entries.length; j++)
+				{
+					if (entries[j] != null)
+					{
+						ObjectIdentity identity = forSegment.get(j);
+						refreshIfDue(segments[i], identity.getIdentifier(), entries[j], now, currentRefresher);
+						toReturn.put(identity, entries[j].acl);
+					}
+				}
+			}
+		}
+		return toReturn;
+	}
+
+	@Override
+	public void putInCache(final MutableAcl acl) {
+		Assert.notNull(acl, "acl must not be null");
+		Serializable key = acl.getObjectIdentity().getIdentifier();
+		long now = currentTime();
+		segmentFor(key).put(key, acl, weigh(acl), expiresAt(now), now);
+	}
+
+	/**
+	 * Caches the acls of each segment while holding its lock once.
+	 */
+	@Override
+	public void putAllInCache(final Collection<? extends MutableAcl> acls) {
+		List<List<MutableAcl>> bySegment = new ArrayList<List<MutableAcl>>(segments.length);
+		for (int i = 0; i < segments.length; i++)
+		{
+			bySegment.add(new ArrayList<MutableAcl>());
+		}
+		for (MutableAcl acl : acls)
+		{
+			Assert.notNull(acl, "acl must not be null");
+			bySegment.get(segmentIndex(acl.getObjectIdentity().getIdentifier())).add(acl);
+		}
+		long now = currentTime();
+		for (int i = 0; i < segments.length; i++)
+		{
+			List<MutableAcl> forSegment = bySegment.get(i);
+			if (!forSegment.isEmpty())
+			{
+				int[] weights = new int[forSegment.size()];
+				for (int j = 0; j < weights.length; j++)
+				{
+					weights[j] = weigh(forSegment.get(j));
+				}
+				segments[i].putAll(forSegment, weights, expiresAt(now), now);
+			}
+		}
+	}
+
+	@Override
+	public void evictFromCache(final ObjectIdentity objectIdentity) {
+		evictFromCache(objectIdentity.getIdentifier());
+	}
+
+	@Override
+	public void evictFromCache(final Serializable pk) {
+		segmentFor(pk).remove(pk);
+	}
+
+	@Override
+	public void clearCache() {
+		for (Segment segment : segments)
+		{
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @return the statistics accumulated since the cache was created
+	 */
+	public AclCacheStatistics getStatistics() {
+		long[] totals = new long[7];
+		for (Segment segment : segments)
+		{
+			segment.addStatistics(totals);
+		}
+		return new AclCacheStatistics(totals[0], totals[1], totals[2], totals[3], totals[4], totals[5], totals[6]);
+	}
+
+	/**
+	 * Stops refreshing acls in the background.
+	 */
+	public void close() {
+		AclRefresher currentRefresher = refresher;
+		if (currentRefresher != null)
+		{
+			refresher = null;
+			currentRefresher.close();
+		}
+	}
+
+	/**
+	 * @return the current time in nanoseconds, used to expire entries
+	 */
+	protected long currentTime() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Allows the acl to be queued for refresh again, called once an attempt to
+	 * refresh it has finished whether or not the acl was reloaded.
+	 * @param identity
+	 */
+	void refreshFinished(final ObjectIdentity identity) {
+		Serializable key = identity.getIdentifier();
+		segmentFor(key).releaseRefresh(key);
+	}
+
+	/**
+	 * @return the combined width of the frequency sketches of every segment
+	 */
+	long getSketchWidth() {
+		long width = 0;
+		for (Segment segment : segments)
+		{
+			width += segment.sketch.getWidth();
+		}
+		return width;
+	}
+
+	private void refreshIfDue(final Segment segment, final Serializable key, final CacheEntry entry, final long now,
+			final AclRefresher currentRefresher) {
+		if (currentRefresher != null && entry.isDueForRefresh(now, refreshAheadNanos)
+				&& segment.claimRefresh(key, entry, refreshMinimumFrequency))
+		{
+			currentRefresher.refresh(entry.acl.getObjectIdentity());
+		}
+	}
+
+	private int weigh(final MutableAcl acl) {
+		return aclWeight + (entryCount(acl) * aceWeight);
+	}
+
+	private static int entryCount(final MutableAcl acl) {
+		// counted without creating the entries of the acls cached by the repositories
+		if (acl instanceof SimpleAclSnapshot)
+		{
+			return ((SimpleAclSnapshot) acl).getEntryCount();
+		}
+		if (acl instanceof SimpleAcl)
+		{
+			return ((SimpleAcl) acl).getEntryCount();
+		}
+		return acl.getEntries().size();
+	}
+
+	private long expiresAt(final long now) {
+		long ttl = timeToLiveNanos;
+		return ttl > 0 ? now + ttl : 0;
+	}
+
+	private Segment segmentFor(final Serializable key) {
+		return segments[segmentIndex(key)];
+	}
+
+	private int segmentIndex(final Serializable key) {
+		int hash = key.hashCode();
+		return (hash ^ (hash >>> 16)) & segmentMask;
+	}
+
+	private static class CacheEntry {
+
+		private final MutableAcl acl;
+		private final int weight;
+		private final long expiresAt;
+		// guarded by the lock of the owning segment
+		private boolean refreshQueued;
+
+		CacheEntry(final MutableAcl acl, final int weight, final long expiresAt) {
+			this.acl = acl;
+			this.weight = weight;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(final long now) {
+			return expiresAt != 0 && now - expiresAt >= 0;
+		}
+
+		boolean isDueForRefresh(final long now, final long refreshAheadNanos) {
+			return expiresAt != 0 && refreshAheadNanos > 0 && now - (expiresAt - refreshAheadNanos) >= 0;
+		}
+	}
+
+	/**
+	 * A least recently used portion of the cache with its own lock, frequency sketch and statistics.
+	 */
+	private static class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Map<Serializable, CacheEntry> entries = new LinkedHashMap<Serializable, CacheEntry>(16, 0.75f, true);
+		private final FrequencySketch sketch;
+		private final long maximumWeight;
+		private long weight;
+		private long hits;
+		private long misses;
+		private long evictions;
+		private long expirations;
+		private long rejections;
+
+		Segment(final long maximumWeight, final int expectedEntries) {
+			this.maximumWeight = maximumWeight;
+			this.sketch = new FrequencySketch(expectedEntries);
+		}
+
+		CacheEntry get(final Serializable key, final long now) {
+			lock.lock();
+			try
+			{
+				return getLocked(key, now);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		CacheEntry[] getAll(final List<ObjectIdentity> identities, final long now) {
+			CacheEntry[] toReturn = new CacheEntry[identities.size()];
+			lock.lock();
+			try
+			{
+				for (int i = 0; i < toReturn.length; i++)
+				{
+					toReturn[i] = getLocked(identities.get(i).getIdentifier(), now);
+				}
+				return toReturn;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void put(final Serializable key, final MutableAcl acl, final int entryWeight, final long expiresAt, final long now) {
+			lock.lock();
+			try
+			{
+				putLocked(key, acl, entryWeight, expiresAt, now);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void putAll(final List<MutableAcl> acls, final int[] weights, final long expiresAt, final long now) {
+			lock.lock();
+			try
+			{
+				for (int i = 0; i < weights.length; i++)
+				{
+					MutableAcl acl = acls.get(i);
+					putLocked(acl.getObjectIdentity().getIdentifier(), acl, weights[i], expiresAt, now);
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		private CacheEntry getLocked(final Serializable key, final long now) {
+			sketch.increment(key);
+			CacheEntry entry = entries.get(key);
+			if (entry != null && entry.isExpired(now))
+			{
+				remove(key, entry);
+				expirations++;
+				entry = null;
+			}
+			if (entry == null)
+			{
+				misses++;
+				return null;
+			}
+			hits++;
+			return entry;
+		}
+
+		private void putLocked(final Serializable key, final MutableAcl acl, final int entryWeight, final long expiresAt,
+				final long now) {
+			CacheEntry existing = entries.get(key);
+			if (existing != null)
+			{
+				remove(key, existing);
+			}
+			// replacing an existing acl is always admitted
+			if (entryWeight <= maximumWeight && makeRoom(key, entryWeight, existing != null, now))
+			{
+				entries.put(key, new CacheEntry(acl, entryWeight, expiresAt));
+				weight += entryWeight;
+			}
+			else
+			{
+				rejections++;
+			}
+		}
+
+		/**
+		 * Marks the entry as queued for refresh if it is still cached, has not
+		 * already been queued and has been requested frequently enough.
+		 * @return true if the entry should be refreshed
+		 */
+		boolean claimRefresh(final Serializable key, final CacheEntry entry, final int minimumFrequency) {
+			lock.lock();
+			try
+			{
+				if (entry.refreshQueued || entries.get(key) != entry || sketch.frequency(key) < minimumFrequency)
+				{
+					return false;
+				}
+				entry.refreshQueued = true;
+				return true;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void releaseRefresh(final Serializable key) {
+			lock.lock();
+			try
+			{
+				CacheEntry entry = entries.get(key);
+				if (entry != null)
+				{
+					entry.refreshQueued = false;
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void remove(final Serializable key) {
+			lock.lock();
+			try
+			{
+				CacheEntry existing = entries.get(key);
+				if (existing != null)
+				{
+					remove(key, existing);
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			lock.lock();
+			try
+			{
+				entries.clear();
+				weight = 0;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void addStatistics(final long[] totals) {
+			lock.lock();
+			try
+			{
+				totals[0] += hits;
+				totals[1] += misses;
+				totals[2] += evictions;
+				totals[3] += expirations;
+				totals[4] += rejections;
+				totals[5] += entries.size();
+				totals[6] += weight;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Evicts least recently used entries until the candidate fits, unless one of
+		 * them has been requested more frequently than the candidate in which case
+		 * nothing is evicted and the candidate should be rejected. Expired entries are always evicted.
+		 * @return true if there is now room for the candidate
+		 */
+		private boolean makeRoom(final Serializable candidate, final int needed, final boolean admitted, final long now) {
+			if (weight + needed <= maximumWeight)
+			{
+				return true;
+			}
+			int candidateFrequency = admitted ? Integer.MAX_VALUE : sketch.frequency(candidate);
+			List<Serializable> victims = new ArrayList<Serializable>();
+			long freed = 0;
+			Iterator<Map.Entry<Serializable, CacheEntry>> eldest = entries.entrySet().iterator();
+			while (weight - freed + needed > maximumWeight && eldest.hasNext())
+			{
+				Map.Entry<Serializable, CacheEntry> victim = eldest.next();
+				if (!victim.getValue().isExpired(now) && sketch.frequency(victim.getKey()) > candidateFrequency)
+				{
+					return false;
+				}
+				victims.add(victim.getKey());
+				freed += victim.getValue().weight;
+			}
+			for (Serializable victim : victims)
+			{
+				CacheEntry removed = entries.get(victim);
+				remove(victim, removed);
+				if (removed.isExpired(now))
+				{
+					expirations++;
+				}
+				else
+				{
+					evictions++;
+				}
+			}
+			return true;
+		}
+
+		private void remove(final Serializable key, final CacheEntry entry) {
+			entries.remove(key);
+			weight -= entry.weight;
+		}
+	}
+
+	/* Optional configuration methods */
+	/**
+	 * Set the time after which cached acls expire, defaults to zero meaning acls do not expire.
+	 * @param seconds
+	 */
+	public void setTimeToLiveSeconds(final long seconds) {
+		Assert.isTrue(seconds >= 0, "seconds must not be negative");
+		this.timeToLiveNanos = TimeUnit.SECONDS.toNanos(seconds);
+	}
+
+	/**
+	 * Set the repository used to reload frequently requested acls before they
+	 * expire, this should be the repository the cache is supplied to. Acls are
+	 * only refreshed if a refresh ahead time is also set.
+	 * @param repository
+	 */
+	public void setRefreshRepository(final ACLUpdateRepository repository) {
+		Assert.notNull(repository, "repository must not be null");
+		close();
+		this.refresher = new AclRefresher(repository, this);
+	}
+
+	/**
+	 * Set how long before expiry frequently requested acls are refreshed,
+	 * defaults to zero meaning acls are not refreshed.
+	 * @param seconds
+	 */
+	public void setRefreshAheadSeconds(final long seconds) {
+		Assert.isTrue(seconds >= 0, "seconds must not be negative");
+		this.refreshAheadNanos = TimeUnit.SECONDS.toNanos(seconds);
+	}
+
+	/**
+	 * Set how often an acl must have been requested recently to be refreshed, defaults to 3.
+	 * @param refreshMinimumFrequency
+	 */
+	public void setRefreshMinimumFrequency(final int refreshMinimumFrequency) {
+		Assert.isTrue(refreshMinimumFrequency > 0, "refreshMinimumFrequency must be greater than zero");
+		this.refreshMinimumFrequency = refreshMinimumFrequency;
+	}
+
+	/**
+	 * Set the fixed weight of each acl, defaults to 256.
+	 * @param aclWeight
+	 */
+	public void setAclWeight(final int aclWeight) {
+		Assert.isTrue(aclWeight > 0, "aclWeight must be greater than zero");
+		this.aclWeight = aclWeight;
+	}
+
+	/**
+	 * Set the weight of each access control entry within an acl, defaults to 128.
+	 * @param aceWeight
+	 */
+	public void setAceWeight(final int aceWeight) {
+		Assert.isTrue(aceWeight >= 0, "aceWeight must not be negative");
+		this.aceWeight = aceWeight;
+	}
+
+}
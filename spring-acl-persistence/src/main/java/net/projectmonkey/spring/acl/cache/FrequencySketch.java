@@ -0,0 +1,109 @@
+package net.projectmonkey.spring.acl.cache;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Count-min sketch estimating how often keys have been accessed recently.
+ *
+ * Counters saturate at 15 and are halved once the number of recorded accesses
+ * reaches ten times the width of the sketch, so the estimates favour recent activity.
+ *
+ * Not thread safe, callers are expected to provide their own locking.
+ *
+ * @author Andy Moody
+ */
+class FrequencySketch {
+
+	private static final int DEPTH = 4;
+	private static final int MAX_COUNT = 15;
+	private static final int[] SEEDS = { 0x97cb3127, 0xb3f8d5b1, 0x8b6a3c4d, 0xc2b2ae35 };
+	/**
+	 * Caps each row at 4M counters, 16MB per sketch, however large the cache is
+	 * configured to be. A cache using several sketches divides this between them.
+	 */
+	static final int MAXIMUM_WIDTH = 1 << 22;
+
+	private final byte[][] counters;
+	private final int mask;
+	private final int sampleSize;
+	private int additions;
+
+	/**
+	 * @param expectedEntries the approximate number of entries which will be tracked, larger values
+	 *        than the maximum width are tracked with reduced accuracy
+	 */
+	FrequencySketch(final int expectedEntries) {
+		// clamped before shifting so that large values cannot overflow
+		int entries = Math.min(MAXIMUM_WIDTH, Math.max(16, expectedEntries - 1));
+		int width = Math.min(MAXIMUM_WIDTH, Integer.highestOneBit(entries) << 1);
+		this.counters = new byte[DEPTH][width];
+		this.mask = width - 1;
+		this.sampleSize = width * 10;
+	}
+
+	int getWidth() {
+		return mask + 1;
+	}
+
+	void increment(final Object key) {
+		int hash = key.hashCode();
+		boolean incremented = false;
+		for (int i = 0; i < DEPTH; i++)
+		{
+			int index = index(hash, i);
+			if (counters[i][index] < MAX_COUNT)
+			{
+				counters[i][index]++;
+				incremented = true;
+			}
+		}
+		if (incremented && ++additions >= sampleSize)
+		{
+			reset();
+		}
+	}
+
+	int frequency(final Object key) {
+		int hash = key.hashCode();
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < DEPTH; i++)
+		{
+			frequency = Math.min(frequency, counters[i][index(hash, i)]);
+		}
+		return frequency;
+	}
+
+	private int index(final int hash, final int row) {
+		int h = (hash ^ SEEDS[row]) * SEEDS[row];
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Halves every counter so that historic accesses decay.
+	 */
+	private void reset() {
+		for (byte[] row : counters)
+		{
+			for (int i = 0; i < row.length; i++)
+			{
+				row[i] = (byte) (row[i] >>> 1);
+			}
+		}
+		additions /= 2;
+	}
+
+}
@@ -0,0 +1,230 @@
+package net.projectmonkey.spring.acl.cache;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Bounded cache of identifiers for which no acl exists, allowing repositories
+ * to skip the lookup for identities which are repeatedly requested but not secured.
+ *
+ * Entries always expire after the configured time to live so that acls created
+ * by other nodes are eventually seen, acls created through the same repository
+ * should be evicted immediately. Once the maximum size is reached the oldest
+ * entries are discarded first.
+ *
+ * A lookup which finds no acl may race with the creation of one, so callers
+ * should take a {@link #stamp()} before the lookup and record the result using
+ * {@link #putMissing(Serializable, long)}, which ignores the result if any
+ * identifier was evicted in the meantime.
+ *
+ * @author Andy Moody
+ */
+public class NegativeAclCache {
+
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private final Segment[] segments;
+	private final int segmentMask;
+	private final long timeToLiveNanos;
+	// incremented by every eviction, while holding the lock of the evicted identifier's segment
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maximumSize the maximum number of identifiers to hold
+	 * @param timeToLiveSeconds the time after which an identifier is no longer considered missing
+	 */
+	public NegativeAclCache(final int maximumSize, final long timeToLiveSeconds) {
+		this(maximumSize, timeToLiveSeconds, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * @param maximumSize the maximum number of identifiers to hold
+	 * @param timeToLiveSeconds the time after which an identifier is no longer considered missing
+	 * @param concurrencyLevel the number of independently locked segments, rounded up to a power of two
+	 */
+	public NegativeAclCache(final int maximumSize, final long timeToLiveSeconds, final int concurrencyLevel) {
+		Assert.isTrue(maximumSize > 0, "maximumSize must be greater than zero");
+		Assert.isTrue(timeToLiveSeconds > 0, "timeToLiveSeconds must be greater than zero");
+		Assert.isTrue(concurrencyLevel > 0, "concurrencyLevel must be greater than zero");
+		int segmentCount = 1;
+		while (segmentCount < concurrencyLevel)
+		{
+			segmentCount <<= 1;
+		}
+		this.segmentMask = segmentCount - 1;
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+		{
+			segments[i] = new Segment(Math.max(1, maximumSize / segmentCount));
+		}
+		this.timeToLiveNanos = TimeUnit.SECONDS.toNanos(timeToLiveSeconds);
+	}
+
+	/**
+	 * @param identifier
+	 * @return true if the identifier was recently found to have no acl
+	 */
+	public boolean isMissing(final Serializable identifier) {
+		return segmentFor(identifier).isMissing(identifier, currentTime());
+	}
+
+	/**
+	 * Records that no acl exists for the identifier.
+	 * @param identifier
+	 */
+	public void putMissing(final Serializable identifier) {
+		segmentFor(identifier).putMissing(identifier, currentTime() + timeToLiveNanos, evictions, -1);
+	}
+
+	/**
+	 * Records that no acl exists for the identifier, unless an identifier has been
+	 * evicted since the stamp was taken, as the acl may have been created since.
+	 * @param identifier
+	 * @param stamp taken using {@link #stamp()} before looking the acl up
+	 * @return true if the identifier was recorded
+	 */
+	public boolean putMissing(final Serializable identifier, final long stamp) {
+		Assert.isTrue(stamp >= 0, "stamp must have been taken using stamp()");
+		return segmentFor(identifier).putMissing(identifier, currentTime() + timeToLiveNanos, evictions, stamp);
+	}
+
+	/**
+	 * @return a stamp to take before looking up an acl which may then be recorded as missing
+	 */
+	public long stamp() {
+		return evictions.get();
+	}
+
+	/**
+	 * Removes the identifier, should be called whenever an acl is created for it.
+	 * @param identifier
+	 */
+	public void evict(final Serializable identifier) {
+		segmentFor(identifier).evict(identifier, evictions);
+	}
+
+	public void clear() {
+		for (Segment segment : segments)
+		{
+			segment.clear(evictions);
+		}
+	}
+
+	/**
+	 * @return the current time in nanoseconds, used to expire entries
+	 */
+	protected long currentTime() {
+		return System.nanoTime();
+	}
+
+	private Segment segmentFor(final Serializable identifier) {
+		int hash = identifier.hashCode();
+		return segments[(hash ^ (hash >>> 16)) & segmentMask];
+	}
+
+	private static class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Map<Serializable, Long> expiryTimes;
+
+		@SuppressWarnings("serial")
+		Segment(final int maximumSize) {
+			this.expiryTimes = new LinkedHashMap<Serializable, Long>() {
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<Serializable, Long> eldest) {
+					return size() > maximumSize;
+				}
+			};
+		}
+
+		boolean isMissing(final Serializable identifier, final long now) {
+			lock.lock();
+			try
+			{
+				Long expiresAt = expiryTimes.get(identifier);
+				if (expiresAt != null && now - expiresAt >= 0)
+				{
+					expiryTimes.remove(identifier);
+					expiresAt = null;
+				}
+				return expiresAt != null;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @param stamp the evictions expected, or -1 to record the identifier regardless
+		 */
+		boolean putMissing(final Serializable identifier, final long expiresAt, final AtomicLong evictions, final long stamp) {
+			lock.lock();
+			try
+			{
+				// an eviction of this identifier would have been counted while holding the lock
+				if (stamp >= 0 && evictions.get() != stamp)
+				{
+					return false;
+				}
+				// remove first so that the refreshed entry becomes the newest
+				expiryTimes.remove(identifier);
+				expiryTimes.put(identifier, expiresAt);
+				return true;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void evict(final Serializable identifier, final AtomicLong evictions) {
+			lock.lock();
+			try
+			{
+				evictions.incrementAndGet();
+				expiryTimes.remove(identifier);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void clear(final AtomicLong evictions) {
+			lock.lock();
+			try
+			{
+				evictions.incrementAndGet();
+				expiryTimes.clear();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+
+}
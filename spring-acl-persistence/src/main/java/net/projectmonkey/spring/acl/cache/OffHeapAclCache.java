@@ -0,0 +1,485 @@
+package net.projectmonkey.spring.acl.cache;
+
+import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.projectmonkey.spring.acl.util.ACLUtil;
+import net.projectmonkey.spring.acl.util.AclCodec;
+
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.domain.SimpleAclSnapshot;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * {@link BatchAclCache} holding acls in their compact {@link AclCodec} form in direct
+ * memory rather than as objects on the heap, keyed by the identifier of the
+ * ObjectIdentity consistent with the repositories in this project. A record is
+ * decoded straight into a {@link SimpleAclSnapshot} on a hit and the snapshot
+ * is then held through a soft reference alongside the small index entry for
+ * the acl, so later hits share it, and the entries it compiles for evaluation,
+ * until the acl is replaced or evicted or the garbage collector needs the memory.
+ *
+ * The cache is split into independently locked segments, each owning a slab of
+ * direct memory of an equal share of the capacity. Acls are appended to a slab
+ * as in a ring buffer, once full the oldest acls are evicted to make room.
+ * Replaced and evicted acls occupy their space until it is reused. Acls larger
+ * than a slab are not cached.
+ *
+ * The loaded sids of an acl are not retained so only acls complete for every
+ * sid, as cached by the repositories in this project, should be cached. The
+ * capacity counts towards the JVM's limit on direct memory, see -XX:MaxDirectMemorySize.
+ *
+ * @author Andy Moody
+ */
+public class OffHeapAclCache implements BatchAclCache {
+
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private final ACLUtil util;
+	private final Segment[] segments;
+	private final int segmentMask;
+
+	private volatile AclCodec codec = new AclCodec(new DefaultPermissionFactory());
+
+	/**
+	 * @param util used by the decoded acls
+	 * @param capacityBytes the total size of the slabs
+	 */
+	public OffHeapAclCache(final ACLUtil util, final long capacityBytes) {
+		this(util, capacityBytes, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * @param util used by the decoded acls
+	 * @param capacityBytes the total size of the slabs
+	 * @param concurrencyLevel the number of independently locked segments, rounded up to a power of two
+	 */
+	public OffHeapAclCache(final ACLUtil util, final long capacityBytes, final int concurrencyLevel) {
+		Assert.notNull(util, "util must not be null");
+		Assert.isTrue(capacityBytes > 0, "capacityBytes must be greater than zero");
+		Assert.isTrue(concurrencyLevel > 0, "concurrencyLevel must be greater than zero");
+		int segmentCount = 1;
+		while (segmentCount < concurrencyLevel)
+		{
+			segmentCount <<= 1;
+		}
+		long slabSize = Math.max(1, capacityBytes / segmentCount);
+		Assert.isTrue(slabSize <= Integer.MAX_VALUE, "capacityBytes must not exceed 2GB per segment");
+		this.util = util;
+		this.segmentMask = segmentCount - 1;
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+		{
+			segments[i] = new Segment((int) slabSize);
+		}
+	}
+
+	@Override
+	public MutableAcl getFromCache(final ObjectIdentity objectIdentity) {
+		return getFromCache(objectIdentity.getIdentifier());
+	}
+
+	@Override
+	public MutableAcl getFromCache(final Serializable pk) {
+		Hit hit = segmentFor(pk).get(pk);
+		return hit == null ? null : resolve(pk, hit);
+	}
+
+	/**
+	 * Copies the records of each segment while holding its lock once, the records
+	 * not already decoded are decoded once the lock is released.
+	 */
+	@Override
+	public Map<ObjectIdentity, MutableAcl> getAllFromCache(final Collection<ObjectIdentity> identities) {
+		List<List<ObjectIdentity>> bySegment = new ArrayList<List<ObjectIdentity>>(segments.length);
+		for (int i = 0; i < segments.length; i++)
+		{
+			bySegment.add(new ArrayList<ObjectIdentity>());
+		}
+		for (ObjectIdentity identity : identities)
+		{
+			bySegment.get(segmentIndex(identity.getIdentifier())).add(identity);
+		}
+		Map<ObjectIdentity, MutableAcl> toReturn = new HashMap<ObjectIdentity, MutableAcl>();
+		for (int i = 0; i < segments.length; i++)
+		{
+			List<ObjectIdentity> forSegment = bySegment.get(i);
+			if (!forSegment.isEmpty())
+			{
+				Hit[] hits = segments[i].getAll(forSegment);
+				for (int j = 0; j < hits.length; j++)
+				{
+					if (hits[j] != null)
+					{
+						ObjectIdentity identity = forSegment.get(j);
+						toReturn.put(identity, resolve(identity.getIdentifier(), hits[j]));
+					}
+				}
+			}
+		}
+		return toReturn;
+	}
+
+	@Override
+	public void putInCache(final MutableAcl acl) {
+		Assert.notNull(acl, "acl must not be null");
+		Serializable key = acl.getObjectIdentity().getIdentifier();
+		// encoded outside of the lock, only the copy into the slab is made while holding it
+		segmentFor(key).put(key, codec.encode(acl));
+	}
+
+	/**
+	 * Encodes every acl and then copies the records of each segment into its slab while holding its lock once.
+	 */
+	@Override
+	public void putAllInCache(final Collection<? extends MutableAcl> acls) {
+		List<List<MutableAcl>> bySegment = new ArrayList<List<MutableAcl>>(segments.length);
+		for (int i = 0; i < segments.length; i++)
+		{
+			bySegment.add(new ArrayList<MutableAcl>());
+		}
+		for (MutableAcl acl : acls)
+		{
+			Assert.notNull(acl, "acl must not be null");
+			bySegment.get(segmentIndex(acl.getObjectIdentity().getIdentifier())).add(acl);
+		}
+		for (int i = 0; i < segments.length; i++)
+		{
+			List<MutableAcl> forSegment = bySegment.get(i);
+			if (!forSegment.isEmpty())
+			{
+				byte[][] records = new byte[forSegment.size()][];
+				for (int j = 0; j < records.length; j++)
+				{
+					records[j] = codec.encode(forSegment.get(j));
+				}
+				segments[i].putAll(forSegment, records);
+			}
+		}
+	}
+
+	@Override
+	public void evictFromCache(final ObjectIdentity objectIdentity) {
+		evictFromCache(objectIdentity.getIdentifier());
+	}
+
+	@Override
+	public void evictFromCache(final Serializable pk) {
+		segmentFor(pk).remove(pk);
+	}
+
+	@Override
+	public void clearCache() {
+		for (Segment segment : segments)
+		{
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @return the statistics accumulated since the cache was created, the weight
+	 *         being the number of bytes of the slabs in use including those held
+	 *         by replaced acls
+	 */
+	public AclCacheStatistics getStatistics() {
+		long[] totals = new long[7];
+		for (Segment segment : segments)
+		{
+			segment.addStatistics(totals);
+		}
+		return new AclCacheStatistics(totals[0], totals[1], totals[2], totals[3], totals[4], totals[5], totals[6]);
+	}
+
+	private SimpleAclSnapshot resolve(final Serializable pk, final Hit hit) {
+		if (hit.snapshot != null)
+		{
+			return hit.snapshot;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(hit.record);
+		ObjectIdentity identity = new ObjectIdentityImpl(codec.decodeType(buffer), pk);
+		SimpleAclSnapshot snapshot = codec.decodeSnapshot(identity, buffer, null, util);
+		// the slot's record never changes, so the snapshot may be remembered without the lock
+		hit.slot.decoded = new SoftReference<SimpleAclSnapshot>(snapshot);
+		return snapshot;
+	}
+
+	private Segment segmentFor(final Serializable key) {
+		return segments[segmentIndex(key)];
+	}
+
+	private int segmentIndex(final Serializable key) {
+		int hash = key.hashCode();
+		return (hash ^ (hash >>> 16)) & segmentMask;
+	}
+
+	/**
+	 * The position of an acl within a slab. Slots are held in the order they
+	 * were written so the oldest occupied space is always at the head of the queue.
+	 */
+	private static class Slot {
+
+		private final Serializable key;
+		private final int offset;
+		private final int length;
+		private boolean live = true;
+		private volatile SoftReference<SimpleAclSnapshot> decoded;
+
+		Slot(final Serializable key, final int offset, final int length) {
+			this.key = key;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		boolean overlaps(final int start, final int end) {
+			return offset < end && offset + length > start;
+		}
+	}
+
+	/**
+	 * A slot found by a lookup, with either its decoded snapshot or a copy of its record.
+	 */
+	private static class Hit {
+
+		private final Slot slot;
+		private final SimpleAclSnapshot snapshot;
+		private final byte[] record;
+
+		Hit(final Slot slot, final SimpleAclSnapshot snapshot, final byte[] record) {
+			this.slot = slot;
+			this.snapshot = snapshot;
+			this.record = record;
+		}
+	}
+
+	/**
+	 * A slab of direct memory written as a ring buffer, with its own lock and statistics.
+	 */
+	private static class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final ByteBuffer slab;
+		private final Map<Serializable, Slot> index = new HashMap<Serializable, Slot>();
+		private final ArrayDeque<Slot> slots = new ArrayDeque<Slot>();
+		private int tail;
+		private long used;
+		private long hits;
+		private long misses;
+		private long evictions;
+		private long rejections;
+
+		Segment(final int capacity) {
+			this.slab = ByteBuffer.allocateDirect(capacity);
+		}
+
+		Hit get(final Serializable key) {
+			lock.lock();
+			try
+			{
+				return getLocked(key);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		Hit[] getAll(final List<ObjectIdentity> identities) {
+			Hit[] toReturn = new Hit[identities.size()];
+			lock.lock();
+			try
+			{
+				for (int i = 0; i < toReturn.length; i++)
+				{
+					toReturn[i] = getLocked(identities.get(i).getIdentifier());
+				}
+				return toReturn;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void put(final Serializable key, final byte[] record) {
+			lock.lock();
+			try
+			{
+				putLocked(key, record);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void putAll(final List<MutableAcl> acls, final byte[][] records) {
+			lock.lock();
+			try
+			{
+				for (int i = 0; i < records.length; i++)
+				{
+					putLocked(acls.get(i).getObjectIdentity().getIdentifier(), records[i]);
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void remove(final Serializable key) {
+			lock.lock();
+			try
+			{
+				kill(index.remove(key));
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			lock.lock();
+			try
+			{
+				index.clear();
+				slots.clear();
+				tail = 0;
+				used = 0;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void addStatistics(final long[] totals) {
+			lock.lock();
+			try
+			{
+				totals[0] += hits;
+				totals[1] += misses;
+				totals[2] += evictions;
+				totals[4] += rejections;
+				totals[5] += index.size();
+				totals[6] += used;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		private Hit getLocked(final Serializable key) {
+			Slot slot = index.get(key);
+			if (slot == null)
+			{
+				misses++;
+				return null;
+			}
+			hits++;
+			SoftReference<SimpleAclSnapshot> decoded = slot.decoded;
+			SimpleAclSnapshot snapshot = decoded == null ? null : decoded.get();
+			if (snapshot != null)
+			{
+				return new Hit(slot, snapshot, null);
+			}
+			byte[] record = new byte[slot.length];
+			ByteBuffer source = slab.duplicate();
+			source.position(slot.offset);
+			source.get(record);
+			return new Hit(slot, null, record);
+		}
+
+		private void putLocked(final Serializable key, final byte[] record) {
+			kill(index.remove(key));
+			int capacity = slab.capacity();
+			if (record.length > capacity)
+			{
+				rejections++;
+				return;
+			}
+			if (slots.isEmpty())
+			{
+				tail = 0;
+			}
+			if (tail + record.length > capacity)
+			{
+				// the remainder of the slab is too small, discard the acls held in it and start again from the beginning
+				while (!slots.isEmpty() && slots.peekFirst().offset >= tail)
+				{
+					evictOldest();
+				}
+				tail = 0;
+			}
+			while (!slots.isEmpty() && slots.peekFirst().overlaps(tail, tail + record.length))
+			{
+				evictOldest();
+			}
+			ByteBuffer target = slab.duplicate();
+			target.position(tail);
+			target.put(record);
+			Slot slot = new Slot(key, tail, record.length);
+			slots.addLast(slot);
+			index.put(key, slot);
+			tail += record.length;
+			used += record.length;
+		}
+
+		private void evictOldest() {
+			Slot oldest = slots.removeFirst();
+			used -= oldest.length;
+			if (oldest.live)
+			{
+				index.remove(oldest.key);
+				evictions++;
+			}
+		}
+
+		private void kill(final Slot slot) {
+			if (slot != null)
+			{
+				slot.live = false;
+			}
+		}
+	}
+
+	/* Optional configuration methods */
+	/**
+	 * Set the permission factory to use when recreating permissions.
+	 * @param permissionFactory
+	 */
+	public void setPermissionFactory(final PermissionFactory permissionFactory) {
+		this.codec = new AclCodec(permissionFactory);
+	}
+
+}
@@ -0,0 +1,350 @@
+package net.projectmonkey.spring.acl.repository.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.projectmonkey.spring.acl.entity.SimpleMutableAcl;
+import net.projectmonkey.spring.acl.repository.ACLUpdateRepository;
+import net.projectmonkey.spring.acl.util.ACLUtil;
+import net.projectmonkey.spring.acl.util.AclCodec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.access.AuthorizationServiceException;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AuditLogger;
+import org.springframework.security.acls.domain.CompiledPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Embedded, durable repository for {@link Acl} objects requiring no external store.
+ *
+ * Acls are appended to a log of segment files within the supplied directory and
+ * served using an in memory index of record locations. Each write is synced to
+ * disk before returning, concurrent writers share a single sync.
+ *
+ * A background thread periodically compacts segments in which at least half
+ * of the bytes belong to overwritten or deleted acls, the interval and threshold
+ * can be configured as properties. {@link #close()} should be called on shutdown.
+ *
+ * As with the HBase repository, the serializable identifier contained within the
+ * ObjectIdentity for an Acl is assumed to be globally unique.
+ *
+ * @author Andy Moody
+ */
+public class LogStructuredACLRepository implements ACLUpdateRepository {
+
+	private static final Log logger = LogFactory.getLog(LogStructuredACLRepository.class);
+	private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	private final SegmentLog log;
+	private final ACLUtil util;
+	private final ScheduledExecutorService compactor;
+
+	private AclCodec codec = new AclCodec(new DefaultPermissionFactory());
+	private volatile double compactionThreshold = 0.5;
+	private ScheduledFuture<?> compaction;
+
+	/**
+	 * Simplified constructor utilising the defaultPermissionGrantingStrategy
+	 * and the ConsoleAuditLogger
+	 * @param directory
+	 * @param authorizationStrategy
+	 */
+	public LogStructuredACLRepository(final File directory, final AclAuthorizationStrategy authorizationStrategy) {
+		this(directory, new ConsoleAuditLogger(), authorizationStrategy);
+	}
+
+	/**
+	 * Simplified constructor utilising the defaultPermissionGrantingStrategy
+	 * with the provided AuditLogger
+	 * @param directory
+	 * @param auditLogger
+	 * @param authorizationStrategy
+	 */
+	public LogStructuredACLRepository(final File directory, final AuditLogger auditLogger,
+			final AclAuthorizationStrategy authorizationStrategy) {
+		this(directory, authorizationStrategy, new CompiledPermissionGrantingStrategy(auditLogger));
+	}
+
+	/**
+	 * Constructor allowing full customization.
+	 * @param directory
+	 * @param authorizationStrategy
+	 * @param permissionGrantingStrategy
+	 * @throws AuthorizationServiceException if the existing log could not be read
+	 */
+	public LogStructuredACLRepository(final File directory, final AclAuthorizationStrategy authorizationStrategy,
+			final PermissionGrantingStrategy permissionGrantingStrategy) {
+		Assert.notNull(directory, "directory must not be null");
+		this.util = new ACLUtil(permissionGrantingStrategy, authorizationStrategy);
+		try
+		{
+			this.log = new SegmentLog(directory, DEFAULT_SEGMENT_SIZE);
+		}
+		catch (IOException e)
+		{
+			throw new AuthorizationServiceException("Unable to open acl log in " + directory, e);
+		}
+		this.compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				Thread thread = new Thread(runnable, "acl-log-compactor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		setCompactionInterval(60);
+	}
+
+	/**
+	 * Creates an acl.
+	 *
+	 * @param identity which must not be null.
+	 * @throws AuthorizationServiceException if an unexpected exception occurred
+	 */
+	@Override
+	public SimpleMutableAcl create(final ObjectIdentity identity) {
+		Assert.notNull(identity, "identity must not be null");
+		// Need to retrieve the current principal, in order to know who
+		// "owns" this ACL (can be changed later on)
+		Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+		PrincipalSid owner = new PrincipalSid(auth);
+
+		SimpleAcl acl = new SimpleAcl(identity, owner, new ArrayList<AccessControlEntry>(), null, util);
+		save(acl);
+		return acl;
+	}
+
+	/**
+	 * Updates an existing acl, completely replacing the stored acl.
+	 *
+	 * @param acl which must not be null.
+	 * @throws AuthorizationServiceException if an unexpected exception occurred
+	 */
+	@Override
+	public void update(final MutableAcl acl) {
+		Assert.notNull(acl, "acl must not be null");
+		save(acl);
+	}
+
+	/**
+	 * Deletes an acl.
+	 *
+	 * @param identity which must not be null.
+	 * @throws AuthorizationServiceException if an unexpected exception occurred
+	 */
+	@Override
+	public void delete(final ObjectIdentity identity) {
+		Assert.notNull(identity, "identity must not be null");
+		try
+		{
+			log.remove(AclCodec.encodeIdentifier(identity.getIdentifier()));
+		}
+		catch (IOException e)
+		{
+			throw new AuthorizationServiceException("An unexpected exception occurred", e);
+		}
+	}
+
+	/**
+	 * Retrieves a single Acl from the given object Identity.
+	 *
+	 * @param identity
+	 * @return null if the corresponding acl is not found, the acl otherwise.
+	 */
+	public Acl getAclById(final ObjectIdentity identity) {
+		Assert.notNull(identity, "Object Identity required");
+		return getAclsById(Arrays.asList(identity), null).get(identity);
+	}
+
+	@Override
+	public Map<ObjectIdentity, Acl> getAclsById(final List<ObjectIdentity> objectIdentities, final List<Sid> sids) {
+		Assert.notNull(objectIdentities, "At least one Object Identity required");
+		Assert.isTrue(objectIdentities.size() > 0, "At least one Object Identity required");
+		Assert.noNullElements(objectIdentities.toArray(new ObjectIdentity[0]), "Null object identities are not permitted");
+		Map<ObjectIdentity, Acl> toReturn = new HashMap<ObjectIdentity, Acl>();
+		try
+		{
+			for (ObjectIdentity identity : objectIdentities)
+			{
+				if (!toReturn.containsKey(identity))
+				{
+					ByteBuffer record = log.get(AclCodec.encodeIdentifier(identity.getIdentifier()));
+					if (record != null)
+					{
+						// every entry is decoded so the acl is loaded for all sids
+						toReturn.put(identity, codec.decode(identity, record, null, util));
+					}
+				}
+			}
+			return toReturn;
+		}
+		catch (IOException e)
+		{
+			throw new AuthorizationServiceException("An unexpected exception occurred", e);
+		}
+	}
+
+	@Override
+	public boolean isThereAnAclFor(final ObjectIdentity identity) {
+		Assert.notNull(identity, "Object Identity required");
+		return log.contains(AclCodec.encodeIdentifier(identity.getIdentifier()));
+	}
+
+	/**
+	 * Compacts any segments exceeding the compaction threshold immediately.
+	 * @return the number of segments compacted
+	 * @throws AuthorizationServiceException if an unexpected exception occurred
+	 */
+	public int compact() {
+		try
+		{
+			return log.compact(compactionThreshold);
+		}
+		catch (IOException e)
+		{
+			throw new AuthorizationServiceException("An unexpected exception occurred", e);
+		}
+	}
+
+	/**
+	 * Stops background compaction and closes the underlying log files. A running
+	 * compaction is not interrupted, as that would close the shared segment files,
+	 * but stops at the next record.
+	 * @throws AuthorizationServiceException if an unexpected exception occurred
+	 */
+	public void close() {
+		log.stopCompaction();
+		compactor.shutdown();
+		try
+		{
+			compactor.awaitTermination(10, TimeUnit.SECONDS);
+			log.close();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e)
+		{
+			throw new AuthorizationServiceException("An unexpected exception occurred", e);
+		}
+	}
+
+	/**
+	 * @return the number of segment files currently in use
+	 */
+	int getSegmentCount() {
+		return log.segmentCount();
+	}
+
+	private void save(final Acl acl) {
+		try
+		{
+			log.put(AclCodec.encodeIdentifier(acl.getObjectIdentity().getIdentifier()), codec.encode(acl));
+		}
+		catch (IOException e)
+		{
+			throw new AuthorizationServiceException("An unexpected exception occurred", e);
+		}
+	}
+
+	/* Optional configuration methods */
+	/**
+	 * Set the permission factory to use when recreating {@link AccessControlEntry}s
+	 * @param permissionFactory
+	 */
+	public void setPermissionFactory(final PermissionFactory permissionFactory) {
+		this.codec = new AclCodec(permissionFactory);
+	}
+
+	/**
+	 * Set the size in bytes after which a new segment is started, defaults to 64MB.
+	 * @param maxSegmentSize
+	 */
+	public void setMaxSegmentSize(final long maxSegmentSize) {
+		Assert.isTrue(maxSegmentSize > 0, "maxSegmentSize must be greater than zero");
+		log.setMaxSegmentSize(maxSegmentSize);
+	}
+
+	/**
+	 * Set the proportion of a segment which must be overwritten or deleted before it is compacted, defaults to 0.5.
+	 * @param compactionThreshold
+	 */
+	public void setCompactionThreshold(final double compactionThreshold) {
+		Assert.isTrue(compactionThreshold >= 0 && compactionThreshold <= 1, "compactionThreshold must be between 0 and 1");
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	/**
+	 * Set the interval in seconds between background compactions, defaults to 60.
+	 * A value of zero disables background compaction.
+	 * @param seconds
+	 */
+	public synchronized void setCompactionInterval(final long seconds) {
+		Assert.isTrue(seconds >= 0, "seconds must not be negative");
+		if (compaction != null)
+		{
+			compaction.cancel(false);
+			compaction = null;
+		}
+		if (seconds > 0)
+		{
+			compaction = compactor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try
+					{
+						compact();
+					}
+					catch (RuntimeException e)
+					{
+						logger.error("Compaction of the acl log failed", e);
+					}
+				}
+			}, seconds, seconds, TimeUnit.SECONDS);
+		}
+	}
+
+}
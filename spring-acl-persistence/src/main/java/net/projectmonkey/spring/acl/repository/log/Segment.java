@@ -0,0 +1,163 @@
+package net.projectmonkey.spring.acl.repository.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * A single append only file within a {@link SegmentLog}.
+ *
+ * All reads and writes are positional so the channel can be shared
+ * between the appending thread, readers and the compactor.
+ *
+ * @author Andy Moody
+ */
+class Segment {
+
+	private static final String PREFIX = "segment-";
+	private static final String SUFFIX = ".log";
+
+	private final long id;
+	private final File file;
+	private final FileChannel channel;
+	private final AtomicLong deadBytes = new AtomicLong();
+	private final AtomicLong tombstoneBytes = new AtomicLong();
+	private volatile long size;
+
+	private Segment(final long id, final File file) throws IOException {
+		this.id = id;
+		this.file = file;
+		this.channel = new RandomAccessFile(file, "rw").getChannel();
+		this.size = channel.size();
+	}
+
+	static Segment open(final File directory, final long id) throws IOException {
+		return new Segment(id, new File(directory, String.format("%s%020d%s", PREFIX, id, SUFFIX)));
+	}
+
+	/**
+	 * @return the id of the segment held in the file or -1 if the file is not a segment
+	 */
+	static long parseId(final File file) {
+		String name = file.getName();
+		long id = -1;
+		if (name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+		{
+			try
+			{
+				id = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+			}
+			catch (NumberFormatException e)
+			{
+				id = -1;
+			}
+		}
+		return id;
+	}
+
+	long getId() {
+		return id;
+	}
+
+	long getSize() {
+		return size;
+	}
+
+	long getDeadBytes() {
+		return deadBytes.get();
+	}
+
+	void markDead(final long bytes) {
+		deadBytes.addAndGet(bytes);
+	}
+
+	/**
+	 * @return the bytes of tombstones, which are only dead once no older segment remains
+	 */
+	long getTombstoneBytes() {
+		return tombstoneBytes.get();
+	}
+
+	void markTombstone(final long bytes) {
+		tombstoneBytes.addAndGet(bytes);
+	}
+
+	/**
+	 * Appends the buffer to the end of the segment, callers must ensure
+	 * appends are not performed concurrently.
+	 * @return the offset at which the buffer was written
+	 */
+	long append(final ByteBuffer buffer) throws IOException {
+		long offset = size;
+		long position = offset;
+		while (buffer.hasRemaining())
+		{
+			position += channel.write(buffer, position);
+		}
+		size = position;
+		return offset;
+	}
+
+	void readFully(final ByteBuffer buffer, final long offset) throws IOException {
+		long position = offset;
+		while (buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position);
+			if (read < 0)
+			{
+				throw new IOException("Unexpected end of " + file + " at " + position);
+			}
+			position += read;
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Discards everything from the offset onwards, used to remove a partially written record.
+	 */
+	void truncate(final long offset) throws IOException {
+		channel.truncate(offset);
+		size = offset;
+	}
+
+	void force() throws IOException {
+		channel.force(false);
+	}
+
+	void close() throws IOException {
+		channel.close();
+	}
+
+	void delete() throws IOException {
+		close();
+		if (!file.delete())
+		{
+			throw new IOException("Unable to delete " + file);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return file.getPath();
+	}
+
+}
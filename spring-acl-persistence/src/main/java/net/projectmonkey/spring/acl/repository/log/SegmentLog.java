@@ -0,0 +1,523 @@
+package net.projectmonkey.spring.acl.repository.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Append only key value log split into numbered segment files.
+ *
+ * Each record consists of a header followed by the key and value:
+ *
+ * crc:keyLength:valueLength:flags | key | value
+ *
+ * where the crc covers everything after itself. A delete is recorded as a
+ * tombstone record with an empty value.
+ *
+ * An in memory index holds the location of the latest record for each key.
+ * On startup the index is rebuilt from the header and key of each record, the
+ * values are not read. Segments are forced before they are sealed so only the
+ * last segment can hold a torn write, the checksums of its records are verified
+ * and it is truncated at the first incomplete or corrupt record so a torn write
+ * is never indexed. Checksums are verified whenever a record is read.
+ *
+ * Appends are serialised but the fsync is shared between concurrent writers,
+ * a writer whose record has already been made durable by another writer's
+ * sync returns without syncing itself.
+ *
+ * Compaction copies the live records of a sealed segment to the end of the log
+ * and deletes it. Tombstones are only dropped from the oldest segment since
+ * any older segment may still contain a record for the deleted key, so they
+ * only count towards the reclaimable bytes of the oldest segment. Compaction
+ * stops at the next record once the log is closed.
+ *
+ * @author Andy Moody
+ */
+class SegmentLog {
+
+	static final int HEADER_SIZE = 13;
+
+	private static final Log logger = LogFactory.getLog(SegmentLog.class);
+	private static final byte LIVE = 0;
+	private static final byte TOMBSTONE = 1;
+
+	private final File directory;
+	private final ConcurrentMap<Key, Location> index = new ConcurrentHashMap<Key, Location>();
+	private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+	private final ReentrantLock appendLock = new ReentrantLock();
+	private final ReentrantLock commitLock = new ReentrantLock();
+	private final AtomicLong syncedSequence = new AtomicLong();
+	private volatile long maxSegmentSize;
+	private volatile boolean closed;
+
+	// only written while holding the appendLock
+	private volatile Segment active;
+	private long writtenSequence;
+
+	SegmentLog(final File directory, final long maxSegmentSize) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("Unable to create directory " + directory);
+		}
+		this.directory = directory;
+		this.maxSegmentSize = maxSegmentSize;
+		recover();
+	}
+
+	/**
+	 * @return a buffer positioned at the start of the latest value for the key or null if there is none
+	 */
+	ByteBuffer get(final byte[] key) throws IOException {
+		Key indexKey = new Key(key);
+		while (true)
+		{
+			Location location = index.get(indexKey);
+			if (location == null)
+			{
+				return null;
+			}
+			try
+			{
+				ByteBuffer record = location.read();
+				record.position(HEADER_SIZE + key.length);
+				return record;
+			}
+			catch (ClosedChannelException e)
+			{
+				// the segment was compacted while we were reading, retry against the new location
+				if (index.get(indexKey) == location)
+				{
+					throw e;
+				}
+			}
+		}
+	}
+
+	boolean contains(final byte[] key) {
+		return index.containsKey(new Key(key));
+	}
+
+	int size() {
+		return index.size();
+	}
+
+	int segmentCount() {
+		return segments.size();
+	}
+
+	void put(final byte[] key, final byte[] value) throws IOException {
+		append(key, value, LIVE);
+	}
+
+	void remove(final byte[] key) throws IOException {
+		if (contains(key))
+		{
+			append(key, new byte[0], TOMBSTONE);
+		}
+	}
+
+	/**
+	 * Rewrites every sealed segment in which at least the given proportion of the bytes are no longer live.
+	 * @param threshold between 0 and 1
+	 * @return the number of segments compacted
+	 */
+	synchronized int compact(final double threshold) throws IOException {
+		int compacted = 0;
+		for (Segment segment : segments.values())
+		{
+			if (closed)
+			{
+				break;
+			}
+			boolean oldest = segment.getId() == segments.firstKey();
+			long reclaimable = segment.getDeadBytes() + (oldest ? segment.getTombstoneBytes() : 0);
+			if (segment != active && reclaimable >= threshold * segment.getSize() && rewrite(segment, oldest))
+			{
+				compacted++;
+			}
+		}
+		return compacted;
+	}
+
+	void setMaxSegmentSize(final long maxSegmentSize) {
+		this.maxSegmentSize = maxSegmentSize;
+	}
+
+	/**
+	 * Stops any compaction at the next record, without closing the segments.
+	 */
+	void stopCompaction() {
+		closed = true;
+	}
+
+	void close() throws IOException {
+		stopCompaction();
+		// locks are always acquired in this order to match the commit
+		commitLock.lock();
+		appendLock.lock();
+		try
+		{
+			active.force();
+			for (Segment segment : segments.values())
+			{
+				segment.close();
+			}
+		}
+		finally
+		{
+			appendLock.unlock();
+			commitLock.unlock();
+		}
+	}
+
+	private void append(final byte[] key, final byte[] value, final byte flags) throws IOException {
+		ByteBuffer record = encode(key, value, flags);
+		long sequence;
+		appendLock.lock();
+		try
+		{
+			sequence = write(new Key(key), record, flags);
+		}
+		finally
+		{
+			appendLock.unlock();
+		}
+		commit(sequence);
+	}
+
+	/**
+	 * Writes the record to the active segment and updates the index, the caller must hold the appendLock.
+	 * @return the sequence number of the write
+	 */
+	private long write(final Key key, final ByteBuffer record, final byte flags) throws IOException {
+		int length = record.remaining();
+		if (active.getSize() > 0 && active.getSize() + length > maxSegmentSize)
+		{
+			roll();
+		}
+		long offset = active.append(record);
+		apply(key, flags == TOMBSTONE ? null : new Location(active, offset, length), active, length);
+		return ++writtenSequence;
+	}
+
+	/**
+	 * Makes the write with the given sequence durable, writes that have already been
+	 * synced by another thread while we waited for the commitLock are not synced again.
+	 */
+	private void commit(final long sequence) throws IOException {
+		if (syncedSequence.get() < sequence)
+		{
+			commitLock.lock();
+			try
+			{
+				if (syncedSequence.get() < sequence)
+				{
+					long target;
+					Segment segment;
+					appendLock.lock();
+					try
+					{
+						target = writtenSequence;
+						segment = active;
+					}
+					finally
+					{
+						appendLock.unlock();
+					}
+					segment.force();
+					markSynced(target);
+				}
+			}
+			finally
+			{
+				commitLock.unlock();
+			}
+		}
+	}
+
+	private void markSynced(final long sequence) {
+		long current = syncedSequence.get();
+		while (current < sequence && !syncedSequence.compareAndSet(current, sequence))
+		{
+			current = syncedSequence.get();
+		}
+	}
+
+	/**
+	 * Seals the active segment and starts a new one, the caller must hold the appendLock.
+	 */
+	private void roll() throws IOException {
+		active.force();
+		markSynced(writtenSequence);
+		Segment next = Segment.open(directory, active.getId() + 1);
+		segments.put(next.getId(), next);
+		active = next;
+	}
+
+	private void apply(final Key key, final Location location, final Segment segment, final long length) {
+		Location previous = location == null ? index.remove(key) : index.put(key, location);
+		if (previous != null)
+		{
+			previous.segment.markDead(previous.length);
+		}
+		if (location == null)
+		{
+			segment.markTombstone(length);
+		}
+	}
+
+	/**
+	 * @return false if the log was closed before the segment could be rewritten, in which case it is retained
+	 */
+	private boolean rewrite(final Segment segment, final boolean oldest) throws IOException {
+		long offset = 0;
+		long size = segment.getSize();
+		while (offset < size)
+		{
+			ByteBuffer header = readHeader(segment, offset);
+			int keyLength = header.getInt(4);
+			int length = HEADER_SIZE + keyLength + header.getInt(8);
+			byte flags = header.get(12);
+			Key key = new Key(readKey(segment, offset, keyLength));
+			Location current = index.get(key);
+			boolean live = current != null && current.segment == segment && current.offset == offset;
+			if (live || (flags == TOMBSTONE && !oldest && current == null))
+			{
+				ByteBuffer record = new Location(segment, offset, length).read();
+				appendLock.lock();
+				try
+				{
+					if (closed)
+					{
+						// the copied records are superseded by those already written, the segment stays intact
+						return false;
+					}
+					// the key may have been written since we checked
+					if (index.get(key) == current)
+					{
+						write(key, record, flags);
+					}
+				}
+				finally
+				{
+					appendLock.unlock();
+				}
+			}
+			offset += length;
+		}
+
+		long sequence;
+		appendLock.lock();
+		try
+		{
+			sequence = writtenSequence;
+		}
+		finally
+		{
+			appendLock.unlock();
+		}
+		commit(sequence);
+
+		// prevents the commit from syncing a segment we are closing
+		commitLock.lock();
+		try
+		{
+			if (closed)
+			{
+				return false;
+			}
+			segments.remove(segment.getId());
+			segment.delete();
+		}
+		finally
+		{
+			commitLock.unlock();
+		}
+		return true;
+	}
+
+	private void recover() throws IOException {
+		File[] files = directory.listFiles();
+		for (File file : files)
+		{
+			long id = Segment.parseId(file);
+			if (id >= 0)
+			{
+				segments.put(id, Segment.open(directory, id));
+			}
+		}
+		for (Segment segment : segments.values())
+		{
+			// every segment but the last was forced when it was sealed
+			load(segment, segment == segments.lastEntry().getValue());
+		}
+		if (segments.isEmpty())
+		{
+			segments.put(0L, Segment.open(directory, 0));
+		}
+		active = segments.lastEntry().getValue();
+	}
+
+	/**
+	 * Rebuilds the index from the headers and keys of the records in the segment,
+	 * truncating it at the first incomplete record, or corrupt record if verifying.
+	 * @param verify whether to verify the checksum of each record, reading the whole record
+	 */
+	private void load(final Segment segment, final boolean verify) throws IOException {
+		long offset = 0;
+		long size = segment.getSize();
+		while (offset < size)
+		{
+			long length = -1;
+			int keyLength = 0;
+			byte flags = LIVE;
+			if (offset + HEADER_SIZE <= size)
+			{
+				ByteBuffer header = readHeader(segment, offset);
+				keyLength = header.getInt(4);
+				int valueLength = header.getInt(8);
+				flags = header.get(12);
+				if (keyLength > 0 && valueLength >= 0)
+				{
+					length = (long) HEADER_SIZE + keyLength + valueLength;
+				}
+			}
+			if (length < 0 || offset + length > size)
+			{
+				logger.warn("Truncating incomplete record at offset " + offset + " of " + segment);
+				segment.truncate(offset);
+				break;
+			}
+			Key key;
+			if (verify)
+			{
+				ByteBuffer record = ByteBuffer.allocate((int) length);
+				segment.readFully(record, offset);
+				if (record.getInt(0) != checksum(record.array(), (int) length))
+				{
+					logger.warn("Truncating corrupt record at offset " + offset + " of " + segment);
+					segment.truncate(offset);
+					break;
+				}
+				key = new Key(Arrays.copyOfRange(record.array(), HEADER_SIZE, HEADER_SIZE + keyLength));
+			}
+			else
+			{
+				key = new Key(readKey(segment, offset, keyLength));
+			}
+			apply(key, flags == TOMBSTONE ? null : new Location(segment, offset, (int) length), segment, length);
+			offset += length;
+		}
+	}
+
+	private static ByteBuffer readHeader(final Segment segment, final long offset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		segment.readFully(header, offset);
+		return header;
+	}
+
+	private static byte[] readKey(final Segment segment, final long offset, final int keyLength) throws IOException {
+		ByteBuffer key = ByteBuffer.allocate(keyLength);
+		segment.readFully(key, offset + HEADER_SIZE);
+		return key.array();
+	}
+
+	private static ByteBuffer encode(final byte[] key, final byte[] value, final byte flags) {
+		int length = HEADER_SIZE + key.length + value.length;
+		ByteBuffer record = ByteBuffer.allocate(length);
+		record.putInt(0);
+		record.putInt(key.length);
+		record.putInt(value.length);
+		record.put(flags);
+		record.put(key);
+		record.put(value);
+		record.putInt(0, checksum(record.array(), length));
+		record.flip();
+		return record;
+	}
+
+	private static int checksum(final byte[] record, final int length) {
+		CRC32 crc = new CRC32();
+		crc.update(record, 4, length - 4);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Location of a record within a segment, locations are compared by identity.
+	 */
+	private static class Location {
+
+		private final Segment segment;
+		private final long offset;
+		private final int length;
+
+		Location(final Segment segment, final long offset, final int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * @return the complete record after verifying its checksum
+		 */
+		ByteBuffer read() throws IOException {
+			ByteBuffer record = ByteBuffer.allocate(length);
+			segment.readFully(record, offset);
+			if (record.getInt(0) != checksum(record.array(), length))
+			{
+				throw new IOException("Corrupt record at offset " + offset + " of " + segment);
+			}
+			return record;
+		}
+	}
+
+	private static class Key {
+
+		private final byte[] bytes;
+		private final int hashCode;
+
+		Key(final byte[] bytes) {
+			this.bytes = bytes;
+			this.hashCode = Arrays.hashCode(bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof Key && Arrays.equals(bytes, ((Key) obj).bytes);
+		}
+	}
+
+}
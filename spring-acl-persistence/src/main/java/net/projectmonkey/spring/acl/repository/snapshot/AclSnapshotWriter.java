@@ -0,0 +1,272 @@
+package net.projectmonkey.spring.acl.repository.snapshot;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import net.projectmonkey.spring.acl.util.AclCodec;
+
+import org.springframework.security.access.AuthorizationServiceException;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Writes immutable acl snapshot files for use with the {@link MappedSnapshotACLRepository}.
+ *
+ * Acls are added one at a time, typically by an export job reading the
+ * primary store. Each acl is encoded and appended to a temporary record file
+ * as it is added, only its key and the position of its record are held on the
+ * heap until the snapshot is written, so memory use grows with the number of
+ * acls and the length of their identifiers rather than with their entries.
+ * The file consists of a header, an index of fixed size slots sorted by key and
+ * the packed key and record bytes:
+ *
+ * magic:version:count | keyOffset:keyLength:recordOffset:recordLength * count | (key record) * count
+ *
+ * The file is written to a temporary file alongside the target and then atomically
+ * moved over it so readers never see a partially written snapshot, or no snapshot. Snapshots are limited to 2GB.
+ *
+ * A writer produces a single snapshot, the temporary record file is deleted once
+ * the snapshot has been written or the writer is closed.
+ *
+ * @author Andy Moody
+ */
+public class AclSnapshotWriter {
+
+	static final int MAGIC = 0x41434C53;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 12;
+	static final int INDEX_ENTRY_SIZE = 16;
+
+	private final AclCodec codec = new AclCodec(new DefaultPermissionFactory());
+	// the position and length of each record in the record file, sorted by key
+	private final SortedMap<byte[], long[]> records = new TreeMap<byte[], long[]>(new KeyComparator());
+	private final File temporaryDirectory;
+	private File recordFile;
+	private FileChannel recordChannel;
+	private long recordFileSize;
+
+	/**
+	 * Creates a writer holding its temporary record file in the default temporary directory.
+	 */
+	public AclSnapshotWriter() {
+		this(null);
+	}
+
+	/**
+	 * @param temporaryDirectory the directory to hold the temporary record file, or null for the default
+	 */
+	public AclSnapshotWriter(final File temporaryDirectory) {
+		this.temporaryDirectory = temporaryDirectory;
+	}
+
+	/**
+	 * Adds the acl to the snapshot, replacing any acl previously added for the same identifier.
+	 * @param acl
+	 * @throws AuthorizationServiceException if the acl could not be written to the record file
+	 */
+	public void add(final Acl acl) {
+		Assert.notNull(acl, "acl must not be null");
+		byte[] key = AclCodec.encodeIdentifier(acl.getObjectIdentity().getIdentifier());
+		byte[] record = codec.encode(acl);
+		try
+		{
+			if (recordChannel == null)
+			{
+				recordFile = File.createTempFile("acl-snapshot", ".records", temporaryDirectory);
+				recordChannel = new RandomAccessFile(recordFile, "rw").getChannel();
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			while (buffer.hasRemaining())
+			{
+				recordChannel.write(buffer, recordFileSize + buffer.position());
+			}
+		}
+		catch (IOException e)
+		{
+			close();
+			throw new AuthorizationServiceException("Unable to write the record for " + acl.getObjectIdentity(), e);
+		}
+		// a replaced record is left unreferenced in the record file
+		records.put(key, new long[] {recordFileSize, record.length});
+		recordFileSize += record.length;
+	}
+
+	/**
+	 * @return the number of acls added so far
+	 */
+	public int size() {
+		return records.size();
+	}
+
+	/**
+	 * Writes the added acls to the target file and deletes the temporary record file.
+	 * @param target
+	 * @throws AuthorizationServiceException if the snapshot could not be written
+	 */
+	public void writeTo(final File target) {
+		Assert.notNull(target, "target must not be null");
+		File temporary = new File(target.getPath() + ".tmp");
+		boolean moved = false;
+		try
+		{
+			write(temporary);
+			// replaces any previous snapshot in a single step so there is always a complete snapshot at the target
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		}
+		catch (IOException e)
+		{
+			throw new AuthorizationServiceException("Unable to write snapshot " + target, e);
+		}
+		finally
+		{
+			if (!moved)
+			{
+				temporary.delete();
+			}
+			close();
+		}
+	}
+
+	/**
+	 * Deletes the temporary record file without writing a snapshot, e.g. when an export fails.
+	 * Has no effect once the snapshot has been written.
+	 */
+	public void close() {
+		if (recordChannel != null)
+		{
+			try
+			{
+				recordChannel.close();
+			}
+			catch (IOException e)
+			{
+				// nothing more can be done than deleting the file
+			}
+			recordChannel = null;
+		}
+		if (recordFile != null)
+		{
+			recordFile.delete();
+			recordFile = null;
+		}
+	}
+
+	private void write(final File file) throws IOException {
+		Assert.state(recordChannel != null || records.isEmpty(), "The writer has already been closed");
+		int count = records.size();
+		long dataStart = HEADER_SIZE + ((long) count * INDEX_ENTRY_SIZE);
+		long size = dataStart;
+		for (Entry<byte[], long[]> record : records.entrySet())
+		{
+			size += record.getKey().length + record.getValue()[1];
+		}
+		if (size > Integer.MAX_VALUE)
+		{
+			throw new AuthorizationServiceException("Snapshot of " + size + " bytes exceeds the maximum size");
+		}
+
+		ByteBuffer index = ByteBuffer.allocate((int) dataStart);
+		index.putInt(MAGIC);
+		index.putInt(VERSION);
+		index.putInt(count);
+		int offset = (int) dataStart;
+		for (Entry<byte[], long[]> record : records.entrySet())
+		{
+			int keyLength = record.getKey().length;
+			int recordLength = (int) record.getValue()[1];
+			index.putInt(offset);
+			index.putInt(keyLength);
+			index.putInt(offset + keyLength);
+			index.putInt(recordLength);
+			offset += keyLength + recordLength;
+		}
+		index.flip();
+
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			FileChannel channel = out.getChannel();
+			writeFully(channel, index);
+			for (Entry<byte[], long[]> record : records.entrySet())
+			{
+				writeFully(channel, ByteBuffer.wrap(record.getKey()));
+				transferFully(record.getValue()[0], record.getValue()[1], channel);
+			}
+			channel.force(true);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private void transferFully(final long position, final long length, final FileChannel target) throws IOException {
+		long transferred = 0;
+		while (transferred < length)
+		{
+			long count = recordChannel.transferTo(position + transferred, length - transferred, target);
+			if (count <= 0)
+			{
+				throw new IOException("Unexpected end of the record file " + recordFile);
+			}
+			transferred += count;
+		}
+	}
+
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Orders keys as unsigned bytes, matching the comparison used when searching the index.
+	 */
+	private static class KeyComparator implements Comparator<byte[]> {
+
+		@Override
+		public int compare(final byte[] left, final byte[] right) {
+			int length = Math.min(left.length, right.length);
+			for (int i = 0; i < length; i++)
+			{
+				int difference = (left[i] & 0xFF) - (right[i] & 0xFF);
+				if (difference != 0)
+				{
+					return difference;
+				}
+			}
+			return left.length - right.length;
+		}
+	}
+
+}
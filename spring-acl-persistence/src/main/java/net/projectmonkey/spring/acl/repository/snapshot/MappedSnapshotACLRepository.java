@@ -0,0 +1,301 @@
+package net.projectmonkey.spring.acl.repository.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.projectmonkey.spring.acl.entity.SimpleMutableAcl;
+import net.projectmonkey.spring.acl.repository.ACLUpdateRepository;
+import net.projectmonkey.spring.acl.util.ACLUtil;
+import net.projectmonkey.spring.acl.util.AclCodec;
+
+import org.springframework.security.access.AuthorizationServiceException;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AuditLogger;
+import org.springframework.security.acls.domain.CompiledPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Read only repository serving acls from an immutable snapshot file
+ * written by the {@link AclSnapshotWriter}.
+ *
+ * The snapshot is memory mapped and lookups binary search the sorted
+ * index and decode the record directly from the mapped buffer, so no
+ * part of the file is copied onto the heap other than the decoded acl itself.
+ *
+ * A new snapshot can be swapped in at any time using {@link #swap(File)},
+ * readers already in flight complete against the snapshot they started with.
+ *
+ * The write methods are not supported and will throw an {@link UnsupportedOperationException}.
+ *
+ * @author Andy Moody
+ */
+public class MappedSnapshotACLRepository implements ACLUpdateRepository {
+
+	private final ACLUtil util;
+	private volatile Snapshot snapshot;
+	private AclCodec codec = new AclCodec(new DefaultPermissionFactory());
+
+	/**
+	 * Simplified constructor utilising the defaultPermissionGrantingStrategy
+	 * and the ConsoleAuditLogger
+	 * @param snapshotFile
+	 * @param authorizationStrategy
+	 */
+	public MappedSnapshotACLRepository(final File snapshotFile, final AclAuthorizationStrategy authorizationStrategy) {
+		this(snapshotFile, new ConsoleAuditLogger(), authorizationStrategy);
+	}
+
+	/**
+	 * Simplified constructor utilising the defaultPermissionGrantingStrategy
+	 * with the provided AuditLogger
+	 * @param snapshotFile
+	 * @param auditLogger
+	 * @param authorizationStrategy
+	 */
+	public MappedSnapshotACLRepository(final File snapshotFile, final AuditLogger auditLogger,
+			final AclAuthorizationStrategy authorizationStrategy) {
+		this(snapshotFile, authorizationStrategy, new CompiledPermissionGrantingStrategy(auditLogger));
+	}
+
+	/**
+	 * Constructor allowing full customization.
+	 * @param snapshotFile
+	 * @param authorizationStrategy
+	 * @param permissionGrantingStrategy
+	 */
+	public MappedSnapshotACLRepository(final File snapshotFile, final AclAuthorizationStrategy authorizationStrategy,
+			final PermissionGrantingStrategy permissionGrantingStrategy) {
+		this.util = new ACLUtil(permissionGrantingStrategy, authorizationStrategy);
+		swap(snapshotFile);
+	}
+
+	/**
+	 * Maps the supplied snapshot file and atomically replaces the current snapshot with it.
+	 * @param snapshotFile
+	 * @throws AuthorizationServiceException if the file could not be mapped or is not a valid snapshot
+	 */
+	public void swap(final File snapshotFile) {
+		Assert.notNull(snapshotFile, "snapshotFile must not be null");
+		this.snapshot = Snapshot.map(snapshotFile);
+	}
+
+	/**
+	 * Retrieves a single Acl from the given object Identity.
+	 *
+	 * @param identity
+	 * @return null if the corresponding acl is not found, the acl otherwise.
+	 */
+	public Acl getAclById(final ObjectIdentity identity) {
+		Assert.notNull(identity, "Object Identity required");
+		return getAclsById(Arrays.asList(identity), null).get(identity);
+	}
+
+	@Override
+	public Map<ObjectIdentity, Acl> getAclsById(final List<ObjectIdentity> objectIdentities, final List<Sid> sids) {
+		Assert.notNull(objectIdentities, "At least one Object Identity required");
+		Assert.isTrue(objectIdentities.size() > 0, "At least one Object Identity required");
+		Assert.noNullElements(objectIdentities.toArray(new ObjectIdentity[0]), "Null object identities are not permitted");
+		Snapshot current = snapshot;
+		Map<ObjectIdentity, Acl> toReturn = new HashMap<ObjectIdentity, Acl>();
+		for (ObjectIdentity identity : objectIdentities)
+		{
+			if (!toReturn.containsKey(identity))
+			{
+				int recordOffset = current.find(AclCodec.encodeIdentifier(identity.getIdentifier()));
+				if (recordOffset >= 0)
+				{
+					ByteBuffer record = current.buffer.duplicate();
+					record.position(recordOffset);
+					// every entry is decoded so the acl is loaded for all sids
+					toReturn.put(identity, codec.decode(identity, record, null, util));
+				}
+			}
+		}
+		return toReturn;
+	}
+
+	@Override
+	public boolean isThereAnAclFor(final ObjectIdentity identity) {
+		Assert.notNull(identity, "Object Identity required");
+		return snapshot.find(AclCodec.encodeIdentifier(identity.getIdentifier())) >= 0;
+	}
+
+	@Override
+	public SimpleMutableAcl create(final ObjectIdentity identity) {
+		throw new UnsupportedOperationException("snapshot repositories are read only");
+	}
+
+	@Override
+	public void update(final MutableAcl acl) {
+		throw new UnsupportedOperationException("snapshot repositories are read only");
+	}
+
+	@Override
+	public void delete(final ObjectIdentity identity) {
+		throw new UnsupportedOperationException("snapshot repositories are read only");
+	}
+
+	/**
+	 * @return the number of acls in the current snapshot
+	 */
+	public int size() {
+		return snapshot.count;
+	}
+
+	/**
+	 * A mapped snapshot file. Only absolute reads are performed against
+	 * the shared buffer so it can be safely used by concurrent readers.
+	 */
+	private static class Snapshot {
+
+		private final MappedByteBuffer buffer;
+		private final int count;
+
+		private Snapshot(final MappedByteBuffer buffer) {
+			this.buffer = buffer;
+			this.count = buffer.getInt(8);
+		}
+
+		static Snapshot map(final File file) {
+			try
+			{
+				RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+				try
+				{
+					FileChannel channel = randomAccessFile.getChannel();
+					// the mapping remains valid once the channel is closed
+					MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+					if (buffer.limit() < AclSnapshotWriter.HEADER_SIZE || buffer.getInt(0) != AclSnapshotWriter.MAGIC)
+					{
+						throw new AuthorizationServiceException(file + " is not an acl snapshot");
+					}
+					if (buffer.getInt(4) != AclSnapshotWriter.VERSION)
+					{
+						throw new AuthorizationServiceException("Unsupported snapshot version " + buffer.getInt(4) + " in " + file);
+					}
+					verifyIndex(buffer, file);
+					return new Snapshot(buffer);
+				}
+				finally
+				{
+					randomAccessFile.close();
+				}
+			}
+			catch (IOException e)
+			{
+				throw new AuthorizationServiceException("Unable to map snapshot " + file, e);
+			}
+		}
+
+		/**
+		 * Rejects a truncated or corrupt file up front, so that lookups never read outside the buffer.
+		 */
+		private static void verifyIndex(final ByteBuffer buffer, final File file) {
+			int limit = buffer.limit();
+			int count = buffer.getInt(8);
+			long dataStart = AclSnapshotWriter.HEADER_SIZE + ((long) count * AclSnapshotWriter.INDEX_ENTRY_SIZE);
+			if (count < 0 || dataStart > limit)
+			{
+				throw new AuthorizationServiceException(file + " is truncated, its index of " + count
+						+ " acls does not fit in " + limit + " bytes");
+			}
+			for (int i = 0; i < count; i++)
+			{
+				int slot = AclSnapshotWriter.HEADER_SIZE + (i * AclSnapshotWriter.INDEX_ENTRY_SIZE);
+				if (!isWithin(buffer.getInt(slot), buffer.getInt(slot + 4), dataStart, limit)
+						|| !isWithin(buffer.getInt(slot + 8), buffer.getInt(slot + 12), dataStart, limit))
+				{
+					throw new AuthorizationServiceException(file + " is truncated or corrupt, index entry " + i
+							+ " lies outside the file");
+				}
+			}
+		}
+
+		private static boolean isWithin(final int offset, final int length, final long dataStart, final int limit) {
+			return offset >= dataStart && length >= 0 && (long) offset + length <= limit;
+		}
+
+		/**
+		 * Binary searches the index for the key.
+		 * @return the offset of the matching record or -1 if there is no match
+		 */
+		int find(final byte[] key) {
+			int low = 0;
+			int high = count - 1;
+			while (low <= high)
+			{
+				int middle = (low + high) >>> 1;
+				int slot = AclSnapshotWriter.HEADER_SIZE + (middle * AclSnapshotWriter.INDEX_ENTRY_SIZE);
+				int comparison = compare(key, buffer.getInt(slot), buffer.getInt(slot + 4));
+				if (comparison > 0)
+				{
+					low = middle + 1;
+				}
+				else if (comparison < 0)
+				{
+					high = middle - 1;
+				}
+				else
+				{
+					return buffer.getInt(slot + 8);
+				}
+			}
+			return -1;
+		}
+
+		private int compare(final byte[] key, final int keyOffset, final int keyLength) {
+			int length = Math.min(key.length, keyLength);
+			for (int i = 0; i < length; i++)
+			{
+				int difference = (key[i] & 0xFF) - (buffer.get(keyOffset + i) & 0xFF);
+				if (difference != 0)
+				{
+					return difference;
+				}
+			}
+			return key.length - keyLength;
+		}
+	}
+
+	/* Optional configuration methods */
+	/**
+	 * Set the permission factory to use when recreating access control entries
+	 * @param permissionFactory
+	 */
+	public void setPermissionFactory(final PermissionFactory permissionFactory) {
+		this.codec = new AclCodec(permissionFactory);
+	}
+
+}
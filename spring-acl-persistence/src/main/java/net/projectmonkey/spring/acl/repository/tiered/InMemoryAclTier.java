@@ -0,0 +1,205 @@
+package net.projectmonkey.spring.acl.repository.tiered;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * {@link LocalAclTier} holding promoted acls in memory until they are invalidated,
+ * expire or are displaced.
+ *
+ * Acls expire after the configured time to live so that changes made through other
+ * nodes are eventually seen, changes made through the same {@link TieredACLRepository}
+ * invalidate the acl immediately. Once the maximum size is reached the least recently
+ * read acls are discarded first. The default tier holds up to 10000 acls for 60 seconds.
+ * 
+ * @author Andy Moody
+ */
+public class InMemoryAclTier implements LocalAclTier {
+
+	private static final int DEFAULT_MAXIMUM_SIZE = 10000;
+	private static final long DEFAULT_TIME_TO_LIVE_SECONDS = 60;
+	private static final int CONCURRENCY_LEVEL = 16;
+
+	private final Segment[] segments;
+	private final long timeToLiveNanos;
+
+	public InMemoryAclTier() {
+		this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE_SECONDS);
+	}
+
+	/**
+	 * @param maximumSize the maximum number of acls to hold
+	 * @param timeToLiveSeconds the time after which a promoted acl is no longer served
+	 */
+	public InMemoryAclTier(final int maximumSize, final long timeToLiveSeconds) {
+		Assert.isTrue(maximumSize > 0, "maximumSize must be greater than zero");
+		Assert.isTrue(timeToLiveSeconds > 0, "timeToLiveSeconds must be greater than zero");
+		int segmentCount = Math.min(CONCURRENCY_LEVEL, Integer.highestOneBit(maximumSize));
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+		{
+			segments[i] = new Segment(maximumSize / segmentCount);
+		}
+		this.timeToLiveNanos = TimeUnit.SECONDS.toNanos(timeToLiveSeconds);
+	}
+
+	@Override
+	public Map<ObjectIdentity, Acl> getAcls(final List<ObjectIdentity> objectIdentities, final List<Sid> sids) {
+		Map<ObjectIdentity, Acl> toReturn = new HashMap<ObjectIdentity, Acl>();
+		long now = currentTime();
+		for (ObjectIdentity identity : objectIdentities)
+		{
+			Acl acl = segmentFor(identity).get(identity, now);
+			if (acl != null)
+			{
+				toReturn.put(identity, acl);
+			}
+		}
+		return toReturn;
+	}
+
+	@Override
+	public void promote(final Collection<Acl> promoted) {
+		long expiresAt = currentTime() + timeToLiveNanos;
+		for (Acl acl : promoted)
+		{
+			segmentFor(acl.getObjectIdentity()).put(acl, expiresAt);
+		}
+	}
+
+	@Override
+	public void invalidate(final ObjectIdentity identity) {
+		segmentFor(identity).remove(identity);
+	}
+
+	/**
+	 * Removes all acls from the tier.
+	 */
+	public void clear() {
+		for (Segment segment : segments)
+		{
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @return the current time in nanoseconds, used to expire acls
+	 */
+	protected long currentTime() {
+		return System.nanoTime();
+	}
+
+	private Segment segmentFor(final ObjectIdentity identity) {
+		int hash = identity.hashCode();
+		return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+	}
+
+	private static class Promoted {
+
+		private final Acl acl;
+		private final long expiresAt;
+
+		Promoted(final Acl acl, final long expiresAt) {
+			this.acl = acl;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Map<ObjectIdentity, Promoted> entries;
+
+		@SuppressWarnings("serial")
+		Segment(final int maximumSize) {
+			// access ordered so that the least recently read acl is discarded first
+			this.entries = new LinkedHashMap<ObjectIdentity, Promoted>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<ObjectIdentity, Promoted> eldest) {
+					return size() > maximumSize;
+				}
+			};
+		}
+
+		Acl get(final ObjectIdentity identity, final long now) {
+			lock.lock();
+			try
+			{
+				Promoted entry = entries.get(identity);
+				if (entry != null && now - entry.expiresAt >= 0)
+				{
+					entries.remove(identity);
+					entry = null;
+				}
+				return entry == null ? null : entry.acl;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void put(final Acl acl, final long expiresAt) {
+			lock.lock();
+			try
+			{
+				entries.put(acl.getObjectIdentity(), new Promoted(acl, expiresAt));
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void remove(final ObjectIdentity identity) {
+			lock.lock();
+			try
+			{
+				entries.remove(identity);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			lock.lock();
+			try
+			{
+				entries.clear();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+package net.projectmonkey.spring.acl.repository.tiered;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * A fast, local source of acls placed in front of a remote repository
+ * by the {@link TieredACLRepository}.
+ * 
+ * @author Andy Moody
+ */
+public interface LocalAclTier {
+
+	/**
+	 * Returns a new map of the acls held locally for the supplied identities, identities
+	 * not held locally are simply omitted from the returned map.
+	 * @param objectIdentities
+	 * @param sids which may be null
+	 * @return map of ObjectIdentities against the corresponding ACL objects.
+	 */
+	Map<ObjectIdentity, Acl> getAcls(List<ObjectIdentity> objectIdentities, List<Sid> sids);
+
+	/**
+	 * Stores acls retrieved from the remote repository so they can be served locally.
+	 * The acls will have been loaded for all sids.
+	 * @param acls
+	 */
+	void promote(Collection<Acl> acls);
+
+	/**
+	 * Ensures the acl for the supplied identity is no longer served locally.
+	 * @param identity
+	 */
+	void invalidate(ObjectIdentity identity);
+
+}
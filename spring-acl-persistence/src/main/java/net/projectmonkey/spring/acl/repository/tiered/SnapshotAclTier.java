@@ -0,0 +1,94 @@
+package net.projectmonkey.spring.acl.repository.tiered;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.projectmonkey.spring.acl.repository.snapshot.MappedSnapshotACLRepository;
+
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * {@link LocalAclTier} serving acls from a {@link MappedSnapshotACLRepository}.
+ * 
+ * Since the snapshot itself is immutable, acls promoted from the remote
+ * repository are held in memory in preference to the snapshot and invalidated
+ * acls are no longer read from the snapshot. Promoted acls are held in an
+ * {@link InMemoryAclTier}, once one expires it is read remotely again rather
+ * than from the snapshot. Once a snapshot taken after
+ * all outstanding writes has been swapped in, {@link #reset()} can be used
+ * to discard this in memory state.
+ * 
+ * @author Andy Moody
+ */
+public class SnapshotAclTier implements LocalAclTier {
+
+	private final MappedSnapshotACLRepository snapshot;
+	private final InMemoryAclTier promoted = new InMemoryAclTier();
+	private final ConcurrentMap<ObjectIdentity, Boolean> invalidated = new ConcurrentHashMap<ObjectIdentity, Boolean>();
+
+	public SnapshotAclTier(final MappedSnapshotACLRepository snapshot) {
+		Assert.notNull(snapshot, "snapshot must not be null");
+		this.snapshot = snapshot;
+	}
+
+	@Override
+	public Map<ObjectIdentity, Acl> getAcls(final List<ObjectIdentity> objectIdentities, final List<Sid> sids) {
+		Map<ObjectIdentity, Acl> toReturn = promoted.getAcls(objectIdentities, sids);
+		List<ObjectIdentity> fromSnapshot = new ArrayList<ObjectIdentity>();
+		for (ObjectIdentity identity : objectIdentities)
+		{
+			if (!toReturn.containsKey(identity) && !invalidated.containsKey(identity))
+			{
+				fromSnapshot.add(identity);
+			}
+		}
+		if (!fromSnapshot.isEmpty())
+		{
+			toReturn.putAll(snapshot.getAclsById(fromSnapshot, sids));
+		}
+		return toReturn;
+	}
+
+	@Override
+	public void promote(final Collection<Acl> acls) {
+		promoted.promote(acls);
+	}
+
+	@Override
+	public void invalidate(final ObjectIdentity identity) {
+		invalidated.put(identity, Boolean.TRUE);
+		promoted.invalidate(identity);
+	}
+
+	/**
+	 * Discards all promoted and invalidated acls so that all acls are once again served from the snapshot.
+	 */
+	public void reset() {
+		invalidated.clear();
+		promoted.clear();
+	}
+
+}
@@ -0,0 +1,136 @@
+package net.projectmonkey.spring.acl.repository.tiered;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.projectmonkey.spring.acl.entity.SimpleMutableAcl;
+import net.projectmonkey.spring.acl.repository.ACLUpdateRepository;
+
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Composite repository answering reads from a {@link LocalAclTier} and
+ * falling back to a remote repository, such as the HBaseACLRepository, for
+ * any acls not held locally.
+ * 
+ * All local misses for a request are retrieved from the remote repository in a
+ * single call, for all sids, and promoted into the local tier. Writes are passed
+ * straight through to the remote repository after which the local copy is invalidated.
+ * Acls read remotely are not promoted if an acl was invalidated while they were being
+ * read, as they may predate the write, so a racing read never leaves a stale local copy.
+ * Writes made through other nodes are only seen once the local copy expires, see
+ * {@link InMemoryAclTier}.
+ * 
+ * @author Andy Moody
+ */
+public class TieredACLRepository implements ACLUpdateRepository {
+
+	private final LocalAclTier local;
+	private final ACLUpdateRepository remote;
+	// incremented before each local invalidation, allowing reads to detect writes made while they ran
+	private final AtomicLong invalidations = new AtomicLong();
+
+	public TieredACLRepository(final LocalAclTier local, final ACLUpdateRepository remote) {
+		Assert.notNull(local, "local must not be null");
+		Assert.notNull(remote, "remote must not be null");
+		this.local = local;
+		this.remote = remote;
+	}
+
+	@Override
+	public Map<ObjectIdentity, Acl> getAclsById(final List<ObjectIdentity> objectIdentities, final List<Sid> sids) {
+		Assert.notNull(objectIdentities, "At least one Object Identity required");
+		Assert.isTrue(objectIdentities.size() > 0, "At least one Object Identity required");
+		Assert.noNullElements(objectIdentities.toArray(new ObjectIdentity[0]), "Null object identities are not permitted");
+		Map<ObjectIdentity, Acl> toReturn = local.getAcls(objectIdentities, sids);
+		List<ObjectIdentity> misses = new ArrayList<ObjectIdentity>();
+		for (ObjectIdentity identity : objectIdentities)
+		{
+			if (!toReturn.containsKey(identity) && !misses.contains(identity))
+			{
+				misses.add(identity);
+			}
+		}
+		if (!misses.isEmpty())
+		{
+			// always load the complete acl so that it can be reused for any sids once promoted
+			long stamp = invalidations.get();
+			Map<ObjectIdentity, Acl> fromRemote = remote.getAclsById(misses, null);
+			promote(fromRemote, stamp);
+			toReturn.putAll(fromRemote);
+		}
+		return toReturn;
+	}
+
+	@Override
+	public SimpleMutableAcl create(final ObjectIdentity identity) {
+		SimpleMutableAcl acl = remote.create(identity);
+		invalidate(identity);
+		return acl;
+	}
+
+	@Override
+	public void update(final MutableAcl acl) {
+		remote.update(acl);
+		invalidate(acl.getObjectIdentity());
+	}
+
+	@Override
+	public void delete(final ObjectIdentity identity) {
+		remote.delete(identity);
+		invalidate(identity);
+	}
+
+	@Override
+	public boolean isThereAnAclFor(final ObjectIdentity identity) {
+		Assert.notNull(identity, "Object Identity required");
+		return !local.getAcls(Arrays.asList(identity), null).isEmpty() || remote.isThereAnAclFor(identity);
+	}
+
+	/**
+	 * Promotes the acls unless an invalidation occurred since the stamp was taken. An
+	 * invalidation racing with the promotion is detected afterwards and the acls removed again.
+	 */
+	private void promote(final Map<ObjectIdentity, Acl> fromRemote, final long stamp) {
+		if (!fromRemote.isEmpty() && invalidations.get() == stamp)
+		{
+			local.promote(fromRemote.values());
+			if (invalidations.get() != stamp)
+			{
+				for (ObjectIdentity identity : fromRemote.keySet())
+				{
+					local.invalidate(identity);
+				}
+			}
+		}
+	}
+
+	private void invalidate(final ObjectIdentity identity) {
+		invalidations.incrementAndGet();
+		local.invalidate(identity);
+	}
+
+}
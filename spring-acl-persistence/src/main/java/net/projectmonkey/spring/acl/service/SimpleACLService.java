@@ -1,6 +1,7 @@
 package net.projectmonkey.spring.acl.service;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -9,6 +10,7 @@ import java.util.Set;
 import net.projectmonkey.spring.acl.entity.SimpleMutableAcl;
 import net.projectmonkey.spring.acl.repository.ACLUpdateRepository;
 
+import org.springframework.security.acls.domain.SimpleAclSnapshot;
 import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.AlreadyExistsException;
 import org.springframework.security.acls.model.ChildrenExistException;
@@ -40,9 +42,16 @@ import org.springframework.util.Assert;
  * retrieve values from the configured repository and perform
  * the necessary validation on inputs and outputs.
  * 
+ * Acls read for a list of sids, as read by voters and other authorization
+ * checks, are returned as the immutable {@link SimpleAclSnapshot}s shared with
+ * the repository's cache. Acls read without sids are returned as editable
+ * copies so that they may be cast to {@link MutableAcl}, changed and passed to
+ * {@link #updateAcl(MutableAcl)}; a snapshot may also be edited by obtaining a
+ * copy using {@link SimpleAclSnapshot#mutableCopy()}.
+ * 
  * @author Andy Moody
  */
-public class SimpleACLService implements SimpleMutableAclService {
+public class SimpleACLService implements SimpleMutableAclService, LenientAclService {
 
 	private final ACLUpdateRepository aclRepository;
 
@@ -84,18 +93,16 @@ public class SimpleACLService implements SimpleMutableAclService {
 		return readAclsById(identities, null);
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Reads the acls of the identities, if the sids are null each acl is
+	 * returned as an editable copy rather than the shared snapshot.
+	 * 
 	 * @see org.springframework.security.acls.model.AclService#readAclsById(java.util.List, java.util.List)
 	 */
 	@Override
 	public Map<ObjectIdentity, Acl> readAclsById(final List<ObjectIdentity> identities, final List<Sid> sids)
 			throws NotFoundException {
-		Assert.notNull(identities, "At least one Object Identity required");
-		Assert.isTrue(identities.size() > 0, "At least one Object Identity required");
-		Assert.noNullElements(identities.toArray(new ObjectIdentity[0]), "Null object identities are not permitted");
-		
-		Map<ObjectIdentity, Acl> result = aclRepository.getAclsById(identities, sids);
+		Map<ObjectIdentity, Acl> result = readExistingAclsById(identities, sids);
 
 		/*
 		 * Check we found an ACL for every requested object. Where ACL's do not
@@ -110,6 +117,23 @@ public class SimpleACLService implements SimpleMutableAclService {
 		return result;
 	}
 
+	/**
+	 * Reads the acls of those identities which have one in a single call to the
+	 * repository, if the sids are null each acl is returned as an editable copy
+	 * rather than the shared snapshot.
+	 * 
+	 * @see net.projectmonkey.spring.acl.service.LenientAclService#readExistingAclsById(java.util.List, java.util.List)
+	 */
+	@Override
+	public Map<ObjectIdentity, Acl> readExistingAclsById(final List<ObjectIdentity> identities, final List<Sid> sids) {
+		Assert.notNull(identities, "At least one Object Identity required");
+		Assert.isTrue(identities.size() > 0, "At least one Object Identity required");
+		Assert.noNullElements(identities.toArray(new ObjectIdentity[0]), "Null object identities are not permitted");
+
+		Map<ObjectIdentity, Acl> result = aclRepository.getAclsById(identities, sids);
+		return sids == null ? editableCopies(result) : result;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see spring.acl.service.SimpleMutableAclService#createAcl(org.springframework.security.acls.model.ObjectIdentity)
@@ -135,8 +159,9 @@ public class SimpleACLService implements SimpleMutableAclService {
 		aclRepository.delete(identity);
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Saves the acl, which must be editable rather than a {@link SimpleAclSnapshot}.
+	 * 
 	 * @see org.springframework.security.acls.model.MutableAclService#updateAcl(org.springframework.security.acls.model.MutableAcl)
 	 */
 	@Override
@@ -146,8 +171,9 @@ public class SimpleACLService implements SimpleMutableAclService {
 		return acl;
 	}
 	
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Saves the acl, which must be editable rather than a {@link SimpleAclSnapshot}.
+	 * 
 	 * @see spring.acl.service.SimpleMutableAclService#updateAcl(org.springframework.security.acls.domain.SimpleMutableAcl)
 	 */
 	@Override
@@ -158,6 +184,8 @@ public class SimpleACLService implements SimpleMutableAclService {
 	}
 	
 	private void verifyAclExists(final MutableAcl acl) {
+		Assert.isTrue(!(acl instanceof SimpleAclSnapshot),
+				"Acl snapshots are immutable, read the acl without sids or use mutableCopy() to obtain an editable acl");
 		ObjectIdentity identity = acl.getObjectIdentity();
 		if (!aclRepository.isThereAnAclFor(identity))
 		{
@@ -165,4 +193,14 @@ public class SimpleACLService implements SimpleMutableAclService {
 		}
 	}
 
+	private static Map<ObjectIdentity, Acl> editableCopies(final Map<ObjectIdentity, Acl> acls) {
+		Map<ObjectIdentity, Acl> copies = new HashMap<ObjectIdentity, Acl>(acls.size() * 2);
+		for (Map.Entry<ObjectIdentity, Acl> entry : acls.entrySet())
+		{
+			Acl acl = entry.getValue();
+			copies.put(entry.getKey(), acl instanceof SimpleAclSnapshot ? ((SimpleAclSnapshot) acl).mutableCopy() : acl);
+		}
+		return copies;
+	}
+
 }
@@ -0,0 +1,68 @@
+package net.projectmonkey.spring.acl.util;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.projectmonkey.spring.acl.cache.BatchAclCache;
+
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Reads and writes acls in batches when the cache is a {@link BatchAclCache},
+ * falling back to one call per acl otherwise.
+ *
+ * @author Andy Moody
+ */
+public class AclCacheUtil {
+
+	public static Map<ObjectIdentity, MutableAcl> getAll(final AclCache aclCache, final Collection<ObjectIdentity> identities) {
+		if (aclCache instanceof BatchAclCache)
+		{
+			return ((BatchAclCache) aclCache).getAllFromCache(identities);
+		}
+		Map<ObjectIdentity, MutableAcl> toReturn = new HashMap<ObjectIdentity, MutableAcl>();
+		for (ObjectIdentity identity : identities)
+		{
+			MutableAcl acl = aclCache.getFromCache(identity);
+			if (acl != null)
+			{
+				toReturn.put(identity, acl);
+			}
+		}
+		return toReturn;
+	}
+
+	public static void putAll(final AclCache aclCache, final Collection<? extends MutableAcl> acls) {
+		if (aclCache instanceof BatchAclCache)
+		{
+			((BatchAclCache) aclCache).putAllInCache(acls);
+		}
+		else
+		{
+			for (MutableAcl acl : acls)
+			{
+				aclCache.putInCache(acl);
+			}
+		}
+	}
+
+}
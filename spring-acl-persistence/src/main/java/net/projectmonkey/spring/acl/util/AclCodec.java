@@ -0,0 +1,381 @@
+package net.projectmonkey.spring.acl.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.springframework.security.access.AuthorizationServiceException;
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.domain.SimpleAclSnapshot;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Compact binary form of an {@link Acl} used by the file based repositories.
+ *
+ * Identifiers are encoded as a type tag followed by the value so that they
+ * can be used as keys, Long, Integer, String and byte[] identifiers are
+ * written directly and any other {@link Serializable} identifier is written
+ * using java serialization. Only the value types of the JDK, such as the other
+ * numbers, {@link UUID} and {@link Date}, are read back from their serialized
+ * form, other classes are rejected rather than instantiated from the file.
+ *
+ * An acl record consists of the identity type, the owner and the
+ * access control entries in order. The identifier is not included in the
+ * record since it is expected to be stored as the key.
+ * Records are decoded directly from the supplied buffer, with permissions
+ * shared between records, see {@link CachingPermissionFactory}.
+ *
+ * @author Andy Moody
+ */
+public class AclCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte LONG_IDENTIFIER = 'L';
+	private static final byte INTEGER_IDENTIFIER = 'I';
+	private static final byte STRING_IDENTIFIER = 'S';
+	private static final byte BYTES_IDENTIFIER = 'B';
+	private static final byte SERIALIZED_IDENTIFIER = 'O';
+
+	private final PermissionFactory permissionFactory;
+
+	public AclCodec(final PermissionFactory permissionFactory) {
+		Assert.notNull(permissionFactory, "permissionFactory must not be null");
+		this.permissionFactory = CachingPermissionFactory.wrap(permissionFactory);
+	}
+
+	/**
+	 * Encodes the identifier into its key form.
+	 * @param identifier which must not be null
+	 * @return the key bytes
+	 */
+	public static byte[] encodeIdentifier(final Serializable identifier) {
+		Assert.notNull(identifier, "Identifier must not be null");
+		byte[] value;
+		byte tag;
+		if (identifier instanceof Long)
+		{
+			tag = LONG_IDENTIFIER;
+			value = ByteBuffer.allocate(8).putLong((Long) identifier).array();
+		}
+		else if (identifier instanceof Integer)
+		{
+			tag = INTEGER_IDENTIFIER;
+			value = ByteBuffer.allocate(4).putInt((Integer) identifier).array();
+		}
+		else if (identifier instanceof String)
+		{
+			tag = STRING_IDENTIFIER;
+			value = ((String) identifier).getBytes(UTF8);
+		}
+		else if (identifier instanceof byte[])
+		{
+			tag = BYTES_IDENTIFIER;
+			value = (byte[]) identifier;
+		}
+		else
+		{
+			tag = SERIALIZED_IDENTIFIER;
+			value = serialize(identifier);
+		}
+		byte[] key = new byte[value.length + 1];
+		key[0] = tag;
+		System.arraycopy(value, 0, key, 1, value.length);
+		return key;
+	}
+
+	/**
+	 * Decodes an identifier from its key form.
+	 * @param key
+	 * @return the identifier
+	 */
+	public static Serializable decodeIdentifier(final byte[] key) {
+		Assert.isTrue(key != null && key.length > 0, "key must not be empty");
+		ByteBuffer value = ByteBuffer.wrap(key, 1, key.length - 1);
+		Serializable identifier;
+		switch (key[0])
+		{
+			case LONG_IDENTIFIER:
+				identifier = value.getLong();
+				break;
+			case INTEGER_IDENTIFIER:
+				identifier = value.getInt();
+				break;
+			case STRING_IDENTIFIER:
+				identifier = new String(key, 1, key.length - 1, UTF8);
+				break;
+			case BYTES_IDENTIFIER:
+				byte[] bytes = new byte[key.length - 1];
+				System.arraycopy(key, 1, bytes, 0, bytes.length);
+				identifier = bytes;
+				break;
+			case SERIALIZED_IDENTIFIER:
+				identifier = deserialize(key, 1, key.length - 1);
+				break;
+			default:
+				throw new AuthorizationServiceException("Unknown identifier type " + key[0]);
+		}
+		return identifier;
+	}
+
+	/**
+	 * Returns the number of bytes required to encode the supplied acl.
+	 */
+	public int encodedSize(final Acl acl) {
+		return encodedSize(acl, acl.getEntries());
+	}
+
+	/**
+	 * Encodes the acl, excluding its identifier, into a new byte array.
+	 */
+	public byte[] encode(final Acl acl) {
+		// the entries are only requested once as a snapshot creates them on every call
+		List<AccessControlEntry> entries = acl.getEntries();
+		ByteBuffer buffer = ByteBuffer.allocate(encodedSize(acl, entries));
+		encode(acl, entries, buffer);
+		return buffer.array();
+	}
+
+	/**
+	 * Encodes the acl, excluding its identifier, into the supplied buffer
+	 * starting at its current position.
+	 */
+	public void encode(final Acl acl, final ByteBuffer buffer) {
+		encode(acl, acl.getEntries(), buffer);
+	}
+
+	private int encodedSize(final Acl acl, final List<AccessControlEntry> entries) {
+		int size = stringSize(acl.getObjectIdentity().getType()) + sidSize(acl.getOwner()) + 4;
+		for (AccessControlEntry ace : entries)
+		{
+			size += 16 + sidSize(ace.getSid()) + 4 + 1;
+		}
+		return size;
+	}
+
+	private void encode(final Acl acl, final List<AccessControlEntry> entries, final ByteBuffer buffer) {
+		putString(buffer, acl.getObjectIdentity().getType());
+		putSid(buffer, acl.getOwner());
+		buffer.putInt(entries.size());
+		for (AccessControlEntry ace : entries)
+		{
+			UUID id = resolveId(ace);
+			buffer.putLong(id.getMostSignificantBits());
+			buffer.putLong(id.getLeastSignificantBits());
+			putSid(buffer, ace.getSid());
+			buffer.putInt(ace.getPermission().getMask());
+			buffer.put((byte) (ace.isGranting() ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Reads the identity type from a record starting at the buffer's current position
+	 * without moving the position.
+	 */
+	public String decodeType(final ByteBuffer buffer) {
+		return getString(buffer.duplicate());
+	}
+
+	/**
+	 * Decodes a record starting at the buffer's current position, the position
+	 * of the supplied buffer will be moved to the end of the record.
+	 *
+	 * @param identity the identity to which the record belongs
+	 * @param buffer containing the record
+	 * @param loadedSids the sids to record as loaded against the acl, may be null
+	 * @param util the util to use for the created acl
+	 * @return the decoded acl
+	 */
+	public SimpleAcl decode(final ObjectIdentity identity, final ByteBuffer buffer, final List<Sid> loadedSids,
+			final ACLUtil util) {
+		getString(buffer); // the type is held by the supplied identity
+		Sid owner = getSid(buffer);
+		final int aceCount = buffer.getInt();
+		// the entries are read from the buffer as the acl is constructed
+		SimpleAcl.EntryBuilder entryBuilder = new SimpleAcl.EntryBuilder() {
+			@Override
+			public List<AccessControlEntry> build(final SimpleAcl acl) {
+				List<AccessControlEntry> entries = new ArrayList<AccessControlEntry>(aceCount);
+				for (int i = 0; i < aceCount; i++)
+				{
+					UUID id = new UUID(buffer.getLong(), buffer.getLong());
+					Sid sid = getSid(buffer);
+					int mask = buffer.getInt();
+					boolean granting = buffer.get() != 0;
+					entries.add(new AccessControlEntryImpl(id, acl, sid, permissionFactory.buildFromMask(mask), granting, false, false));
+				}
+				return entries;
+			}
+		};
+		return new SimpleAcl(identity, owner, entryBuilder, loadedSids, util);
+	}
+
+	/**
+	 * Decodes a record starting at the buffer's current position straight into
+	 * the columns of a snapshot, the position of the supplied buffer will be
+	 * moved to the end of the record.
+	 *
+	 * @param identity the identity to which the record belongs
+	 * @param buffer containing the record
+	 * @param loadedSids the sids to record as loaded against the acl, may be null
+	 * @param util the util to use for the created acl
+	 * @return the decoded acl
+	 */
+	public SimpleAclSnapshot decodeSnapshot(final ObjectIdentity identity, final ByteBuffer buffer,
+			final List<Sid> loadedSids, final ACLUtil util) {
+		getString(buffer); // the type is held by the supplied identity
+		Sid owner = getSid(buffer);
+		int aceCount = buffer.getInt();
+		SimpleAclSnapshot.Builder builder = new SimpleAclSnapshot.Builder(identity, owner, aceCount);
+		for (int i = 0; i < aceCount; i++)
+		{
+			long mostSignificantBits = buffer.getLong();
+			long leastSignificantBits = buffer.getLong();
+			Sid sid = getSid(buffer);
+			int mask = buffer.getInt();
+			boolean granting = buffer.get() != 0;
+			builder.addEntry(mostSignificantBits, leastSignificantBits, sid, permissionFactory.buildFromMask(mask), granting);
+		}
+		return builder.build(loadedSids, util);
+	}
+
+	private static UUID resolveId(final AccessControlEntry ace) {
+		Serializable aceId = ace.getId();
+		// as with the hbase repository we require the ACE ids to be uuids
+		return aceId instanceof UUID ? (UUID) aceId : UUID.randomUUID();
+	}
+
+	private static int sidSize(final Sid sid) {
+		return 1 + stringSize(SidUtil.resolveAuthority(sid));
+	}
+
+	private static int stringSize(final String value) {
+		return 4 + value.getBytes(UTF8).length;
+	}
+
+	private static void putSid(final ByteBuffer buffer, final Sid sid) {
+		buffer.put((byte) (SidUtil.isPrincipal(sid) ? 1 : 0));
+		putString(buffer, SidUtil.resolveAuthority(sid));
+	}
+
+	private static Sid getSid(final ByteBuffer buffer) {
+		boolean principal = buffer.get() != 0;
+		return SidUtil.createSid(getString(buffer), principal);
+	}
+
+	private static void putString(final ByteBuffer buffer, final String value) {
+		byte[] bytes = value.getBytes(UTF8);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static String getString(final ByteBuffer buffer) {
+		int length = buffer.getInt();
+		String value;
+		if (buffer.hasArray())
+		{
+			value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+			buffer.position(buffer.position() + length);
+		}
+		else
+		{
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			value = new String(bytes, UTF8);
+		}
+		return value;
+	}
+
+	private static byte[] serialize(final Serializable identifier) {
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(identifier);
+			out.close();
+			return bytes.toByteArray();
+		}
+		catch (IOException e)
+		{
+			throw new AuthorizationServiceException("Unable to serialize identifier " + identifier, e);
+		}
+	}
+
+	private static Serializable deserialize(final byte[] bytes, final int offset, final int length) {
+		try
+		{
+			ObjectInputStream in = new IdentifierInputStream(new ByteArrayInputStream(bytes, offset, length));
+			return (Serializable) in.readObject();
+		}
+		catch (Exception e)
+		{
+			throw new AuthorizationServiceException("Unable to deserialize identifier", e);
+		}
+	}
+
+	/**
+	 * Only resolves the value types of the JDK, so that a key read from a file
+	 * cannot instantiate arbitrary classes.
+	 */
+	private static class IdentifierInputStream extends ObjectInputStream {
+
+		private static final Set<String> PERMITTED_CLASSES = new HashSet<String>(Arrays.asList(
+				Number.class.getName(), Long.class.getName(), Integer.class.getName(), Short.class.getName(),
+				Byte.class.getName(), Double.class.getName(), Float.class.getName(), Character.class.getName(),
+				Boolean.class.getName(), BigInteger.class.getName(), BigDecimal.class.getName(),
+				UUID.class.getName(), Date.class.getName(), byte[].class.getName(), int[].class.getName()));
+
+		IdentifierInputStream(final InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(final ObjectStreamClass description) throws IOException, ClassNotFoundException {
+			if (!PERMITTED_CLASSES.contains(description.getName()))
+			{
+				throw new InvalidClassException(description.getName(), "not a permitted identifier type");
+			}
+			return super.resolveClass(description);
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package net.projectmonkey.spring.acl.util;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * {@link PermissionFactory} remembering the permission built by its delegate
+ * for each mask, so that decoding an entry returns a shared permission rather
+ * than building a new one, e.g. a new CumulativePermission for each combined mask.
+ *
+ * The permissions returned are shared between every acl and must not be modified.
+ *
+ * @author Andy Moody
+ */
+public class CachingPermissionFactory implements PermissionFactory {
+
+	// masks below this are held in an array, covering the permissions of the standard factory and their combinations
+	private static final int ARRAY_MASKS = 256;
+
+	private final PermissionFactory delegate;
+	private final AtomicReferenceArray<Permission> byMask = new AtomicReferenceArray<Permission>(ARRAY_MASKS);
+	private final ConcurrentMap<Integer, Permission> byLargeMask = new ConcurrentHashMap<Integer, Permission>();
+
+	public CachingPermissionFactory(final PermissionFactory delegate) {
+		Assert.notNull(delegate, "delegate must not be null");
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @param permissionFactory
+	 * @return the factory if it already caches permissions, otherwise a caching factory wrapping it
+	 */
+	public static PermissionFactory wrap(final PermissionFactory permissionFactory) {
+		if (permissionFactory instanceof CachingPermissionFactory)
+		{
+			return permissionFactory;
+		}
+		return new CachingPermissionFactory(permissionFactory);
+	}
+
+	@Override
+	public Permission buildFromMask(final int mask) {
+		if (mask >= 0 && mask < ARRAY_MASKS)
+		{
+			Permission permission = byMask.get(mask);
+			if (permission == null)
+			{
+				byMask.compareAndSet(mask, null, delegate.buildFromMask(mask));
+				permission = byMask.get(mask);
+			}
+			return permission;
+		}
+		Permission permission = byLargeMask.get(mask);
+		if (permission == null)
+		{
+			Permission built = delegate.buildFromMask(mask);
+			permission = byLargeMask.putIfAbsent(mask, built);
+			if (permission == null)
+			{
+				permission = built;
+			}
+		}
+		return permission;
+	}
+
+	@Override
+	public Permission buildFromName(final String name) {
+		return delegate.buildFromName(name);
+	}
+
+	@Override
+	public List<Permission> buildFromNames(final List<String> names) {
+		return delegate.buildFromNames(names);
+	}
+
+}
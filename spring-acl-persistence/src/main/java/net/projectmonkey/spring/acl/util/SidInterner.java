@@ -0,0 +1,125 @@
+package net.projectmonkey.spring.acl.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Pool of sids, so that every acl decoded with the same sid shares a single
+ * instance rather than holding its own copy of the sid and its authority.
+ *
+ * Sids are weakly referenced by the pool and are discarded once no acl refers
+ * to them.
+ *
+ * @author Andy Moody
+ */
+final class SidInterner {
+
+	private final ConcurrentMap<Key, SidReference> sids = new ConcurrentHashMap<Key, SidReference>();
+	private final ReferenceQueue<Sid> collected = new ReferenceQueue<Sid>();
+
+	/**
+	 * @param authority
+	 * @param principal
+	 * @return the pooled sid with the authority, created and pooled if there is none
+	 */
+	Sid intern(final String authority, final boolean principal) {
+		if (authority == null)
+		{
+			// left to the sid to reject
+			return create(authority, principal);
+		}
+		purge();
+		Key key = new Key(authority, principal);
+		while (true)
+		{
+			SidReference reference = sids.get(key);
+			Sid sid = reference == null ? null : reference.get();
+			if (sid != null)
+			{
+				return sid;
+			}
+			sid = create(authority, principal);
+			SidReference created = new SidReference(key, sid, collected);
+			if (reference == null ? sids.putIfAbsent(key, created) == null : sids.replace(key, reference, created))
+			{
+				return sid;
+			}
+		}
+	}
+
+	int size() {
+		purge();
+		return sids.size();
+	}
+
+	private void purge() {
+		SidReference reference;
+		while ((reference = (SidReference) collected.poll()) != null)
+		{
+			sids.remove(reference.key, reference);
+		}
+	}
+
+	private static Sid create(final String authority, final boolean principal) {
+		return principal ? new PrincipalSid(authority) : new GrantedAuthoritySid(authority);
+	}
+
+	private static final class SidReference extends WeakReference<Sid> {
+
+		private final Key key;
+
+		SidReference(final Key key, final Sid sid, final ReferenceQueue<Sid> queue) {
+			super(sid, queue);
+			this.key = key;
+		}
+	}
+
+	private static final class Key {
+
+		private final String authority;
+		private final boolean principal;
+
+		Key(final String authority, final boolean principal) {
+			this.authority = authority;
+			this.principal = principal;
+		}
+
+		@Override
+		public int hashCode() {
+			return principal ? authority.hashCode() : ~authority.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key))
+			{
+				return false;
+			}
+			Key other = (Key) obj;
+			return principal == other.principal && authority.equals(other.authority);
+		}
+	}
+
+}
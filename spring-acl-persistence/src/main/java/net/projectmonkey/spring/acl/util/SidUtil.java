@@ -21,6 +21,8 @@ import org.springframework.security.acls.model.Sid;
 */
 
 public class SidUtil {
+
+	private static final SidInterner interner = new SidInterner();
 	
 	public static String resolveAuthority(final Sid sid) {
 		String authority;
@@ -36,14 +38,13 @@ public class SidUtil {
 		return sid instanceof PrincipalSid;
 	}
 	
+	/**
+	 * @param authority
+	 * @param principal
+	 * @return a sid with the authority, shared with every other acl using the same sid
+	 */
 	public static Sid createSid(final String authority, final boolean principal){
-		Sid toReturn = null;
-		if(principal){
-			toReturn = new PrincipalSid(authority);
-		}else{
-			toReturn = new GrantedAuthoritySid(authority);
-		}
-		return toReturn; 
+		return interner.intern(authority, principal);
 	}
 
 }
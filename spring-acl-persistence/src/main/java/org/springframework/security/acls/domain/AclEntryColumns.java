@@ -0,0 +1,230 @@
+package org.springframework.security.acls.domain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Immutable columnar form of a list of access control entries. Each distinct
+ * sid and permission is held once and referred to by index, uuid ids are held
+ * as pairs of longs and the granting and auditing flags as bits, so the entries
+ * of an acl take a handful of arrays rather than several objects per entry.
+ *
+ * {@link AccessControlEntry} views are only created when requested.
+ *
+ * @author Andy Moody
+ */
+final class AclEntryColumns {
+
+	private static final int FLAGS_PER_ENTRY = 4;
+	private static final int GRANTING = 0;
+	private static final int AUDIT_SUCCESS = 1;
+	private static final int AUDIT_FAILURE = 2;
+	private static final int UUID_ID = 3;
+
+	private final Sid[] sids;
+	private final Permission[] permissions;
+	private final int[] sidIndexes;
+	private final int[] permissionIndexes;
+	private final long[] uuids;
+	// ids which are not uuids, including null ids, allocated only when there are any
+	private final Serializable[] otherIds;
+	private final BitSet flags;
+
+	private AclEntryColumns(final Sid[] sids, final Permission[] permissions, final int[] sidIndexes,
+			final int[] permissionIndexes, final long[] uuids, final Serializable[] otherIds, final BitSet flags) {
+		this.sids = sids;
+		this.permissions = permissions;
+		this.sidIndexes = sidIndexes;
+		this.permissionIndexes = permissionIndexes;
+		this.uuids = uuids;
+		this.otherIds = otherIds;
+		this.flags = flags;
+	}
+
+	static AclEntryColumns of(final List<AccessControlEntry> entries) {
+		Builder builder = new Builder(entries.size());
+		for (AccessControlEntry entry : entries)
+		{
+			boolean auditSuccess = false;
+			boolean auditFailure = false;
+			if (entry instanceof AuditableAccessControlEntry)
+			{
+				auditSuccess = ((AuditableAccessControlEntry) entry).isAuditSuccess();
+				auditFailure = ((AuditableAccessControlEntry) entry).isAuditFailure();
+			}
+			builder.add(entry.getId(), entry.getSid(), entry.getPermission(), entry.isGranting(), auditSuccess, auditFailure);
+		}
+		return builder.build();
+	}
+
+	int size() {
+		return sidIndexes.length;
+	}
+
+	Sid getSid(final int position) {
+		return sids[sidIndexes[position]];
+	}
+
+	int getMask(final int position) {
+		return permissions[permissionIndexes[position]].getMask();
+	}
+
+	boolean isGranting(final int position) {
+		return flags.get(position * FLAGS_PER_ENTRY + GRANTING);
+	}
+
+	/**
+	 * @return true if the entry at the position audits success or failure
+	 */
+	boolean isAudited(final int position) {
+		return flags.get(position * FLAGS_PER_ENTRY + AUDIT_SUCCESS) || flags.get(position * FLAGS_PER_ENTRY + AUDIT_FAILURE);
+	}
+
+	/**
+	 * @param position
+	 * @param acl the acl the created entry belongs to
+	 * @return a new entry holding the values at the position
+	 */
+	AccessControlEntryImpl entry(final int position, final Acl acl) {
+		Serializable id;
+		if (flags.get(position * FLAGS_PER_ENTRY + UUID_ID))
+		{
+			id = new UUID(uuids[position * 2], uuids[position * 2 + 1]);
+		}
+		else
+		{
+			id = otherIds[position];
+		}
+		return new AccessControlEntryImpl(id, acl, getSid(position), permissions[permissionIndexes[position]],
+				isGranting(position), flags.get(position * FLAGS_PER_ENTRY + AUDIT_SUCCESS), flags.get(position
+						* FLAGS_PER_ENTRY + AUDIT_FAILURE));
+	}
+
+	/**
+	 * @param acl the acl the created entries belong to
+	 * @return a new unmodifiable list of every entry
+	 */
+	List<AccessControlEntry> entries(final Acl acl) {
+		List<AccessControlEntry> toReturn = new ArrayList<AccessControlEntry>(size());
+		for (int i = 0; i < size(); i++)
+		{
+			toReturn.add(entry(i, acl));
+		}
+		return Collections.unmodifiableList(toReturn);
+	}
+
+	/**
+	 * Fills the columns an entry at a time, so that entries read from elsewhere
+	 * need not be created as {@link AccessControlEntry} objects first.
+	 */
+	static final class Builder {
+
+		private final Map<Sid, Integer> sidIndexesBySid = new HashMap<Sid, Integer>();
+		private final List<Sid> sids = new ArrayList<Sid>();
+		private final Map<Permission, Integer> permissionIndexesByPermission = new HashMap<Permission, Integer>();
+		private final List<Permission> permissions = new ArrayList<Permission>();
+		private final int[] sidIndexes;
+		private final int[] permissionIndexes;
+		private final long[] uuids;
+		private Serializable[] otherIds;
+		private final BitSet flags;
+		private int size;
+
+		/**
+		 * @param capacity the exact number of entries which will be added
+		 */
+		Builder(final int capacity) {
+			this.sidIndexes = new int[capacity];
+			this.permissionIndexes = new int[capacity];
+			this.uuids = new long[capacity * 2];
+			this.flags = new BitSet(capacity * FLAGS_PER_ENTRY);
+		}
+
+		void add(final Serializable id, final Sid sid, final Permission permission, final boolean granting,
+				final boolean auditSuccess, final boolean auditFailure) {
+			if (id instanceof UUID)
+			{
+				uuids[size * 2] = ((UUID) id).getMostSignificantBits();
+				uuids[size * 2 + 1] = ((UUID) id).getLeastSignificantBits();
+				flags.set(size * FLAGS_PER_ENTRY + UUID_ID);
+			}
+			else
+			{
+				if (otherIds == null)
+				{
+					otherIds = new Serializable[sidIndexes.length];
+				}
+				otherIds[size] = id;
+			}
+			add(sid, permission, granting, auditSuccess, auditFailure);
+		}
+
+		/**
+		 * Adds an entry identified by the uuid with the supplied bits without creating the uuid.
+		 */
+		void add(final long mostSignificantBits, final long leastSignificantBits, final Sid sid,
+				final Permission permission, final boolean granting, final boolean auditSuccess, final boolean auditFailure) {
+			uuids[size * 2] = mostSignificantBits;
+			uuids[size * 2 + 1] = leastSignificantBits;
+			flags.set(size * FLAGS_PER_ENTRY + UUID_ID);
+			add(sid, permission, granting, auditSuccess, auditFailure);
+		}
+
+		private void add(final Sid sid, final Permission permission, final boolean granting, final boolean auditSuccess,
+				final boolean auditFailure) {
+			sidIndexes[size] = indexOf(sid, sidIndexesBySid, sids);
+			permissionIndexes[size] = indexOf(permission, permissionIndexesByPermission, permissions);
+			flags.set(size * FLAGS_PER_ENTRY + GRANTING, granting);
+			flags.set(size * FLAGS_PER_ENTRY + AUDIT_SUCCESS, auditSuccess);
+			flags.set(size * FLAGS_PER_ENTRY + AUDIT_FAILURE, auditFailure);
+			size++;
+		}
+
+		AclEntryColumns build() {
+			Assert.isTrue(size == sidIndexes.length, "Expected " + sidIndexes.length + " entries but " + size + " were added");
+			return new AclEntryColumns(sids.toArray(new Sid[sids.size()]), permissions.toArray(new Permission[permissions
+					.size()]), sidIndexes, permissionIndexes, uuids, otherIds, flags);
+		}
+	}
+
+	private static <T> int indexOf(final T value, final Map<T, Integer> indexes, final List<T> values) {
+		Integer index = indexes.get(value);
+		if (index == null)
+		{
+			index = values.size();
+			indexes.put(value, index);
+			values.add(value);
+		}
+		return index;
+	}
+
+}
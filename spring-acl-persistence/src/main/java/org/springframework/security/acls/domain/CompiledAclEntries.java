@@ -0,0 +1,155 @@
+package org.springframework.security.acls.domain;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * The entries of an acl indexed by sid, holding for each sid the distinct
+ * permission masks of its entries in order along with the position of the
+ * first entry for each mask. As the first entry matching a sid and mask decides
+ * a permission, the deciding entry can be found without scanning every entry.
+ *
+ * Compiled tables are immutable and must be discarded when the entries change.
+ *
+ * @author Andy Moody
+ */
+final class CompiledAclEntries {
+
+	private final AclEntryColumns columns;
+	private final Map<Sid, SidEntries> entriesBySid;
+	// the distinct masks of the audited entries, typically none or very few
+	private final int[] auditedMasks;
+
+	private CompiledAclEntries(final AclEntryColumns columns, final Map<Sid, SidEntries> entriesBySid,
+			final int[] auditedMasks) {
+		this.columns = columns;
+		this.entriesBySid = entriesBySid;
+		this.auditedMasks = auditedMasks;
+	}
+
+	static CompiledAclEntries compile(final AclEntryColumns columns) {
+		Map<Sid, Map<Integer, Integer>> firstBySid = new LinkedHashMap<Sid, Map<Integer, Integer>>();
+		Set<Integer> audited = new LinkedHashSet<Integer>();
+		for (int i = 0; i < columns.size(); i++)
+		{
+			if (columns.isAudited(i))
+			{
+				audited.add(columns.getMask(i));
+			}
+			Sid sid = columns.getSid(i);
+			Map<Integer, Integer> firstByMask = firstBySid.get(sid);
+			if (firstByMask == null)
+			{
+				firstByMask = new LinkedHashMap<Integer, Integer>();
+				firstBySid.put(sid, firstByMask);
+			}
+			Integer mask = columns.getMask(i);
+			if (!firstByMask.containsKey(mask))
+			{
+				firstByMask.put(mask, i);
+			}
+		}
+		Map<Sid, SidEntries> entriesBySid = new HashMap<Sid, SidEntries>(firstBySid.size() * 2);
+		for (Map.Entry<Sid, Map<Integer, Integer>> forSid : firstBySid.entrySet())
+		{
+			entriesBySid.put(forSid.getKey(), new SidEntries(forSid.getValue()));
+		}
+		int[] auditedMasks = new int[audited.size()];
+		int i = 0;
+		for (Integer mask : audited)
+		{
+			auditedMasks[i++] = mask;
+		}
+		return new CompiledAclEntries(columns, entriesBySid, auditedMasks);
+	}
+
+	/**
+	 * @param sid
+	 * @param mask
+	 * @return the position of the first entry for the sid with exactly the supplied mask, or -1 if there is none
+	 */
+	int find(final Sid sid, final int mask) {
+		SidEntries forSid = entriesBySid.get(sid);
+		return forSid == null ? -1 : forSid.find(mask);
+	}
+
+	boolean isGranting(final int position) {
+		return columns.isGranting(position);
+	}
+
+	/**
+	 * @param mask
+	 * @return true if any entry with exactly the mask audits success or failure
+	 */
+	boolean isAudited(final int mask) {
+		for (int auditedMask : auditedMasks)
+		{
+			if (auditedMask == mask)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param position
+	 * @param acl
+	 * @return a new entry belonging to the acl holding the values of the entry at the position
+	 */
+	AccessControlEntry entry(final int position, final Acl acl) {
+		return columns.entry(position, acl);
+	}
+
+	private static final class SidEntries {
+
+		private final int[] masks;
+		private final int[] positions;
+
+		SidEntries(final Map<Integer, Integer> firstByMask) {
+			this.masks = new int[firstByMask.size()];
+			this.positions = new int[masks.length];
+			int i = 0;
+			for (Map.Entry<Integer, Integer> entry : firstByMask.entrySet())
+			{
+				masks[i] = entry.getKey();
+				positions[i++] = entry.getValue();
+			}
+		}
+
+		int find(final int mask) {
+			for (int i = 0; i < masks.length; i++)
+			{
+				if (masks[i] == mask)
+				{
+					return positions[i];
+				}
+			}
+			return -1;
+		}
+	}
+
+}
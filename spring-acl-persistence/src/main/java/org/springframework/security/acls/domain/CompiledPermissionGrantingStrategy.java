@@ -0,0 +1,108 @@
+package org.springframework.security.acls.domain;
+
+import java.util.List;
+
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * {@link PermissionGrantingStrategy} making the same decisions, and auditing
+ * the same entries, as the {@link DefaultPermissionGrantingStrategy} but which
+ * evaluates {@link SimpleAcl}s and {@link SimpleAclSnapshot}s using a table of
+ * their entries by sid and mask. The table is compiled by the acl the first
+ * time it is evaluated and recompiled after its entries change, so each
+ * decision takes a lookup per permission and sid rather than a scan of every
+ * entry.
+ *
+ * Any other acl is evaluated by a {@link DefaultPermissionGrantingStrategy}.
+ *
+ * @author Andy Moody
+ */
+public class CompiledPermissionGrantingStrategy implements PermissionGrantingStrategy {
+
+	private final transient AuditLogger auditLogger;
+	private final transient PermissionGrantingStrategy fallback;
+
+	public CompiledPermissionGrantingStrategy(final AuditLogger auditLogger) {
+		Assert.notNull(auditLogger, "auditLogger cannot be null");
+		this.auditLogger = auditLogger;
+		this.fallback = new DefaultPermissionGrantingStrategy(auditLogger);
+	}
+
+	@Override
+	public boolean isGranted(final Acl acl, final List<Permission> permission, final List<Sid> sids,
+			final boolean administrativeMode) throws NotFoundException {
+		CompiledAclEntries compiled;
+		if (acl instanceof SimpleAclSnapshot)
+		{
+			compiled = ((SimpleAclSnapshot) acl).getCompiledEntries();
+		}
+		else if (acl instanceof SimpleAcl)
+		{
+			compiled = ((SimpleAcl) acl).getCompiledEntries();
+		}
+		else
+		{
+			return fallback.isGranted(acl, permission, sids, administrativeMode);
+		}
+
+		int firstRejection = -1;
+		for (Permission p : permission)
+		{
+			int mask = p.getMask();
+			for (Sid sid : sids)
+			{
+				int position = compiled.find(sid, mask);
+				if (position >= 0)
+				{
+					if (compiled.isGranting(position))
+					{
+						if (!administrativeMode)
+						{
+							auditLogger.logIfNeeded(true, compiled.entry(position, acl));
+						}
+						return true;
+					}
+					// the first entry for a sid denying the permission ends the search for that permission
+					if (firstRejection < 0)
+					{
+						firstRejection = position;
+					}
+					break;
+				}
+			}
+		}
+
+		if (firstRejection >= 0)
+		{
+			if (!administrativeMode)
+			{
+				auditLogger.logIfNeeded(false, compiled.entry(firstRejection, acl));
+			}
+			return false;
+		}
+		// simple acls do not support inheritance so there is no parent to consult
+		throw new NotFoundException("Unable to locate a matching ACE for passed permissions and SIDs");
+	}
+
+}
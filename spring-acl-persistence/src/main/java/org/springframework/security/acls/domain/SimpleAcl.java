@@ -2,14 +2,21 @@ package org.springframework.security.acls.domain;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 
+import net.projectmonkey.spring.acl.entity.AuditAwareAcl;
 import net.projectmonkey.spring.acl.entity.SimpleMutableAcl;
 import net.projectmonkey.spring.acl.util.ACLUtil;
 
 import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
 import org.springframework.security.acls.model.NotFoundException;
 import org.springframework.security.acls.model.ObjectIdentity;
 import org.springframework.security.acls.model.Permission;
@@ -42,32 +49,88 @@ import org.springframework.util.Assert;
  * 
  * This class has to reside in the spring package so that it
  * can access methods on the {@link AccessControlEntryImpl} class.
+ *
+ * The entries are held in an array which is replaced, never modified, when
+ * they change so that readers never block or see a partially applied change.
+ * The list of entries supplied on construction is copied, so entries added to
+ * it afterwards are not part of the acl. As each entry refers to the acl it
+ * belongs to, an acl loaded with its entries is constructed using an
+ * {@link EntryBuilder} which is given the acl to create the entries with.
  * 
  * @author Andy Moody
  */
 @SuppressWarnings("serial")
-public class SimpleAcl implements SimpleMutableAcl{
+public class SimpleAcl implements SimpleMutableAcl, AuditAwareAcl {
 		
 	private Sid owner;
-	private final List<AccessControlEntry> entries;
+	private volatile AccessControlEntry[] entries; // replaced on every change
+	private final ReentrantLock entriesLock = new ReentrantLock();
 	private final ObjectIdentity identity;
 	private final List<Sid> loadedSids; // includes all requested SIDs, even if there was no ACE for a SID
+	private final Set<Sid> loadedSidSet; // the loaded SIDs hashed for containment checks
 	private final transient ACLUtil util;
+	private transient volatile Compiled compiled;
 
 	
+	/**
+	 * Creates the entries of an acl while it is constructed, so that each entry
+	 * can refer to the acl it belongs to.
+	 */
+	public interface EntryBuilder {
+
+		/**
+		 * @param acl the acl under construction, only to be used as the acl of the created entries
+		 * @return the entries of the acl, which are copied by the acl
+		 */
+		List<AccessControlEntry> build(SimpleAcl acl);
+	}
+
+	/**
+	 * @param identity
+	 * @param owner
+	 * @param entries the initial entries, copied on construction
+	 * @param loadedSids the sids the acl was loaded for, null if loaded for all sids
+	 * @param util
+	 */
 	public SimpleAcl(final ObjectIdentity identity, final Sid owner, final List<AccessControlEntry> entries, final List<Sid> loadedSids, final ACLUtil util) {
+		this(identity, owner, loadedSids, util);
+		this.entries = entries.toArray(new AccessControlEntry[entries.size()]);
+	}
+
+	/**
+	 * @param identity
+	 * @param owner
+	 * @param entryBuilder creates the initial entries, which are copied on construction
+	 * @param loadedSids the sids the acl was loaded for, null if loaded for all sids
+	 * @param util
+	 */
+	public SimpleAcl(final ObjectIdentity identity, final Sid owner, final EntryBuilder entryBuilder, final List<Sid> loadedSids, final ACLUtil util) {
+		this(identity, owner, loadedSids, util);
+		List<AccessControlEntry> built = entryBuilder.build(this);
+		this.entries = built.toArray(new AccessControlEntry[built.size()]);
+	}
+
+	private SimpleAcl(final ObjectIdentity identity, final Sid owner, final List<Sid> loadedSids, final ACLUtil util) {
 		this.owner = owner;
-		this.entries = entries;
 		this.identity = identity;
-		this.loadedSids = loadedSids;
+		// copied so that a caller changing its list cannot leave the list and the set disagreeing
+		this.loadedSids = loadedSids == null ? null : Collections.unmodifiableList(new ArrayList<Sid>(loadedSids));
+		this.loadedSidSet = loadedSids == null ? null : new HashSet<Sid>(this.loadedSids);
 		this.util = util;
 	}
 	
 	
+	/**
+	 * @return the number of entries, without copying them
+	 */
+	public int getEntryCount() {
+		return entries.length;
+	}
+
 	/* Methods inherited from Acl */
 	@Override
 	public List<AccessControlEntry> getEntries() {
-		return new ArrayList<AccessControlEntry>(entries);
+		return new ArrayList<AccessControlEntry>(Arrays.asList(entries));
 	}
 
 	@Override
@@ -106,7 +169,8 @@ public class SimpleAcl implements SimpleMutableAcl{
 
 	@Override
 	public boolean isSidLoaded(final List<Sid> sids) {
-		// If loadedSides is null, this indicates all SIDs were loaded
+		// If loadedSides is null, this indicates all SIDs were loaded, which is
+		// always the case for acls loaded by the repositories as they read every entry
         // Also return true if the caller didn't specify a SID to find
         if ((this.loadedSids == null) || (sids == null) || (sids.size() == 0)) {
             return true;
@@ -114,7 +178,7 @@ public class SimpleAcl implements SimpleMutableAcl{
 
         // This ACL applies to a SID subset only. Iterate to check it applies.
         for (Sid sid: sids) {
-            if (!loadedSids.contains(sid)) {
+            if (!loadedSidSet.contains(sid)) {
                 return false;
             }
         }
@@ -129,21 +193,37 @@ public class SimpleAcl implements SimpleMutableAcl{
     public void updateAce(final int aceIndex, final Permission permission)
         throws NotFoundException {
         util.securityCheck(this, AclAuthorizationStrategy.CHANGE_GENERAL);
-        verifyAceIndexExists(aceIndex);
 
-        synchronized (entries) {
-            AccessControlEntryImpl ace = (AccessControlEntryImpl) entries.get(aceIndex);
-            ace.setPermission(permission);
+        entriesLock.lock();
+        try {
+            AccessControlEntry[] current = entries;
+            verifyAceIndexExists(current, aceIndex);
+            AccessControlEntryImpl ace = (AccessControlEntryImpl) current[aceIndex];
+            // the entry is replaced rather than changed as readers may be using it
+            AccessControlEntryImpl updated = new AccessControlEntryImpl(ace.getId(), this, ace.getSid(), permission,
+                    ace.isGranting(), ace.isAuditSuccess(), ace.isAuditFailure());
+            AccessControlEntry[] changed = current.clone();
+            changed[aceIndex] = updated;
+            entries = changed;
+        } finally {
+            entriesLock.unlock();
         }
     }
     
 	@Override
 	public void deleteAce(final int aceIndex) throws NotFoundException {
 		util.securityCheck(this, AclAuthorizationStrategy.CHANGE_GENERAL);
-        verifyAceIndexExists(aceIndex);
 
-        synchronized (entries) {
-            this.entries.remove(aceIndex);
+        entriesLock.lock();
+        try {
+            AccessControlEntry[] current = entries;
+            verifyAceIndexExists(current, aceIndex);
+            AccessControlEntry[] changed = new AccessControlEntry[current.length - 1];
+            System.arraycopy(current, 0, changed, 0, aceIndex);
+            System.arraycopy(current, aceIndex + 1, changed, aceIndex, changed.length - aceIndex);
+            entries = changed;
+        } finally {
+            entriesLock.unlock();
         }
 	}
 
@@ -164,13 +244,21 @@ public class SimpleAcl implements SimpleMutableAcl{
 		if (atIndexLocation < 0) {
 			throw new NotFoundException("atIndexLocation must be greater than or equal to zero");
 		}
-		if (atIndexLocation > this.entries.size()) {
-			throw new NotFoundException("atIndexLocation must be less than or equal to the size of the AccessControlEntry collection");
-		}
 		AccessControlEntryImpl ace = new AccessControlEntryImpl(id, this, sid, permission, granting, false, false);
 		
-		synchronized (entries) {
-			this.entries.add(atIndexLocation, ace);
+		entriesLock.lock();
+		try {
+			AccessControlEntry[] current = entries;
+			if (atIndexLocation > current.length) {
+				throw new NotFoundException("atIndexLocation must be less than or equal to the size of the AccessControlEntry collection");
+			}
+			AccessControlEntry[] changed = new AccessControlEntry[current.length + 1];
+			System.arraycopy(current, 0, changed, 0, atIndexLocation);
+			changed[atIndexLocation] = ace;
+			System.arraycopy(current, atIndexLocation, changed, atIndexLocation + 1, current.length - atIndexLocation);
+			entries = changed;
+		} finally {
+			entriesLock.unlock();
 		}
 	}
 
@@ -193,7 +281,7 @@ public class SimpleAcl implements SimpleMutableAcl{
 
 	@Override
 	public void insertGrantedPermissions(final Sid sid, final Permission... permissions) {
-		insertPermissions(sid, entries.size(), true, permissions);
+		insertPermissions(sid, entries.length, true, permissions);
 	}
 
 	@Override
@@ -203,7 +291,7 @@ public class SimpleAcl implements SimpleMutableAcl{
 
 	@Override
 	public void insertDeniedPermissions(final Sid sid, final Permission... permissions) {
-		insertPermissions(sid, entries.size(), false, permissions);
+		insertPermissions(sid, entries.length, false, permissions);
 	}
 	
 	@Override
@@ -211,13 +299,57 @@ public class SimpleAcl implements SimpleMutableAcl{
 		insertPermissions(sid, atIndexLocation, false, permissions);
 	}
 	
+	/* Methods inherited from AuditAwareAcl */
+
+	@Override
+	public boolean isAudited(final int mask) {
+		for (AccessControlEntry ace : entries)
+		{
+			if (ace instanceof AuditableAccessControlEntry && ace.getPermission().getMask() == mask)
+			{
+				AuditableAccessControlEntry auditable = (AuditableAccessControlEntry) ace;
+				if (auditable.isAuditSuccess() || auditable.isAuditFailure())
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	/* Other methods */
 
+	/**
+	 * @return an immutable copy of this acl which can safely be cached and shared between threads
+	 */
+	public SimpleAclSnapshot snapshot() {
+		return new SimpleAclSnapshot(identity, owner, Arrays.asList(entries), loadedSids, util);
+	}
+
+	List<Sid> getLoadedSids() {
+		return loadedSids;
+	}
+
+	/**
+	 * @return the entries compiled for evaluation, compiled on first use and again after any change to the entries
+	 */
+	CompiledAclEntries getCompiledEntries() {
+		AccessControlEntry[] current = entries;
+		Compiled latest = compiled;
+		if (latest == null || latest.source != current)
+		{
+			// compiling the same entries more than once on a race is harmless
+			latest = new Compiled(current, CompiledAclEntries.compile(AclEntryColumns.of(Arrays.asList(current))));
+			compiled = latest;
+		}
+		return latest.entries;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((entries == null) ? 0 : entries.hashCode());
+		// entries are excluded as AccessControlEntryImpl does not override hashCode
 		result = prime * result + ((identity == null) ? 0 : identity.hashCode());
 		result = prime * result + ((loadedSids == null) ? 0 : loadedSids.hashCode());
 		result = prime * result + ((owner == null) ? 0 : owner.hashCode());
@@ -230,15 +362,12 @@ public class SimpleAcl implements SimpleMutableAcl{
 			return true;
 		if (obj == null)
 			return false;
+		if (obj instanceof SimpleAclSnapshot && getClass() == SimpleAcl.class)
+			return obj.equals(this);
 		if (getClass() != obj.getClass())
 			return false;
 		SimpleAcl other = (SimpleAcl) obj;
-		if (entries == null)
-		{
-			if (other.entries != null)
-				return false;
-		}
-		else if (!entries.equals(other.entries))
+		if (!Arrays.equals(entries, other.entries))
 			return false;
 		if (identity == null)
 		{
@@ -266,17 +395,17 @@ public class SimpleAcl implements SimpleMutableAcl{
 
 	@Override
 	public String toString() {
-		return "SimpleAcl [owner=" + owner + ", entries=" + entries + ", identity=" + identity + ", loadedSids="
+		return "SimpleAcl [owner=" + owner + ", entries=" + Arrays.asList(entries) + ", identity=" + identity + ", loadedSids="
 				+ loadedSids + "]";
 	}
 	
-	private void verifyAceIndexExists(final int aceIndex) {
+	private static void verifyAceIndexExists(final AccessControlEntry[] entries, final int aceIndex) {
 		if (aceIndex < 0) {
 			throw new NotFoundException("aceIndex must be greater than or equal to zero");
 		}
-		if (aceIndex >= this.entries.size()) {
+		if (aceIndex >= entries.length) {
 			throw new NotFoundException("aceIndex must refer to an index of the AccessControlEntry list. " +
-					"List size is " + entries.size() + ", index was " + aceIndex);
+					"List size is " + entries.length + ", index was " + aceIndex);
 		}
 	}
 	
@@ -292,4 +421,18 @@ public class SimpleAcl implements SimpleMutableAcl{
 		}
 	}
 
+	/**
+	 * The compiled form of an array of entries.
+	 */
+	private static final class Compiled {
+
+		private final AccessControlEntry[] source;
+		private final CompiledAclEntries entries;
+
+		Compiled(final AccessControlEntry[] source, final CompiledAclEntries entries) {
+			this.source = source;
+			this.entries = entries;
+		}
+	}
+
 }
@@ -0,0 +1,343 @@
+package org.springframework.security.acls.domain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.projectmonkey.spring.acl.entity.AuditAwareAcl;
+import net.projectmonkey.spring.acl.entity.SimpleMutableAcl;
+import net.projectmonkey.spring.acl.util.ACLUtil;
+
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.UnloadedSidException;
+import org.springframework.util.Assert;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * Immutable acl which can safely be cached and shared between threads.
+ *
+ * The entries are held in columns, see {@link AclEntryColumns}, rather than as
+ * entry objects, and {@link #getEntries()} materializes a new read only list of
+ * entries belonging to the snapshot on each call, allocating an entry and, for
+ * uuid ids, a {@link java.util.UUID} per entry. Use {@link #getEntryCount()} where
+ * only the number of entries is needed, and evaluate snapshots using a
+ * {@link CompiledPermissionGrantingStrategy} rather than the
+ * {@link DefaultPermissionGrantingStrategy}, which calls {@link #getEntries()} on
+ * every evaluation. The compiled strategy builds a per sid table for each acl it
+ * evaluates which is then held by the snapshot, so acls which are evaluated take
+ * more heap than their columns alone. Every mutating method throws an
+ * {@link UnsupportedOperationException}, to edit the acl obtain a
+ * {@link SimpleAcl} using {@link #mutableCopy()} and save it through the repository.
+ *
+ * A snapshot is equal to a {@link SimpleAcl} with the same identity, owner,
+ * entries and loaded sids.
+ *
+ * @author Andy Moody
+ */
+@SuppressWarnings("serial")
+public final class SimpleAclSnapshot implements SimpleMutableAcl, AuditAwareAcl {
+
+	private final Sid owner;
+	private final AclEntryColumns entries;
+	private final ObjectIdentity identity;
+	private final List<Sid> loadedSids;
+	private final Set<Sid> loadedSidSet;
+	private final transient ACLUtil util;
+	private transient volatile CompiledAclEntries compiledEntries;
+
+	public SimpleAclSnapshot(final ObjectIdentity identity, final Sid owner, final List<AccessControlEntry> entries,
+			final List<Sid> loadedSids, final ACLUtil util) {
+		this(identity, owner, AclEntryColumns.of(entries), loadedSids, util);
+	}
+
+	private SimpleAclSnapshot(final ObjectIdentity identity, final Sid owner, final AclEntryColumns entries,
+			final List<Sid> loadedSids, final ACLUtil util) {
+		this.owner = owner;
+		this.identity = identity;
+		this.loadedSids = loadedSids == null ? null : Collections.unmodifiableList(new ArrayList<Sid>(loadedSids));
+		this.loadedSidSet = loadedSids == null ? null : new HashSet<Sid>(loadedSids);
+		this.util = util;
+		this.entries = entries;
+	}
+
+	/**
+	 * Builds a snapshot from entries added one at a time, without creating an
+	 * {@link AccessControlEntry} or an acl for them along the way.
+	 */
+	public static final class Builder {
+
+		private final ObjectIdentity identity;
+		private final Sid owner;
+		private final AclEntryColumns.Builder entries;
+
+		/**
+		 * @param identity
+		 * @param owner
+		 * @param entryCount the exact number of entries which will be added
+		 */
+		public Builder(final ObjectIdentity identity, final Sid owner, final int entryCount) {
+			this.identity = identity;
+			this.owner = owner;
+			this.entries = new AclEntryColumns.Builder(entryCount);
+		}
+
+		/**
+		 * Adds an entry, identified by the uuid with the supplied bits, which does not audit.
+		 */
+		public Builder addEntry(final long idMostSignificantBits, final long idLeastSignificantBits, final Sid sid,
+				final Permission permission, final boolean granting) {
+			entries.add(idMostSignificantBits, idLeastSignificantBits, sid, permission, granting, false, false);
+			return this;
+		}
+
+		/**
+		 * @param loadedSids the sids to record as loaded against the acl, may be null
+		 * @param util
+		 * @return the snapshot holding every added entry
+		 */
+		public SimpleAclSnapshot build(final List<Sid> loadedSids, final ACLUtil util) {
+			return new SimpleAclSnapshot(identity, owner, entries.build(), loadedSids, util);
+		}
+	}
+
+	/**
+	 * @return a new mutable acl holding copies of this acl's entries
+	 */
+	public SimpleAcl mutableCopy() {
+		SimpleAcl.EntryBuilder entryBuilder = new SimpleAcl.EntryBuilder() {
+			@Override
+			public List<AccessControlEntry> build(final SimpleAcl acl) {
+				List<AccessControlEntry> copies = new ArrayList<AccessControlEntry>(entries.size());
+				for (int i = 0; i < entries.size(); i++)
+				{
+					copies.add(entries.entry(i, acl));
+				}
+				return copies;
+			}
+		};
+		return new SimpleAcl(identity, owner, entryBuilder, loadedSids, util);
+	}
+
+	/**
+	 * @return the number of entries, without materializing them
+	 */
+	public int getEntryCount() {
+		return entries.size();
+	}
+
+	/* Methods inherited from Acl */
+
+	/**
+	 * Creates a new list of entries on every call, see {@link #getEntryCount()}.
+	 */
+	@Override
+	public List<AccessControlEntry> getEntries() {
+		return entries.entries(this);
+	}
+
+	@Override
+	public ObjectIdentity getObjectIdentity() {
+		return identity;
+	}
+
+	@Override
+	public Sid getOwner() {
+		return owner;
+	}
+
+	@Override
+	public Acl getParentAcl() {
+		return null;
+	}
+
+	@Override
+	public boolean isEntriesInheriting() {
+		return false;
+	}
+
+	@Override
+	public boolean isGranted(final List<Permission> permission, final List<Sid> sids, final boolean administrativeMode)
+			throws NotFoundException, UnloadedSidException {
+		Assert.notEmpty(permission, "Permissions required");
+		Assert.notEmpty(sids, "SIDs required");
+
+		if (!isSidLoaded(sids))
+		{
+			throw new UnloadedSidException("ACL was not loaded for one or more SID");
+		}
+
+		return util.isGranted(this, permission, sids, administrativeMode);
+	}
+
+	@Override
+	public boolean isSidLoaded(final List<Sid> sids) {
+		// If loadedSids is null, this indicates all SIDs were loaded, which is
+		// always the case for acls loaded by the repositories as they read every entry
+		if (loadedSids == null || sids == null || sids.isEmpty())
+		{
+			return true;
+		}
+		return loadedSidSet.containsAll(sids);
+	}
+
+	@Override
+	public Serializable getId() {
+		return identity.getIdentifier();
+	}
+
+	/* Methods inherited from MutableAcl, none of which are supported */
+
+	@Override
+	public void deleteAce(final int aceIndex) throws NotFoundException {
+		throw immutable();
+	}
+
+	@Override
+	public void insertAce(final int atIndexLocation, final Permission permission, final Sid sid, final boolean granting)
+			throws NotFoundException {
+		throw immutable();
+	}
+
+	@Override
+	public void setOwner(final Sid newOwner) {
+		throw immutable();
+	}
+
+	@Override
+	public void setEntriesInheriting(final boolean entriesInheriting) {
+		throw immutable();
+	}
+
+	@Override
+	public void setParent(final Acl newParent) {
+		throw immutable();
+	}
+
+	@Override
+	public void updateAce(final int aceIndex, final Permission permission) throws NotFoundException {
+		throw immutable();
+	}
+
+	/* Methods inherited from SimpleMutableAcl, none of which are supported */
+
+	@Override
+	public void insertGrantedPermissions(final Sid sid, final Permission... permissions) {
+		throw immutable();
+	}
+
+	@Override
+	public void insertDeniedPermissions(final Sid sid, final Permission... permissions) {
+		throw immutable();
+	}
+
+	@Override
+	public void insertGrantedPermissions(final Sid sid, final int firstPermissionPosition, final Permission... permissions) {
+		throw immutable();
+	}
+
+	@Override
+	public void insertDeniedPermissions(final Sid sid, final int firstPermissionPosition, final Permission... permissions) {
+		throw immutable();
+	}
+
+	/* Methods inherited from AuditAwareAcl */
+
+	/**
+	 * Answered from the compiled entries, without creating any entries.
+	 */
+	@Override
+	public boolean isAudited(final int mask) {
+		return getCompiledEntries().isAudited(mask);
+	}
+
+	/* Other methods */
+
+	List<Sid> getLoadedSids() {
+		return loadedSids;
+	}
+
+	/**
+	 * @return the entries compiled for evaluation, compiled on first use
+	 */
+	CompiledAclEntries getCompiledEntries() {
+		CompiledAclEntries compiled = compiledEntries;
+		if (compiled == null)
+		{
+			// the entries never change so compiling more than once on a race is harmless
+			compiled = CompiledAclEntries.compile(entries);
+			compiledEntries = compiled;
+		}
+		return compiled;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		// entries are excluded as AccessControlEntryImpl does not override hashCode
+		result = prime * result + ((identity == null) ? 0 : identity.hashCode());
+		result = prime * result + ((loadedSids == null) ? 0 : loadedSids.hashCode());
+		result = prime * result + ((owner == null) ? 0 : owner.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj)
+			return true;
+		List<Sid> otherLoadedSids;
+		if (obj instanceof SimpleAclSnapshot)
+		{
+			otherLoadedSids = ((SimpleAclSnapshot) obj).getLoadedSids();
+		}
+		else if (obj != null && obj.getClass() == SimpleAcl.class)
+		{
+			otherLoadedSids = ((SimpleAcl) obj).getLoadedSids();
+		}
+		else
+		{
+			return false;
+		}
+		Acl other = (Acl) obj;
+		return getEntries().equals(other.getEntries()) && equal(identity, other.getObjectIdentity())
+				&& equal(loadedSids, otherLoadedSids) && equal(owner, other.getOwner());
+	}
+
+	@Override
+	public String toString() {
+		return "SimpleAclSnapshot [owner=" + owner + ", entries=" + getEntries() + ", identity=" + identity + ", loadedSids="
+				+ loadedSids + "]";
+	}
+
+	private static boolean equal(final Object first, final Object second) {
+		return first == null ? second == null : first.equals(second);
+	}
+
+	private static UnsupportedOperationException immutable() {
+		return new UnsupportedOperationException("Acl snapshots are immutable, use mutableCopy() to obtain an editable acl");
+	}
+
+}
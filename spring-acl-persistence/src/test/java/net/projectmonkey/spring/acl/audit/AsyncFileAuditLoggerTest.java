@@ -0,0 +1,189 @@
+package net.projectmonkey.spring.acl.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class AsyncFileAuditLoggerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Acl acl = Mockito.mock(Acl.class);
+
+	@Test
+	public void auditedEventsAreWrittenToTheFile() throws IOException {
+		File file = new File(folder.getRoot(), "audit.log");
+		AsyncFileAuditLogger underTest = new AsyncFileAuditLogger(file);
+
+		underTest.logIfNeeded(true, ace(true, false));
+		underTest.logIfNeeded(false, ace(true, false));
+		underTest.logIfNeeded(false, ace(false, true));
+		underTest.close();
+
+		List<String> lines = read(file);
+		assertEquals(2, lines.size());
+		assertTrue(lines.get(0).contains(" GRANTED due to ACE: "));
+		assertTrue(lines.get(1).contains(" DENIED due to ACE: "));
+		assertEquals(2, underTest.getWrittenCount());
+	}
+
+	@Test
+	public void everyEventIsEitherWrittenOrCountedAsDropped() throws IOException {
+		AsyncFileAuditLogger underTest = new AsyncFileAuditLogger(new File(folder.getRoot(), "audit.log"), 4,
+				1024 * 1024, 0);
+		AccessControlEntry ace = ace(true, true);
+
+		for (int i = 0; i < 10000; i++)
+		{
+			underTest.logIfNeeded(true, ace);
+		}
+		underTest.close();
+
+		assertEquals(10000, underTest.getWrittenCount() + underTest.getDroppedCount());
+	}
+
+	@Test
+	public void theFileIsRolledOnceItExceedsTheMaximumSize() throws IOException {
+		File file = new File(folder.getRoot(), "audit.log");
+		AsyncFileAuditLogger underTest = new AsyncFileAuditLogger(file, 1024, 500, 2);
+		AccessControlEntry ace = ace(true, true);
+
+		for (int i = 0; i < 20; i++)
+		{
+			underTest.logIfNeeded(true, ace);
+			underTest.close();
+			underTest = new AsyncFileAuditLogger(file, 1024, 500, 2);
+		}
+		underTest.close();
+
+		assertTrue(new File(folder.getRoot(), "audit.log.1").exists());
+		assertTrue(new File(folder.getRoot(), "audit.log.2").exists());
+		assertEquals(3, folder.getRoot().list().length);
+		assertTrue(file.length() <= 500);
+	}
+
+	@Test
+	public void eventsAreStillWrittenAfterTheFileFailsToRoll() throws Exception {
+		File file = new File(folder.getRoot(), "audit.log");
+		write(file, 200);
+		// a directory which is not empty cannot be deleted to make way for the backup
+		File backup = folder.newFolder("audit.log.1");
+		File blocking = new File(backup, "blocking");
+		write(blocking, 1);
+		AsyncFileAuditLogger underTest = new AsyncFileAuditLogger(file, 1024, 100, 1);
+
+		underTest.logIfNeeded(true, ace(true, true));
+		awaitDropped(underTest, 1);
+		assertTrue(blocking.delete());
+		assertTrue(backup.delete());
+		underTest.logIfNeeded(true, ace(true, true));
+		underTest.close();
+
+		assertEquals(1, underTest.getWrittenCount());
+		assertEquals(1, underTest.getDroppedCount());
+		assertEquals(1, read(file).size());
+	}
+
+	@Test
+	public void anEventWhichCannotBeFormattedIsDroppedWithoutStoppingTheWriter() throws IOException {
+		File file = new File(folder.getRoot(), "audit.log");
+		AsyncFileAuditLogger underTest = new AsyncFileAuditLogger(file);
+		AccessControlEntry unformattable = new AccessControlEntryImpl(1L, acl, new PrincipalSid("user"),
+				BasePermission.READ, true, true, true) {
+			@Override
+			public String toString() {
+				throw new IllegalStateException("unformattable");
+			}
+		};
+
+		underTest.logIfNeeded(true, unformattable);
+		underTest.logIfNeeded(true, ace(true, true));
+		underTest.close();
+
+		assertEquals(1, underTest.getWrittenCount());
+		assertEquals(1, underTest.getDroppedCount());
+		List<String> lines = read(file);
+		assertEquals(1, lines.size());
+		assertTrue(lines.get(0).contains(" GRANTED due to ACE: "));
+	}
+
+	private AccessControlEntry ace(final boolean auditSuccess, final boolean auditFailure) {
+		return new AccessControlEntryImpl(1L, acl, new PrincipalSid("user"), BasePermission.READ, true, auditSuccess,
+				auditFailure);
+	}
+
+	private static void awaitDropped(final AsyncFileAuditLogger logger, final long count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+		while (logger.getDroppedCount() < count && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(5);
+		}
+		assertEquals(count, logger.getDroppedCount());
+	}
+
+	private static void write(final File file, final int length) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(new byte[length]);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static List<String> read(final File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				lines.add(line);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return lines;
+	}
+
+}
@@ -0,0 +1,123 @@
+package net.projectmonkey.spring.acl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class AclLoadCoalescerTest {
+
+	private final ObjectIdentity identity1 = new ObjectIdentityImpl("type", 1L);
+	private final ObjectIdentity identity2 = new ObjectIdentityImpl("type", 2L);
+	private final Acl acl1 = mock(Acl.class);
+
+	private final AclLoadCoalescer underTest = new AclLoadCoalescer(TimeUnit.SECONDS.toMillis(10));
+
+	@Test
+	public void onlyIdentitiesNotAlreadyBeingLoadedAreOwned() {
+		AclLoadCoalescer.Claim first = underTest.claim(Arrays.asList(identity1));
+		AclLoadCoalescer.Claim second = underTest.claim(Arrays.asList(identity1, identity2, identity2));
+
+		assertEquals(Arrays.asList(identity1), first.getOwned());
+		assertEquals(Arrays.asList(identity2), second.getOwned());
+	}
+
+	@Test
+	public void completedLoadsArePublishedToWaitingCallers() throws Exception {
+		final AclLoadCoalescer.Claim first = underTest.claim(Arrays.asList(identity1, identity2));
+		final AclLoadCoalescer.Claim second = underTest.claim(Arrays.asList(identity1, identity2));
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			Future<Map<ObjectIdentity, Acl>> waiting = executor.submit(new Callable<Map<ObjectIdentity, Acl>>() {
+				@Override
+				public Map<ObjectIdentity, Acl> call() {
+					Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+					assertTrue(second.awaitOthers(acls).isEmpty());
+					return acls;
+				}
+			});
+
+			first.complete(Collections.singletonMap(identity1, acl1));
+
+			Map<ObjectIdentity, Acl> acls = waiting.get(10, TimeUnit.SECONDS);
+			assertEquals(1, acls.size());
+			assertSame(acl1, acls.get(identity1));
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		assertEquals(0, underTest.inFlightCount());
+	}
+
+	@Test
+	public void abandonedLoadsMustBeRetrievedByWaitingCallers() {
+		AclLoadCoalescer.Claim first = underTest.claim(Arrays.asList(identity1));
+		AclLoadCoalescer.Claim second = underTest.claim(Arrays.asList(identity1));
+
+		first.abandon();
+
+		List<ObjectIdentity> unresolved = second.awaitOthers(new HashMap<ObjectIdentity, Acl>());
+		assertEquals(Arrays.asList(identity1), unresolved);
+		assertEquals(Arrays.asList(identity1), underTest.claim(Arrays.asList(identity1)).getOwned());
+	}
+
+	@Test
+	public void abandoningACompletedClaimHasNoEffect() {
+		AclLoadCoalescer.Claim first = underTest.claim(Arrays.asList(identity1));
+		AclLoadCoalescer.Claim second = underTest.claim(Arrays.asList(identity1));
+
+		first.complete(Collections.singletonMap(identity1, acl1));
+		first.abandon();
+
+		Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+		assertTrue(second.awaitOthers(acls).isEmpty());
+		assertSame(acl1, acls.get(identity1));
+	}
+
+	@Test
+	public void loadsWhichDoNotCompleteInTimeMustBeRetrievedByWaitingCallers() {
+		AclLoadCoalescer coalescer = new AclLoadCoalescer(0);
+		coalescer.claim(Arrays.asList(identity1));
+		AclLoadCoalescer.Claim second = coalescer.claim(Arrays.asList(identity1));
+
+		List<ObjectIdentity> unresolved = second.awaitOthers(new HashMap<ObjectIdentity, Acl>());
+
+		assertEquals(Arrays.asList(identity1), unresolved);
+	}
+
+}
@@ -0,0 +1,416 @@
+package net.projectmonkey.spring.acl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.isNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.projectmonkey.spring.acl.repository.ACLUpdateRepository;
+import net.projectmonkey.spring.acl.util.ACLUtil;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class BoundedAclCacheTest {
+
+	private long time;
+
+	@Test
+	public void cachedAclsAreReturnedByIdentityOrIdentifier() {
+		BoundedAclCache underTest = new BoundedAclCache(10000);
+		MutableAcl acl = createAcl(1L, 0);
+		underTest.putInCache(acl);
+
+		assertSame(acl, underTest.getFromCache(acl.getObjectIdentity()));
+		assertSame(acl, underTest.getFromCache(1L));
+
+		underTest.evictFromCache(acl.getObjectIdentity());
+		assertNull(underTest.getFromCache(1L));
+	}
+
+	@Test
+	public void veryLargeMaximumWeightsAreSupported() {
+		BoundedAclCache underTest = new BoundedAclCache(Long.MAX_VALUE, 1);
+		MutableAcl acl = createAcl(1L, 0);
+		underTest.putInCache(acl);
+
+		assertSame(acl, underTest.getFromCache(1L));
+	}
+
+	@Test
+	public void theSketchesOfAllSegmentsAreCappedTogether() {
+		BoundedAclCache underTest = new BoundedAclCache(Long.MAX_VALUE);
+		MutableAcl acl = createAcl(1L, 0);
+		underTest.putInCache(acl);
+
+		assertSame(acl, underTest.getFromCache(1L));
+		assertEquals(FrequencySketch.MAXIMUM_WIDTH, underTest.getSketchWidth());
+	}
+
+	@Test
+	public void leastRecentlyUsedAclsAreEvictedOnceTheWeightIsExceeded() {
+		BoundedAclCache underTest = new BoundedAclCache(3 * 256, 1);
+		underTest.putInCache(createAcl(1L, 0));
+		underTest.putInCache(createAcl(2L, 0));
+		underTest.putInCache(createAcl(3L, 0));
+		underTest.getFromCache(1L);
+
+		underTest.getFromCache(4L);
+		underTest.putInCache(createAcl(4L, 0));
+
+		assertNull(underTest.getFromCache(2L));
+		assertEquals(3, underTest.getStatistics().getSize());
+		assertEquals(1, underTest.getStatistics().getEvictionCount());
+	}
+
+	@Test
+	public void aclsAreWeighedByTheirEntries() {
+		BoundedAclCache underTest = new BoundedAclCache(4 * 256, 1);
+		underTest.putInCache(createAcl(1L, 0));
+		underTest.putInCache(createAcl(2L, 0));
+		underTest.getFromCache(3L);
+
+		underTest.putInCache(createAcl(3L, 4)); // 256 + 4 * 128
+
+		assertNull(underTest.getFromCache(1L));
+		assertEquals(2, underTest.getStatistics().getSize());
+		assertEquals(4 * 256, underTest.getStatistics().getWeight());
+	}
+
+	@Test
+	public void infrequentlyRequestedAclsAreNotAdmittedInPlaceOfFrequentlyRequestedOnes() {
+		BoundedAclCache underTest = new BoundedAclCache(2 * 256, 1);
+		underTest.putInCache(createAcl(1L, 0));
+		underTest.putInCache(createAcl(2L, 0));
+		for (int i = 0; i < 5; i++)
+		{
+			underTest.getFromCache(1L);
+			underTest.getFromCache(2L);
+		}
+
+		underTest.getFromCache(3L);
+		underTest.putInCache(createAcl(3L, 0));
+
+		assertNull(underTest.getFromCache(3L));
+		assertEquals(1, underTest.getStatistics().getRejectionCount());
+		assertEquals(2, underTest.getStatistics().getSize());
+	}
+
+	@Test
+	public void replacingACachedAclIsAlwaysAdmitted() {
+		BoundedAclCache underTest = new BoundedAclCache(2 * 256, 1);
+		underTest.putInCache(createAcl(1L, 0));
+		underTest.putInCache(createAcl(2L, 0));
+		MutableAcl replacement = createAcl(1L, 0);
+
+		underTest.putInCache(replacement);
+
+		assertSame(replacement, underTest.getFromCache(1L));
+		assertEquals(2 * 256, underTest.getStatistics().getWeight());
+	}
+
+	@Test
+	public void aclsExpireOnceTheirTimeToLiveHasPassed() {
+		BoundedAclCache underTest = new BoundedAclCache(10000) {
+			@Override
+			protected long currentTime() {
+				return time;
+			}
+		};
+		underTest.setTimeToLiveSeconds(10);
+		underTest.putInCache(createAcl(1L, 0));
+
+		time += TimeUnit.SECONDS.toNanos(9);
+		assertTrue(underTest.getFromCache(1L) != null);
+
+		time += TimeUnit.SECONDS.toNanos(1);
+		assertNull(underTest.getFromCache(1L));
+		assertEquals(1, underTest.getStatistics().getExpirationCount());
+		assertEquals(0, underTest.getStatistics().getWeight());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void frequentlyRequestedAclsAreRefreshedBeforeTheyExpire() throws Exception {
+		final BoundedAclCache underTest = new BoundedAclCache(10000) {
+			@Override
+			protected long currentTime() {
+				return time;
+			}
+		};
+		final MutableAcl replacement = createAcl(1L, 1);
+		final List<List<ObjectIdentity>> refreshed = new CopyOnWriteArrayList<List<ObjectIdentity>>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		ACLUpdateRepository repository = Mockito.mock(ACLUpdateRepository.class);
+		Mockito.when(repository.getAclsById(anyListOf(ObjectIdentity.class), (List<Sid>) isNull())).thenAnswer(
+				new Answer<Object>() {
+					@Override
+					public Object answer(final InvocationOnMock invocation) {
+						List<ObjectIdentity> identities = (List<ObjectIdentity>) invocation.getArguments()[0];
+						refreshed.add(identities);
+						// the repository must miss the cache while refreshing
+						assertNull(underTest.getFromCache(1L));
+						underTest.putInCache(replacement);
+						latch.countDown();
+						return Collections.<ObjectIdentity, Acl> singletonMap(replacement.getObjectIdentity(), replacement);
+					}
+				});
+		underTest.setTimeToLiveSeconds(10);
+		underTest.setRefreshAheadSeconds(2);
+		underTest.setRefreshRepository(repository);
+		MutableAcl acl = createAcl(1L, 0);
+		underTest.putInCache(acl);
+		underTest.putInCache(createAcl(2L, 0));
+		for (int i = 0; i < 3; i++)
+		{
+			underTest.getFromCache(1L);
+		}
+
+		time += TimeUnit.SECONDS.toNanos(7);
+		assertTrue(underTest.getFromCache(2L) != null);
+		assertSame(acl, underTest.getFromCache(1L));
+		assertEquals(1, latch.getCount());
+
+		time += TimeUnit.SECONDS.toNanos(1);
+		assertTrue(underTest.getFromCache(2L) != null);
+		assertSame(acl, underTest.getFromCache(1L));
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		underTest.close();
+
+		assertSame(replacement, underTest.getFromCache(1L));
+		time += TimeUnit.SECONDS.toNanos(2);
+		assertSame(replacement, underTest.getFromCache(1L));
+		assertNull(underTest.getFromCache(2L));
+		assertEquals(Arrays.asList(Arrays.asList(acl.getObjectIdentity())), refreshed);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void aclsAreQueuedForRefreshAgainAfterARefreshFails() throws Exception {
+		BoundedAclCache underTest = new BoundedAclCache(10000) {
+			@Override
+			protected long currentTime() {
+				return time;
+			}
+		};
+		final CountDownLatch attempts = new CountDownLatch(2);
+		ACLUpdateRepository repository = Mockito.mock(ACLUpdateRepository.class);
+		Mockito.when(repository.getAclsById(anyListOf(ObjectIdentity.class), (List<Sid>) isNull())).thenAnswer(
+				new Answer<Object>() {
+					@Override
+					public Object answer(final InvocationOnMock invocation) {
+						attempts.countDown();
+						throw new IllegalStateException("storage unavailable");
+					}
+				});
+		underTest.setTimeToLiveSeconds(10);
+		underTest.setRefreshAheadSeconds(2);
+		underTest.setRefreshRepository(repository);
+		underTest.putInCache(createAcl(1L, 0));
+		for (int i = 0; i < 3; i++)
+		{
+			underTest.getFromCache(1L);
+		}
+		time += TimeUnit.SECONDS.toNanos(8);
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (attempts.getCount() > 0 && System.currentTimeMillis() < deadline)
+		{
+			underTest.getFromCache(1L);
+			Thread.sleep(10);
+		}
+		underTest.close();
+
+		assertEquals(0, attempts.getCount());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void closingLetsARefreshInProgressComplete() throws Exception {
+		BoundedAclCache underTest = new BoundedAclCache(10000) {
+			@Override
+			protected long currentTime() {
+				return time;
+			}
+		};
+		final CountDownLatch started = new CountDownLatch(1);
+		final List<Boolean> interrupted = new CopyOnWriteArrayList<Boolean>();
+		ACLUpdateRepository repository = Mockito.mock(ACLUpdateRepository.class);
+		Mockito.when(repository.getAclsById(anyListOf(ObjectIdentity.class), (List<Sid>) isNull())).thenAnswer(
+				new Answer<Object>() {
+					@Override
+					public Object answer(final InvocationOnMock invocation) {
+						started.countDown();
+						try
+						{
+							Thread.sleep(200);
+							interrupted.add(Boolean.FALSE);
+						}
+						catch (InterruptedException e)
+						{
+							interrupted.add(Boolean.TRUE);
+						}
+						return Collections.emptyMap();
+					}
+				});
+		underTest.setTimeToLiveSeconds(10);
+		underTest.setRefreshAheadSeconds(2);
+		underTest.setRefreshRepository(repository);
+		underTest.putInCache(createAcl(1L, 0));
+		for (int i = 0; i < 3; i++)
+		{
+			underTest.getFromCache(1L);
+		}
+		time += TimeUnit.SECONDS.toNanos(8);
+		underTest.getFromCache(1L);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		underTest.close();
+
+		assertEquals(Arrays.asList(Boolean.FALSE), interrupted);
+	}
+
+	@Test
+	public void refreshingAfterTheRefresherIsClosedIsIgnored() {
+		BoundedAclCache cache = new BoundedAclCache(10000);
+		ACLUpdateRepository repository = Mockito.mock(ACLUpdateRepository.class);
+		AclRefresher refresher = new AclRefresher(repository, cache);
+		refresher.close();
+
+		refresher.refresh(new ObjectIdentityImpl(Object.class, 1L));
+
+		Mockito.verifyZeroInteractions(repository);
+	}
+
+	@Test
+	public void aclsCanBeCachedAndRetrievedInBatches() {
+		BoundedAclCache underTest = new BoundedAclCache(10000);
+		MutableAcl acl1 = createAcl(1L, 0);
+		MutableAcl acl2 = createAcl(2L, 1);
+		underTest.putAllInCache(Arrays.asList(acl1, acl2));
+
+		Map<ObjectIdentity, MutableAcl> cached = underTest.getAllFromCache(Arrays.asList(acl1.getObjectIdentity(),
+				acl2.getObjectIdentity(), createAcl(3L, 0).getObjectIdentity()));
+
+		assertEquals(2, cached.size());
+		assertSame(acl1, cached.get(acl1.getObjectIdentity()));
+		assertSame(acl2, cached.get(acl2.getObjectIdentity()));
+		assertEquals(2, underTest.getStatistics().getHitCount());
+		assertEquals(1, underTest.getStatistics().getMissCount());
+	}
+
+	@Test
+	public void statisticsRecordHitsAndMisses() {
+		BoundedAclCache underTest = new BoundedAclCache(10000);
+		underTest.putInCache(createAcl(1L, 0));
+
+		underTest.getFromCache(1L);
+		underTest.getFromCache(1L);
+		underTest.getFromCache(1L);
+		underTest.getFromCache(2L);
+
+		AclCacheStatistics statistics = underTest.getStatistics();
+		assertEquals(3, statistics.getHitCount());
+		assertEquals(1, statistics.getMissCount());
+		assertEquals(0.75, statistics.getHitRate(), 0.001);
+	}
+
+	@Test
+	public void clearCacheRemovesEverything() {
+		BoundedAclCache underTest = new BoundedAclCache(10000);
+		underTest.putInCache(createAcl(1L, 0));
+		underTest.putInCache(createAcl(2L, 0));
+
+		underTest.clearCache();
+
+		assertEquals(0, underTest.getStatistics().getSize());
+		assertEquals(0, underTest.getStatistics().getWeight());
+	}
+
+	@Test
+	public void concurrentAccessRemainsWithinTheMaximumWeight() throws Exception {
+		final BoundedAclCache underTest = new BoundedAclCache(100 * 256, 4);
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int t = 0; t < 16; t++)
+		{
+			final long offset = t;
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (long i = 0; i < 2000; i++)
+					{
+						long id = (i * 7 + offset) % 500;
+						if (underTest.getFromCache(id) == null)
+						{
+							underTest.putInCache(createAcl(id, 0));
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> future : futures)
+		{
+			future.get();
+		}
+		executor.shutdown();
+
+		AclCacheStatistics statistics = underTest.getStatistics();
+		assertTrue(statistics.getWeight() <= 100 * 256);
+		assertEquals(16 * 2000, statistics.getHitCount() + statistics.getMissCount());
+	}
+
+	private MutableAcl createAcl(final long id, final int aceCount) {
+		SimpleAcl acl = new SimpleAcl(new ObjectIdentityImpl(BoundedAclCacheTest.class, id), new PrincipalSid("owner"),
+				new ArrayList<AccessControlEntry>(), null, Mockito.mock(ACLUtil.class));
+		for (int i = 0; i < aceCount; i++)
+		{
+			acl.insertAce(i, BasePermission.READ, new PrincipalSid("principal" + i), true);
+		}
+		return acl;
+	}
+
+}
@@ -0,0 +1,114 @@
+package net.projectmonkey.spring.acl.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class NegativeAclCacheTest {
+
+	private long time;
+
+	private final NegativeAclCache underTest = new NegativeAclCache(3, 10, 1) {
+		@Override
+		protected long currentTime() {
+			return time;
+		}
+	};
+
+	@Test
+	public void identifiersAreMissingOnceRecorded() {
+		assertFalse(underTest.isMissing(1L));
+
+		underTest.putMissing(1L);
+
+		assertTrue(underTest.isMissing(1L));
+		assertFalse(underTest.isMissing(2L));
+	}
+
+	@Test
+	public void evictedIdentifiersAreNoLongerMissing() {
+		underTest.putMissing(1L);
+
+		underTest.evict(1L);
+
+		assertFalse(underTest.isMissing(1L));
+	}
+
+	@Test
+	public void identifiersAreNotRecordedIfEvictedSinceTheStampWasTaken() {
+		long stamp = underTest.stamp();
+		underTest.evict(1L);
+
+		assertFalse(underTest.putMissing(1L, stamp));
+		assertFalse(underTest.isMissing(1L));
+
+		assertTrue(underTest.putMissing(1L, underTest.stamp()));
+		assertTrue(underTest.isMissing(1L));
+	}
+
+	@Test
+	public void identifiersAreNotRecordedIfClearedSinceTheStampWasTaken() {
+		long stamp = underTest.stamp();
+		underTest.clear();
+
+		assertFalse(underTest.putMissing(1L, stamp));
+		assertFalse(underTest.isMissing(1L));
+	}
+
+	@Test
+	public void identifiersExpireAfterTheTimeToLive() {
+		underTest.putMissing(1L);
+
+		time += TimeUnit.SECONDS.toNanos(9);
+		assertTrue(underTest.isMissing(1L));
+
+		time += TimeUnit.SECONDS.toNanos(1);
+		assertFalse(underTest.isMissing(1L));
+	}
+
+	@Test
+	public void theOldestIdentifiersAreDiscardedOnceTheMaximumSizeIsReached() {
+		underTest.putMissing(1L);
+		underTest.putMissing(2L);
+		underTest.putMissing(3L);
+		underTest.putMissing(1L);
+
+		underTest.putMissing(4L);
+
+		assertTrue(underTest.isMissing(1L));
+		assertFalse(underTest.isMissing(2L));
+		assertTrue(underTest.isMissing(3L));
+		assertTrue(underTest.isMissing(4L));
+	}
+
+	@Test
+	public void clearRemovesEverything() {
+		underTest.putMissing(1L);
+		underTest.putMissing("2");
+
+		underTest.clear();
+
+		assertFalse(underTest.isMissing(1L));
+		assertFalse(underTest.isMissing("2"));
+	}
+
+}
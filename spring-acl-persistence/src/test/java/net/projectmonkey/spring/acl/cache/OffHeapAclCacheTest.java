@@ -0,0 +1,193 @@
+package net.projectmonkey.spring.acl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import net.projectmonkey.spring.acl.util.ACLUtil;
+import net.projectmonkey.spring.acl.util.AclCodec;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.domain.SimpleAclSnapshot;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class OffHeapAclCacheTest {
+
+	private final ACLUtil util = Mockito.mock(ACLUtil.class);
+	private final AclCodec codec = new AclCodec(new DefaultPermissionFactory());
+
+	@Test
+	public void cachedAclsAreDecodedIntoEqualSnapshots() {
+		OffHeapAclCache underTest = new OffHeapAclCache(util, 10000);
+		MutableAcl acl = createAcl(1L, 3);
+		underTest.putInCache(acl);
+
+		MutableAcl cached = underTest.getFromCache(acl.getObjectIdentity());
+
+		assertTrue(cached instanceof SimpleAclSnapshot);
+		assertEquals(acl, cached);
+		assertEquals(acl, underTest.getFromCache(1L));
+	}
+
+	@Test
+	public void hitsShareTheSnapshotDecodedUntilTheAclIsReplaced() {
+		OffHeapAclCache underTest = new OffHeapAclCache(util, 10000);
+		MutableAcl acl = createAcl(1L, 3);
+		underTest.putInCache(acl);
+
+		MutableAcl first = underTest.getFromCache(1L);
+
+		assertSame(first, underTest.getFromCache(1L));
+		assertSame(first, underTest.getAllFromCache(Arrays.asList(acl.getObjectIdentity())).get(acl.getObjectIdentity()));
+		MutableAcl replacement = createAcl(1L, 2);
+		underTest.putInCache(replacement);
+		assertNotSame(first, underTest.getFromCache(1L));
+		assertEquals(replacement, underTest.getFromCache(1L));
+	}
+
+	@Test
+	public void aclsCanBeCachedAndRetrievedInBatches() {
+		OffHeapAclCache underTest = new OffHeapAclCache(util, 10000, 2);
+		MutableAcl acl1 = createAcl(1L, 1);
+		MutableAcl acl2 = createAcl(2L, 2);
+		underTest.putAllInCache(Arrays.asList(acl1, acl2));
+
+		Map<ObjectIdentity, MutableAcl> cached = underTest.getAllFromCache(Arrays.asList(acl1.getObjectIdentity(),
+				acl2.getObjectIdentity(), createAcl(3L, 0).getObjectIdentity()));
+
+		assertEquals(2, cached.size());
+		assertEquals(acl1, cached.get(acl1.getObjectIdentity()));
+		assertEquals(acl2, cached.get(acl2.getObjectIdentity()));
+	}
+
+	@Test
+	public void evictedAndReplacedAclsAreNoLongerReturned() {
+		OffHeapAclCache underTest = new OffHeapAclCache(util, 10000);
+		underTest.putInCache(createAcl(1L, 1));
+		underTest.putInCache(createAcl(2L, 1));
+		MutableAcl replacement = createAcl(2L, 2);
+
+		underTest.evictFromCache(1L);
+		underTest.putInCache(replacement);
+
+		assertNull(underTest.getFromCache(1L));
+		assertEquals(replacement, underTest.getFromCache(2L));
+		assertEquals(1, underTest.getStatistics().getSize());
+	}
+
+	@Test
+	public void theOldestAclsAreEvictedOnceTheSlabIsFull() {
+		int size = codec.encodedSize(createAcl(1L, 1));
+		OffHeapAclCache underTest = new OffHeapAclCache(util, 3 * size, 1);
+		underTest.putInCache(createAcl(1L, 1));
+		underTest.putInCache(createAcl(2L, 1));
+		underTest.putInCache(createAcl(3L, 1));
+
+		underTest.putInCache(createAcl(4L, 1));
+
+		assertNull(underTest.getFromCache(1L));
+		assertEquals(createAcl(2L, 1).getObjectIdentity(), underTest.getFromCache(2L).getObjectIdentity());
+		assertEquals(3, underTest.getStatistics().getSize());
+		assertEquals(1, underTest.getStatistics().getEvictionCount());
+		assertEquals(3 * size, underTest.getStatistics().getWeight());
+	}
+
+	@Test
+	public void aclsLargerThanASlabAreNotCached() {
+		OffHeapAclCache underTest = new OffHeapAclCache(util, 64, 1);
+
+		underTest.putInCache(createAcl(1L, 5));
+
+		assertNull(underTest.getFromCache(1L));
+		assertEquals(1, underTest.getStatistics().getRejectionCount());
+	}
+
+	@Test
+	public void clearCacheRemovesEverything() {
+		OffHeapAclCache underTest = new OffHeapAclCache(util, 10000);
+		underTest.putInCache(createAcl(1L, 1));
+		underTest.putInCache(createAcl(2L, 1));
+
+		underTest.clearCache();
+
+		assertNull(underTest.getFromCache(1L));
+		assertEquals(0, underTest.getStatistics().getSize());
+		assertEquals(0, underTest.getStatistics().getWeight());
+	}
+
+	@Test
+	public void cachedAclsRemainIntactAsTheSlabWrapsAround() {
+		OffHeapAclCache underTest = new OffHeapAclCache(util, 2000, 1);
+		Map<Long, MutableAcl> latest = new HashMap<Long, MutableAcl>();
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++)
+		{
+			long id = random.nextInt(40);
+			if (random.nextInt(10) == 0)
+			{
+				underTest.evictFromCache(id);
+				latest.remove(id);
+			}
+			else
+			{
+				MutableAcl acl = createAcl(id, random.nextInt(4));
+				underTest.putInCache(acl);
+				latest.put(id, acl);
+			}
+			for (long check = 0; check < 40; check++)
+			{
+				MutableAcl cached = underTest.getFromCache(check);
+				if (cached != null)
+				{
+					assertEquals(latest.get(check), cached);
+				}
+			}
+		}
+		assertTrue(underTest.getStatistics().getWeight() <= 2000);
+	}
+
+	private MutableAcl createAcl(final long id, final int aceCount) {
+		SimpleAcl acl = new SimpleAcl(new ObjectIdentityImpl(OffHeapAclCacheTest.class, id), new PrincipalSid("owner"),
+				new ArrayList<AccessControlEntry>(), null, util);
+		for (int i = 0; i < aceCount; i++)
+		{
+			acl.insertAce(UUID.randomUUID(), i, BasePermission.READ, new GrantedAuthoritySid("ROLE_" + i), i % 2 == 0);
+		}
+		return acl;
+	}
+
+}
@@ -0,0 +1,342 @@
+package net.projectmonkey.spring.acl.repository.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class LogStructuredACLRepositoryTest {
+
+	private static final String SOME_PRINCIPAL = "some principal";
+	private static final String SOME_AUTHORITY = "Some Authority";
+	private final AclAuthorizationStrategy authorizationStrategy = new AclAuthorizationStrategyImpl(
+			new SimpleGrantedAuthority(SOME_AUTHORITY));
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+	private LogStructuredACLRepository underTest;
+
+	@Before
+	public void setUp() {
+		setUpAuthorisedUser();
+		directory = new File(folder.getRoot(), "acls");
+		underTest = open();
+	}
+
+	@After
+	public void tearDown() {
+		SecurityContextHolder.clearContext();
+		underTest.close();
+	}
+
+	@Test
+	public void retrievingACLValues() {
+		Acl acl1 = createAcl("id1");
+		createAcl("id2");
+		Acl acl3 = createAcl("id3");
+
+		List<Sid> sids = Arrays.<Sid> asList(new PrincipalSid(SOME_PRINCIPAL));
+		Map<ObjectIdentity, Acl> returned = underTest.getAclsById(Arrays.asList(acl1.getObjectIdentity(), acl3.getObjectIdentity()), sids);
+
+		assertEquals(2, returned.size());
+		PrincipalSid owner = new PrincipalSid(SOME_PRINCIPAL); // the owner is taken from the currently logged in user
+		assertEquals(new SimpleAcl(acl1.getObjectIdentity(), owner, acl1.getEntries(), null, null), returned.get(acl1.getObjectIdentity()));
+		assertEquals(new SimpleAcl(acl3.getObjectIdentity(), owner, acl3.getEntries(), null, null), returned.get(acl3.getObjectIdentity()));
+	}
+
+	@Test
+	public void updateReplacesTheStoredAcl() {
+		SimpleAcl acl = createAcl("id1");
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.READ, new PrincipalSid("another principal"), false);
+		acl.setOwner(new GrantedAuthoritySid(SOME_AUTHORITY));
+		underTest.update(acl);
+
+		Acl returned = underTest.getAclById(acl.getObjectIdentity());
+
+		assertEquals(acl.getEntries(), returned.getEntries());
+		assertEquals(new GrantedAuthoritySid(SOME_AUTHORITY), returned.getOwner());
+	}
+
+	@Test
+	public void delete() {
+		ObjectIdentityImpl id = new ObjectIdentityImpl(LogStructuredACLRepositoryTest.class, "id1");
+		createAcl("id1");
+		assertTrue(underTest.isThereAnAclFor(id));
+
+		underTest.delete(id);
+
+		assertFalse(underTest.isThereAnAclFor(id));
+		assertNull(underTest.getAclById(id));
+	}
+
+	@Test
+	public void aclsSurviveARestart() {
+		SimpleAcl acl1 = createAcl("id1");
+		SimpleAcl acl2 = createAcl(2L);
+		createAcl("id3");
+		underTest.delete(new ObjectIdentityImpl(LogStructuredACLRepositoryTest.class, "id3"));
+		acl2.insertAce(UUID.randomUUID(), 1, BasePermission.WRITE, new PrincipalSid("another principal"), true);
+		underTest.update(acl2);
+
+		underTest.close();
+		underTest = open();
+
+		assertEquals(acl1.getEntries(), underTest.getAclById(acl1.getObjectIdentity()).getEntries());
+		assertEquals(acl2.getEntries(), underTest.getAclById(acl2.getObjectIdentity()).getEntries());
+		assertFalse(underTest.isThereAnAclFor(new ObjectIdentityImpl(LogStructuredACLRepositoryTest.class, "id3")));
+	}
+
+	@Test
+	public void partiallyWrittenRecordsAreDiscardedOnRestart() throws IOException {
+		SimpleAcl acl = createAcl("id1");
+		underTest.close();
+		FileOutputStream out = new FileOutputStream(directory.listFiles()[0], true);
+		out.write(new byte[] { 0, 1, 2, 3, 0, 0, 0, 9 });
+		out.close();
+
+		underTest = open();
+		assertEquals(acl.getEntries(), underTest.getAclById(acl.getObjectIdentity()).getEntries());
+
+		SimpleAcl acl2 = createAcl("id2");
+		underTest.close();
+		underTest = open();
+		assertEquals(acl2.getEntries(), underTest.getAclById(acl2.getObjectIdentity()).getEntries());
+	}
+
+	@Test
+	public void corruptRecordsAreDiscardedOnRestart() throws IOException {
+		SimpleAcl acl1 = createAcl("id1");
+		SimpleAcl acl2 = createAcl("id2");
+		underTest.close();
+		RandomAccessFile segment = new RandomAccessFile(directory.listFiles()[0], "rw");
+		segment.seek(segment.length() - 1);
+		int last = segment.read();
+		segment.seek(segment.length() - 1);
+		segment.write(last ^ 0xFF);
+		segment.close();
+
+		underTest = open();
+		assertEquals(acl1.getEntries(), underTest.getAclById(acl1.getObjectIdentity()).getEntries());
+		// the torn update of acl2 is dropped, leaving the acl as created
+		assertTrue(underTest.getAclById(acl2.getObjectIdentity()).getEntries().isEmpty());
+
+		SimpleAcl acl3 = createAcl("id3");
+		underTest.close();
+		underTest = open();
+		assertEquals(acl3.getEntries(), underTest.getAclById(acl3.getObjectIdentity()).getEntries());
+	}
+
+	@Test
+	public void onlyTheLastSegmentIsVerifiedOnRestart() throws IOException {
+		underTest.setMaxSegmentSize(64);
+		SimpleAcl acl1 = createAcl("id1");
+		SimpleAcl acl2 = createAcl("id2");
+		underTest.close();
+		File[] files = directory.listFiles();
+		Arrays.sort(files);
+		// each record is written to its own segment, the second holds the update of acl1
+		assertEquals(4, files.length);
+		// corrupts the value of the record in the sealed segment
+		RandomAccessFile segment = new RandomAccessFile(files[1], "rw");
+		segment.seek(segment.length() - 1);
+		int last = segment.read();
+		segment.seek(segment.length() - 1);
+		segment.write(last ^ 0xFF);
+		segment.close();
+		long sealedLength = files[1].length();
+
+		underTest = open();
+
+		// the sealed segment is indexed from its headers and keys without reading the values
+		assertTrue(underTest.isThereAnAclFor(acl1.getObjectIdentity()));
+		assertEquals(sealedLength, files[1].length());
+		assertEquals(acl2.getEntries(), underTest.getAclById(acl2.getObjectIdentity()).getEntries());
+	}
+
+	@Test(timeout = 30000)
+	public void segmentsHoldingOnlyTombstonesAreNotCompactedRepeatedly() {
+		// the timeout runs the test on another thread
+		setUpAuthorisedUser();
+		// keeps the oldest segment live so that the tombstones cannot be dropped
+		SimpleAcl keeper = createAcl("keeper");
+		underTest.setCompactionThreshold(0.6);
+		underTest.setMaxSegmentSize(256);
+		List<SimpleAcl> acls = new ArrayList<SimpleAcl>();
+		for (int i = 0; i < 30; i++)
+		{
+			acls.add(createAcl("id" + i));
+		}
+		for (SimpleAcl acl : acls)
+		{
+			underTest.delete(acl.getObjectIdentity());
+		}
+
+		assertTrue(underTest.compact() > 0);
+		assertEquals(0, underTest.compact());
+
+		underTest.close();
+		underTest = open();
+		assertLive(Arrays.asList(keeper));
+		for (SimpleAcl acl : acls)
+		{
+			assertFalse(underTest.isThereAnAclFor(acl.getObjectIdentity()));
+		}
+	}
+
+	@Test
+	public void compactionAfterCloseHasNoEffect() {
+		underTest.setMaxSegmentSize(256);
+		SimpleAcl acl = createAcl("id1");
+		for (int i = 0; i < 10; i++)
+		{
+			underTest.update(acl);
+		}
+		underTest.close();
+
+		assertEquals(0, underTest.compact());
+
+		underTest = open();
+		assertLive(Arrays.asList(acl));
+	}
+
+	@Test
+	public void compactionRemovesOverwrittenRecordsAndRetainsLiveAcls() {
+		underTest.setMaxSegmentSize(512);
+		List<SimpleAcl> acls = new ArrayList<SimpleAcl>();
+		for (int i = 0; i < 10; i++)
+		{
+			acls.add(createAcl("id" + i));
+		}
+		for (int i = 0; i < 5; i++)
+		{
+			SimpleAcl acl = acls.get(i);
+			for (int j = 0; j < 5; j++)
+			{
+				acl.insertAce(UUID.randomUUID(), 0, BasePermission.READ, new PrincipalSid("principal" + j), true);
+				underTest.update(acl);
+			}
+		}
+		underTest.delete(acls.get(9).getObjectIdentity());
+		int segmentsBefore = underTest.getSegmentCount();
+
+		assertTrue(underTest.compact() > 0);
+
+		assertTrue(underTest.getSegmentCount() < segmentsBefore);
+		assertLive(acls.subList(0, 9));
+		assertFalse(underTest.isThereAnAclFor(acls.get(9).getObjectIdentity()));
+
+		underTest.close();
+		underTest = open();
+		assertLive(acls.subList(0, 9));
+		assertFalse(underTest.isThereAnAclFor(acls.get(9).getObjectIdentity()));
+	}
+
+	@Test
+	public void concurrentWritersAreAllDurable() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<SimpleAcl>> futures = new ArrayList<Future<SimpleAcl>>();
+		for (int i = 0; i < 200; i++)
+		{
+			final int id = i;
+			futures.add(executor.submit(new Callable<SimpleAcl>() {
+				@Override
+				public SimpleAcl call() {
+					setUpAuthorisedUser();
+					return createAcl("id" + id);
+				}
+			}));
+		}
+		List<SimpleAcl> acls = new ArrayList<SimpleAcl>();
+		for (Future<SimpleAcl> future : futures)
+		{
+			acls.add(future.get());
+		}
+		executor.shutdown();
+
+		underTest.close();
+		underTest = open();
+		assertLive(acls);
+	}
+
+	private void assertLive(final List<SimpleAcl> acls) {
+		for (SimpleAcl acl : acls)
+		{
+			Acl returned = underTest.getAclById(acl.getObjectIdentity());
+			assertNotNull(returned);
+			assertEquals(acl.getEntries(), returned.getEntries());
+		}
+	}
+
+	private LogStructuredACLRepository open() {
+		LogStructuredACLRepository repository = new LogStructuredACLRepository(directory, authorizationStrategy);
+		repository.setCompactionInterval(0);
+		return repository;
+	}
+
+	private SimpleAcl createAcl(final Serializable id) {
+		ObjectIdentityImpl objectIdentity = new ObjectIdentityImpl(LogStructuredACLRepositoryTest.class, id);
+		SimpleAcl acl = (SimpleAcl) underTest.create(objectIdentity);
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.CREATE, new GrantedAuthoritySid(id + "Authority"), true);
+		underTest.update(acl);
+		return acl;
+	}
+
+	private void setUpAuthorisedUser() {
+		TestingAuthenticationToken authentication = new TestingAuthenticationToken(SOME_PRINCIPAL, "credentials", SOME_AUTHORITY);
+		SecurityContextHolder.getContext().setAuthentication(authentication);
+	}
+
+}
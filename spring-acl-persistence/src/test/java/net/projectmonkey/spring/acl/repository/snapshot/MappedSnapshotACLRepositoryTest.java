@@ -0,0 +1,267 @@
+package net.projectmonkey.spring.acl.repository.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import net.projectmonkey.spring.acl.util.ACLUtil;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.security.access.AuthorizationServiceException;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class MappedSnapshotACLRepositoryTest {
+
+	private static final String SOME_PRINCIPAL = "some principal";
+	private static final String SOME_AUTHORITY = "Some Authority";
+	private final AclAuthorizationStrategy authorizationStrategy = new AclAuthorizationStrategyImpl(
+			new SimpleGrantedAuthority(SOME_AUTHORITY));
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File snapshotFile;
+
+	@Before
+	public void setUp() {
+		snapshotFile = new File(folder.getRoot(), "acls.snapshot");
+	}
+
+	@Test
+	public void aclsAreReadBackFromTheSnapshot() {
+		SimpleAcl acl1 = createAcl("id1");
+		acl1.insertAce(UUID.randomUUID(), 1, BasePermission.READ, new PrincipalSid("another principal"), false);
+		SimpleAcl acl2 = createAcl("id2");
+		SimpleAcl acl3 = createAcl("id3");
+		MappedSnapshotACLRepository underTest = new MappedSnapshotACLRepository(write(acl1, acl2, acl3), authorizationStrategy);
+
+		List<Sid> sids = Arrays.<Sid> asList(new PrincipalSid(SOME_PRINCIPAL));
+		Map<ObjectIdentity, Acl> returned = underTest.getAclsById(Arrays.asList(acl1.getObjectIdentity(), acl3.getObjectIdentity()), sids);
+
+		assertEquals(2, returned.size());
+		assertEquals(new SimpleAcl(acl1.getObjectIdentity(), acl1.getOwner(), acl1.getEntries(), null, null), returned.get(acl1.getObjectIdentity()));
+		assertEquals(new SimpleAcl(acl3.getObjectIdentity(), acl3.getOwner(), acl3.getEntries(), null, null), returned.get(acl3.getObjectIdentity()));
+		assertEquals(3, underTest.size());
+	}
+
+	@Test
+	public void aclsAreLoadedForAllSidsWhicheverSidsWereRequested() {
+		SimpleAcl acl = createAcl("id1");
+		MappedSnapshotACLRepository underTest = new MappedSnapshotACLRepository(write(acl), authorizationStrategy);
+
+		Acl returned = underTest.getAclsById(Arrays.asList(acl.getObjectIdentity()),
+				Arrays.<Sid> asList(new PrincipalSid(SOME_PRINCIPAL))).get(acl.getObjectIdentity());
+
+		assertTrue(returned.isSidLoaded(Arrays.<Sid> asList(new GrantedAuthoritySid("another authority"))));
+	}
+
+	@Test
+	public void theTemporaryRecordFileIsDeletedOnceTheSnapshotIsWritten() throws IOException {
+		File temporaryDirectory = folder.newFolder("records");
+		AclSnapshotWriter writer = new AclSnapshotWriter(temporaryDirectory);
+		writer.add(createAcl("id1"));
+		writer.add(createAcl("id2"));
+		assertEquals(1, temporaryDirectory.list().length);
+
+		writer.writeTo(snapshotFile);
+
+		assertEquals(0, temporaryDirectory.list().length);
+		assertEquals(2, new MappedSnapshotACLRepository(snapshotFile, authorizationStrategy).size());
+	}
+
+	@Test
+	public void acesAreReturnedInOrderWithTheirIdsAndPermissions() {
+		SimpleAcl acl = createAcl("id1");
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.WRITE, new GrantedAuthoritySid("another authority"), true);
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.READ, new PrincipalSid("another principal"), false);
+		MappedSnapshotACLRepository underTest = new MappedSnapshotACLRepository(write(acl), authorizationStrategy);
+
+		List<AccessControlEntry> returned = underTest.getAclById(acl.getObjectIdentity()).getEntries();
+
+		assertEquals(3, returned.size());
+		for (int i = 0; i < 3; i++)
+		{
+			AccessControlEntry expected = acl.getEntries().get(i);
+			assertEquals(expected.getId(), returned.get(i).getId());
+			assertEquals(expected.getSid(), returned.get(i).getSid());
+			assertEquals(expected.getPermission(), returned.get(i).getPermission());
+			assertEquals(expected.isGranting(), returned.get(i).isGranting());
+		}
+	}
+
+	@Test
+	public void missingAclsAreNotReturned() {
+		SimpleAcl acl = createAcl("id2");
+		MappedSnapshotACLRepository underTest = new MappedSnapshotACLRepository(write(acl), authorizationStrategy);
+
+		ObjectIdentity before = new ObjectIdentityImpl(MappedSnapshotACLRepositoryTest.class, "id1");
+		ObjectIdentity after = new ObjectIdentityImpl(MappedSnapshotACLRepositoryTest.class, "id3");
+
+		Map<ObjectIdentity, Acl> returned = underTest.getAclsById(Arrays.asList(before, acl.getObjectIdentity(), after), null);
+
+		assertEquals(1, returned.size());
+		assertTrue(returned.containsKey(acl.getObjectIdentity()));
+		assertFalse(underTest.isThereAnAclFor(before));
+		assertFalse(underTest.isThereAnAclFor(after));
+		assertTrue(underTest.isThereAnAclFor(acl.getObjectIdentity()));
+	}
+
+	@Test
+	public void identifiersOfDifferentTypesAreSupported() {
+		List<SimpleAcl> acls = new ArrayList<SimpleAcl>();
+		for (Serializable id : Arrays.<Serializable> asList(1L, -1L, 2, "3", Long.MAX_VALUE))
+		{
+			acls.add(createAcl(id));
+		}
+		MappedSnapshotACLRepository underTest = new MappedSnapshotACLRepository(write(acls.toArray(new SimpleAcl[0])), authorizationStrategy);
+
+		for (SimpleAcl acl : acls)
+		{
+			assertEquals(acl.getEntries(), underTest.getAclById(acl.getObjectIdentity()).getEntries());
+		}
+		assertNull(underTest.getAclById(new ObjectIdentityImpl(MappedSnapshotACLRepositoryTest.class, 3L)));
+	}
+
+	@Test
+	public void swappingReplacesTheSnapshot() {
+		SimpleAcl acl1 = createAcl("id1");
+		SimpleAcl acl2 = createAcl("id2");
+		MappedSnapshotACLRepository underTest = new MappedSnapshotACLRepository(write(acl1), authorizationStrategy);
+
+		File second = new File(folder.getRoot(), "second.snapshot");
+		AclSnapshotWriter writer = new AclSnapshotWriter();
+		writer.add(acl2);
+		writer.writeTo(second);
+		underTest.swap(second);
+
+		assertFalse(underTest.isThereAnAclFor(acl1.getObjectIdentity()));
+		assertTrue(underTest.isThereAnAclFor(acl2.getObjectIdentity()));
+	}
+
+	@Test
+	public void emptySnapshotsAreSupported() {
+		MappedSnapshotACLRepository underTest = new MappedSnapshotACLRepository(write(), authorizationStrategy);
+
+		assertEquals(0, underTest.size());
+		assertNull(underTest.getAclById(new ObjectIdentityImpl(MappedSnapshotACLRepositoryTest.class, "id1")));
+	}
+
+	@Test
+	public void truncatedSnapshotsAreRejected() throws IOException {
+		write(createAcl("id1"), createAcl("id2"));
+		RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+		try
+		{
+			file.setLength(file.length() - 1);
+		}
+		finally
+		{
+			file.close();
+		}
+
+		try
+		{
+			new MappedSnapshotACLRepository(snapshotFile, authorizationStrategy);
+			fail("expected the truncated snapshot to be rejected");
+		}
+		catch (AuthorizationServiceException e)
+		{
+			assertTrue(e.getMessage().contains("truncated"));
+		}
+	}
+
+	@Test
+	public void theTemporaryFileIsDeletedWhenTheSnapshotCannotBeReplaced() throws IOException {
+		File target = folder.newFolder("occupied");
+		new File(target, "file").createNewFile();
+		AclSnapshotWriter writer = new AclSnapshotWriter();
+		writer.add(createAcl("id1"));
+
+		try
+		{
+			writer.writeTo(target);
+			fail("expected the snapshot not to replace a directory");
+		}
+		catch (AuthorizationServiceException e)
+		{
+			assertFalse(new File(target.getPath() + ".tmp").exists());
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void createIsNotSupported() {
+		new MappedSnapshotACLRepository(write(), authorizationStrategy).create(new ObjectIdentityImpl(MappedSnapshotACLRepositoryTest.class, "id1"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void updateIsNotSupported() {
+		new MappedSnapshotACLRepository(write(), authorizationStrategy).update(createAcl("id1"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void deleteIsNotSupported() {
+		new MappedSnapshotACLRepository(write(), authorizationStrategy).delete(new ObjectIdentityImpl(MappedSnapshotACLRepositoryTest.class, "id1"));
+	}
+
+	private File write(final SimpleAcl... acls) {
+		AclSnapshotWriter writer = new AclSnapshotWriter();
+		for (SimpleAcl acl : acls)
+		{
+			writer.add(acl);
+		}
+		writer.writeTo(snapshotFile);
+		return snapshotFile;
+	}
+
+	private SimpleAcl createAcl(final Serializable id) {
+		ObjectIdentityImpl objectIdentity = new ObjectIdentityImpl(MappedSnapshotACLRepositoryTest.class, id);
+		SimpleAcl acl = new SimpleAcl(objectIdentity, new PrincipalSid(SOME_PRINCIPAL), new ArrayList<AccessControlEntry>(), null,
+				Mockito.mock(ACLUtil.class));
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.CREATE, new GrantedAuthoritySid(id + "Authority"), true);
+		return acl;
+	}
+
+}
@@ -0,0 +1,98 @@
+package net.projectmonkey.spring.acl.repository.tiered;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import net.projectmonkey.spring.acl.repository.snapshot.AclSnapshotWriter;
+import net.projectmonkey.spring.acl.repository.snapshot.MappedSnapshotACLRepository;
+import net.projectmonkey.spring.acl.util.ACLUtil;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class SnapshotAclTierTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SnapshotAclTier underTest;
+	private final ObjectIdentity oid1 = new ObjectIdentityImpl(SnapshotAclTierTest.class, 1L);
+	private final ObjectIdentity oid2 = new ObjectIdentityImpl(SnapshotAclTierTest.class, 2L);
+
+	@Before
+	public void setUp() {
+		File file = new File(folder.getRoot(), "acls.snapshot");
+		AclSnapshotWriter writer = new AclSnapshotWriter();
+		writer.add(createAcl(oid1));
+		writer.writeTo(file);
+		underTest = new SnapshotAclTier(new MappedSnapshotACLRepository(file, Mockito.mock(AclAuthorizationStrategy.class)));
+	}
+
+	@Test
+	public void aclsAreServedFromTheSnapshot() {
+		Map<ObjectIdentity, Acl> returned = underTest.getAcls(Arrays.asList(oid1, oid2), null);
+
+		assertEquals(1, returned.size());
+		assertEquals(oid1, returned.get(oid1).getObjectIdentity());
+	}
+
+	@Test
+	public void invalidatedAclsAreNoLongerServedFromTheSnapshot() {
+		underTest.invalidate(oid1);
+
+		assertTrue(underTest.getAcls(Arrays.asList(oid1), null).isEmpty());
+
+		underTest.reset();
+		assertEquals(1, underTest.getAcls(Arrays.asList(oid1), null).size());
+	}
+
+	@Test
+	public void promotedAclsAreServedInPreferenceToTheSnapshot() {
+		underTest.invalidate(oid1);
+		Acl promoted = createAcl(oid1);
+		Acl other = createAcl(oid2);
+		underTest.promote(Arrays.asList(promoted, other));
+
+		Map<ObjectIdentity, Acl> returned = underTest.getAcls(Arrays.asList(oid1, oid2), null);
+
+		assertSame(promoted, returned.get(oid1));
+		assertSame(other, returned.get(oid2));
+	}
+
+	private SimpleAcl createAcl(final ObjectIdentity identity) {
+		return new SimpleAcl(identity, new PrincipalSid("owner"), new ArrayList<AccessControlEntry>(), null, Mockito.mock(ACLUtil.class));
+	}
+
+}
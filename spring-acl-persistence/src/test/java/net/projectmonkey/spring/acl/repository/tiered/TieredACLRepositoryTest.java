@@ -0,0 +1,211 @@
+package net.projectmonkey.spring.acl.repository.tiered;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.projectmonkey.spring.acl.entity.SimpleMutableAcl;
+import net.projectmonkey.spring.acl.repository.ACLUpdateRepository;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class TieredACLRepositoryTest {
+
+	private TieredACLRepository underTest;
+	private InMemoryAclTier local;
+	@Mock
+	private ACLUpdateRepository remote;
+	@Mock
+	private SimpleMutableAcl acl1;
+	@Mock
+	private SimpleMutableAcl acl2;
+	@Mock
+	private Sid sid;
+
+	private final ObjectIdentity oid1 = new ObjectIdentityImpl(TieredACLRepositoryTest.class, 1L);
+	private final ObjectIdentity oid2 = new ObjectIdentityImpl(TieredACLRepositoryTest.class, 2L);
+	private final ObjectIdentity oid3 = new ObjectIdentityImpl(TieredACLRepositoryTest.class, 3L);
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+		Mockito.when(acl1.getObjectIdentity()).thenReturn(oid1);
+		Mockito.when(acl2.getObjectIdentity()).thenReturn(oid2);
+		local = new InMemoryAclTier();
+		underTest = new TieredACLRepository(local, remote);
+	}
+
+	@Test
+	public void allLocalMissesAreRetrievedFromTheRemoteRepositoryInOneCallForAllSids() {
+		Map<ObjectIdentity, Acl> fromRemote = results(acl1, acl2);
+		Mockito.when(remote.getAclsById(Arrays.asList(oid1, oid2, oid3), null)).thenReturn(fromRemote);
+
+		Map<ObjectIdentity, Acl> returned = underTest.getAclsById(Arrays.asList(oid1, oid2, oid3, oid1), Arrays.asList(sid));
+
+		assertEquals(2, returned.size());
+		assertSame(acl1, returned.get(oid1));
+		assertSame(acl2, returned.get(oid2));
+		Mockito.verify(remote).getAclsById(Arrays.asList(oid1, oid2, oid3), null);
+	}
+
+	@Test
+	public void remoteResultsArePromotedAndSubsequentlyServedLocally() {
+		Map<ObjectIdentity, Acl> fromRemote = results(acl1, acl2);
+		Mockito.when(remote.getAclsById(Arrays.asList(oid1, oid2), null)).thenReturn(fromRemote);
+		underTest.getAclsById(Arrays.asList(oid1, oid2), null);
+
+		Map<ObjectIdentity, Acl> returned = underTest.getAclsById(Arrays.asList(oid1, oid2), Arrays.asList(sid));
+
+		assertSame(acl1, returned.get(oid1));
+		assertSame(acl2, returned.get(oid2));
+		Mockito.verify(remote, Mockito.times(1)).getAclsById(Mockito.<List<ObjectIdentity>> any(), Mockito.<List<Sid>> any());
+	}
+
+	@Test
+	public void onlyLocalMissesAreRetrievedRemotely() {
+		local.promote(Arrays.<Acl> asList(acl1));
+		Map<ObjectIdentity, Acl> fromRemote = results(acl2);
+		Mockito.when(remote.getAclsById(Arrays.asList(oid2), null)).thenReturn(fromRemote);
+
+		Map<ObjectIdentity, Acl> returned = underTest.getAclsById(Arrays.asList(oid1, oid2), null);
+
+		assertEquals(2, returned.size());
+		Mockito.verify(remote).getAclsById(Arrays.asList(oid2), null);
+	}
+
+	@Test
+	public void updateWritesThroughAndInvalidatesTheLocalCopy() {
+		local.promote(Arrays.<Acl> asList(acl1));
+
+		underTest.update(acl1);
+
+		Mockito.verify(remote).update(acl1);
+		assertTrue(local.getAcls(Arrays.asList(oid1), null).isEmpty());
+	}
+
+	@Test
+	public void deleteWritesThroughAndInvalidatesTheLocalCopy() {
+		local.promote(Arrays.<Acl> asList(acl1));
+
+		underTest.delete(oid1);
+
+		Mockito.verify(remote).delete(oid1);
+		assertTrue(local.getAcls(Arrays.asList(oid1), null).isEmpty());
+	}
+
+	@Test
+	public void createWritesThrough() {
+		Mockito.when(remote.create(oid1)).thenReturn(acl1);
+
+		assertSame(acl1, underTest.create(oid1));
+	}
+
+	@Test
+	public void isThereAnAclForChecksTheLocalTierFirst() {
+		local.promote(Arrays.<Acl> asList(acl1));
+
+		assertTrue(underTest.isThereAnAclFor(oid1));
+		Mockito.verify(remote, Mockito.never()).isThereAnAclFor(oid1);
+
+		assertFalse(underTest.isThereAnAclFor(oid2));
+		Mockito.verify(remote).isThereAnAclFor(oid2);
+	}
+
+	@Test
+	public void remoteRepositoryIsNotCalledWhenEverythingIsHeldLocally() {
+		local.promote(Arrays.<Acl> asList(acl1, acl2));
+
+		underTest.getAclsById(Arrays.asList(oid1, oid2), null);
+
+		Mockito.verifyZeroInteractions(remote);
+	}
+
+	@Test
+	public void aclsReadWhileAnotherThreadUpdatesThemAreNotPromoted() {
+		final Map<ObjectIdentity, Acl> fromRemote = results(acl1);
+		Mockito.when(remote.getAclsById(Arrays.asList(oid1), null)).thenAnswer(new Answer<Map<ObjectIdentity, Acl>>() {
+			@Override
+			public Map<ObjectIdentity, Acl> answer(final InvocationOnMock invocation) {
+				// the update completes after the previous acl was read
+				underTest.update(acl1);
+				return fromRemote;
+			}
+		});
+
+		assertSame(acl1, underTest.getAclsById(Arrays.asList(oid1), null).get(oid1));
+
+		assertTrue(local.getAcls(Arrays.asList(oid1), null).isEmpty());
+	}
+
+	@Test
+	public void promotedAclsExpire() {
+		final AtomicLong time = new AtomicLong();
+		InMemoryAclTier expiring = new InMemoryAclTier(10, 1) {
+			@Override
+			protected long currentTime() {
+				return time.get();
+			}
+		};
+		expiring.promote(Arrays.<Acl> asList(acl1));
+		assertSame(acl1, expiring.getAcls(Arrays.asList(oid1), null).get(oid1));
+
+		time.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+		assertTrue(expiring.getAcls(Arrays.asList(oid1), null).isEmpty());
+	}
+
+	@Test
+	public void theLeastRecentlyReadAclsAreDiscardedOnceTheTierIsFull() {
+		InMemoryAclTier bounded = new InMemoryAclTier(1, 60);
+		bounded.promote(Arrays.<Acl> asList(acl1));
+		bounded.promote(Arrays.<Acl> asList(acl2));
+
+		assertTrue(bounded.getAcls(Arrays.asList(oid1), null).isEmpty());
+		assertSame(acl2, bounded.getAcls(Arrays.asList(oid2), null).get(oid2));
+	}
+
+	private Map<ObjectIdentity, Acl> results(final Acl... acls) {
+		Map<ObjectIdentity, Acl> results = new HashMap<ObjectIdentity, Acl>();
+		for (Acl acl : acls)
+		{
+			results.put(acl.getObjectIdentity(), acl);
+		}
+		return Collections.unmodifiableMap(results);
+	}
+
+}
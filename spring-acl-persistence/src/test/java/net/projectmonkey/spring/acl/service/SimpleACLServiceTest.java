@@ -1,21 +1,32 @@
 package net.projectmonkey.spring.acl.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import net.projectmonkey.spring.acl.entity.SimpleMutableAcl;
 import net.projectmonkey.spring.acl.repository.ACLUpdateRepository;
 import net.projectmonkey.spring.acl.service.SimpleACLService;
+import net.projectmonkey.spring.acl.util.ACLUtil;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.domain.SimpleAcl;
+import org.springframework.security.acls.domain.SimpleAclSnapshot;
+import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.AlreadyExistsException;
 import org.springframework.security.acls.model.MutableAcl;
@@ -107,6 +118,39 @@ public class SimpleACLServiceTest {
 		assertEquals(acl, returned);
 	}
 	
+	@Test
+	public void readAclByIdReturnsAnEditableCopyOfASnapshot(){
+		SimpleAclSnapshot snapshot = createSnapshot();
+		Map<ObjectIdentity, Acl> values = new HashMap<ObjectIdentity, Acl>();
+		values.put(oid, snapshot);
+		Mockito.when(repository.getAclsById(Arrays.asList(oid), null)).thenReturn(values);
+		Mockito.when(repository.isThereAnAclFor(snapshot.getObjectIdentity())).thenReturn(true);
+
+		MutableAcl returned = (MutableAcl) underTest.readAclById(oid);
+		returned.insertAce(1, BasePermission.WRITE, sid, true);
+		underTest.updateAcl(returned);
+
+		assertTrue(returned instanceof SimpleAcl);
+		assertEquals(1, snapshot.getEntries().size());
+		Mockito.verify(repository).update(returned);
+	}
+
+	@Test
+	public void readAclByIdAndSidsReturnsTheSharedSnapshot(){
+		SimpleAclSnapshot snapshot = createSnapshot();
+		List<Sid> sids = Arrays.asList(sid);
+		Map<ObjectIdentity, Acl> values = new HashMap<ObjectIdentity, Acl>();
+		values.put(oid, snapshot);
+		Mockito.when(repository.getAclsById(Arrays.asList(oid), sids)).thenReturn(values);
+
+		assertSame(snapshot, underTest.readAclById(oid, sids));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void updateAclRejectsSnapshots(){
+		underTest.updateAcl((MutableAcl) createSnapshot());
+	}
+
 	@Test(expected=IllegalArgumentException.class)
 	public void readAclByIdWhenIdIsNull(){
 		underTest.readAclById(null);
@@ -181,6 +225,18 @@ public class SimpleACLServiceTest {
 		assertEquals(values, returned);
 	}
 	
+	@Test
+	public void readExistingAclsByIdOmitsIdentitiesWithoutAnAcl(){
+		ObjectIdentity missing = Mockito.mock(ObjectIdentity.class);
+		List<ObjectIdentity> oids = Arrays.asList(oid, missing);
+		List<Sid> sids = Arrays.asList(sid);
+		Map<ObjectIdentity, Acl> values = new HashMap<ObjectIdentity, Acl>();
+		values.put(oid, acl);
+		Mockito.when(repository.getAclsById(oids, sids)).thenReturn(values);
+
+		assertEquals(values, underTest.readExistingAclsById(oids, sids));
+	}
+
 	@Test(expected=IllegalArgumentException.class)
 	public void readAclsByIdAndSidsWhenIdIsNull(){
 		List<Sid> sids = Arrays.asList(sid);
@@ -195,6 +251,12 @@ public class SimpleACLServiceTest {
 		Mockito.when(repository.getAclsById(oids, sids)).thenReturn(values);
 		underTest.readAclsById(oids);
 	}
-	
-	
+
+	private SimpleAclSnapshot createSnapshot() {
+		SimpleAcl acl = new SimpleAcl(new ObjectIdentityImpl(SimpleACLServiceTest.class, 1L), new PrincipalSid("owner"),
+				new ArrayList<AccessControlEntry>(), null, Mockito.mock(ACLUtil.class));
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.READ, sid, true);
+		return acl.snapshot();
+	}
+
 }
@@ -0,0 +1,28 @@
+package net.projectmonkey.spring.acl.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.springframework.security.access.AuthorizationServiceException;
+
+public class AclCodecTest {
+
+	@Test
+	public void serializedValueTypesAreDecoded() {
+		UUID uuid = UUID.randomUUID();
+		BigDecimal decimal = new BigDecimal("1.5");
+
+		assertEquals(uuid, AclCodec.decodeIdentifier(AclCodec.encodeIdentifier(uuid)));
+		assertEquals(decimal, AclCodec.decodeIdentifier(AclCodec.encodeIdentifier(decimal)));
+	}
+
+	@Test(expected = AuthorizationServiceException.class)
+	public void serializedIdentifiersOfOtherClassesAreRejected() {
+		AclCodec.decodeIdentifier(AclCodec.encodeIdentifier(new ArrayList<String>()));
+	}
+
+}
@@ -0,0 +1,66 @@
+package net.projectmonkey.spring.acl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.CumulativePermission;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.model.Permission;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class CachingPermissionFactoryTest {
+
+	private final PermissionFactory delegate = spy(new DefaultPermissionFactory());
+	private final CachingPermissionFactory underTest = new CachingPermissionFactory(delegate);
+
+	@Test
+	public void combinedPermissionsAreBuiltOncePerMask() {
+		int mask = BasePermission.READ.getMask() | BasePermission.WRITE.getMask();
+
+		Permission permission = underTest.buildFromMask(mask);
+
+		assertEquals(mask, permission.getMask());
+		assertSame(permission, underTest.buildFromMask(mask));
+		verify(delegate, times(1)).buildFromMask(mask);
+	}
+
+	@Test
+	public void largeMasksAreCachedToo() {
+		int mask = 1 << 20;
+		PermissionFactory custom = mock(PermissionFactory.class);
+		when(custom.buildFromMask(mask)).thenReturn(new CumulativePermission().set(BasePermission.READ));
+		CachingPermissionFactory caching = new CachingPermissionFactory(custom);
+
+		assertSame(caching.buildFromMask(mask), caching.buildFromMask(mask));
+		verify(custom, times(1)).buildFromMask(mask);
+	}
+
+	@Test
+	public void cachingFactoriesAreNotWrappedAgain() {
+		assertSame(underTest, CachingPermissionFactory.wrap(underTest));
+	}
+
+}
@@ -0,0 +1,56 @@
+package net.projectmonkey.spring.acl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class SidInternerTest {
+
+	private final SidInterner underTest = new SidInterner();
+
+	@Test
+	public void equalSidsShareASingleInstance() {
+		Sid sid = underTest.intern("ROLE_USER", false);
+
+		assertEquals(new GrantedAuthoritySid("ROLE_USER"), sid);
+		assertSame(sid, underTest.intern(new String("ROLE_USER"), false));
+		assertEquals(1, underTest.size());
+	}
+
+	@Test
+	public void principalAndAuthoritySidsAreKeptApart() {
+		Sid authority = underTest.intern("admin", false);
+		Sid principal = underTest.intern("admin", true);
+
+		assertNotSame(authority, principal);
+		assertEquals(new PrincipalSid("admin"), principal);
+		assertEquals(2, underTest.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nullAuthoritiesAreRejected() {
+		underTest.intern(null, true);
+	}
+
+}
@@ -0,0 +1,152 @@
+package org.springframework.security.acls.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.projectmonkey.spring.acl.util.ACLUtil;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class CompiledPermissionGrantingStrategyTest {
+
+	private static final List<Sid> SIDS = Arrays.<Sid> asList(new PrincipalSid("principal"), new GrantedAuthoritySid(
+			"ROLE_USER"), new GrantedAuthoritySid("ROLE_ADMIN"), new PrincipalSid("ROLE_USER"));
+	private static final List<Permission> PERMISSIONS = Arrays.<Permission> asList(BasePermission.READ,
+			BasePermission.WRITE, BasePermission.CREATE, new CumulativePermission().set(BasePermission.READ).set(
+					BasePermission.WRITE));
+
+	private final ACLUtil util = Mockito.mock(ACLUtil.class);
+	private final RecordingAuditLogger compiledLog = new RecordingAuditLogger();
+	private final RecordingAuditLogger defaultLog = new RecordingAuditLogger();
+	private final CompiledPermissionGrantingStrategy underTest = new CompiledPermissionGrantingStrategy(compiledLog);
+	private final DefaultPermissionGrantingStrategy reference = new DefaultPermissionGrantingStrategy(defaultLog);
+
+	@Test
+	public void decisionsAndAuditingMatchTheDefaultStrategy() {
+		Random random = new Random(7);
+		for (int i = 0; i < 300; i++)
+		{
+			SimpleAcl acl = createAcl(1L);
+			int aceCount = random.nextInt(8);
+			for (int j = 0; j < aceCount; j++)
+			{
+				acl.insertAce(j, pick(PERMISSIONS, random), pick(SIDS, random), random.nextBoolean());
+			}
+			List<Permission> permissions = pickSome(PERMISSIONS, random);
+			List<Sid> sids = pickSome(SIDS, random);
+			boolean administrativeMode = random.nextInt(4) == 0;
+
+			assertEquals(decide(reference, acl, permissions, sids, administrativeMode),
+					decide(underTest, acl, permissions, sids, administrativeMode));
+			assertEquals(decide(reference, acl, permissions, sids, administrativeMode),
+					decide(underTest, acl.snapshot(), permissions, sids, administrativeMode));
+		}
+		assertEquals(defaultLog.entries, compiledLog.entries);
+	}
+
+	@Test
+	public void changesToTheEntriesAreSeenByLaterDecisions() {
+		SimpleAcl acl = createAcl(1L);
+		List<Sid> sids = SIDS.subList(0, 1);
+		List<Permission> read = Arrays.<Permission> asList(BasePermission.READ);
+		acl.insertAce(0, BasePermission.READ, sids.get(0), false);
+		assertFalse(underTest.isGranted(acl, read, sids, true));
+
+		acl.insertAce(0, BasePermission.READ, sids.get(0), true);
+		assertTrue(underTest.isGranted(acl, read, sids, true));
+
+		acl.deleteAce(0);
+		assertFalse(underTest.isGranted(acl, read, sids, true));
+
+		acl.updateAce(0, BasePermission.WRITE);
+		assertEquals("not found", decide(underTest, acl, read, sids, true));
+	}
+
+	@Test
+	public void otherAclsAreEvaluatedByTheDefaultStrategy() {
+		Acl acl = Mockito.mock(Acl.class);
+		Mockito.when(acl.getEntries()).thenReturn(new ArrayList<AccessControlEntry>());
+
+		assertEquals("not found", decide(underTest, acl, PERMISSIONS, SIDS, false));
+		Mockito.verify(acl).getEntries();
+	}
+
+	private String decide(final PermissionGrantingStrategy strategy, final Acl acl, final List<Permission> permissions, final List<Sid> sids, final boolean administrativeMode) {
+		RecordingAuditLogger log = strategy == reference ? defaultLog : compiledLog;
+		int logged = log.entries.size();
+		String decision;
+		try
+		{
+			decision = String.valueOf(strategy.isGranted(acl, permissions, sids, administrativeMode));
+		}
+		catch (NotFoundException e)
+		{
+			decision = "not found";
+		}
+		// include the audited entry so that auditing is compared along with the decision
+		return log.entries.size() > logged ? decision + " " + log.entries.get(logged) : decision;
+	}
+
+	private SimpleAcl createAcl(final long id) {
+		return new SimpleAcl(new ObjectIdentityImpl(CompiledPermissionGrantingStrategyTest.class, id), new PrincipalSid(
+				"owner"), new ArrayList<AccessControlEntry>(), null, util);
+	}
+
+	private static <T> T pick(final List<T> values, final Random random) {
+		return values.get(random.nextInt(values.size()));
+	}
+
+	private static <T> List<T> pickSome(final List<T> values, final Random random) {
+		List<T> toReturn = new ArrayList<T>();
+		int count = 1 + random.nextInt(values.size());
+		for (int i = 0; i < count; i++)
+		{
+			T value = pick(values, random);
+			if (!toReturn.contains(value))
+			{
+				toReturn.add(value);
+			}
+		}
+		return toReturn;
+	}
+
+	private static class RecordingAuditLogger implements AuditLogger {
+
+		private final List<String> entries = new ArrayList<String>();
+
+		@Override
+		public void logIfNeeded(final boolean granted, final AccessControlEntry ace) {
+			entries.add(granted + " " + ace.getSid() + " " + ace.getPermission().getMask() + " " + ace.isGranting());
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+package org.springframework.security.acls.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import net.projectmonkey.spring.acl.util.ACLUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.UnloadedSidException;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+public class SimpleAclSnapshotTest {
+
+	private final Sid sid = new PrincipalSid("principal");
+	private final ACLUtil util = Mockito.mock(ACLUtil.class);
+	private SimpleAcl acl;
+	private SimpleAclSnapshot underTest;
+
+	@Before
+	public void setUp() {
+		acl = new SimpleAcl(new ObjectIdentityImpl(SimpleAclSnapshotTest.class, 1L), new PrincipalSid("owner"),
+				new ArrayList<AccessControlEntry>(), null, util);
+		acl.insertGrantedPermissions(sid, BasePermission.READ, BasePermission.WRITE);
+		underTest = acl.snapshot();
+	}
+
+	@Test
+	public void snapshotsAreEqualToTheAclTheyWereTakenFrom() {
+		assertEquals(acl, underTest);
+		assertEquals(underTest, acl);
+		assertEquals(acl.hashCode(), underTest.hashCode());
+		assertEquals(acl.getEntries(), underTest.getEntries());
+	}
+
+	@Test
+	public void entriesAreMaterializedOnRequestAndBelongToTheSnapshot() {
+		assertEquals(underTest.getEntries(), underTest.getEntries());
+		assertSame(underTest, underTest.getEntries().get(0).getAcl());
+	}
+
+	@Test
+	public void requestedSidsAreCheckedAgainstTheLoadedSids() {
+		List<Sid> loadedSids = new ArrayList<Sid>();
+		for (int i = 0; i < 300; i++)
+		{
+			loadedSids.add(new PrincipalSid("principal" + i));
+		}
+		SimpleAclSnapshot partial = new SimpleAcl(acl.getObjectIdentity(), acl.getOwner(),
+				new ArrayList<AccessControlEntry>(), loadedSids, util).snapshot();
+
+		assertTrue(partial.isSidLoaded(Arrays.asList((Sid) new PrincipalSid("principal299"), new PrincipalSid("principal0"))));
+		assertFalse(partial.isSidLoaded(Arrays.asList((Sid) new PrincipalSid("principal0"), new PrincipalSid("other"))));
+		try
+		{
+			partial.isGranted(Arrays.asList(BasePermission.READ), Arrays.<Sid> asList(new PrincipalSid("other")), false);
+			fail("expected UnloadedSidException");
+		}
+		catch (UnloadedSidException e)
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void entriesAreCountedWithoutBeingMaterialized() {
+		assertEquals(2, underTest.getEntryCount());
+		assertEquals(2, acl.getEntryCount());
+	}
+
+	@Test
+	public void entryIdsAndAuditingFlagsAreRetained() {
+		acl.insertAce(UUID.randomUUID(), 0, BasePermission.CREATE, new GrantedAuthoritySid("ROLE_USER"), false);
+		acl.insertAce(0, BasePermission.READ, sid, true);
+		((AccessControlEntryImpl) acl.getEntries().get(0)).setAuditSuccess(true);
+		((AccessControlEntryImpl) acl.getEntries().get(1)).setAuditFailure(true);
+
+		List<AccessControlEntry> entries = acl.snapshot().getEntries();
+
+		assertEquals(acl.getEntries(), entries);
+		assertTrue(((AccessControlEntryImpl) entries.get(0)).isAuditSuccess());
+		assertTrue(((AccessControlEntryImpl) entries.get(1)).isAuditFailure());
+		assertEquals(acl.getEntries().get(1).getId(), entries.get(1).getId());
+		assertNull(entries.get(0).getId());
+	}
+
+	@Test
+	public void auditedMasksAreReportedByTheAclAndTheSnapshot() {
+		acl.insertAce(0, BasePermission.CREATE, sid, true);
+		((AccessControlEntryImpl) acl.getEntries().get(0)).setAuditFailure(true);
+
+		SimpleAclSnapshot snapshot = acl.snapshot();
+
+		assertTrue(acl.isAudited(BasePermission.CREATE.getMask()));
+		assertTrue(snapshot.isAudited(BasePermission.CREATE.getMask()));
+		assertFalse(acl.isAudited(BasePermission.READ.getMask()));
+		assertFalse(snapshot.isAudited(BasePermission.READ.getMask()));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void entriesCannotBeModified() {
+		underTest.getEntries().remove(0);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void aclCannotBeModified() {
+		underTest.insertAce(0, BasePermission.READ, sid, true);
+	}
+
+	@Test
+	public void laterChangesToTheAclAreNotVisibleInTheSnapshot() {
+		acl.deleteAce(0);
+
+		assertEquals(2, underTest.getEntries().size());
+		assertFalse(acl.equals(underTest));
+	}
+
+	@Test
+	public void mutableCopiesCanBeChangedWithoutAffectingTheSnapshot() {
+		SimpleAcl copy = underTest.mutableCopy();
+		assertEquals(underTest, copy);
+		assertSame(copy, copy.getEntries().get(0).getAcl());
+
+		copy.updateAce(0, BasePermission.DELETE);
+
+		assertEquals(BasePermission.READ, underTest.getEntries().get(0).getPermission());
+		assertEquals(BasePermission.DELETE, copy.getEntries().get(0).getPermission());
+	}
+
+	@Test
+	public void grantingIsDelegatedToTheUtil() {
+		List<Permission> permissions = Arrays.<Permission> asList(BasePermission.READ);
+		List<Sid> sids = Arrays.asList(sid);
+		Mockito.when(util.isGranted(underTest, permissions, sids, false)).thenReturn(true);
+
+		assertTrue(underTest.isGranted(permissions, sids, false));
+	}
+
+}
@@ -115,6 +115,37 @@ public class SimpleAclTest {
 		assertFalse(returned);
 	}
 	
+	@Test
+	public void loadedSidsAreCopiedOnConstruction(){
+		loadedSids.add(owner);
+
+		assertFalse(underTest.isSidLoaded(Arrays.asList(someSid, owner)));
+		assertEquals(new SimpleAcl(identity, owner, entries, Arrays.asList(someSid), util), underTest);
+	}
+
+	@Test
+	public void entriesAreCopiedOnConstruction(){
+		entries.add(Mockito.mock(AccessControlEntry.class));
+
+		assertEquals(Arrays.asList(entry), underTest.getEntries());
+	}
+
+	@Test
+	public void entriesAreBuiltWithTheAclUnderConstruction(){
+		final List<AccessControlEntry> built = new ArrayList<AccessControlEntry>();
+		underTest = new SimpleAcl(identity, owner, new SimpleAcl.EntryBuilder() {
+			@Override
+			public List<AccessControlEntry> build(final SimpleAcl acl) {
+				built.add(new AccessControlEntryImpl(1L, acl, someSid, ADMINISTRATION, true, false, false));
+				return built;
+			}
+		}, loadedSids, util);
+		built.add(entry);
+
+		assertEquals(1, underTest.getEntries().size());
+		assertTrue(underTest.getEntries().get(0).getAcl() == underTest);
+	}
+
 	@Test
 	public void isSidLoadedReturnsTrueIfLoadedSidsIsNull(){
 		underTest = new SimpleAcl(identity, owner, entries, null, util);
@@ -150,9 +181,15 @@ public class SimpleAclTest {
 	}
 	
 	@Test
-	public void updateAce(){
+	public void updateAceReplacesTheEntry(){
+		Mockito.when(entry.getSid()).thenReturn(someSid);
+		Mockito.when(entry.isGranting()).thenReturn(true);
 		underTest.updateAce(0, ADMINISTRATION);
-		Mockito.verify(entry).setPermission(ADMINISTRATION);
+
+		AccessControlEntry updated = underTest.getEntries().get(0);
+		assertCreatedEntry(updated);
+		assertTrue(updated.isGranting());
+		Mockito.verify(entry, Mockito.never()).setPermission(ADMINISTRATION);
 	}
 
 	@Test(expected=NotFoundException.class)
@@ -200,16 +237,16 @@ public class SimpleAclTest {
 	public void insertAceWhenRequestedIndexIsEqualToTheNumberOfEntries(){
 		underTest.insertAce(1, ADMINISTRATION, someSid, true);
 		
-		assertEquals(2, entries.size());
-		assertCreatedEntry(entries.get(1));
+		assertEquals(2, underTest.getEntries().size());
+		assertCreatedEntry(underTest.getEntries().get(1));
 	}
 	
 	@Test
 	public void insertAceWhenRequestedIndexIsLessThanTheNumberOfEntries(){
 		underTest.insertAce(0, ADMINISTRATION, someSid, true);
 		
-		assertEquals(2, entries.size());
-		assertCreatedEntry(entries.get(0));
+		assertEquals(2, underTest.getEntries().size());
+		assertCreatedEntry(underTest.getEntries().get(0));
 	}
 
 	private void assertCreatedEntry(final AccessControlEntry newEntry) {
@@ -221,7 +258,18 @@ public class SimpleAclTest {
 	@Test
 	public void deleteAce(){
 		underTest.deleteAce(0);
-		assertTrue(entries.isEmpty());
+		assertTrue(underTest.getEntries().isEmpty());
+	}
+
+	@Test
+	public void entriesReadBeforeAChangeAreUnaffectedByIt(){
+		List<AccessControlEntry> before = underTest.getEntries();
+		underTest.insertAce(0, ADMINISTRATION, someSid, true);
+		underTest.deleteAce(1);
+
+		assertEquals(1, before.size());
+		assertEquals(entry, before.get(0));
+		assertCreatedEntry(underTest.getEntries().get(0));
 	}
 
 }
@@ -0,0 +1,51 @@
+package net.projectmonkey.spring.acl.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * {@link AclCache} able to read and write many acls in a single operation, so
+ * that caches held remotely or off the heap pay their access cost once per
+ * batch rather than once per acl.
+ *
+ * The repositories in this project use these methods when their cache
+ * implements this interface, see AclCacheUtil in the persistence module. The
+ * interface is held here so that caches wrapping another cache, such as the
+ * decision cache's invalidating wrapper, can pass batches on.
+ *
+ * @author Andy Moody
+ */
+public interface BatchAclCache extends AclCache {
+
+	/**
+	 * @param identities the identities to look up
+	 * @return the cached acls mapped by identity, identities without a cached acl are omitted
+	 */
+	Map<ObjectIdentity, MutableAcl> getAllFromCache(Collection<ObjectIdentity> identities);
+
+	/**
+	 * @param acls the acls to cache
+	 */
+	void putAllInCache(Collection<? extends MutableAcl> acls);
+
+}
@@ -0,0 +1,36 @@
+package net.projectmonkey.spring.acl.entity;
+
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * {@link Acl} able to tell whether any of its entries are audited without
+ * creating its entries, as {@link Acl#getEntries()} may do on every call.
+ *
+ * @author Andy Moody
+ */
+public interface AuditAwareAcl extends Acl {
+
+	/**
+	 * @param mask the mask of a permission
+	 * @return true if any {@link AuditableAccessControlEntry} with exactly the mask audits success or failure
+	 */
+	boolean isAudited(int mask);
+
+}
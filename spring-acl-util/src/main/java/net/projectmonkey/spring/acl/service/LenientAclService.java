@@ -0,0 +1,46 @@
+package net.projectmonkey.spring.acl.service;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+
+/*
+	Copyright 2012 Andy Moody
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+	    http://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+/**
+ * {@link AclService} able to read the acls of a batch of objects of which only
+ * some have an acl, without failing the whole read with a {@link NotFoundException}.
+ *
+ * @author Andy Moody
+ */
+public interface LenientAclService extends AclService {
+
+	/**
+	 * Reads the acls of the objects which have one, objects without an acl are
+	 * omitted from the returned map.
+	 *
+	 * @param objects the identities to read the acls of
+	 * @param sids the sids to read the acls for, may be null
+	 * @return map of the identities with an acl against their acl
+	 */
+	Map<ObjectIdentity, Acl> readExistingAclsById(List<ObjectIdentity> objects, List<Sid> sids);
+
+}